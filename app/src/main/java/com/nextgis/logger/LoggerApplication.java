@@ -33,6 +33,7 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
@@ -41,8 +42,12 @@ import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
+import com.nextgis.logger.engines.AudioEngine;
+import com.nextgis.logger.util.DatabaseUtil;
 import com.nextgis.logger.util.LoggerConstants;
 import com.nextgis.logger.util.LoggerVectorLayer;
+import com.nextgis.logger.util.SchemaMigration;
+import com.nextgis.logger.util.SessionStats;
 import com.nextgis.maplib.api.IGISApplication;
 import com.nextgis.maplib.api.ILayer;
 import com.nextgis.maplib.datasource.Field;
@@ -90,6 +95,11 @@ public class LoggerApplication extends Application implements IGISApplication {
     public static final String TABLE_CELL = "data_cell";
     public static final String TABLE_SENSOR = "data_sensor";
     public static final String TABLE_EXTERNAL = "data_external";
+    public static final String TABLE_SENSOR_RAW = "data_sensor_raw";
+    public static final String TABLE_CELL_DICT = "data_cell_dict";
+    public static final String TABLE_CELL_OBS = "data_cell_obs";
+    public static final String TABLE_CELL_EVENT = "data_cell_event";
+    public static final String TABLE_COVERAGE = "data_coverage";
 
     public static final String FIELD_NAME = "name";
     public static final String FIELD_USER = "user";
@@ -101,6 +111,31 @@ public class LoggerApplication extends Application implements IGISApplication {
     public static final String FIELD_DATETIME = "datetime";
     public static final String FIELD_MARK = "mark";
     public static final String FIELD_DATA = "data";
+    public static final String FIELD_SENSOR = "sensor";
+    public static final String FIELD_COUNT = "count";
+    public static final String FIELD_TS_FIRST = "ts_first";
+    public static final String FIELD_TS_LAST = "ts_last";
+    public static final String FIELD_TS = "ts";
+    public static final String FIELD_X = "x";
+    public static final String FIELD_Y = "y";
+    public static final String FIELD_Z = "z";
+    public static final String FIELD_ANCHOR_TIME = "anchor_time";
+    public static final String FIELD_ANCHOR_TS = "anchor_ts";
+    public static final String FIELD_RECORDS_COUNT = "records_count";
+    public static final String FIELD_MARKS_COUNT = "marks_count";
+    public static final String FIELD_BYTES = "bytes";
+    public static final String FIELD_CELL = "cell";
+    public static final String FIELD_KEYFRAME = "keyframe";
+    public static final String FIELD_EVENT = "event";
+    public static final String FIELD_THRESHOLD = "threshold";
+    public static final String FIELD_PREVIOUS = "previous";
+    public static final String FIELD_ZOOM = "zoom";
+    public static final String FIELD_TILE_X = "tile_x";
+    public static final String FIELD_TILE_Y = "tile_y";
+    public static final String FIELD_MIN = "min";
+    public static final String FIELD_MAX = "max";
+    public static final String FIELD_SUM = "sum";
+    public static final String FIELD_LAST = "last";
 
     private static LoggerApplication mApplication;
 
@@ -121,6 +156,7 @@ public class LoggerApplication extends Application implements IGISApplication {
 
         getMap();
         checkLayers();
+        checkTables();
         updateFromPrevious();
 
         if (mSharedPreferences.getBoolean(PREF_AUTO_SYNC, true)) {
@@ -331,6 +367,57 @@ public class LoggerApplication extends Application implements IGISApplication {
 
     }
 
+    /**
+     * Create plain tables which are not map layers and indexes of all tables
+     */
+    protected void checkTables() {
+        SQLiteDatabase db = mMap.getDatabase(false);
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_SENSOR_RAW + " (" + Constants.FIELD_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                           FIELD_SESSION + " TEXT, " + FIELD_SENSOR + " INTEGER, " + FIELD_COUNT + " INTEGER, " + FIELD_TS_FIRST + " INTEGER, " +
+                           FIELD_TS_LAST + " INTEGER, " + FIELD_TS + " BLOB, " + FIELD_X + " BLOB, " + FIELD_Y + " BLOB, " + FIELD_Z + " BLOB)");
+        DatabaseUtil.addColumn(db, TABLE_SENSOR_RAW, FIELD_ANCHOR_TIME, "INTEGER");
+        DatabaseUtil.addColumn(db, TABLE_SENSOR_RAW, FIELD_ANCHOR_TS, "INTEGER");
+
+        // cells are interned to dictionary, log keeps only changes of their state
+        String identity = "\"" + LoggerConstants.HEADER_GEN + "\" TEXT, \"" + LoggerConstants.HEADER_TYPE + "\" TEXT, \"" + LoggerConstants.HEADER_MCC +
+                "\" INTEGER, \"" + LoggerConstants.HEADER_MNC + "\" INTEGER, \"" + LoggerConstants.HEADER_LAC + "\" INTEGER, \"" +
+                LoggerConstants.HEADER_CID + "\" INTEGER, \"" + LoggerConstants.HEADER_PSC + "\" INTEGER";
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_CELL_DICT + " (" + Constants.FIELD_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " + identity +
+                           ", UNIQUE (\"" + LoggerConstants.HEADER_GEN + "\", \"" + LoggerConstants.HEADER_TYPE + "\", \"" + LoggerConstants.HEADER_MCC +
+                           "\", \"" + LoggerConstants.HEADER_MNC + "\", \"" + LoggerConstants.HEADER_LAC + "\", \"" + LoggerConstants.HEADER_CID +
+                           "\", \"" + LoggerConstants.HEADER_PSC + "\"))");
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_CELL_OBS + " (" + Constants.FIELD_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                           FIELD_MARK + " TEXT, " + FIELD_CELL + " INTEGER, \"" + LoggerConstants.HEADER_ACTIVE + "\" INTEGER, \"" +
+                           LoggerConstants.HEADER_POWER + "\" INTEGER, " + FIELD_KEYFRAME + " INTEGER NOT NULL DEFAULT 0)");
+
+        // serving cell changes written as they happen, independently of marks
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_CELL_EVENT + " (" + Constants.FIELD_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                           FIELD_SESSION + " TEXT, " + FIELD_TIMESTAMP + " INTEGER, " + FIELD_EVENT + " TEXT, " + identity + ", \"" +
+                           LoggerConstants.HEADER_POWER + "\" INTEGER, " + FIELD_THRESHOLD + " INTEGER, " + FIELD_PREVIOUS + " TEXT)");
+
+        // signal statistics of cells per tile, unique key is used to merge increments
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_COVERAGE + " (" + Constants.FIELD_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                           FIELD_SESSION + " TEXT, " + FIELD_ZOOM + " INTEGER, " + FIELD_TILE_X + " INTEGER, " + FIELD_TILE_Y + " INTEGER, " +
+                           FIELD_CELL + " INTEGER, " + FIELD_COUNT + " INTEGER, " + FIELD_MIN + " INTEGER, " + FIELD_MAX + " INTEGER, " + FIELD_SUM +
+                           " INTEGER, " + FIELD_LAST + " INTEGER, " + FIELD_TS_LAST + " INTEGER, UNIQUE (" + FIELD_SESSION + ", " + FIELD_ZOOM + ", " +
+                           FIELD_TILE_X + ", " + FIELD_TILE_Y + ", " + FIELD_CELL + "))");
+
+        // session aggregates are local only, so they are not layer fields
+        DatabaseUtil.addColumn(db, TABLE_SESSION, FIELD_RECORDS_COUNT, "INTEGER NOT NULL DEFAULT 0");
+        DatabaseUtil.addColumn(db, TABLE_SESSION, FIELD_MARKS_COUNT, "INTEGER NOT NULL DEFAULT 0");
+        DatabaseUtil.addColumn(db, TABLE_SESSION, FIELD_TS_FIRST, "INTEGER");
+        DatabaseUtil.addColumn(db, TABLE_SESSION, FIELD_TS_LAST, "INTEGER");
+        DatabaseUtil.addColumn(db, TABLE_SESSION, FIELD_BYTES, "INTEGER NOT NULL DEFAULT 0");
+
+        // noise spectrum is optional and local only, so bands are not layer fields either
+        for (String column : AudioEngine.getSpectrumColumns())
+            DatabaseUtil.addColumn(db, TABLE_SENSOR, column, column.equals(LoggerConstants.HEADER_BANDS) ? "INTEGER" : "REAL");
+
+        DatabaseUtil.checkIndexes(db);
+        if (BuildConfig.DEBUG)
+            DatabaseUtil.logQueryPlans(db);
+    }
+
     protected void checkLayers() {
         ArrayList<Field> fields = new ArrayList<>();
         LoggerVectorLayer layer = (LoggerVectorLayer) mMap.getLayerByPathName(TABLE_SESSION);
@@ -359,6 +446,8 @@ public class LoggerApplication extends Application implements IGISApplication {
             layer.setAccountName("");
             mMap.addLayer(layer);
             mMap.save();
+        } else {
+            layer.checkCache(); // index saved by previous version is rebuilt once
         }
 
         layer = (LoggerVectorLayer) mMap.getLayerByPathName(TABLE_CELL);
@@ -367,13 +456,13 @@ public class LoggerApplication extends Application implements IGISApplication {
             fields.add(new Field(GeoConstants.FTString, FIELD_MARK, getString(R.string.btn_save_mark)));
             fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_GEN, getString(R.string.info_title_network)));
             fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_TYPE, getString(R.string.network_type)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_ACTIVE, getString(R.string.active)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_MCC, "MCC"));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_MNC, "MNC"));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_LAC, "LAC/TAC"));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_CID, "CID/PCI"));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_PSC, "PSC/CI"));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_POWER, "RSSI/RSRP"));
+            fields.add(new Field(GeoConstants.FTInteger, LoggerConstants.HEADER_ACTIVE, getString(R.string.active)));
+            fields.add(new Field(GeoConstants.FTInteger, LoggerConstants.HEADER_MCC, "MCC"));
+            fields.add(new Field(GeoConstants.FTInteger, LoggerConstants.HEADER_MNC, "MNC"));
+            fields.add(new Field(GeoConstants.FTInteger, LoggerConstants.HEADER_LAC, "LAC/TAC"));
+            fields.add(new Field(GeoConstants.FTInteger, LoggerConstants.HEADER_CID, "CID/PCI"));
+            fields.add(new Field(GeoConstants.FTInteger, LoggerConstants.HEADER_PSC, "PSC/CI"));
+            fields.add(new Field(GeoConstants.FTInteger, LoggerConstants.HEADER_POWER, "RSSI/RSRP"));
             layer = createEmptyVectorLayer(TABLE_CELL, R.string.info_title_network, fields);
             layer.setAccountName("");
             mMap.addLayer(layer);
@@ -384,30 +473,30 @@ public class LoggerApplication extends Application implements IGISApplication {
         if (layer == null) {
             fields.clear();
             fields.add(new Field(GeoConstants.FTString, FIELD_MARK, getString(R.string.btn_save_mark)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_ACC_X, getString(R.string.info_x)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_ACC_Y, getString(R.string.info_y)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_ACC_Z, getString(R.string.info_z)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_LINEAR_X, getString(R.string.info_x)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_LINEAR_Y, getString(R.string.info_y)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_LINEAR_Z, getString(R.string.info_z)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_AZIMUTH, getString(R.string.info_azimuth)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_PITCH, getString(R.string.info_pitch)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_ROLL, getString(R.string.info_roll)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_MAGNETIC_X, getString(R.string.info_x)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_MAGNETIC_Y, getString(R.string.info_y)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_MAGNETIC_Z, getString(R.string.info_z)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_GYRO_X, getString(R.string.info_x)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_GYRO_Y, getString(R.string.info_y)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_GYRO_Z, getString(R.string.info_z)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_GPS_LAT, getString(R.string.info_lat)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_GPS_LON, getString(R.string.info_lon)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_GPS_ALT, getString(R.string.info_ele)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_GPS_ACC, getString(R.string.info_acc)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_GPS_SP, getString(R.string.info_speed)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_GPS_BE, getString(R.string.info_bearing)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_GPS_SAT, getString(R.string.info_sat)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_GPS_TIME, getString(R.string.info_time)));
-            fields.add(new Field(GeoConstants.FTString, LoggerConstants.HEADER_AUDIO, getString(R.string.mic)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_ACC_X, getString(R.string.info_x)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_ACC_Y, getString(R.string.info_y)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_ACC_Z, getString(R.string.info_z)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_LINEAR_X, getString(R.string.info_x)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_LINEAR_Y, getString(R.string.info_y)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_LINEAR_Z, getString(R.string.info_z)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_AZIMUTH, getString(R.string.info_azimuth)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_PITCH, getString(R.string.info_pitch)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_ROLL, getString(R.string.info_roll)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_MAGNETIC_X, getString(R.string.info_x)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_MAGNETIC_Y, getString(R.string.info_y)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_MAGNETIC_Z, getString(R.string.info_z)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_GYRO_X, getString(R.string.info_x)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_GYRO_Y, getString(R.string.info_y)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_GYRO_Z, getString(R.string.info_z)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_GPS_LAT, getString(R.string.info_lat)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_GPS_LON, getString(R.string.info_lon)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_GPS_ALT, getString(R.string.info_ele)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_GPS_ACC, getString(R.string.info_acc)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_GPS_SP, getString(R.string.info_speed)));
+            fields.add(new Field(GeoConstants.FTReal, LoggerConstants.HEADER_GPS_BE, getString(R.string.info_bearing)));
+            fields.add(new Field(GeoConstants.FTInteger, LoggerConstants.HEADER_GPS_SAT, getString(R.string.info_sat)));
+            fields.add(new Field(GeoConstants.FTInteger, LoggerConstants.HEADER_GPS_TIME, getString(R.string.info_time)));
+            fields.add(new Field(GeoConstants.FTInteger, LoggerConstants.HEADER_AUDIO, getString(R.string.mic)));
             layer = createEmptyVectorLayer(TABLE_SENSOR, R.string.info_title_sensors, fields);
             layer.setAccountName("");
             mMap.addLayer(layer);
@@ -427,8 +516,12 @@ public class LoggerApplication extends Application implements IGISApplication {
     }
 
     public LoggerVectorLayer createEmptyVectorLayer(String layerPath, int layerName, List<Field> fields) {
+        return createEmptyVectorLayer(layerPath, getString(layerName), fields);
+    }
+
+    public LoggerVectorLayer createEmptyVectorLayer(String layerPath, String layerName, List<Field> fields) {
         LoggerVectorLayer layer = new LoggerVectorLayer(this, mMap.createLayerStorage(layerPath));
-        layer.setName(getString(layerName));
+        layer.setName(layerName);
         layer.create(GeoConstants.GTPoint, fields);
         return layer;
     }
@@ -508,5 +601,19 @@ public class LoggerApplication extends Application implements IGISApplication {
             if (savedVersionCode < currentVersionCode)
                 mSharedPreferences.edit().putInt(LoggerConstants.PREF_APP_VERSION, currentVersionCode).apply();
         } catch (PackageManager.NameNotFoundException ignored) { }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (!SchemaMigration.isDone(mSharedPreferences))
+                    new SchemaMigration(LoggerApplication.this, mSharedPreferences).run();
+
+                // stats are written with rows, so they can only drift if logging was killed or saved by previous version
+                if (mSharedPreferences.getBoolean(LoggerConstants.PREF_STATS_DIRTY, true)) {
+                    mSharedPreferences.edit().putBoolean(LoggerConstants.PREF_STATS_DIRTY, false).commit();
+                    SessionStats.repair(mMap.getDatabase(false));
+                }
+            }
+        }, "LoggerMaintenance").start();
     }
 }
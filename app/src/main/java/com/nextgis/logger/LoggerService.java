@@ -27,9 +27,9 @@ import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.ContentValues;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
@@ -42,15 +42,22 @@ import android.support.v4.app.NotificationCompat;
 import com.nextgis.logger.engines.ArduinoEngine;
 import com.nextgis.logger.engines.BaseEngine;
 import com.nextgis.logger.engines.CellEngine;
+import com.nextgis.logger.engines.ChangeFilter;
 import com.nextgis.logger.engines.GPSEngine;
+import com.nextgis.logger.engines.InfoItem;
 import com.nextgis.logger.engines.SensorEngine;
 import com.nextgis.logger.ui.activity.MainActivity;
+import com.nextgis.logger.util.BatchWriter;
 import com.nextgis.logger.util.LoggerConstants;
+import com.nextgis.logger.util.SessionStats;
+import com.nextgis.logger.util.TickScheduler;
 import com.nextgis.maplib.api.IGISApplication;
-import com.nextgis.maplib.datasource.GeoPoint;
 import com.nextgis.maplib.map.MapBase;
 import com.nextgis.maplib.map.MapContentProviderHelper;
 
+import java.util.Collections;
+import java.util.List;
+
 import static com.nextgis.logger.ui.activity.MainActivity.getSessionName;
 
 public class LoggerService extends Service implements ArduinoEngine.ConnectionListener {
@@ -59,13 +66,17 @@ public class LoggerService extends Service implements ArduinoEngine.ConnectionLi
     private ArduinoEngine mArduinoEngine;
     private SensorEngine mSensorEngine;
     private CellEngine mGsmEngine;
-    private Thread mThread = null;
+    private volatile Thread mThread = null;
+    private volatile BatchWriter mWriter;
     private NotificationManager mNotificationManager;
     private SharedPreferences mPreferences;
 
     private volatile boolean mIsRunning = false;
     private int mRecordsCount;
     private int mInterval = 1;
+    private int mIntervalMs = 0;
+    private boolean mCatchUp = false;
+    private boolean mAdaptive = false;
     private int mBinders;
     private String mSessionId;
     private Uri mUri;
@@ -117,11 +128,11 @@ public class LoggerService extends Service implements ArduinoEngine.ConnectionLi
                 stopForeground(true);
                 mIsRunning = false;
 
-                if (mThread != null)
-                    mThread.interrupt();
+                Thread thread = mThread;
+                if (thread != null)
+                    thread.interrupt();
 
                 if (mBinders == 0) {
-                    mThread = null;
                     stopSelf();
                     return START_NOT_STICKY;
                 }
@@ -130,6 +141,9 @@ public class LoggerService extends Service implements ArduinoEngine.ConnectionLi
             case LoggerConstants.ACTION_START:
                 if (!mIsRunning) {
                     mInterval = mPreferences.getInt(LoggerConstants.PREF_PERIOD_SEC, mInterval);
+                    mIntervalMs = mPreferences.getInt(LoggerConstants.PREF_PERIOD_MS, mIntervalMs);
+                    mCatchUp = mPreferences.getBoolean(LoggerConstants.PREF_PERIOD_CATCH_UP, mCatchUp);
+                    mAdaptive = mPreferences.getBoolean(LoggerConstants.PREF_ADAPTIVE, mAdaptive);
                     mSessionId = mPreferences.getString(LoggerConstants.PREF_SESSION_ID, null);
                     if (mSessionId == null) {
                         Intent intentStatus = new Intent(LoggerConstants.ACTION_INFO);
@@ -138,7 +152,6 @@ public class LoggerService extends Service implements ArduinoEngine.ConnectionLi
                         stopSelf();
                         return START_NOT_STICKY;
                     } else {
-                        mIsRunning = true;
                         mRecordsCount = getRecordsCount();
                         sendNotification();
                         startMeasuring();
@@ -154,31 +167,47 @@ public class LoggerService extends Service implements ArduinoEngine.ConnectionLi
     }
 
     private int getRecordsCount() {
-        int result = 0;
         SQLiteDatabase db = ((MapContentProviderHelper) MapBase.getInstance()).getDatabase(true);
-        Cursor count = db.rawQuery("SELECT COUNT(*) FROM " + LoggerApplication.TABLE_MARK + " WHERE " + LoggerApplication.FIELD_MARK_ID + " = -1 AND " +
-                                           LoggerApplication.FIELD_SESSION + " = ?;", new String[]{mSessionId});
-
-        if (count != null) {
-            if (count.moveToFirst())
-                result = count.getInt(0);
-
-            count.close();
-        }
-
-        return result;
+        SessionStats stats = SessionStats.get(db, mSessionId);
+        return stats == null ? 0 : (int) stats.getRecordsCount();
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
 
+        stopMeasuring();
         mGsmEngine.onPause();
         mSensorEngine.onPause();
         mArduinoEngine.removeConnectionListener(this);
         mArduinoEngine.onPause();
     }
 
+    /**
+     * Stop measuring thread. It stops captures and closes writer itself when it leaves the loop,
+     * last commit is waited for in background, so the main thread is not blocked by it.
+     */
+    private synchronized void stopMeasuring() {
+        final Thread thread = mThread;
+        final BatchWriter writer = mWriter;
+        mIsRunning = false;
+        mThread = null;
+        if (thread == null)
+            return;
+
+        thread.interrupt();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    thread.join();
+                } catch (InterruptedException ignored) { }
+
+                writer.close(); // no-op if measuring thread has closed it already
+            }
+        }, "LoggerShutdown").start();
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         mBinders++;
@@ -212,10 +241,28 @@ public class LoggerService extends Service implements ArduinoEngine.ConnectionLi
         startForeground(ID_MEASURING, notification);
     }
 
-    private void startMeasuring() {
+    /**
+     * Start new measuring thread with its own writer. Previous thread may be still
+     * finishing after stop, the new one waits for it before touching engines.
+     */
+    private synchronized void startMeasuring() {
         mPreferences.edit().putBoolean(LoggerConstants.PREF_MEASURING, true).apply();
+        mIsRunning = true;
+        final Thread previous = mThread;
+        final BatchWriter writer = new BatchWriter(LoggerConstants.BATCH_TICKS, LoggerConstants.BATCH_DELAY, LoggerConstants.BATCH_CAPACITY);
+        mWriter = writer;
         mThread = new Thread(new Runnable() {
             public void run() {
+                if (previous != null) {
+                    previous.interrupt();
+                    try {
+                        previous.join();
+                    } catch (InterruptedException e) {
+                        onMeasuringFinished();
+                        return;
+                    }
+                }
+
                 Intent intentStatus = new Intent(LoggerConstants.ACTION_INFO);
                 intentStatus.putExtra(LoggerConstants.SERVICE_STATUS, LoggerConstants.STATUS_STARTED)
                             .putExtra(LoggerConstants.PREF_TIME_START, System.currentTimeMillis());
@@ -224,56 +271,129 @@ public class LoggerService extends Service implements ArduinoEngine.ConnectionLi
                 PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
                 PowerManager.WakeLock wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "GSMLoggerWakeLock");
                 wakeLock.acquire();
+                writer.start();
+                mPreferences.edit().putBoolean(LoggerConstants.PREF_STATS_DIRTY, true).commit(); // cleared after last commit
+                mGsmEngine.resetLog();
+                mSensorEngine.getAudioEngine().resetLevels();
+                mGsmEngine.startEvents(mSessionId);
+                mGsmEngine.startCoverage(mSessionId);
+                if (mSensorEngine.isEngineEnabled()) {
+                    mSensorEngine.startRawCapture(mSessionId);
+                    mSensorEngine.getGPSEngine().startCapture(mSessionId);
+                }
+
+                if (mArduinoEngine.isEngineEnabled())
+                    mArduinoEngine.startFramesCapture();
+
+                long period = mIntervalMs > 0 ? mIntervalMs : mInterval * 1000;
+                TickScheduler.Policy policy = mCatchUp ? TickScheduler.Policy.CATCH_UP : TickScheduler.Policy.SKIP;
+                TickScheduler scheduler = new TickScheduler(TickScheduler.SYSTEM_CLOCK, period, policy);
+                long origin = System.currentTimeMillis() - TickScheduler.SYSTEM_CLOCK.now(); // scheduler time to wall clock
+                ChangeFilter filter = mAdaptive ? ChangeFilter.fromPreferences(mPreferences) : null;
+                long dropped = 0;
 
                 while (isRunning()) {
                     try {
-                        GeoPoint point = GPSEngine.getFix(mSensorEngine.getData());
-                        String markId = BaseEngine.saveMark(mUri, mSessionId, -1, LoggerConstants.LOG_UID, System.currentTimeMillis(), point);
-
-                        if (!isRunning()) {
-                            BaseEngine.deleteMark(mUri, markId);
+                        long now = origin + scheduler.awaitTick(); // actual time the snapshot is taken at
+                        if (!isRunning())
                             break;
-                        }
 
-                        mGsmEngine.saveData(markId);
+                        GPSEngine.Fix fix = mSensorEngine.isEngineEnabled() ? mSensorEngine.getGPSEngine().getFix() : GPSEngine.NO_FIX;
+                        List<InfoItem> sensors = SensorEngine.withFix(mSensorEngine.getSnapshot(), fix);
+                        BatchWriter.Batch batch = new BatchWriter.Batch();
+                        mGsmEngine.addCoverage(batch, fix, now, Math.max(2 * period, LoggerConstants.COVERAGE_FIX_AGE));
 
-                        if (mSensorEngine.isEngineEnabled())
-                            mSensorEngine.saveData(markId);
+                        List<InfoItem> externals = mArduinoEngine.isEngineEnabled() ? mArduinoEngine.getSnapshot()
+                                                                                    : Collections.<InfoItem>emptyList();
+                        boolean isAccepted = filter == null || filter.accept(now, mGsmEngine.getSnapshot(), sensors, externals);
+                        if (isAccepted) {
+                            ContentValues mark = BaseEngine.getMarkValues(mSessionId, -1, LoggerConstants.LOG_UID, now, fix.getBlob());
+                            String markId = mark.getAsString(LoggerApplication.FIELD_UNIQUE_ID);
 
-                        if (mArduinoEngine.isEngineEnabled())
-                            mArduinoEngine.saveData(markId);
+                            batch.add(mUri, mark);
+                            mGsmEngine.addLogRows(batch, markId);
+
+                            if (mSensorEngine.isEngineEnabled())
+                                mSensorEngine.addLogRows(batch, sensors, markId);
+
+                            if (mArduinoEngine.isEngineEnabled())
+                                mArduinoEngine.addLogRows(batch, markId);
+                        }
 
                         if (!isRunning())
                             break;
 
+                        if (!batch.isEmpty() && !writer.enqueue(batch)) // coverage merge may come without mark
+                            break;
+
+                        if (writer.getDroppedRowsCount() > dropped) { // cells are delta encoded, restore state with keyframe
+                            dropped = writer.getDroppedRowsCount();
+                            mGsmEngine.resetLog();
+                        }
+
+                        if (isAccepted)
+                            mRecordsCount++;
+
+                        if (filter != null)
+                            intentStatus.putExtra(LoggerConstants.TICK_SUPPRESSED, filter.getSuppressedCount())
+                                        .putExtra(LoggerConstants.TICK_SUPPRESSION_RATIO, filter.getSuppressionRatio());
+
                         intentStatus.putExtra(LoggerConstants.SERVICE_STATUS, LoggerConstants.STATUS_RUNNING)
-                                    .putExtra(LoggerConstants.PREF_RECORDS_COUNT, ++mRecordsCount);
+                                    .putExtra(LoggerConstants.PREF_RECORDS_COUNT, mRecordsCount)
+                                    .putExtra(LoggerConstants.BATCH_ROWS_PER_COMMIT, writer.getLastRowsPerCommit())
+                                    .putExtra(LoggerConstants.BATCH_COMMIT_LATENCY, writer.getAverageCommitLatency())
+                                    .putExtra(LoggerConstants.BATCH_COMMIT_LATENCY_MAX, writer.getMaxCommitLatency())
+                                    .putExtra(LoggerConstants.BATCH_ROWS_DROPPED, writer.getDroppedRowsCount())
+                                    .putExtra(LoggerConstants.EXTERNAL_FRAMES_DROPPED, mArduinoEngine.getDroppedFramesCount())
+                                    .putExtra(LoggerConstants.TICK_JITTER, scheduler.getLastJitter())
+                                    .putExtra(LoggerConstants.TICK_JITTER_MAX, scheduler.getMaxJitter())
+                                    .putExtra(LoggerConstants.TICK_OVERRUNS, scheduler.getOverrunsCount())
+                                    .putExtra(LoggerConstants.TICK_SKIPPED, scheduler.getSkippedCount())
+                                    .putExtra(LoggerConstants.SPECTRUM_CPU_LOAD, mSensorEngine.getAudioEngine().getSpectrumCpuLoad());
                         sendBroadcast(intentStatus);
-                        Thread.sleep(mInterval * 1000);
                     } catch (InterruptedException e) {
                         break;
                     }
                 }
 
-                mIsRunning = false;
+                mSensorEngine.stopRawCapture();
+                mSensorEngine.getGPSEngine().stopCapture();
+                mArduinoEngine.stopFramesCapture();
+                mGsmEngine.stopEvents();
+                writer.close();
+                mGsmEngine.stopCoverage(); // the rest of tiles is merged after queued ones
+                mPreferences.edit().putBoolean(LoggerConstants.PREF_STATS_DIRTY, false).apply();
+                onMeasuringFinished();
                 intentStatus.putExtra(LoggerConstants.SERVICE_STATUS, LoggerConstants.STATUS_FINISHED)
-                            .putExtra(LoggerConstants.PREF_TIME_FINISH, System.currentTimeMillis());
+                            .putExtra(LoggerConstants.PREF_TIME_FINISH, System.currentTimeMillis())
+                            .putExtra(LoggerConstants.BATCH_ROWS_DROPPED, writer.getDroppedRowsCount());
                 sendBroadcast(intentStatus);
 
                 wakeLock.release();
             }
 
             private boolean isRunning() {
-                return mThread != null && !mThread.isInterrupted() && mIsRunning;
+                return mThread == Thread.currentThread() && !Thread.currentThread().isInterrupted() && mIsRunning;
             }
         });
 
         mThread.start();
     }
 
+    /**
+     * Clear running state unless a newer measuring thread has been started already
+     */
+    private synchronized void onMeasuringFinished() {
+        if (mThread != Thread.currentThread())
+            return;
+
+        mIsRunning = false;
+        mThread = null;
+    }
+
     @Override
     public void onTimeoutOrFailure() {
-        mArduinoEngine.onResume();
+
     }
 
     @Override
@@ -283,6 +403,6 @@ public class LoggerService extends Service implements ArduinoEngine.ConnectionLi
 
     @Override
     public void onConnectionLost() {
-        mArduinoEngine.onResume();
+
     }
 }
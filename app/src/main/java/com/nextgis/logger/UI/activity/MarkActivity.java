@@ -23,6 +23,7 @@
 package com.nextgis.logger.ui.activity;
 
 import android.app.AlertDialog;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.graphics.Rect;
@@ -60,11 +61,12 @@ import com.nextgis.logger.R;
 import com.nextgis.logger.engines.BaseEngine;
 import com.nextgis.logger.engines.GPSEngine;
 import com.nextgis.logger.engines.InfoItem;
+import com.nextgis.logger.engines.SensorEngine;
+import com.nextgis.logger.util.BatchWriter;
 import com.nextgis.logger.util.FileUtil;
 import com.nextgis.logger.util.LoggerConstants;
 import com.nextgis.logger.util.MarkName;
 import com.nextgis.maplib.api.IGISApplication;
-import com.nextgis.maplib.datasource.GeoPoint;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -84,6 +86,7 @@ public class MarkActivity extends BindActivity implements View.OnClickListener {
 	private static final String BUNDLE_EXTERNAL = "data_external";
 	private static final String BUNDLE_SESSION  = "session";
 	private static final String BUNDLE_TIME     = "time";
+	private static final String BUNDLE_GEOMETRY = "geometry";
 	private static final String BUNDLE_ID       = "mark_id";
 	private static final String BUNDLE_NAME     = "mark_name";
 
@@ -272,6 +275,9 @@ public class MarkActivity extends BindActivity implements View.OnClickListener {
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
             case R.id.bt_lost:
+                if (mArduinoEngine != null)
+                    mArduinoEngine.reconnect();
+
                 if (mArduinoEngine != null && mArduinoEngine.isDeviceAvailable() && mArduinoEngine.isConnected())
                     mBtRetry.setVisible(false);
                 return true;
@@ -406,16 +412,22 @@ public class MarkActivity extends BindActivity implements View.OnClickListener {
         data.putInt(BUNDLE_ID, mark.getId());
         data.putString(BUNDLE_NAME, mark.getCat());
         data.putLong(BUNDLE_TIME, System.currentTimeMillis());
-        ArrayList<InfoItem> infoArray = mCellEngine != null ? mCellEngine.getData() : new ArrayList<InfoItem>();
+        // mark is saved after undo delay, so items are copied
+        ArrayList<InfoItem> infoArray = mCellEngine != null ? mCellEngine.copySnapshot() : new ArrayList<InfoItem>();
         data.putParcelableArrayList(BUNDLE_CELL, infoArray);
 
         // checking sensors state
-        if (mSensorEngine != null && mSensorEngine.isEngineEnabled())
-            data.putParcelableArrayList(BUNDLE_SENSOR, new ArrayList<>(mSensorEngine.getData()));
+        if (mSensorEngine != null && mSensorEngine.isEngineEnabled()) {
+            GPSEngine.Fix fix = mSensorEngine.getGPSEngine().getFix();
+            data.putParcelableArrayList(BUNDLE_SENSOR, SensorEngine.withFix(mSensorEngine.copySnapshot(), fix));
+            data.putByteArray(BUNDLE_GEOMETRY, fix.getBlob());
+        } else {
+            data.putByteArray(BUNDLE_GEOMETRY, GPSEngine.NO_FIX.getBlob());
+        }
 
         // checking external state
         if (mArduinoEngine != null && mArduinoEngine.isEngineEnabled())
-            data.putParcelableArrayList(BUNDLE_EXTERNAL, new ArrayList<>(mArduinoEngine.getData()));
+            data.putParcelableArrayList(BUNDLE_EXTERNAL, mArduinoEngine.copySnapshot());
 
         Vibrator vibe = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
         vibe.vibrate(100);
@@ -623,25 +635,27 @@ public class MarkActivity extends BindActivity implements View.OnClickListener {
                 case MARK_SAVE:
                     if (Math.abs(System.currentTimeMillis() - mUndoTimeStamp) >= DELAY) {
                         Bundle bundle = msg.getData();
-                        ArrayList<InfoItem> items = bundle.getParcelableArrayList(BUNDLE_SENSOR);
-                        GeoPoint point = GPSEngine.getFix(items);
                         String session = bundle.getString(BUNDLE_SESSION);
                         int markId = bundle.getInt(BUNDLE_ID);
                         String name = bundle.getString(BUNDLE_NAME);
                         long time = bundle.getLong(BUNDLE_TIME);
-                        String newMarkId = BaseEngine.saveMark(mUri, session, markId, name, time, point);
+                        ContentValues mark = BaseEngine.getMarkValues(session, markId, name, time, bundle.getByteArray(BUNDLE_GEOMETRY));
+                        String newMarkId = mark.getAsString(LoggerApplication.FIELD_UNIQUE_ID);
+                        BatchWriter.Batch batch = new BatchWriter.Batch().add(mUri, mark);
 
-                        items = bundle.getParcelableArrayList(BUNDLE_CELL);
-                        if (mCellEngine != null)
-                            mCellEngine.saveData(items, newMarkId);
+                        ArrayList<InfoItem> items = bundle.getParcelableArrayList(BUNDLE_CELL);
+                        if (items != null && mCellEngine != null)
+                            mCellEngine.addRows(batch, items, newMarkId);
 
                         items = bundle.getParcelableArrayList(BUNDLE_SENSOR);
                         if (items != null && mSensorEngine != null)
-                            mSensorEngine.saveData(items, newMarkId);
+                            batch.add(mSensorEngine.getUri(), mSensorEngine.getRows(items, newMarkId));
 
                         items = bundle.getParcelableArrayList(BUNDLE_EXTERNAL);
                         if (items != null && mArduinoEngine != null)
-                            mArduinoEngine.saveData(items, newMarkId);
+                            mArduinoEngine.addRows(batch, items, newMarkId);
+
+                        BatchWriter.write(batch);
 
                         mSavedMarkPosition = bundle.getInt(LoggerConstants.PREF_MARK_POS);
                         PreferenceManager.getDefaultSharedPreferences(mParent).edit().putInt(LoggerConstants.PREF_MARK_POS, mSavedMarkPosition).apply();
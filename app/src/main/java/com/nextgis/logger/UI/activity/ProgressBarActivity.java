@@ -61,6 +61,7 @@ import com.nextgis.logger.LoggerService;
 import com.nextgis.logger.R;
 import com.nextgis.logger.livedata.InfoActivity;
 import com.nextgis.logger.util.ApkDownloader;
+import com.nextgis.logger.util.ExternalSchema;
 import com.nextgis.logger.util.LoggerConstants;
 import com.nextgis.logger.util.LoggerVectorLayer;
 import com.nextgis.logger.util.UiUtil;
@@ -104,6 +105,11 @@ public class ProgressBarActivity extends FragmentActivity implements View.OnClic
         mLoggerServiceReceiver = new BroadcastReceiver() {
             public void onReceive(Context context, Intent intent) {
                 int serviceStatus = intent.getIntExtra(LoggerConstants.SERVICE_STATUS, 0);
+                if (LoggerConstants.ACTION_MIGRATION.equals(intent.getAction())) {
+                    showMigrationProgress(serviceStatus, intent);
+                    return;
+                }
+
                 switch (serviceStatus) {
                     case LoggerConstants.STATUS_FINISHED:
                         setActionBarProgress(false);
@@ -113,9 +119,26 @@ public class ProgressBarActivity extends FragmentActivity implements View.OnClic
         };
 
         IntentFilter intentFilter = new IntentFilter(LoggerConstants.ACTION_INFO);
+        intentFilter.addAction(LoggerConstants.ACTION_MIGRATION);
         registerReceiver(mLoggerServiceReceiver, intentFilter);
     }
 
+    /**
+     * Show progress of measurement tables conversion in action bar subtitle
+     */
+    private void showMigrationProgress(int status, Intent intent) {
+        if (getActionBar() == null)
+            return;
+
+        long total = intent.getLongExtra(LoggerConstants.MIGRATION_TOTAL, 0);
+        if (status == LoggerConstants.STATUS_RUNNING && total > 0) {
+            long done = intent.getLongExtra(LoggerConstants.MIGRATION_DONE, 0);
+            String table = intent.getStringExtra(LoggerConstants.MIGRATION_TABLE);
+            getActionBar().setSubtitle(getString(R.string.migration_progress, table, Math.min(100, done * 100 / total)));
+        } else
+            getActionBar().setSubtitle(null);
+    }
+
     @Override
     protected void onDestroy() {
         unregisterReceiver(mLoggerServiceReceiver);
@@ -217,7 +240,7 @@ public class ProgressBarActivity extends FragmentActivity implements View.OnClic
         LoggerVectorLayer ngwVectorLayer;
         for (int i = 0; i < map.getLayerCount(); i++) {
             ILayer layer = map.getLayer(i);
-            if (layer instanceof NGWVectorLayer) {
+            if (layer instanceof NGWVectorLayer && !ExternalSchema.isSchemaLayer(layer)) { // typed external tables are local
                 ngwVectorLayer = (LoggerVectorLayer) layer;
                 accountName = ngwVectorLayer.getAccountName();
                 if (TextUtils.isEmpty(accountName)) {
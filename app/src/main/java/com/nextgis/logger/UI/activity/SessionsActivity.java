@@ -28,11 +28,14 @@ import android.app.ProgressDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.SparseBooleanArray;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -45,23 +48,28 @@ import com.nextgis.logger.BuildConfig;
 import com.nextgis.logger.LoggerApplication;
 import com.nextgis.logger.R;
 import com.nextgis.logger.engines.ArduinoEngine;
+import com.nextgis.logger.engines.AudioEngine;
 import com.nextgis.logger.engines.BaseEngine;
+import com.nextgis.logger.engines.CellDecoder;
 import com.nextgis.logger.engines.CellEngine;
+import com.nextgis.logger.engines.CoverageGrid;
+import com.nextgis.logger.engines.GPSEngine;
 import com.nextgis.logger.engines.SensorEngine;
+import com.nextgis.logger.util.ExternalSchema;
 import com.nextgis.logger.util.FileUtil;
 import com.nextgis.logger.util.LoggerConstants;
+import com.nextgis.logger.util.LoggerVectorLayer;
+import com.nextgis.logger.util.SessionStats;
+import com.nextgis.logger.util.ZipStreamWriter;
 import com.nextgis.maplib.datasource.Feature;
+import com.nextgis.maplib.datasource.Field;
 import com.nextgis.maplib.map.MapBase;
 import com.nextgis.maplib.map.MapContentProviderHelper;
 import com.nextgis.maplib.map.NGWVectorLayer;
 import com.nextgis.maplib.util.Constants;
 import com.nextgis.maplib.util.MapUtil;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
@@ -70,11 +78,11 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Formatter;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 public class SessionsActivity extends ProgressBarActivity implements View.OnClickListener {
     private static final int SHARE = 1;
@@ -104,6 +112,27 @@ public class SessionsActivity extends ProgressBarActivity implements View.OnClic
     public static final int TYPE_MSSDS = 3; // marks and service separated, data separated
     public static final int TYPE_GPX = 4; // gpx
 
+    private static final String MARKS_SERVICE = "m." + LoggerApplication.FIELD_MARK_ID + " = -1";
+    private static final String MARKS_USER = "m." + LoggerApplication.FIELD_MARK_ID + " <> -1";
+    private static final ExportTable EXPORT_CELL =
+            new ExportTable(LoggerApplication.TABLE_CELL, "c", LoggerConstants.HEADER_GEN, LoggerConstants.HEADER_TYPE, LoggerConstants.HEADER_ACTIVE,
+                            LoggerConstants.HEADER_MCC, LoggerConstants.HEADER_MNC, LoggerConstants.HEADER_LAC, LoggerConstants.HEADER_CID,
+                            LoggerConstants.HEADER_PSC, LoggerConstants.HEADER_POWER);
+    private static final ExportTable EXPORT_SENSOR =
+            new ExportTable(LoggerApplication.TABLE_SENSOR, "s", LoggerConstants.HEADER_ACC_X, LoggerConstants.HEADER_ACC_Y, LoggerConstants.HEADER_ACC_Z,
+                            LoggerConstants.HEADER_LINEAR_X, LoggerConstants.HEADER_LINEAR_Y, LoggerConstants.HEADER_LINEAR_Z, LoggerConstants.HEADER_AZIMUTH,
+                            LoggerConstants.HEADER_PITCH, LoggerConstants.HEADER_ROLL, LoggerConstants.HEADER_GYRO_X, LoggerConstants.HEADER_GYRO_Y,
+                            LoggerConstants.HEADER_GYRO_Z, LoggerConstants.HEADER_MAGNETIC_X, LoggerConstants.HEADER_MAGNETIC_Y,
+                            LoggerConstants.HEADER_MAGNETIC_Z, LoggerConstants.HEADER_AUDIO, LoggerConstants.HEADER_GPS_LAT, LoggerConstants.HEADER_GPS_LON,
+                            LoggerConstants.HEADER_GPS_ALT, LoggerConstants.HEADER_GPS_ACC, LoggerConstants.HEADER_GPS_BE, LoggerConstants.HEADER_GPS_SP,
+                            LoggerConstants.HEADER_GPS_SAT, LoggerConstants.HEADER_GPS_TIME);
+    private static final ExportTable EXPORT_SPECTRUM = new ExportTable(LoggerApplication.TABLE_SENSOR, "s", AudioEngine.getSpectrumColumns());
+    private static final ExportTable EXPORT_EXTERNAL = new ExportTable(LoggerApplication.TABLE_EXTERNAL, "e", LoggerApplication.FIELD_DATA);
+    private static final ExportTable EXPORT_GPS =
+            new ExportTable(LoggerApplication.TABLE_SENSOR, "s", LoggerConstants.HEADER_GPS_LAT, LoggerConstants.HEADER_GPS_LON,
+                            LoggerConstants.HEADER_GPS_TIME, LoggerConstants.HEADER_GPS_ALT, LoggerConstants.HEADER_GPS_SAT, LoggerConstants.HEADER_GPS_SP);
+    private static final long PROGRESS_INTERVAL = 500;
+
     private ListView mLvSessions;
     private List<Feature> mSessions;
     private List<String> mSessionsName;
@@ -182,6 +211,7 @@ public class SessionsActivity extends ProgressBarActivity implements View.OnClic
         mSessions.clear();
         NGWVectorLayer sessionLayer = (NGWVectorLayer) MapBase.getInstance().getLayerByPathName(LoggerApplication.TABLE_SESSION);
         if (sessionLayer != null) {
+            Map<String, SessionStats> stats = getSessionsStats();
             Cursor ids = sessionLayer.query(new String[]{Constants.FIELD_ID}, null, null, null, null);
             if (ids != null && ids.moveToFirst()) {
                 do {
@@ -189,9 +219,15 @@ public class SessionsActivity extends ProgressBarActivity implements View.OnClic
                     if (feature == null)
                         continue;
 
-                    boolean isCurrentSession = mSessionId != null && mSessionId.equals(feature.getFieldValueAsString(LoggerApplication.FIELD_UNIQUE_ID));
+                    String uuid = feature.getFieldValueAsString(LoggerApplication.FIELD_UNIQUE_ID);
+                    boolean isCurrentSession = mSessionId != null && mSessionId.equals(uuid);
                     mSessions.add(feature);
                     String name = feature.getFieldValueAsString(LoggerApplication.FIELD_NAME);
+                    SessionStats session = stats.get(uuid);
+                    if (session != null)
+                        name += "\n" + getString(R.string.session_summary, session.getRecordsCount(), session.getMarksCount(),
+                                                  android.text.format.Formatter.formatShortFileSize(this, session.getBytes()));
+
                     mSessionsName.add(isCurrentSession ? name + " *" + getString(R.string.scl_current_session) + "*" : name);
                 } while (ids.moveToNext());
 
@@ -202,6 +238,32 @@ public class SessionsActivity extends ProgressBarActivity implements View.OnClic
         }
     }
 
+    /**
+     * Read aggregates of all sessions at once instead of counting their marks
+     */
+    private Map<String, SessionStats> getSessionsStats() {
+        Map<String, SessionStats> result = new HashMap<>();
+        SQLiteDatabase db = ((MapContentProviderHelper) MapBase.getInstance()).getDatabase(true);
+        String[] columns = SessionStats.getColumns();
+        String[] projection = new String[columns.length + 1];
+        projection[0] = LoggerApplication.FIELD_UNIQUE_ID;
+        System.arraycopy(columns, 0, projection, 1, columns.length);
+
+        try {
+            Cursor cursor = db.query(LoggerApplication.TABLE_SESSION, projection, null, null, null, null, null);
+            if (cursor != null) {
+                while (cursor.moveToNext())
+                    result.put(cursor.getString(0), SessionStats.fromCursor(cursor, 1));
+
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            e.printStackTrace();
+        }
+
+        return result;
+    }
+
     private void shareSessions(final String[] ids) {
         AlertDialog.Builder options = new AlertDialog.Builder(this);
         int last = mPreferences.getInt(LoggerConstants.PREF_LAST_EXPORT, 0);
@@ -238,72 +300,59 @@ public class SessionsActivity extends ProgressBarActivity implements View.OnClic
 
         if (sessions.moveToFirst()) {
             do {
-                Cursor marks = db.query(LoggerApplication.TABLE_MARK,
-                                        new String[]{LoggerApplication.FIELD_UNIQUE_ID, LoggerApplication.FIELD_MARK_ID, LoggerApplication.FIELD_NAME,
-                                                     LoggerApplication.FIELD_TIMESTAMP}, LoggerApplication.FIELD_SESSION + " = ?",
-                                        new String[]{sessions.getString(0)}, null, null, LoggerApplication.FIELD_TIMESTAMP);
-
-                if (marks == null) // skip empty sessions
-                    continue;
-
-                File path = new File(temp, sessions.getString(1));
-                directoryExists = FileUtil.checkOrCreateDirectory(path);
-                if (!directoryExists)
-                    throw new IOException();
-
-                if (marks.moveToFirst()) {
-                    String cellHeader = CellEngine.getHeader();
-                    String sensorHeader = SensorEngine.getHeader();
-                    String externalHeader = ArduinoEngine.getHeader(this);
-
-                    do {
-                        String preamble = BaseEngine.getPreamble(marks.getString(1), marks.getString(2), sessions.getString(2), marks.getLong(3));
-                        preamble += LoggerConstants.CSV_SEPARATOR;
-                        String prefix = LoggerConstants.LOG;
-                        String markId = marks.getString(0);
-
-                        switch (type) {
-                            case TYPE_MSTDT:
-                                writeDataTogether(LoggerConstants.DATA, cellHeader, sensorHeader, externalHeader, db, path, preamble, markId);
-                                break;
-                            case TYPE_MSTDS:
-                                writeDataSeparated("", cellHeader, sensorHeader, externalHeader, db, path, preamble, markId);
-                                break;
-                            case TYPE_MSSDT:
-                                if (marks.getInt(1) != -1)
-                                    prefix = LoggerConstants.MARK;
-
-                                writeDataTogether(prefix, cellHeader, sensorHeader, externalHeader, db, path, preamble, markId);
-                                break;
-                            case TYPE_MSSDS:
-                                if (marks.getInt(1) != -1)
-                                    prefix = LoggerConstants.MARK;
-
-                                writeDataSeparated(prefix + "_", cellHeader, sensorHeader, externalHeader, db, path, preamble, markId);
-                                break;
-                            case TYPE_GPX:
-                                writeGPX(LoggerConstants.GPX, db, path, markId);
-                                break;
-                            default:
-                                throw new RuntimeException("Type" + type + " is not supported for export.");
-                        }
-                    } while (marks.moveToNext() && !exportTask.isUserCancelled());
+                String session = sessions.getString(0);
+                String user = sessions.getString(2);
+                File file = new File(temp, sessions.getString(1) + LoggerConstants.ZIP_EXT);
+                ZipStreamWriter zip = new ZipStreamWriter(file);
+
+                try {
+                    switch (type) {
+                        case TYPE_MSTDT:
+                            writeDataTogether(zip, LoggerConstants.DATA, db, session, null, user, exportTask);
+                            break;
+                        case TYPE_MSTDS:
+                            writeDataSeparated(zip, "", db, session, null, user, exportTask);
+                            break;
+                        case TYPE_MSSDT:
+                            writeDataTogether(zip, LoggerConstants.LOG, db, session, MARKS_SERVICE, user, exportTask);
+                            writeDataTogether(zip, LoggerConstants.MARK, db, session, MARKS_USER, user, exportTask);
+                            break;
+                        case TYPE_MSSDS:
+                            writeDataSeparated(zip, LoggerConstants.LOG + "_", db, session, MARKS_SERVICE, user, exportTask);
+                            writeDataSeparated(zip, LoggerConstants.MARK + "_", db, session, MARKS_USER, user, exportTask);
+                            break;
+                        case TYPE_GPX:
+                            writeGPX(zip, LoggerConstants.GPX, db, session, exportTask);
+                            break;
+                        default:
+                            throw new RuntimeException("Type" + type + " is not supported for export.");
+                    }
 
-                    if (type == TYPE_GPX) {
-                        FileUtil.append(new File(path, LoggerConstants.GPX).getAbsolutePath(), GPX_HEADER, GPX_TAG_TRACK_SEGMENT_CLOSE + "\r\n" +
-                                GPX_TAG_TRACK_CLOSE + "\r\n" + GPX_TAG_CLOSE);
+                    if (type != TYPE_GPX) {
+                        writeCellEvents(zip, LoggerConstants.CELL_EVENTS + LoggerConstants.CSV_EXT, db, session, exportTask);
+                        writeCoverage(zip, LoggerConstants.COVERAGE, db, session, exportTask);
+                        writeSensorRaw(zip, LoggerConstants.SENSOR_RAW + LoggerConstants.CSV_EXT, db, session, exportTask);
+                        writeTable(zip, LoggerConstants.SPECTRUM + LoggerConstants.CSV_EXT, LoggerConstants.CSV_HEADER_PREAMBLE +
+                                           LoggerConstants.CSV_SEPARATOR + TextUtils.join(LoggerConstants.CSV_SEPARATOR, EXPORT_SPECTRUM.mColumns),
+                                   EXPORT_SPECTRUM, db, session, "s.\"" + LoggerConstants.HEADER_BANDS + "\" IS NOT NULL", user, exportTask);
+
+                        File gnss = GPSEngine.getCaptureFile(this, session);
+                        if (gnss.exists() && !exportTask.isUserCancelled())
+                            zip.putFile(LoggerConstants.GNSS + LoggerConstants.GNSS_EXT, gnss);
                     }
+
+                    zip.putNextEntry(LoggerConstants.DEVICE_INFO);
+                    zip.println("\r\n\r\n");
+                    zip.println(String.valueOf(sessions.getString(3)));
+                } finally {
+                    zip.close();
+                    exportTask.onZipClosed(zip);
                 }
 
-                marks.close();
                 if (exportTask.isUserCancelled())
                     break;
 
-                File deviceInfoFile = new File(path, LoggerConstants.DEVICE_INFO);
-                FileUtil.append(deviceInfoFile.getAbsolutePath(), "\r\n\r\n", sessions.getString(3));
-
-                if (putToZip(path))
-                    result.add(Uri.fromFile(new File(temp, sessions.getString(1) + LoggerConstants.ZIP_EXT))); // add file's uri to share list
+                result.add(Uri.fromFile(file)); // add file's uri to share list
             } while (sessions.moveToNext() && !exportTask.isUserCancelled());
         }
 
@@ -327,129 +376,430 @@ public class SessionsActivity extends ProgressBarActivity implements View.OnClic
         FileUtil.deleteDirectoryOrFile(temp);
     }
 
-    private void writeDataSeparated(String prefix, String cellHeader, String sensorHeader, String externalHeader,
-                                    SQLiteDatabase db, File path, String preamble, String markId) throws FileNotFoundException {
-        Cursor data = db.query(LoggerApplication.TABLE_CELL, null, LoggerApplication.FIELD_MARK + " = ?", new String[]{markId}, null, null,
-                               LoggerConstants.HEADER_ACTIVE);
+    /**
+     * Build single query for session marks joined with their data ordered as in export.
+     * Columns are: mark row id, mark id, mark name, timestamp, then row id and data of each table.
+     *
+     * @param inner     Skip marks without data in tables
+     * @param filter    Additional condition on marks or null
+     * @param tables    Data tables to join
+     */
+    private static String getExportQuery(boolean inner, String filter, ExportTable... tables) {
+        StringBuilder sql = new StringBuilder("SELECT m." + Constants.FIELD_ID + ", m." + LoggerApplication.FIELD_MARK_ID + ", m." +
+                LoggerApplication.FIELD_NAME + ", m." + LoggerApplication.FIELD_TIMESTAMP);
+        StringBuilder join = new StringBuilder(" FROM " + LoggerApplication.TABLE_MARK + " m");
+        String order = " ORDER BY m." + LoggerApplication.FIELD_TIMESTAMP + ", m." + Constants.FIELD_ID;
+
+        for (ExportTable table : tables) {
+            String alias = table.mAlias + ".";
+            sql.append(", ").append(alias).append(Constants.FIELD_ID).append(" AS ").append(table.mRowId);
+            for (String column : table.mColumns)
+                sql.append(", ").append(alias).append("\"").append(column).append("\" AS \"").append(table.getOutputName(column)).append("\"");
+
+            join.append(inner ? " JOIN " : " LEFT JOIN ").append(table.mName).append(" ").append(table.mAlias).append(" ON ").append(alias)
+                .append(LoggerApplication.FIELD_MARK).append(" = m.").append(LoggerApplication.FIELD_UNIQUE_ID);
+
+            if (table == EXPORT_CELL)
+                order += ", " + alias + "\"" + LoggerConstants.HEADER_ACTIVE + "\"";
+            else if (table.mHeader != null) // frames of mark in order they are received
+                order += ", " + alias + Constants.FIELD_ID;
+        }
+
+        sql.append(join).append(" WHERE m.").append(LoggerApplication.FIELD_SESSION).append(" = ?");
+        if (filter != null)
+            sql.append(" AND ").append(filter);
+
+        return sql.append(order).toString();
+    }
+
+    private static String getPreamble(Cursor data, String user) {
+        return BaseEngine.getPreamble(data.getString(1), data.getString(2), user, data.getLong(3)) + LoggerConstants.CSV_SEPARATOR;
+    }
 
+    private void writeDataSeparated(ZipStreamWriter zip, String prefix, SQLiteDatabase db, String session, String filter, String user,
+                                    ExportTask exportTask) throws IOException {
         String header = LoggerConstants.CSV_HEADER_PREAMBLE + LoggerConstants.CSV_SEPARATOR;
-        if (data != null) {
-            if (data.moveToFirst()) {
-                List<String> items = new ArrayList<>();
-                do {
-                    items.add(preamble + CellEngine.getDataFromCursor(data));
-                } while (data.moveToNext());
+        writeCells(zip, prefix + LoggerConstants.CELL + LoggerConstants.CSV_EXT, header + CellEngine.getHeader(), db, session, filter, user,
+                   exportTask);
+        writeTable(zip, prefix + LoggerConstants.SENSOR + LoggerConstants.CSV_EXT, header + SensorEngine.getHeader(), EXPORT_SENSOR, db, session,
+                   filter, user, exportTask);
+        writeTable(zip, prefix + LoggerConstants.EXTERNAL + LoggerConstants.CSV_EXT, header + ArduinoEngine.getHeader(this), EXPORT_EXTERNAL, db,
+                   session, filter, user, exportTask);
+
+        for (ExportTable table : getExternalTables(null, null, false)) {
+            String entry = prefix + LoggerConstants.EXTERNAL + "_" + table.mName.substring(ExternalSchema.TABLE_PREFIX.length());
+            writeTable(zip, entry + LoggerConstants.CSV_EXT, header + table.mHeader, table, db, session, filter, user, exportTask);
+        }
+    }
 
-                String filePath = new File(path, prefix + LoggerConstants.CELL + LoggerConstants.CSV_EXT).getAbsolutePath();
-                FileUtil.append(filePath, header + cellHeader, items);
+    /**
+     * @param db        Database to check if table has rows of session, null to take all tables
+     * @param isPrefixed Prefix columns with device name
+     */
+    private static List<ExportTable> getExternalTables(SQLiteDatabase db, String session, boolean isPrefixed) {
+        List<ExportTable> result = new ArrayList<>();
+        for (LoggerVectorLayer layer : ExternalSchema.getLayers()) {
+            String table = layer.getPath().getName();
+            if (db != null && DatabaseUtils.longForQuery(db, "SELECT EXISTS (SELECT 1 FROM " + table + " e JOIN " + LoggerApplication.TABLE_MARK +
+                    " m ON e." + LoggerApplication.FIELD_MARK + " = m." + LoggerApplication.FIELD_UNIQUE_ID + " WHERE m." +
+                    LoggerApplication.FIELD_SESSION + " = ?)", new String[]{session}) == 0)
+                continue;
+
+            List<Field> fields = ExternalSchema.getSensorFields(layer);
+            String[] columns = new String[fields.size()];
+            String header = "";
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = fields.get(i).getName();
+                header += (i > 0 ? LoggerConstants.CSV_SEPARATOR : "") + (isPrefixed ? layer.getName() + " " : "") + fields.get(i).getAlias();
             }
-            data.close();
+
+            ExportTable export = new ExportTable(table, "e" + result.size(), columns);
+            export.mHeader = header;
+            result.add(export);
         }
 
-        data = db.query(LoggerApplication.TABLE_SENSOR, null, LoggerApplication.FIELD_MARK + " = ?", new String[]{markId}, null, null, null);
-        if (data != null) {
-            if (data.moveToFirst()) {
-                String filePath = new File(path, prefix + LoggerConstants.SENSOR + LoggerConstants.CSV_EXT).getAbsolutePath();
-                String item = preamble + SensorEngine.getDataFromCursor(data);
-                FileUtil.append(filePath, header + sensorHeader, item);
-            }
-            data.close();
+        return result;
+    }
+
+    /**
+     * @return  Values of typed external table columns or empty values if row is missing
+     */
+    private static String getExternalData(Cursor data, ExportTable table) {
+        boolean isEmpty = data.isNull(data.getColumnIndex(table.mRowId));
+        String row = "";
+        for (int i = 0; i < table.mColumns.length; i++) {
+            String column = table.getOutputName(table.mColumns[i]);
+            String value;
+            if (isEmpty)
+                value = LoggerConstants.NO_DATA;
+            else if (isTimeColumn(table.mColumns[i])) // ms stored as REAL
+                value = data.isNull(data.getColumnIndex(column)) ? LoggerConstants.NO_DATA : Long.toString(data.getLong(data.getColumnIndex(column)));
+            else
+                value = BaseEngine.getValueFromCursor(data, column, false);
+
+            row += (i > 0 ? LoggerConstants.CSV_SEPARATOR : "") + value;
         }
 
-        data = db.query(LoggerApplication.TABLE_EXTERNAL, null, LoggerApplication.FIELD_MARK + " = ?", new String[]{markId}, null, null, null);
-        if (data != null) {
-            if (data.moveToFirst()) {
-                String filePath = new File(path, prefix + LoggerConstants.EXTERNAL + LoggerConstants.CSV_EXT).getAbsolutePath();
-                String item = preamble + ArduinoEngine.getDataFromCursor(data);
-                FileUtil.append(filePath, header + externalHeader, item);
+        return row;
+    }
+
+    private static boolean isTimeColumn(String column) {
+        return ExternalSchema.FIELD_TIME.equals(column) || ExternalSchema.FIELD_DEVICE_TIME.equals(column);
+    }
+
+    /**
+     * Write cells of each mark rebuilt from cell log or, for marks logged before it,
+     * taken from cell table. Marks without cells are skipped.
+     */
+    private void writeCells(ZipStreamWriter zip, String entry, String header, SQLiteDatabase db, String session, String filter, String user,
+                            ExportTask exportTask) throws IOException {
+        if (exportTask.isUserCancelled())
+            return;
+
+        Cursor data = db.rawQuery(getExportQuery(false, filter, EXPORT_CELL), new String[]{session});
+        if (data == null)
+            return;
+
+        CellDecoder decoder = new CellDecoder(db, session);
+        try {
+            int cellRow = data.getColumnIndex(EXPORT_CELL.mRowId);
+            long markRow = Constants.NOT_FOUND;
+            String preamble = null;
+            List<String> cells = null;
+            boolean isFirst = true;
+
+            while (data.moveToNext() && !exportTask.isUserCancelled()) {
+                boolean isNewMark = preamble == null || data.getLong(0) != markRow;
+                if (isNewMark) {
+                    markRow = data.getLong(0);
+                    preamble = getPreamble(data, user);
+                    cells = decoder.getRows(markRow, data.getDouble(3), data.getInt(1));
+                } else if (!cells.isEmpty()) // rows of cell table are not expected for decoded mark
+                    continue;
+
+                if (cells.isEmpty() && data.isNull(cellRow))
+                    continue;
+
+                if (isFirst) { // no file for empty table
+                    zip.putNextEntry(entry);
+                    zip.println(header);
+                    isFirst = false;
+                }
+
+                if (cells.isEmpty())
+                    zip.println(preamble + CellEngine.getDataFromCursor(data));
+                else
+                    for (String cell : cells)
+                        zip.println(preamble + cell);
+
+                exportTask.onProgress(zip);
             }
+        } finally {
+            decoder.close();
             data.close();
         }
     }
 
-    private void writeDataTogether(String prefix, String cellHeader, String sensorHeader, String externalHeader,
-                                   SQLiteDatabase db, File path, String preamble, String markId) throws FileNotFoundException {
-        String row = "";
-        String header = "";
-        Cursor data = db.query(LoggerApplication.TABLE_SENSOR, null, LoggerApplication.FIELD_MARK + " = ?", new String[]{markId}, null, null, null);
-        if (data != null) {
-            if (data.moveToFirst()) {
-                row += LoggerConstants.CSV_SEPARATOR + SensorEngine.getDataFromCursor(data);
-                header += LoggerConstants.CSV_SEPARATOR + sensorHeader;
-            }
+    private void writeTable(ZipStreamWriter zip, String entry, String header, ExportTable table, SQLiteDatabase db, String session, String filter,
+                            String user, ExportTask exportTask) throws IOException {
+        if (exportTask.isUserCancelled())
+            return;
+
+        Cursor data = db.rawQuery(getExportQuery(true, filter, table), new String[]{session});
+        if (data == null)
+            return;
+
+        try {
+            if (!data.moveToFirst()) // no file for empty table
+                return;
+
+            zip.putNextEntry(entry);
+            zip.println(header);
+            long markRow = Constants.NOT_FOUND;
+            String preamble = null;
+
+            do {
+                if (table.mHeader == null && preamble != null && data.getLong(0) == markRow) // one sensor or external row per mark
+                    continue;
+
+                markRow = data.getLong(0);
+                preamble = getPreamble(data, user);
+                if (table == EXPORT_SENSOR)
+                    zip.println(preamble + SensorEngine.getDataFromCursor(data));
+                else if (table == EXPORT_EXTERNAL)
+                    zip.println(preamble + ArduinoEngine.getDataFromCursor(data));
+                else
+                    zip.println(preamble + getExternalData(data, table));
+
+                exportTask.onProgress(zip);
+            } while (data.moveToNext() && !exportTask.isUserCancelled());
+        } finally {
             data.close();
         }
+    }
 
-        data = db.query(LoggerApplication.TABLE_EXTERNAL, null, LoggerApplication.FIELD_MARK + " = ?", new String[]{markId}, null, null, null);
-        if (data != null) {
-            if (data.moveToFirst()) {
-                row += LoggerConstants.CSV_SEPARATOR + ArduinoEngine.getDataFromCursor(data);
-                header += LoggerConstants.CSV_SEPARATOR + externalHeader;
-            }
+    private void writeDataTogether(ZipStreamWriter zip, String prefix, SQLiteDatabase db, String session, String filter, String user,
+                                   ExportTask exportTask) throws IOException {
+        if (exportTask.isUserCancelled())
+            return;
+
+        List<ExportTable> tables = new ArrayList<>();
+        Collections.addAll(tables, EXPORT_CELL, EXPORT_SENSOR, EXPORT_EXTERNAL);
+        List<ExportTable> externals = getExternalTables(db, session, true);
+        tables.addAll(externals);
+
+        String sql = getExportQuery(false, filter, tables.toArray(new ExportTable[tables.size()]));
+        Cursor data = db.rawQuery(sql, new String[]{session});
+        if (data == null)
+            return;
+
+        CellDecoder decoder = new CellDecoder(db, session);
+        try {
+            if (!data.moveToFirst())
+                return;
+
+            int cellRow = data.getColumnIndex(EXPORT_CELL.mRowId);
+            int sensorRow = data.getColumnIndex(EXPORT_SENSOR.mRowId);
+            int externalRow = data.getColumnIndex(EXPORT_EXTERNAL.mRowId);
+
+            String header = LoggerConstants.CSV_HEADER_PREAMBLE + LoggerConstants.CSV_SEPARATOR + CellEngine.getHeader();
+            if (!data.isNull(sensorRow))
+                header += LoggerConstants.CSV_SEPARATOR + SensorEngine.getHeader();
+            if (!data.isNull(externalRow))
+                header += LoggerConstants.CSV_SEPARATOR + ArduinoEngine.getHeader(this);
+            for (ExportTable table : externals)
+                header += LoggerConstants.CSV_SEPARATOR + table.mHeader;
+
+            zip.putNextEntry(prefix + LoggerConstants.CSV_EXT);
+            zip.println(header);
+            long markRow = Constants.NOT_FOUND;
+            String preamble = null, row = null;
+            boolean isDecoded = false;
+
+            do {
+                if (preamble == null || data.getLong(0) != markRow) {
+                    markRow = data.getLong(0);
+                    preamble = getPreamble(data, user);
+                    row = "";
+                    if (!data.isNull(sensorRow))
+                        row += LoggerConstants.CSV_SEPARATOR + SensorEngine.getDataFromCursor(data);
+                    if (!data.isNull(externalRow))
+                        row += LoggerConstants.CSV_SEPARATOR + ArduinoEngine.getDataFromCursor(data);
+                    for (ExportTable table : externals)
+                        row += LoggerConstants.CSV_SEPARATOR + getExternalData(data, table);
+
+                    List<String> cells = decoder.getRows(markRow, data.getDouble(3), data.getInt(1));
+                    isDecoded = !cells.isEmpty();
+                    for (String cell : cells)
+                        zip.println(preamble + cell + row);
+                }
+
+                if (!isDecoded) { // marks logged before cell log keep their cells in cell table
+                    String cell = data.isNull(cellRow) ? CellEngine.getEmptyRow() : CellEngine.getDataFromCursor(data);
+                    zip.println(preamble + cell + row);
+                }
+
+                exportTask.onProgress(zip);
+            } while (data.moveToNext() && !exportTask.isUserCancelled());
+        } finally {
+            decoder.close();
             data.close();
         }
+    }
 
-        data = db.query(LoggerApplication.TABLE_CELL, null, LoggerApplication.FIELD_MARK + " = ?", new String[]{markId}, null, null,
-                        LoggerConstants.HEADER_ACTIVE);
-        if (data != null) {
-            List<String> items = new ArrayList<>();
-            if (data.moveToFirst()) {
-                do {
-                    items.add(preamble + CellEngine.getDataFromCursor(data) + row);
-                } while (data.moveToNext());
-            } else
-                items.add(preamble + CellEngine.getEmptyRow() + row);
+    /**
+     * Write serving cell events of session, no file if there are none
+     */
+    private void writeCellEvents(ZipStreamWriter zip, String entry, SQLiteDatabase db, String session, ExportTask exportTask) throws IOException {
+        if (exportTask.isUserCancelled())
+            return;
+
+        Cursor data = db.query(LoggerApplication.TABLE_CELL_EVENT, null, LoggerApplication.FIELD_SESSION + " = ?", new String[]{session}, null,
+                               null, LoggerApplication.FIELD_TIMESTAMP + ", " + Constants.FIELD_ID);
+        if (data == null)
+            return;
+
+        try {
+            if (!data.moveToFirst())
+                return;
+
+            zip.putNextEntry(entry);
+            zip.println(CellEngine.getEventsHeader());
+            do {
+                zip.println(CellEngine.getEventFromCursor(data));
+                exportTask.onProgress(zip);
+            } while (data.moveToNext() && !exportTask.isUserCancelled());
+        } finally {
             data.close();
+        }
+    }
+
+    /**
+     * Write every captured raw sensor sample of session, no file if raw capture was off
+     */
+    private void writeSensorRaw(ZipStreamWriter zip, String entry, SQLiteDatabase db, String session, ExportTask exportTask) throws IOException {
+        if (exportTask.isUserCancelled())
+            return;
+
+        Cursor data = db.query(LoggerApplication.TABLE_SENSOR_RAW, null, LoggerApplication.FIELD_SESSION + " = ?", new String[]{session}, null,
+                               null, LoggerApplication.FIELD_SENSOR + ", " + LoggerApplication.FIELD_TS_FIRST);
+        if (data == null)
+            return;
+
+        try {
+            if (!data.moveToFirst())
+                return;
 
-            String filePath = new File(path, prefix + LoggerConstants.CSV_EXT).getAbsolutePath();
-            header = LoggerConstants.CSV_HEADER_PREAMBLE + LoggerConstants.CSV_SEPARATOR + cellHeader + header;
-            FileUtil.append(filePath, header, items);
+            zip.putNextEntry(entry);
+            zip.println(SensorEngine.getRawHeader());
+            do {
+                for (String row : SensorEngine.getRawFromCursor(data))
+                    zip.println(row);
+
+                exportTask.onProgress(zip);
+            } while (data.moveToNext() && !exportTask.isUserCancelled());
+        } finally {
+            data.close();
         }
     }
 
-    private void writeGPX(String prefix, SQLiteDatabase db, File path, String markId) throws FileNotFoundException {
-        String[] columns =
-                new String[]{LoggerConstants.HEADER_GPS_LAT, LoggerConstants.HEADER_GPS_LON, LoggerConstants.HEADER_GPS_TIME, LoggerConstants.HEADER_GPS_ALT,
-                             LoggerConstants.HEADER_GPS_SAT, LoggerConstants.HEADER_GPS_SP};
-        Cursor data = db.query(LoggerApplication.TABLE_SENSOR, columns, LoggerApplication.FIELD_MARK + " = ?", new String[]{markId}, null, null, null);
-        final StringBuilder sb = new StringBuilder();
-        final Formatter f = new Formatter(sb);
+    /**
+     * Write coverage tiles of session as CSV and GeoJSON, no files if there are none
+     */
+    private void writeCoverage(ZipStreamWriter zip, String name, SQLiteDatabase db, String session, ExportTask exportTask) throws IOException {
+        if (exportTask.isUserCancelled())
+            return;
 
-        if (data != null) {
-            if (data.moveToFirst()) {
-                DecimalFormat df = new DecimalFormat("0", new DecimalFormatSymbols(Locale.ENGLISH));
-                df.setMaximumFractionDigits(340); //340 = DecimalFormat.DOUBLE_FRACTION_DIGITS
+        Cursor data = CoverageGrid.query(db, session);
+        if (data == null)
+            return;
 
-                Double lat = getDouble(data.getString(0));
-                Double lon = getDouble(data.getString(1));
-                if (lat != null && lon != null) {
-                    f.format(GPX_TAG_TRACK_SEGMENT_POINT, df.format(lat), df.format(lon));
+        try {
+            if (!data.moveToFirst())
+                return;
 
-                    Long longValue = getLong(data.getString(2));
-                    if (longValue != null)
-                        f.format(GPX_TAG_TRACK_SEGMENT_POINT_TIME, getTimeStampAsString(longValue));
+            zip.putNextEntry(name + LoggerConstants.CSV_EXT);
+            zip.println(CoverageGrid.getHeader());
+            do {
+                zip.println(CoverageGrid.getCsvRow(data));
+                exportTask.onProgress(zip);
+            } while (data.moveToNext() && !exportTask.isUserCancelled());
 
-                    Double doubleValue = getDouble(data.getString(3));
-                    if (doubleValue != null)
-                        f.format(GPX_TAG_TRACK_SEGMENT_POINT_ELE, df.format(doubleValue));
+            if (!data.moveToFirst() || exportTask.isUserCancelled())
+                return;
 
-                    longValue = getLong(data.getString(4));
-                    if (longValue != null)
-                        f.format(GPX_TAG_TRACK_SEGMENT_POINT_SAT, longValue);
+            zip.putNextEntry(name + LoggerConstants.GEOJSON_EXT);
+            zip.println("{\"type\":\"FeatureCollection\",\"features\":[");
+            do {
+                zip.println((data.isFirst() ? "" : ",") + CoverageGrid.getFeature(data));
+                exportTask.onProgress(zip);
+            } while (data.moveToNext() && !exportTask.isUserCancelled());
+            zip.println("]}");
+        } finally {
+            data.close();
+        }
+    }
 
-                    doubleValue = getDouble(data.getString(5));
-                    if (doubleValue != null)
-                        f.format(GPX_TAG_TRACK_SEGMENT_POINT_SPEED, doubleValue);
+    private void writeGPX(ZipStreamWriter zip, String entry, SQLiteDatabase db, String session, ExportTask exportTask) throws IOException {
+        Cursor data = db.rawQuery(getExportQuery(true, null, EXPORT_GPS), new String[]{session});
+        zip.putNextEntry(entry);
+        zip.println(GPX_HEADER);
 
-                    sb.append(GPX_TAG_TRACK_SEGMENT_POINT_CLOSE);
+        if (data != null) {
+            try {
+                if (data.moveToFirst()) {
+                    DecimalFormat df = new DecimalFormat("0", new DecimalFormatSymbols(Locale.ENGLISH));
+                    df.setMaximumFractionDigits(340); //340 = DecimalFormat.DOUBLE_FRACTION_DIGITS
+                    long markRow = Constants.NOT_FOUND;
 
-                    File track = new File(path, prefix);
-                    FileUtil.append(track.getAbsolutePath(), GPX_HEADER, sb.toString());
+                    do {
+                        if (data.getLong(0) == markRow) // one point per mark
+                            continue;
+
+                        markRow = data.getLong(0);
+                        String point = getGPXPoint(data, df);
+                        if (point != null) {
+                            zip.println(point);
+                            exportTask.onProgress(zip);
+                        }
+                    } while (data.moveToNext() && !exportTask.isUserCancelled());
                 }
+            } finally {
+                data.close();
             }
-
-            data.close();
         }
+
+        zip.println(GPX_TAG_TRACK_SEGMENT_CLOSE + "\r\n" + GPX_TAG_TRACK_CLOSE + "\r\n" + GPX_TAG_CLOSE);
+    }
+
+    private String getGPXPoint(Cursor data, DecimalFormat df) {
+        Double lat = getDouble(BaseEngine.getValueFromCursor(data, LoggerConstants.HEADER_GPS_LAT, false));
+        Double lon = getDouble(BaseEngine.getValueFromCursor(data, LoggerConstants.HEADER_GPS_LON, false));
+        if (lat == null || lon == null)
+            return null;
+
+        final StringBuilder sb = new StringBuilder();
+        final Formatter f = new Formatter(sb);
+        f.format(GPX_TAG_TRACK_SEGMENT_POINT, df.format(lat), df.format(lon));
+
+        Long longValue = getLong(data.getString(data.getColumnIndex(LoggerConstants.HEADER_GPS_TIME)));
+        if (longValue != null)
+            f.format(GPX_TAG_TRACK_SEGMENT_POINT_TIME, getTimeStampAsString(longValue));
+
+        Double doubleValue = getDouble(BaseEngine.getValueFromCursor(data, LoggerConstants.HEADER_GPS_ALT, false));
+        if (doubleValue != null)
+            f.format(GPX_TAG_TRACK_SEGMENT_POINT_ELE, df.format(doubleValue));
+
+        longValue = getLong(data.getString(data.getColumnIndex(LoggerConstants.HEADER_GPS_SAT)));
+        if (longValue != null)
+            f.format(GPX_TAG_TRACK_SEGMENT_POINT_SAT, longValue);
+
+        doubleValue = getDouble(BaseEngine.getValueFromCursor(data, LoggerConstants.HEADER_GPS_SP, true));
+        if (doubleValue != null)
+            f.format(GPX_TAG_TRACK_SEGMENT_POINT_SPEED, doubleValue);
+
+        sb.append(GPX_TAG_TRACK_SEGMENT_POINT_CLOSE);
+        return sb.toString();
     }
 
     private Double getDouble(String data) {
@@ -468,31 +818,6 @@ public class SessionsActivity extends ProgressBarActivity implements View.OnClic
         }
     }
 
-    private boolean putToZip(File files) throws IOException {
-        byte[] buffer = new byte[1024];
-        if (!files.exists() || !files.isDirectory())
-            return false;
-
-        FileOutputStream fos = new FileOutputStream(files.getAbsolutePath() + LoggerConstants.ZIP_EXT);
-        ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(fos));
-
-        for (File file : files.listFiles()) { // for each log-file in directory
-            FileInputStream fis = new FileInputStream(file);
-            zos.putNextEntry(new ZipEntry(file.getName())); // put it in zip
-
-            int length;
-            while ((length = fis.read(buffer)) > 0)
-                // write it to zip
-                zos.write(buffer, 0, length);
-
-            zos.closeEntry();
-            fis.close();
-        }
-
-        zos.close();
-        return files.listFiles().length > 0;
-    }
-
     private boolean deleteSessions(String[] ids, boolean ask) {
         boolean result = false;
         String authority = ((LoggerApplication) getApplication()).getAuthority();
@@ -544,6 +869,13 @@ public class SessionsActivity extends ProgressBarActivity implements View.OnClic
                 layer.rebuildCache(null);
             }
 
+            SQLiteDatabase db = ((MapContentProviderHelper) MapBase.getInstance()).getDatabase(false);
+            db.delete(LoggerApplication.TABLE_SENSOR_RAW, LoggerApplication.FIELD_SESSION + in, ids);
+            db.delete(LoggerApplication.TABLE_CELL_EVENT, LoggerApplication.FIELD_SESSION + in, ids);
+            db.delete(LoggerApplication.TABLE_COVERAGE, LoggerApplication.FIELD_SESSION + in, ids);
+            for (String id : ids)
+                FileUtil.deleteDirectoryOrFile(GPSEngine.getCaptureFile(this, id));
+
             ids = markIds.toArray(new String[markIds.size()]);
             in = " IN (" + MapUtil.makePlaceholders(ids.length) + ")";
             layer = (NGWVectorLayer) MapBase.getInstance().getLayerByPathName(LoggerApplication.TABLE_CELL);
@@ -567,10 +899,16 @@ public class SessionsActivity extends ProgressBarActivity implements View.OnClic
                 layer.rebuildCache(null);
             }
 
+            for (LoggerVectorLayer external : ExternalSchema.getLayers()) {
+                uri = Uri.parse("content://" + authority + "/" + external.getPath().getName() + "/");
+                external.delete(uri, LoggerApplication.FIELD_MARK + in, ids);
+                external.rebuildCache(null);
+            }
+
+            db.delete(LoggerApplication.TABLE_CELL_OBS, LoggerApplication.FIELD_MARK + in, ids);
             result = true;
 
             // shrink database
-            SQLiteDatabase db = ((MapContentProviderHelper) MapBase.getInstance()).getDatabase(false);
             db.execSQL("VACUUM");
         } catch (SQLiteException e) {
             e.printStackTrace();
@@ -605,12 +943,36 @@ public class SessionsActivity extends ProgressBarActivity implements View.OnClic
         return utcFormat.format(new Date(nTimeStamp));
     }
 
-    public class ExportTask extends AsyncTask<Void, Void, ArrayList<Uri>> {
+    /**
+     * Data table columns taken to export
+     */
+    private static class ExportTable {
+        final String mName, mAlias, mRowId;
+        final String[] mColumns;
+        String mHeader;
+
+        ExportTable(String name, String alias, String... columns) {
+            mName = name;
+            mAlias = alias;
+            mRowId = alias + "_row";
+            mColumns = columns;
+        }
+
+        /**
+         * @return  Column name in export query, columns of external tables are prefixed with alias
+         */
+        String getOutputName(String column) {
+            return mHeader == null ? column : mAlias + "_" + column;
+        }
+    }
+
+    public class ExportTask extends AsyncTask<Void, Long, ArrayList<Uri>> {
         private AlertDialog.Builder mDialog;
         private ProgressDialog mProgress;
         private String[] mIds;
         private int mType;
-        private boolean mIsCanceled = false;
+        private volatile boolean mIsCanceled = false;
+        private long mStart, mLastProgress, mRows, mBytes;
 
         ExportTask(String[] ids, int type) {
             mIds = ids;
@@ -628,6 +990,7 @@ public class SessionsActivity extends ProgressBarActivity implements View.OnClic
 
         @Override
         protected ArrayList<Uri> doInBackground(Void... params) {
+            mStart = mLastProgress = SystemClock.elapsedRealtime();
             publishProgress();
 
             try {
@@ -638,9 +1001,19 @@ public class SessionsActivity extends ProgressBarActivity implements View.OnClic
         }
 
         @Override
-        protected void onProgressUpdate(Void... values) {
+        protected void onProgressUpdate(Long... values) {
             super.onProgressUpdate(values);
 
+            if (values.length > 0) {
+                if (mProgress != null) {
+                    long elapsed = Math.max(values[2], 1);
+                    String speed = android.text.format.Formatter.formatShortFileSize(SessionsActivity.this, values[1] * 1000 / elapsed);
+                    mProgress.setMessage(getString(R.string.export_progress, values[0], values[0] * 1000 / elapsed, speed));
+                }
+
+                return;
+            }
+
             mProgress = new ProgressDialog(SessionsActivity.this);
             mProgress.setTitle(R.string.export_title);
             mProgress.setMessage(getString(R.string.preparing));
@@ -658,6 +1031,23 @@ public class SessionsActivity extends ProgressBarActivity implements View.OnClic
             return mIsCanceled;
         }
 
+        /**
+         * Called after each written row. Publishes rows and bytes throughput twice a second.
+         */
+        void onProgress(ZipStreamWriter zip) {
+            long now = SystemClock.elapsedRealtime();
+            if (now - mLastProgress < PROGRESS_INTERVAL)
+                return;
+
+            mLastProgress = now;
+            publishProgress(mRows + zip.getLinesCount(), mBytes + zip.getBytesCount(), now - mStart);
+        }
+
+        void onZipClosed(ZipStreamWriter zip) {
+            mRows += zip.getLinesCount();
+            mBytes += zip.getBytesCount();
+        }
+
         @Override
         protected void onPostExecute(ArrayList<Uri> result) {
             super.onPostExecute(result);
@@ -38,6 +38,8 @@ import com.nextgis.logger.util.LoggerConstants;
 public class MainPreferenceFragment extends PreferenceFragment implements Preference.OnPreferenceChangeListener {
     public static final int MIN_PERIOD = 1;
     public static final int MAX_PERIOD = 3600;
+    public static final int MIN_PERIOD_MS = 100;
+    public static final int MAX_PERIOD_MS = 1000;
     public static final int CHOOSE_FILE = 53;
 
     @SuppressWarnings("deprecation")
@@ -57,6 +59,15 @@ public class MainPreferenceFragment extends PreferenceFragment implements Prefer
         periodPreference.setSummary(getString(R.string.settings_period_sum) + periodPreference.getPersistedString("1"));
         periodPreference.setOnPreferenceChangeListener(this);
 
+        IntEditTextPreference periodMsPreference = (IntEditTextPreference) findPreference(LoggerConstants.PREF_PERIOD_MS);
+        periodMsPreference.setSummary(getString(R.string.settings_period_ms_sum) + periodMsPreference.getPersistedString("0"));
+        periodMsPreference.setOnPreferenceChangeListener(this);
+
+        setAdaptiveListener(LoggerConstants.PREF_ADAPTIVE_DISTANCE, R.string.settings_period_sum, LoggerConstants.ADAPTIVE_DISTANCE);
+        setAdaptiveListener(LoggerConstants.PREF_ADAPTIVE_SIGNAL, R.string.settings_period_sum, LoggerConstants.ADAPTIVE_SIGNAL);
+        setAdaptiveListener(LoggerConstants.PREF_ADAPTIVE_SENSOR, R.string.settings_period_sum, LoggerConstants.ADAPTIVE_SENSOR);
+        setAdaptiveListener(LoggerConstants.PREF_ADAPTIVE_HEARTBEAT, R.string.settings_adaptive_heartbeat_sum, LoggerConstants.ADAPTIVE_HEARTBEAT);
+
         Preference catPathPreference = findPreference(LoggerConstants.PREF_CAT_PATH);
         catPathPreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
             @Override
@@ -70,6 +81,12 @@ public class MainPreferenceFragment extends PreferenceFragment implements Prefer
         });
     }
 
+    private void setAdaptiveListener(String key, int summary, int defaultValue) {
+        IntEditTextPreference preference = (IntEditTextPreference) findPreference(key);
+        preference.setSummary(getString(summary) + preference.getPersistedString(Integer.toString(defaultValue)));
+        preference.setOnPreferenceChangeListener(this);
+    }
+
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == CHOOSE_FILE)
@@ -107,6 +124,48 @@ public class MainPreferenceFragment extends PreferenceFragment implements Prefer
                     Toast.makeText(preference.getContext(), R.string.settings_period_toast, Toast.LENGTH_LONG).show();
                 }
 
+                return false;
+            case LoggerConstants.PREF_PERIOD_MS:
+                int periodMs;
+
+                try {
+                    periodMs = Integer.parseInt((String) newValue);
+                    boolean max = periodMs > MAX_PERIOD_MS;
+                    boolean min = periodMs != 0 && periodMs < MIN_PERIOD_MS;
+
+                    if (max)
+                        periodMs = MAX_PERIOD_MS;
+
+                    if (min)
+                        periodMs = MIN_PERIOD_MS;
+
+                    ((IntEditTextPreference) preference).persistString(Integer.toString(periodMs));
+                    preference.setSummary(getString(R.string.settings_period_ms_sum) + periodMs);
+
+                    if (min || max)
+                        throw new IllegalArgumentException();
+                } catch (Exception e) {
+                    Toast.makeText(preference.getContext(), R.string.settings_period_ms_toast, Toast.LENGTH_LONG).show();
+                }
+
+                return false;
+            case LoggerConstants.PREF_ADAPTIVE_DISTANCE:
+            case LoggerConstants.PREF_ADAPTIVE_SIGNAL:
+            case LoggerConstants.PREF_ADAPTIVE_SENSOR:
+            case LoggerConstants.PREF_ADAPTIVE_HEARTBEAT:
+                int summary = LoggerConstants.PREF_ADAPTIVE_HEARTBEAT.equals(preference.getKey()) ? R.string.settings_adaptive_heartbeat_sum
+                                                                                                   : R.string.settings_period_sum;
+                try {
+                    int delta = Integer.parseInt((String) newValue);
+                    if (delta < 0)
+                        throw new IllegalArgumentException();
+
+                    ((IntEditTextPreference) preference).persistString(Integer.toString(delta));
+                    preference.setSummary(getString(summary) + delta);
+                } catch (Exception e) {
+                    Toast.makeText(preference.getContext(), R.string.settings_adaptive_toast, Toast.LENGTH_LONG).show();
+                }
+
                 return false;
         }
 
@@ -37,7 +37,6 @@ import android.preference.CheckBoxPreference;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
-import android.widget.ArrayAdapter;
 
 import com.nextgis.logger.ui.activity.PreferencesActivity;
 import com.nextgis.logger.R;
@@ -45,6 +44,10 @@ import com.nextgis.logger.engines.ArduinoEngine;
 import com.nextgis.logger.ui.view.AudioCalibratePreference;
 import com.nextgis.logger.util.LoggerConstants;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 public class SensorsPreferenceFragment extends PreferenceFragment {
     @SuppressWarnings("deprecation")
     @Override
@@ -88,7 +91,7 @@ public class SensorsPreferenceFragment extends PreferenceFragment {
         audio.setSummary();
 
         final Preference selectExternalDevice = findPreference(LoggerConstants.PREF_EXTERNAL_DEVICE);
-        selectExternalDevice.setSummary(PreferenceManager.getDefaultSharedPreferences(getActivity()).getString(LoggerConstants.PREF_EXTERNAL_DEVICE, null));
+        setDevicesSummary(selectExternalDevice, PreferenceManager.getDefaultSharedPreferences(getActivity()).getString(LoggerConstants.PREF_EXTERNAL_DEVICE, null));
         selectExternalDevice.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
             @Override
             public boolean onPreferenceClick(final Preference preference) {
@@ -102,23 +105,39 @@ public class SensorsPreferenceFragment extends PreferenceFragment {
                     dialog.setMessage(R.string.external_bt_disabled);
                 } else {
                     dialog.setTitle(R.string.external_paired);
-                    final ArrayAdapter<String> devicesNames = new ArrayAdapter<>(getActivity(), android.R.layout.simple_spinner_dropdown_item);
+                    String selected = PreferenceManager.getDefaultSharedPreferences(getActivity()).getString(LoggerConstants.PREF_EXTERNAL_DEVICE, "");
+                    List<String> selectedNames = Arrays.asList(selected.split("\n"));
+                    final List<String> devicesNames = new ArrayList<>();
 
                     for (BluetoothDevice device : engine.getPairedDevices())
                         devicesNames.add(device.getName() + " (" + device.getAddress() + ")");
 
-                    dialog.setAdapter(devicesNames,
-                                      new DialogInterface.OnClickListener() {
-                                          @Override
-                                          public void onClick(DialogInterface dialog, int which) {
-                                              String name = devicesNames.getItem(which);
-                                              PreferenceManager.getDefaultSharedPreferences(getActivity()).edit()
-                                                               .putString(LoggerConstants.PREF_EXTERNAL_DEVICE, name).apply();
-                                              engine.setDeviceMAC(engine.splitDeviceMAC(name));
-                                              engine.setDeviceName(engine.splitDeviceName(name));
-                                              selectExternalDevice.setSummary(name);
-                                          }
-                                      });
+                    final boolean[] checked = new boolean[devicesNames.size()];
+                    for (int i = 0; i < checked.length; i++)
+                        checked[i] = selectedNames.contains(devicesNames.get(i));
+
+                    dialog.setMultiChoiceItems(devicesNames.toArray(new String[devicesNames.size()]), checked,
+                                               new DialogInterface.OnMultiChoiceClickListener() {
+                                                   @Override
+                                                   public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+                                                       checked[which] = isChecked;
+                                                   }
+                                               });
+                    dialog.setNeutralButton(android.R.string.ok,
+                                            new DialogInterface.OnClickListener() {
+                                                @Override
+                                                public void onClick(DialogInterface dialog, int which) {
+                                                    String devices = "";
+                                                    for (int i = 0; i < checked.length; i++)
+                                                        if (checked[i])
+                                                            devices += (devices.isEmpty() ? "" : "\n") + devicesNames.get(i);
+
+                                                    PreferenceManager.getDefaultSharedPreferences(getActivity()).edit()
+                                                                     .putString(LoggerConstants.PREF_EXTERNAL_DEVICE, devices).apply();
+                                                    engine.setDevices(devices);
+                                                    setDevicesSummary(selectExternalDevice, devices);
+                                                }
+                                            });
                 }
 
                 dialog.setNegativeButton(android.R.string.cancel, null);
@@ -137,4 +156,8 @@ public class SensorsPreferenceFragment extends PreferenceFragment {
             }
         });
     }
+
+    private static void setDevicesSummary(Preference preference, String devices) {
+        preference.setSummary(devices == null ? null : devices.replace("\n", ", "));
+    }
 }
@@ -40,6 +40,8 @@ import com.nextgis.logger.engines.AudioEngine;
 import com.nextgis.logger.engines.BaseEngine;
 import com.nextgis.logger.util.UiUtil;
 
+import java.util.List;
+
 public class AudioCalibratePreference extends DialogPreference implements View.OnClickListener, BaseEngine.EngineListener {
     private AudioEngine mAudioEngine;
     private TextView mTvDelta, mTvTotal;
@@ -136,7 +138,7 @@ public class AudioCalibratePreference extends DialogPreference implements View.O
     }
 
     @Override
-    public void onInfoChanged(String sourceEngine) {
+    public void onInfoChanged(List<String> sources) {
         ((Activity) getContext()).runOnUiThread(new Runnable() {
             @Override
             public void run() {
@@ -0,0 +1,86 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.engines;
+
+/**
+ * IEC 61672 A-weighting as three biquads made by bilinear transform of analog
+ * poles, normalized to unity gain at 1 kHz. Coefficients and state are allocated once.
+ */
+final class AWeighting {
+    private static final double F1 = 20.598997, F2 = 107.65265, F3 = 737.86223, F4 = 12194.217;
+
+    private final double[] mB0 = new double[3], mB1 = new double[3], mB2 = new double[3], mA1 = new double[3], mA2 = new double[3];
+    private final double[] mZ1 = new double[3], mZ2 = new double[3];
+    private double mGain = 1;
+
+    AWeighting(int sampleRate) {
+        double w1 = 2 * Math.PI * F1, w2 = 2 * Math.PI * F2, w3 = 2 * Math.PI * F3, w4 = 2 * Math.PI * F4;
+        double k = 2.0 * sampleRate;
+        setSection(0, k, 1, 0, 0, 2 * w1, w1 * w1); // s^2 / (s + w1)^2
+        setSection(1, k, 1, 0, 0, w2 + w3, w2 * w3); // s^2 / ((s + w2)(s + w3))
+        setSection(2, k, 0, 0, 1, 2 * w4, w4 * w4); // 1 / (s + w4)^2
+        mGain = 1 / getMagnitude(2 * Math.PI * 1000 / sampleRate);
+    }
+
+    /**
+     * Bilinear transform of (b2 s^2 + b1 s + b0) / (s^2 + a1 s + a0)
+     */
+    private void setSection(int i, double k, double b2, double b1, double b0, double a1, double a0) {
+        double kk = k * k;
+        double norm = kk + a1 * k + a0;
+        mB0[i] = (b2 * kk + b1 * k + b0) / norm;
+        mB1[i] = (2 * b0 - 2 * b2 * kk) / norm;
+        mB2[i] = (b2 * kk - b1 * k + b0) / norm;
+        mA1[i] = (2 * a0 - 2 * kk) / norm;
+        mA2[i] = (kk - a1 * k + a0) / norm;
+    }
+
+    private double getMagnitude(double w) {
+        double result = 1;
+        double c1 = Math.cos(w), s1 = Math.sin(w), c2 = Math.cos(2 * w), s2 = Math.sin(2 * w);
+        for (int i = 0; i < 3; i++) {
+            double numRe = mB0[i] + mB1[i] * c1 + mB2[i] * c2, numIm = -mB1[i] * s1 - mB2[i] * s2;
+            double denRe = 1 + mA1[i] * c1 + mA2[i] * c2, denIm = -mA1[i] * s1 - mA2[i] * s2;
+            result *= Math.sqrt((numRe * numRe + numIm * numIm) / (denRe * denRe + denIm * denIm));
+        }
+
+        return result;
+    }
+
+    double filter(double x) {
+        for (int i = 0; i < 3; i++) { // transposed direct form II
+            double y = mB0[i] * x + mZ1[i];
+            mZ1[i] = mB1[i] * x - mA1[i] * y + mZ2[i];
+            mZ2[i] = mB2[i] * x - mA2[i] * y;
+            x = y;
+        }
+
+        return x * mGain;
+    }
+
+    void reset() {
+        for (int i = 0; i < 3; i++)
+            mZ1[i] = mZ2[i] = 0;
+    }
+}
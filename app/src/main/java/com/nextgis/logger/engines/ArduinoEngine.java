@@ -25,62 +25,52 @@ package com.nextgis.logger.engines;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.content.BroadcastReceiver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.database.Cursor;
-import android.os.SystemClock;
+import android.net.Uri;
 import android.preference.PreferenceManager;
-import android.text.TextUtils;
 
 import com.nextgis.logger.LoggerApplication;
+import com.nextgis.logger.util.BatchWriter;
+import com.nextgis.logger.util.ExternalSchema;
 import com.nextgis.logger.util.LoggerConstants;
-import com.nextgis.maplib.map.MapBase;
-import com.nextgis.maplib.map.NGWVectorLayer;
 import com.nextgis.maplib.util.Constants;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 // http://stackoverflow.com/q/10327506
 public class ArduinoEngine extends BaseEngine {
-    private final static byte DELIMITER = 10;
-    private final static char GET_HEADER = 'h';
-    private final static char GET_DATA = 'd';
+    private static final String DEVICES_SEPARATOR = "\n";
 
     private BluetoothAdapter mBluetoothAdapter;
-    private BluetoothDevice mDevice;
-    private BluetoothSocket mSocket;
-    private OutputStream mOutputStream;
-    private InputStream mInputStream;
-
-    private byte[] mBuffer;
-    private int mBufferPosition;
-
-    private volatile boolean mIsWorking, mIsConnectionLost, mIsFirstConnect;
-    private String mLine, mDeviceName, mDeviceMAC;
-    private Thread mWorkerThread;
+    private volatile List<ExternalDevice> mDevices;
+    private volatile int mFramesCapacity;
+    private volatile boolean mIsWorking;
     private List<ConnectionListener> mConnectionListeners;
     private BroadcastReceiver mReceiver;
+    private boolean mIsReceiverRegistered;
 
     @Override
     public boolean isEngineEnabled() {
         return getPreferences().getBoolean(LoggerConstants.PREF_EXTERNAL, false);
     }
 
+    /**
+     * @return  Header of data stored as a single string, typed tables keep their own headers
+     */
     public static String getHeader(Context context) {
         String header = PreferenceManager.getDefaultSharedPreferences(context).getString(LoggerConstants.PREF_EXTERNAL_HEADER, "data");
         try {
@@ -108,39 +98,32 @@ public class ArduinoEngine extends BaseEngine {
     public ArduinoEngine(Context context) {
         super(context);
         mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        mConnectionListeners = new ArrayList<>();
-        String nameWithMAC = PreferenceManager.getDefaultSharedPreferences(context).getString(LoggerConstants.PREF_EXTERNAL_DEVICE, "");
-        mDeviceMAC = splitDeviceMAC(nameWithMAC);
-        mDeviceName = splitDeviceName(nameWithMAC);
+        mConnectionListeners = new CopyOnWriteArrayList<>();
         mUri = mUri.buildUpon().appendPath(LoggerApplication.TABLE_EXTERNAL).build();
 
         mReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 String action = intent.getAction();
-                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-
-                if (BluetoothDevice.ACTION_ACL_DISCONNECTED.equals(action) && device.getAddress().equals(mDeviceMAC)) {
-                    mIsConnectionLost = true;
-                    mLine = null;
-                    clearData();
 
-                    for (ConnectionListener listener : mConnectionListeners)
-                        listener.onConnectionLost();
-
-                    if (!mIsWorking)
-                        closeConnection();
+                if (BluetoothAdapter.ACTION_STATE_CHANGED.equals(action)) {
+                    if (intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR) == BluetoothAdapter.STATE_ON)
+                        reconnect();
+                    return;
                 }
+
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                for (ExternalDevice external : mDevices)
+                    if (external.getMAC().equals(device.getAddress())) {
+                        if (BluetoothDevice.ACTION_ACL_DISCONNECTED.equals(action))
+                            external.onDisconnected();
+                        else if (BluetoothDevice.ACTION_ACL_CONNECTED.equals(action))
+                            external.wake(true);
+                    }
             }
         };
 
-        IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_ACL_DISCONNECTED);
-        mContext.registerReceiver(mReceiver, filter);
-
-        mLine = getPreferences().getString(LoggerConstants.PREF_EXTERNAL_HEADER, "");
-        loadEngine();
-        mLine = null;
-        clearData();
+        setDevices(getPreferences().getString(LoggerConstants.PREF_EXTERNAL_DEVICE, ""));
     }
 
     public boolean removeListener(BaseEngine.EngineListener listener) {
@@ -169,182 +152,284 @@ public class ArduinoEngine extends BaseEngine {
         if (hasListeners())
             return false;
 
-        mContext.unregisterReceiver(mReceiver);
+        unregisterReceiver();
         closeConnection();
         return false;
     }
 
-    @Override
-    public void saveData(String markId) {
-        saveData(getData(), markId);
+    /**
+     * Listen to Bluetooth state and links of devices while engine is resumed
+     */
+    private synchronized void registerReceiver() {
+        if (mIsReceiverRegistered)
+            return;
+
+        IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_ACL_DISCONNECTED);
+        filter.addAction(BluetoothDevice.ACTION_ACL_CONNECTED);
+        filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+        mContext.registerReceiver(mReceiver, filter);
+        mIsReceiverRegistered = true;
     }
 
-    @Override
-    public void saveData(ArrayList<InfoItem> items, String markId) {
-        NGWVectorLayer externalLayer = (NGWVectorLayer) MapBase.getInstance().getLayerByPathName(LoggerApplication.TABLE_EXTERNAL);
-        if (externalLayer != null) {
-            ContentValues cv = new ContentValues();
-            cv.put(LoggerApplication.FIELD_MARK, markId);
+    private synchronized void unregisterReceiver() {
+        if (!mIsReceiverRegistered)
+            return;
 
-            String data = "";
-            for (InfoItem item : items)
-                data += item.getColumns().get(0).getValue() + LoggerConstants.CSV_SEPARATOR;
+        mContext.unregisterReceiver(mReceiver);
+        mIsReceiverRegistered = false;
+    }
+
+    /**
+     * Add rows of each device to its schema table. Devices without values are skipped.
+     *
+     * @param items     Snapshot of engine items, sensors of devices follow in order of devices
+     */
+    public void addRows(BatchWriter.Batch batch, List<InfoItem> items, String markId) {
+        addRows(batch, items, markId, false);
+    }
+
+    /**
+     * Add rows of log tick. Devices buffering frames get a row per frame received since
+     * the previous logged tick, others get a row of their latest values.
+     */
+    public void addLogRows(BatchWriter.Batch batch, String markId) {
+        addRows(batch, getSnapshot(), markId, true);
+    }
+
+    private void addRows(BatchWriter.Batch batch, List<InfoItem> items, String markId, boolean isLog) {
+        List<ArduinoProtocol.Frame> frames = new ArrayList<>();
+        int offset = 0;
+        for (ExternalDevice device : mDevices) {
+            ExternalSchema schema = device.getSchema();
+            if (schema == null)
+                continue;
+
+            if (isLog && device.isFramesBuffered()) {
+                frames.clear();
+                device.drainFrames(frames);
+                for (ArduinoProtocol.Frame frame : frames) {
+                    ContentValues cv = getRow(schema, frame, markId);
+                    if (cv != null)
+                        batch.add(getUri(schema), cv);
+                }
+            } else {
+                if (offset + schema.size() > items.size() || !isSchemaOf(schema, items, offset))
+                    break; // snapshot is taken before header change
 
-            cv.put(LoggerApplication.FIELD_DATA, data);
-            cv.put(Constants.FIELD_GEOM, LoggerApplication.getNullGeometry());
+                ContentValues cv = getRow(schema, items, offset, markId);
+                if (cv != null)
+                    batch.add(getUri(schema), cv);
+            }
 
-            externalLayer.insert(mUri, cv);
+            offset += schema.size();
         }
     }
 
-    @Override
-    public boolean onResume() {
-        if (hasListeners() && (mWorkerThread != null && mWorkerThread.isAlive()))
-            return false;
+    private static boolean isSchemaOf(ExternalSchema schema, List<InfoItem> items, int offset) {
+        String[] titles = schema.getTitles();
+        for (int i = 0; i < titles.length; i++)
+            if (!titles[i].equals(items.get(offset + i).getTitle()))
+                return false;
 
-        mIsWorking = true;
-        mBufferPosition = 0;
-        mBuffer = new byte[1024];
-        mWorkerThread = new Thread(new Runnable() {
-            public void run() {
-                while (mIsWorking) {
-                    try {
-                        if (!isDeviceAvailable() || !isConnected())
-                            openConnection();
-
-                        if (mIsFirstConnect)
-                            getExternalHeader();
-
-                        mOutputStream.write(GET_DATA);
-                        mLine = readln();
-                        if (parseData())
-                            notifyListeners("EXTERNAL");
-
-                        SystemClock.sleep(LoggerConstants.UPDATE_FREQUENCY);
-                    } catch (IOException e) {
-                        mLine = null;
-                        clearData();
-
-                        for (ConnectionListener listener : mConnectionListeners)
-                            listener.onConnectionLost();
-
-                        if (!hasListeners())
-                            mIsWorking = false;
-                    } catch (NullPointerException ignored) { }
-                }
+        return true;
+    }
 
-                closeConnection();
+    /**
+     * @return  Row with doubles taken directly from item slots or null if device has no values
+     */
+    private static ContentValues getRow(ExternalSchema schema, List<InfoItem> items, int offset, String markId) {
+        ContentValues cv = new ContentValues();
+        String[] columns = schema.getColumns();
+        boolean hasValues = false;
+
+        for (int i = 0; i < columns.length; i++) {
+            double value = items.get(offset + i).getDouble(0);
+            if (Double.isNaN(value))
+                cv.putNull(columns[i]);
+            else {
+                cv.put(columns[i], value);
+                hasValues = true;
             }
-        });
+        }
 
-        mWorkerThread.start();
-        return false;
-    }
+        if (!hasValues)
+            return null;
 
-    private void clearData() {
-        for (InfoItem item : mItems)
-            item.getColumns().get(0).setValue(LoggerConstants.NO_DATA);
+        cv.put(LoggerApplication.FIELD_MARK, markId);
+        cv.put(Constants.FIELD_GEOM, LoggerApplication.getNullGeometry());
+        return cv;
     }
 
-    private synchronized void getExternalHeader() throws IOException {
-        mOutputStream.write(GET_HEADER);
-        SystemClock.sleep(LoggerConstants.UPDATE_FREQUENCY);
-        mLine = readln();
-        loadEngine();
-        getPreferences().edit().putString(LoggerConstants.PREF_EXTERNAL_HEADER, mLine).apply();
-        mIsFirstConnect = false;
+    /**
+     * @return  Row of frame values with its times or null if frame does not fit schema
+     */
+    private static ContentValues getRow(ExternalSchema schema, ArduinoProtocol.Frame frame, String markId) {
+        String[] columns = schema.getColumns(), values = frame.getValues();
+        if (values.length != columns.length)
+            return null;
 
-        for (ConnectionListener listener : mConnectionListeners)
-            listener.onConnected();
+        ContentValues cv = new ContentValues();
+        for (int i = 0; i < columns.length; i++) {
+            try {
+                cv.put(columns[i], Double.parseDouble(values[i]));
+            } catch (NumberFormatException e) {
+                cv.putNull(columns[i]);
+            }
+        }
+
+        cv.put(ExternalSchema.FIELD_TIME, frame.getReceivedTime() * 1d);
+        if (frame.getDeviceTime() >= 0) // polled frames have no device time
+            cv.put(ExternalSchema.FIELD_DEVICE_TIME, frame.getDeviceTime() * 1d);
+
+        cv.put(LoggerApplication.FIELD_MARK, markId);
+        cv.put(Constants.FIELD_GEOM, LoggerApplication.getNullGeometry());
+        return cv;
+    }
+
+    private Uri getUri(ExternalSchema schema) {
+        return new Uri.Builder().scheme(mUri.getScheme()).authority(mUri.getAuthority()).appendPath(schema.getTable()).build();
     }
 
+    /**
+     * Start workers of devices which are not running. Workers reconnect by themselves.
+     */
     @Override
-    protected synchronized void loadEngine() {
-        try {
-            JSONObject json = new JSONObject(mLine);
-            mItems.clear();
+    public boolean onResume() {
+        registerReceiver();
+        mIsWorking = true;
+        for (ExternalDevice device : mDevices)
+            device.start();
 
-            Iterator<String> sensors = json.keys();
-            while (sensors.hasNext()) {
-                String key = sensors.next();
-                JSONObject sensor = json.getJSONObject(key);
-                InfoItem item = new InfoItem(sensor.getString("full"));
-                item.addColumn(sensor.getString("short"), null, sensor.getString("unit"));
-                mItems.add(item);
-            }
-        } catch (JSONException ignored) { }
+        return false;
     }
 
-    private synchronized String readln() throws IOException {
-        String line = null;
-        int bytesAvailable = mInputStream.available();
+    /**
+     * Try to connect lost devices now instead of waiting for backoff
+     */
+    public void reconnect() {
+        for (ExternalDevice device : mDevices)
+            device.wake(true);
+    }
+
+    /**
+     * Set devices to connect
+     *
+     * @param devices   Entries "Name (MAC)" separated by new line, as stored in preferences
+     */
+    public void setDevices(String devices) {
+        List<ExternalDevice> result = new ArrayList<>();
+        for (String entry : devices.split(DEVICES_SEPARATOR)) {
+            ExternalDevice device = ExternalDevice.fromPreference(this, entry.trim());
+            if (device != null)
+                result.add(device);
+        }
 
-        if (bytesAvailable > 0) {
-            byte[] packetBytes = new byte[bytesAvailable];
-            int readLength = mInputStream.read(packetBytes);
+        List<ExternalDevice> previous = mDevices;
+        if (previous != null)
+            for (ExternalDevice device : previous)
+                device.stop();
 
-            for (int i = 0; i < readLength; i++) {
-                byte b = packetBytes[i];
+        SharedPreferences preferences = getPreferences();
+        for (ExternalDevice device : result) {
+            String header = preferences.getString(getHeaderKey(device), null);
+            if (header == null && result.size() == 1) // saved by previous versions
+                header = preferences.getString(LoggerConstants.PREF_EXTERNAL_HEADER, "");
 
-                if (b == DELIMITER) {
-                    byte[] encodedBytes = new byte[mBufferPosition];
-                    System.arraycopy(mBuffer, 0, encodedBytes, 0, encodedBytes.length);
-                    line = new String(encodedBytes, "UTF-8");
-                    mBufferPosition = 0;
-                } else {
-                    mBuffer[mBufferPosition++] = b;
-                }
-            }
+            if (header != null)
+                device.loadHeader(header);
+
+            device.setFramesBuffer(mFramesCapacity);
         }
 
-        return line;
+        mDevices = Collections.unmodifiableList(result);
+        loadEngine();
+
+        if (previous != null && mIsWorking && hasListeners())
+            onResume();
     }
 
-    private synchronized boolean parseData() {
-        String[] fields = mLine.split(";");
-        boolean isCorrect = !TextUtils.isEmpty(mLine) && fields.length == mItems.size();
+    public List<ExternalDevice> getDevices() {
+        return mDevices;
+    }
 
-        if (isCorrect)
-            for (int i = 0; i < fields.length; i++)
-                mItems.get(i).getColumns().get(0).setValue(fields[i].replace("\r", "").replace("\n", ""));
+    private static String getHeaderKey(ExternalDevice device) {
+        return LoggerConstants.PREF_EXTERNAL_HEADER + "_" + device.getMAC();
+    }
 
-        return isCorrect;
+    void onDeviceHeader(ExternalDevice device) {
+        getPreferences().edit().putString(getHeaderKey(device), device.getHeader()).apply();
+        loadEngine();
+
+        for (ConnectionListener listener : mConnectionListeners)
+            listener.onConnected();
     }
 
-    public int getSensorsCount() {
-        return mItems.size();
+    void onDeviceFailure(ExternalDevice device) {
+        for (ConnectionListener listener : mConnectionListeners)
+            listener.onTimeoutOrFailure();
     }
 
-    private void openConnection() {
-        try {
-            findBT();
-            openBT();
-        } catch (IOException e) {
-            for (ConnectionListener listener : mConnectionListeners)
-                listener.onTimeoutOrFailure();
+    /**
+     * @return  True if device should try to reconnect
+     */
+    boolean onDeviceLost(ExternalDevice device) {
+        notifyListeners("EXTERNAL");
 
-            mIsConnectionLost = true;
-            return;
-        }
+        for (ConnectionListener listener : mConnectionListeners)
+            listener.onConnectionLost();
 
-        mIsFirstConnect = true;
-        mIsConnectionLost = false;
+        return mIsWorking && hasListeners();
     }
 
-    private void findBT() throws IOException {
-        if (!isBTEnabled()) {
-            throw new IOException("Bluetooth adapter is not available");
-        }
+    /**
+     * Merge sensors of all devices. Header of data stored as a single string
+     * by previous versions is kept as is for their export.
+     */
+    @Override
+    protected void loadEngine() {
+        synchronized (mLock) {
+            mItems.clear();
+            for (ExternalDevice device : mDevices)
+                mItems.addAll(device.getItems());
 
-        Set<BluetoothDevice> pairedDevices = getPairedDevices();
-        for (BluetoothDevice device : pairedDevices) {
-            if (device.getAddress().equals(mDeviceMAC)) {
-                mDevice = device;
-                return;
-            }
+            publish();
         }
+    }
+
+    public boolean isFramesEnabled() {
+        return getPreferences().getBoolean(LoggerConstants.PREF_EXTERNAL_FRAMES, false);
+    }
+
+    /**
+     * Keep every received frame for log ticks if frames logging is on
+     */
+    public void startFramesCapture() {
+        setFramesBuffer(isFramesEnabled() ? LoggerConstants.EXTERNAL_FRAMES_CAPACITY : 0);
+    }
+
+    /**
+     * Log only the latest values again, frames not logged yet are dropped
+     */
+    public void stopFramesCapture() {
+        setFramesBuffer(0);
+    }
+
+    private void setFramesBuffer(int capacity) {
+        mFramesCapacity = capacity;
+        for (ExternalDevice device : mDevices)
+            device.setFramesBuffer(capacity);
+    }
 
-        throw new IOException("Can not find Arduino's bluetooth");
+    public long getDroppedFramesCount() {
+        long count = 0;
+        for (ExternalDevice device : mDevices)
+            count += device.getDroppedFramesCount();
+
+        return count;
+    }
+
+    public int getSensorsCount() {
+        return mItems.size();
     }
 
     public Set<BluetoothDevice> getPairedDevices() {
@@ -358,73 +443,43 @@ public class ArduinoEngine extends BaseEngine {
         return (mBluetoothAdapter != null && mBluetoothAdapter.isEnabled());
     }
 
+    /**
+     * @return  True if any of devices is found
+     */
     public boolean isDeviceAvailable() {
-        return (isBTEnabled() && mDevice != null);
-    }
+        for (ExternalDevice device : mDevices)
+            if (device.isDeviceAvailable())
+                return true;
 
-    private void openBT() throws IOException {
-        UUID uuid = UUID.fromString("00001101-0000-1000-8000-00805f9b34fb"); //Standard //SerialPortService ID
-        mSocket = mDevice.createRfcommSocketToServiceRecord(uuid);
-        mSocket.connect();
-        mOutputStream = mSocket.getOutputStream();
-        mInputStream = mSocket.getInputStream();
+        return false;
     }
 
+    /**
+     * @return  True if any of devices is connected
+     */
     public boolean isConnected() {
-        return (mInputStream != null && mOutputStream != null && mSocket != null && !mIsConnectionLost);
+        for (ExternalDevice device : mDevices)
+            if (device.isConnected())
+                return true;
+
+        return false;
     }
 
     private void closeConnection() {
         mIsWorking = false;
-
-        try {
-            if (mSocket != null)
-                mSocket.close();
-
-            if (mInputStream != null)
-                mInputStream.close();
-
-            if (mOutputStream != null)
-                mOutputStream.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        mOutputStream = null;
-        mInputStream = null;
-        mSocket = null;
-        mDevice = null;
-        mLine = null;
+        for (ExternalDevice device : mDevices)
+            device.stop();
     }
 
+    /**
+     * @return  Names of selected devices separated by comma
+     */
     public String getDeviceName() {
-        return mDeviceName;
-    }
-
-    public void setDeviceName(String newName) {
-        mDeviceName = newName;
-    }
-
-    public void setDeviceMAC(String newMAC) {
-        mDeviceMAC = newMAC;
-    }
-
-    public String splitDeviceMAC(String nameWithMAC) {
-        int i = nameWithMAC.indexOf("(");
+        String names = "";
+        for (ExternalDevice device : mDevices)
+            names += (names.isEmpty() ? "" : ", ") + device.getName();
 
-        if (i > 0)
-            return nameWithMAC.substring(i + 1, nameWithMAC.length() - 1);
-        else
-            return null;
-    }
-
-    public String splitDeviceName(String nameWithMAC) {
-        int i = nameWithMAC.indexOf("(");
-
-        if (i > 0)
-            return nameWithMAC.substring(0, i - 1);
-        else
-            return null;
+        return names;
     }
 
     public static String getDataFromCursor(Cursor cursor) {
@@ -0,0 +1,199 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.engines;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Serial protocol of external device, independent of Bluetooth socket.
+ * <p>
+ * Poll mode (any sketch): 'h' returns JSON header line, 'd' returns one line
+ * of values separated by ';'.
+ * <p>
+ * Stream mode: after header engine sends 's'. Device supporting it answers
+ * {@link #STREAM_ACK} line and then pushes frames "device_ms;value1;value2...*XX"
+ * at its own rate until 'x' is received. XX is checksum, see {@link FrameReader}.
+ * Devices which do not answer in {@link #HANDSHAKE_TIMEOUT} ms are polled.
+ */
+public class ArduinoProtocol {
+    public static final char GET_HEADER = 'h';
+    public static final char GET_DATA = 'd';
+    public static final char START_STREAM = 's';
+    public static final char STOP_STREAM = 'x';
+    public static final String STREAM_ACK = "STREAM";
+    public static final long HANDSHAKE_TIMEOUT = 500;
+
+    private static final String SEPARATOR = ";";
+
+    private final OutputStream mOutput;
+    private final FrameReader mReader;
+    private boolean mIsStreaming;
+    private volatile long mLatency;
+    private long mMinOffset = Long.MAX_VALUE;
+
+    /**
+     * Values of one line received from device
+     */
+    public static class Frame {
+        private final long mDeviceTime, mReceivedTime;
+        private final String[] mValues;
+
+        Frame(long deviceTime, long receivedTime, String[] values) {
+            mDeviceTime = deviceTime;
+            mReceivedTime = receivedTime;
+            mValues = values;
+        }
+
+        /**
+         * @return  Device clock in ms or -1 in poll mode
+         */
+        public long getDeviceTime() {
+            return mDeviceTime;
+        }
+
+        public long getReceivedTime() {
+            return mReceivedTime;
+        }
+
+        public String[] getValues() {
+            return mValues;
+        }
+    }
+
+    /**
+     * Start reading input. Call {@link #close()} when link is closed.
+     */
+    public ArduinoProtocol(InputStream input, OutputStream output) {
+        mOutput = output;
+        mReader = new FrameReader(input);
+        mReader.start();
+    }
+
+    public void close() {
+        mReader.stop();
+    }
+
+    public FrameReader getReader() {
+        return mReader;
+    }
+
+    /**
+     * @return  JSON header line or null if device did not answer
+     */
+    public String requestHeader() throws IOException {
+        mReader.clear();
+        mOutput.write(GET_HEADER);
+        return mReader.poll(HANDSHAKE_TIMEOUT);
+    }
+
+    /**
+     * Ask device to push frames. Stays in poll mode if device does not confirm.
+     *
+     * @return  True if device streams frames now
+     */
+    public boolean startStreaming() throws IOException {
+        mReader.clear();
+        mOutput.write(START_STREAM);
+        String line = mReader.poll(HANDSHAKE_TIMEOUT);
+        mIsStreaming = line != null && STREAM_ACK.equals(line.trim());
+        mMinOffset = Long.MAX_VALUE;
+        mReader.setChecksumRequired(mIsStreaming);
+        return mIsStreaming;
+    }
+
+    public void stopStreaming() throws IOException {
+        if (mIsStreaming)
+            mOutput.write(STOP_STREAM);
+
+        mIsStreaming = false;
+        mReader.setChecksumRequired(false);
+    }
+
+    public boolean isStreaming() {
+        return mIsStreaming;
+    }
+
+    /**
+     * Request to answer time in poll mode. In stream mode device clock is not
+     * synchronized, so delay is counted relative to the fastest frame received.
+     *
+     * @return  Latency of the last frame in ms
+     */
+    public long getLastLatency() {
+        return mLatency;
+    }
+
+    /**
+     * Get next frame. Waits until device pushes one in stream mode,
+     * requests it in poll mode.
+     *
+     * @return  Frame or null if device did not answer in time
+     */
+    public Frame readFrame() throws IOException {
+        String line;
+        long requested = System.currentTimeMillis();
+        if (mIsStreaming) {
+            line = mReader.poll(HANDSHAKE_TIMEOUT);
+        } else {
+            mOutput.write(GET_DATA);
+            line = mReader.poll(HANDSHAKE_TIMEOUT);
+            String next;
+            while ((next = mReader.poll()) != null) // keep the freshest answer
+                line = next;
+        }
+
+        if (line == null)
+            return null;
+
+        Frame frame = parse(line, System.currentTimeMillis());
+        if (!mIsStreaming)
+            mLatency = frame.getReceivedTime() - requested;
+        else if (frame.getDeviceTime() >= 0) {
+            long offset = frame.getReceivedTime() - frame.getDeviceTime();
+            mMinOffset = Math.min(mMinOffset, offset);
+            mLatency = offset - mMinOffset;
+        }
+
+        return frame;
+    }
+
+    private Frame parse(String line, long received) {
+        String[] values = line.split(SEPARATOR, -1);
+        if (!mIsStreaming)
+            return new Frame(-1, received, values);
+
+        long time;
+        try {
+            time = Long.parseLong(values[0].trim());
+        } catch (NumberFormatException e) {
+            time = -1;
+        }
+
+        String[] data = new String[values.length - 1];
+        System.arraycopy(values, 1, data, 0, data.length);
+        return new Frame(time, received, data);
+    }
+}
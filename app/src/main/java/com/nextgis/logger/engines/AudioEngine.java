@@ -24,6 +24,7 @@
 package com.nextgis.logger.engines;
 
 import android.Manifest;
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.media.AudioFormat;
@@ -32,20 +33,32 @@ import android.media.MediaRecorder.AudioSource;
 import android.os.Process;
 import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.util.Log;
 
 import com.nextgis.logger.R;
 import com.nextgis.logger.util.LoggerConstants;
 import com.nextgis.logger.util.UiUtil;
 
-import java.util.ArrayList;
+import static com.nextgis.maplib.util.Constants.TAG;
 
 public class AudioEngine extends BaseEngine {
+    private static final float MAX_REPORTABLE_AMP = 32767f;
+    private static final float MAX_REPORTABLE_DB = 90.3087f;
+    private static final int[] SAMPLE_RATES = {8000, 11025, 16000, 22050, 32000, 44100, 47250, 48000};
+    private static final int[] SPECTRUM_SAMPLE_RATES = {48000, 44100, 47250, 32000, 22050, 16000, 11025, 8000}; // bands up to 20 kHz first
+
     private AudioMeter mAudioMeter;
     private InfoItem mAudioItem;
     private int mDelta;
 
-    public AudioEngine(Context context) {
-        super(context);
+    private final Object mLeqLock = new Object();
+    private double mLeqSum;
+    private long mLeqCount;
+    private volatile float mPeakDb, mRmsDb;
+    private volatile OctaveSpectrum mSpectrum;
+
+    AudioEngine(Context context, Object lock) {
+        super(context, lock);
         mAudioMeter = new AudioMeter();
         loadEngine();
         mDelta = PreferenceManager.getDefaultSharedPreferences(context).getInt(LoggerConstants.PREF_MIC_DELTA, 0);
@@ -61,16 +74,6 @@ public class AudioEngine extends BaseEngine {
         return false;
     }
 
-    @Override
-    public void saveData(String markId) {
-
-    }
-
-    @Override
-    public void saveData(ArrayList<InfoItem> items, String markId) {
-
-    }
-
     @Override
     public boolean onResume() {
         if (super.onResume() && isEngineEnabled()) {
@@ -89,10 +92,77 @@ public class AudioEngine extends BaseEngine {
         mAudioItem = new InfoItem(mContext.getString(R.string.mic));
         mAudioItem.addColumn(LoggerConstants.HEADER_AUDIO, null, mContext.getString(R.string.info_db));
         mItems.add(mAudioItem);
+        publish();
     }
 
     public int getDb() {
-        return Integer.parseInt(mAudioItem.getColumn(LoggerConstants.HEADER_AUDIO).getValue().toString());
+        return (int) mAudioItem.getLong(0);
+    }
+
+    /**
+     * @return  Peak level of the last update period without calibration delta
+     */
+    public float getPeakDb() {
+        return mPeakDb;
+    }
+
+    /**
+     * @return  RMS level of the last update period without calibration delta
+     */
+    public float getRmsDb() {
+        return mRmsDb;
+    }
+
+    /**
+     * @return  Thread CPU time spent on noise spectrum per second of audio in ms, 0 if spectrum is off
+     */
+    public double getSpectrumCpuLoad() {
+        OctaveSpectrum spectrum = mSpectrum;
+        return spectrum == null ? 0 : spectrum.getCpuLoad();
+    }
+
+    /**
+     * @return  Sensor table columns of noise spectrum bands
+     */
+    public static String[] getSpectrumColumns() {
+        return OctaveSpectrum.getColumns();
+    }
+
+    /**
+     * Put equivalent continuous level and spectrum bands integrated since the previous call
+     * into sensor row and start new interval. Row keeps shown level if there were no samples.
+     */
+    public void putLevels(ContentValues cv) {
+        OctaveSpectrum spectrum = mSpectrum;
+        if (spectrum != null)
+            spectrum.putLevels(cv, mDelta);
+
+        double sum;
+        long count;
+        synchronized (mLeqLock) {
+            sum = mLeqSum;
+            count = mLeqCount;
+            mLeqSum = 0;
+            mLeqCount = 0;
+        }
+
+        if (count > 0)
+            cv.put(LoggerConstants.HEADER_AUDIO, (int) getLevel(sum / count) + mDelta);
+    }
+
+    /**
+     * Drop levels integrated before session start, so the first row of log
+     * covers its own interval only
+     */
+    public void resetLevels() {
+        OctaveSpectrum spectrum = mSpectrum;
+        if (spectrum != null)
+            spectrum.reset();
+
+        synchronized (mLeqLock) {
+            mLeqSum = 0;
+            mLeqCount = 0;
+        }
     }
 
     public void setDelta(int delta) {
@@ -116,83 +186,78 @@ public class AudioEngine extends BaseEngine {
         return cursor.getString(cursor.getColumnIndex(LoggerConstants.HEADER_AUDIO));
     }
 
-    // http://michaelpardo.com/android/2012/03/recording-audio-streams/
-    private class AudioMeter extends Thread {
-        /////////////////////////////////////////////////////////////////
-        // PUBLIC CONSTANTS
-
-        // Convenience constants
-        public static final int AMP_SILENCE = 0;
-        public static final int AMP_NORMAL_BREATHING = 10;
-        public static final int AMP_MOSQUITO = 20;
-        public static final int AMP_WHISPER = 30;
-        public static final int AMP_STREAM = 40;
-        public static final int AMP_QUIET_OFFICE = 50;
-        public static final int AMP_NORMAL_CONVERSATION = 60;
-        public static final int AMP_HAIR_DRYER = 70;
-        public static final int AMP_GARBAGE_DISPOSAL = 80;
-
-        /////////////////////////////////////////////////////////////////
-        // PRIVATE CONSTANTS
-
-        private static final float MAX_REPORTABLE_AMP = 32767f;
-        private static final float MAX_REPORTABLE_DB = 90.3087f;
-
-        /////////////////////////////////////////////////////////////////
-        // PRIVATE MEMBERS
+    /**
+     * @param meanSquare    Mean of squared samples
+     * @return  Level in dB relative to full scale shifted by {@link #MAX_REPORTABLE_DB}
+     */
+    static float getLevel(double meanSquare) {
+        if (meanSquare < 1)
+            meanSquare = 1;
+
+        return (float) (MAX_REPORTABLE_DB + 10 * Math.log10(meanSquare / (MAX_REPORTABLE_AMP * MAX_REPORTABLE_AMP)));
+    }
 
+    // http://michaelpardo.com/android/2012/03/recording-audio-streams/
+    private class AudioMeter {
         private AudioRecord mAudioRecord;
         private int mSampleRate;
         private short mAudioFormat;
         private short mChannelConfig;
+        private boolean mIsSpectrumRate;
 
         private short[] mBuffer;
         private int mBufferSize = AudioRecord.ERROR_BAD_VALUE;
+        private AWeighting mWeighting;
 
-        private int mLocks = 0;
-
-        /////////////////////////////////////////////////////////////////
-        // CONSTRUCTOR
+        private volatile int mLocks = 0;
+        private Thread mThread;
 
-        public AudioMeter() {
-            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
-            createAudioRecord();
+        AudioMeter() {
+            createAudioRecord(getPreferences().getBoolean(LoggerConstants.PREF_MIC_SPECTRUM, false));
         }
 
-        /////////////////////////////////////////////////////////////////
-        // PUBLIC METHODS
-
-        public float getAmplitude() {
-            float rawAmplitude = getMaxRawAmplitude();
-            if (rawAmplitude == 0f)
-                rawAmplitude = getRawAmplitude();
-            if (rawAmplitude == 0f)
-                rawAmplitude = 1;
-
-            return (float) (MAX_REPORTABLE_DB + (20 * Math.log10(rawAmplitude / MAX_REPORTABLE_AMP)));
-        }
+        synchronized void startRecording() {
+            boolean isSpectrum = getPreferences().getBoolean(LoggerConstants.PREF_MIC_SPECTRUM, false);
+            if (mLocks == 0 && isSpectrum != mIsSpectrumRate && mAudioRecord != null) { // sample rate is chosen again for spectrum
+                mAudioRecord.release();
+                mAudioRecord = null;
+            }
 
-        public synchronized void startRecording() {
             if (isAudioRecordInvalid()) {
-                createAudioRecord();
+                createAudioRecord(isSpectrum);
             }
 
             if (mLocks == 0) {
                 if (isAudioRecordInvalid())
                     throw new IllegalStateException("startRecording() called on an uninitialized AudioRecord.");
 
-                mAudioRecord.startRecording();
+                boolean isWeighted = getPreferences().getBoolean(LoggerConstants.PREF_MIC_WEIGHTING, false);
+                if (!isWeighted)
+                    mWeighting = null;
+                else if (mWeighting == null)
+                    mWeighting = new AWeighting(mSampleRate);
+
+                if (isSpectrum) {
+                    int thirds = getPreferences().getBoolean(LoggerConstants.PREF_MIC_THIRDS, false) ? 3 : 1;
+                    mSpectrum = new OctaveSpectrum(mSampleRate, thirds);
+                } else {
+                    mSpectrum = null;
+                }
 
-                new Thread(new Runnable() {
+                final AudioRecord record = mAudioRecord;
+                final AWeighting weighting = mWeighting;
+                final OctaveSpectrum spectrum = mSpectrum;
+                record.startRecording();
+                mLocks++;
+                mThread = new Thread(new Runnable() {
                     @Override
                     public void run() {
-                        while (isRecording()) {
-                            mAudioItem.setValue(LoggerConstants.HEADER_AUDIO, (int) getAmplitude() + mDelta + "");
-                            notifyListeners(mAudioItem.getTitle());
-                            SystemClock.sleep(LoggerConstants.UPDATE_FREQUENCY);
-                        }
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+                        process(record, weighting, spectrum);
                     }
-                }).start();
+                }, "LoggerAudio");
+                mThread.start();
+                return;
             }
 
             mLocks++;
@@ -202,29 +267,111 @@ public class AudioEngine extends BaseEngine {
             return mAudioRecord == null || mAudioRecord.getState() != AudioRecord.STATE_INITIALIZED;
         }
 
-        public synchronized void stopRecording() {
+        synchronized void stopRecording() {
             mLocks--;
 
             if (mLocks == 0) {
                 if (mAudioRecord != null) {
-                    mAudioRecord.stop();
+                    mAudioRecord.stop(); // unblocks read
+                    joinThread();
                     mAudioRecord.release();
                     mAudioRecord = null;
+
+                    if (mSpectrum != null)
+                        Log.d(TAG, "Spectrum CPU time: " + mSpectrum.getCpuLoad() + " ms per second of audio");
                 }
             }
         }
 
-        /////////////////////////////////////////////////////////////////
-        // PRIVATE METHODS
+        private void joinThread() {
+            if (mThread == null)
+                return;
 
-        private void createAudioRecord() {
-            if (mSampleRate > 0 && mAudioFormat > 0 && mChannelConfig > 0) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            mThread = null;
+        }
+
+        /**
+         * Read blocks continuously and compute peak and energy of every block in one pass.
+         * Level is shown once per update period, energy is also added to Leq of log interval.
+         * Spectrum takes unweighted samples.
+         */
+        private void process(AudioRecord record, AWeighting weighting, OctaveSpectrum spectrum) {
+            short[] buffer = mBuffer;
+            double windowSum = 0;
+            long windowCount = 0;
+            int windowPeak = 0;
+            long published = SystemClock.elapsedRealtime();
+            if (weighting != null)
+                weighting.reset();
+
+            while (isRecording()) {
+                int read = record.read(buffer, 0, buffer.length);
+                if (read <= 0) {
+                    if (read < 0) // record is stopped or broken
+                        break;
+                    continue;
+                }
+
+                double sum = 0;
+                int peak = 0;
+                for (int i = 0; i < read; i++) {
+                    int sample = buffer[i];
+                    if (sample < 0)
+                        sample = -sample;
+                    if (sample > peak)
+                        peak = sample;
+
+                    double value = weighting == null ? buffer[i] : weighting.filter(buffer[i]);
+                    sum += value * value;
+                }
+
+                synchronized (mLeqLock) {
+                    mLeqSum += sum;
+                    mLeqCount += read;
+                }
+
+                if (spectrum != null)
+                    spectrum.add(buffer, read);
+
+                windowSum += sum;
+                windowCount += read;
+                if (peak > windowPeak)
+                    windowPeak = peak;
+
+                long now = SystemClock.elapsedRealtime();
+                if (now - published >= LoggerConstants.UPDATE_FREQUENCY) {
+                    mRmsDb = getLevel(windowSum / windowCount);
+                    mPeakDb = getLevel((double) windowPeak * windowPeak);
+                    synchronized (mLock) {
+                        mAudioItem.setValue(0, (int) mRmsDb + mDelta);
+                    }
+
+                    notifyListeners(mAudioItem.getTitle());
+                    windowSum = 0;
+                    windowCount = 0;
+                    windowPeak = 0;
+                    published = now;
+                }
+            }
+        }
+
+        /**
+         * @param isSpectrum    Prefer high sample rates, so spectrum bands are not cut by Nyquist frequency
+         */
+        private void createAudioRecord(boolean isSpectrum) {
+            if (mSampleRate > 0 && mAudioFormat > 0 && mChannelConfig > 0 && isSpectrum == mIsSpectrumRate) {
                 mAudioRecord = new AudioRecord(AudioSource.MIC, mSampleRate, mChannelConfig, mAudioFormat, mBufferSize);
                 return;
             }
 
             // Find best/compatible AudioRecord
-            for (int sampleRate : new int[] { 8000, 11025, 16000, 22050, 32000, 44100, 47250, 48000 }) {
+            for (int sampleRate : isSpectrum ? SPECTRUM_SAMPLE_RATES : SAMPLE_RATES) {
                 for (short audioFormat : new short[] { AudioFormat.ENCODING_PCM_16BIT, AudioFormat.ENCODING_PCM_8BIT }) {
                     for (short channelConfig : new short[] { AudioFormat.CHANNEL_IN_MONO, AudioFormat.CHANNEL_IN_STEREO,
                             AudioFormat.CHANNEL_CONFIGURATION_MONO, AudioFormat.CHANNEL_CONFIGURATION_STEREO }) {
@@ -241,6 +388,11 @@ public class AudioEngine extends BaseEngine {
                             mAudioRecord = new AudioRecord(AudioSource.MIC, sampleRate, channelConfig, audioFormat,	mBufferSize);
 
                             if (mAudioRecord.getState() == AudioRecord.STATE_INITIALIZED) {
+                                if (sampleRate != mSampleRate)
+                                    mWeighting = null; // filter is made for sample rate
+
+                                Log.d(TAG, "Audio sample rate: " + sampleRate);
+                                mIsSpectrumRate = isSpectrum;
                                 mSampleRate = sampleRate;
                                 mAudioFormat = audioFormat;
                                 mChannelConfig = channelConfig;
@@ -258,54 +410,5 @@ public class AudioEngine extends BaseEngine {
                 }
             }
         }
-
-        private int getRawAmplitude() {
-            if (mAudioRecord == null) {
-                createAudioRecord();
-            }
-
-            final int bufferReadSize = mAudioRecord.read(mBuffer, 0, mBufferSize);
-
-            if (bufferReadSize < 0) {
-                return 0;
-            }
-
-            double sum = 0;
-//        int sum = 0;
-            for (int i = 0; i < bufferReadSize; i++) {
-                sum += mBuffer[i] * mBuffer[i];
-//            sum += Math.abs(mBuffer[i]);
-            }
-
-            if (bufferReadSize > 0) {
-                sum /= bufferReadSize;
-                return (int) Math.sqrt(sum);
-//            return sum / bufferReadSize;
-            }
-
-            return 0;
-        }
-
-        // https://github.com/poga/GiderosMicBlow/blob/master/Android/AudioMeter.java
-        public int getMaxRawAmplitude() {
-            if (mAudioRecord == null) {
-                createAudioRecord();
-            }
-
-            final int bufferReadSize = mAudioRecord.read(mBuffer, 0, mBufferSize);
-
-            if (bufferReadSize < 0) {
-                return 0;
-            }
-
-            int maxVolume = 0;
-            for (int i = 0; i < bufferReadSize; i++) {
-                if (Math.abs(mBuffer[i]) > maxVolume) {
-                    maxVolume = Math.abs(mBuffer[i]);
-                }
-            }
-
-            return maxVolume;
-        }
     }
 }
@@ -26,44 +26,74 @@ package com.nextgis.logger.engines;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.preference.PreferenceManager;
 
 import com.nextgis.logger.LoggerApplication;
+import com.nextgis.logger.util.ExternalSchema;
 import com.nextgis.logger.util.LoggerConstants;
+import com.nextgis.logger.util.SessionStats;
 import com.nextgis.maplib.api.IGISApplication;
-import com.nextgis.maplib.datasource.GeoPoint;
 import com.nextgis.maplib.map.MapBase;
+import com.nextgis.maplib.map.MapContentProviderHelper;
 import com.nextgis.maplib.map.NGWVectorLayer;
 
-import java.io.IOException;
 import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static com.nextgis.maplib.util.Constants.FIELD_GEOM;
 
 public abstract class BaseEngine {
+    /**
+     * Guards values of engine's items. Engines sharing items share the lock.
+     */
+    final Object mLock;
+
     private int mLocks;
     Context mContext;
     ArrayList<InfoItem> mItems;
     private List<EngineListener> mListeners;
+    private ArrayList<String> mChanged, mDelivered;
+    private List<String> mDeliveredSources;
+    private volatile List<InfoItem> mSnapshot;
     Uri mUri;
 
     public interface EngineListener {
-        void onInfoChanged(String sourceEngine);
+        /**
+         * Called on dispatcher thread once per frame
+         *
+         * @param sources   Titles of items changed since the last call. The list is reused, do not keep it.
+         */
+        void onInfoChanged(List<String> sources);
     }
 
     public abstract boolean isEngineEnabled();
     protected abstract void loadEngine();
 
     public BaseEngine(Context context) {
+        this(context, new Object());
+    }
+
+    /**
+     * @param lock  Lock of engine which shares items with this one
+     */
+    BaseEngine(Context context, Object lock) {
+        mLock = lock;
+        mSnapshot = Collections.emptyList();
         mLocks = 0;
         mContext = context;
         mItems = new ArrayList<>();
-        mListeners = new ArrayList<>();
+        mListeners = new CopyOnWriteArrayList<>();
+        mChanged = new ArrayList<>();
+        mDelivered = new ArrayList<>();
+        mDeliveredSources = Collections.unmodifiableList(mDelivered);
         mUri = Uri.parse("content://" + ((IGISApplication) context.getApplicationContext()).getAuthority());
     }
 
@@ -79,9 +109,39 @@ public abstract class BaseEngine {
         return mListeners.size();
     }
 
+    /**
+     * Mark source as changed. Snapshot is published and listeners are
+     * notified by {@link EngineDispatcher} once per frame.
+     */
     void notifyListeners(String source) {
+        boolean isFirst;
+        synchronized (mChanged) {
+            if (mChanged.contains(source))
+                return;
+
+            isFirst = mChanged.isEmpty();
+            mChanged.add(source);
+        }
+
+        if (isFirst)
+            EngineDispatcher.getInstance().post(this);
+    }
+
+    void deliverChanges() {
+        mDelivered.clear();
+        synchronized (mChanged) {
+            for (int i = 0; i < mChanged.size(); i++)
+                mDelivered.add(mChanged.get(i));
+
+            mChanged.clear();
+        }
+
+        if (mDelivered.isEmpty())
+            return;
+
+        publish();
         for (EngineListener listener : mListeners)
-            listener.onInfoChanged(source);
+            listener.onInfoChanged(mDeliveredSources);
     }
 
     /**
@@ -100,40 +160,149 @@ public abstract class BaseEngine {
         return --mLocks <= 0;
     }
 
-    public static String saveMark(Uri uri, String session, int id, String name, long timestamp, GeoPoint point) {
-        NGWVectorLayer markLayer = (NGWVectorLayer) MapBase.getInstance().getLayerByPathName(LoggerApplication.TABLE_MARK);
-        if (markLayer != null) {
-            String uniqueId = UUID.randomUUID().toString();
-            ContentValues cv = new ContentValues();
-            cv.put(LoggerApplication.FIELD_UNIQUE_ID, uniqueId);
-            cv.put(LoggerApplication.FIELD_SESSION, session);
-            cv.put(LoggerApplication.FIELD_MARK_ID, id);
-            cv.put(LoggerApplication.FIELD_NAME, name);
-            cv.put(LoggerApplication.FIELD_TIMESTAMP, timestamp * 1d);
-            cv.put(LoggerApplication.FIELD_DATETIME, timestamp);
-            try {
-                cv.put(FIELD_GEOM, point.toBlob());
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-
-            markLayer.insert(uri, cv);
-            return uniqueId;
+    /**
+     * Prepare mark row without writing it
+     *
+     * @param geometry  Serialized point, see {@link GPSEngine.Fix#getBlob()}
+     * @return  Mark values with newly generated unique id
+     */
+    public static ContentValues getMarkValues(String session, int id, String name, long timestamp, byte[] geometry) {
+        ContentValues cv = new ContentValues();
+        cv.put(LoggerApplication.FIELD_UNIQUE_ID, UUID.randomUUID().toString());
+        cv.put(LoggerApplication.FIELD_SESSION, session);
+        cv.put(LoggerApplication.FIELD_MARK_ID, id);
+        cv.put(LoggerApplication.FIELD_NAME, name);
+        cv.put(LoggerApplication.FIELD_TIMESTAMP, timestamp * 1d);
+        cv.put(LoggerApplication.FIELD_DATETIME, timestamp);
+        cv.put(FIELD_GEOM, geometry);
+        return cv;
+    }
+
+    /**
+     * Delete mark with its data rows and subtract them from session stats
+     *
+     * @param uri   Uri of marks layer
+     */
+    public static void deleteMark(Uri uri, String uuid) {
+        MapBase map = MapBase.getInstance();
+        NGWVectorLayer markLayer = (NGWVectorLayer) map.getLayerByPathName(LoggerApplication.TABLE_MARK);
+        if (markLayer == null)
+            return;
+
+        List<NGWVectorLayer> layers = new ArrayList<>();
+        for (String table : new String[]{LoggerApplication.TABLE_CELL, LoggerApplication.TABLE_SENSOR, LoggerApplication.TABLE_EXTERNAL}) {
+            NGWVectorLayer layer = (NGWVectorLayer) map.getLayerByPathName(table);
+            if (layer != null)
+                layers.add(layer);
         }
 
-        return null;
+        layers.addAll(ExternalSchema.getLayers());
+        List<String> tables = new ArrayList<>();
+        for (NGWVectorLayer layer : layers)
+            tables.add(layer.getPath().getName());
+        tables.add(LoggerApplication.TABLE_CELL_OBS);
+
+        SQLiteDatabase db = ((MapContentProviderHelper) map).getDatabase(false);
+        SessionStats.remove(db, uuid, tables);
+
+        String[] args = new String[]{uuid};
+        markLayer.delete(uri, LoggerApplication.FIELD_UNIQUE_ID + " = ?", args);
+        for (NGWVectorLayer layer : layers)
+            layer.delete(Uri.parse("content://" + uri.getAuthority() + "/" + layer.getPath().getName()), LoggerApplication.FIELD_MARK + " = ?",
+                         args);
+        db.delete(LoggerApplication.TABLE_CELL_OBS, LoggerApplication.FIELD_MARK + " = ?", args);
     }
 
-    public static void deleteMark(Uri uri, String uuid) {
-        NGWVectorLayer markLayer = (NGWVectorLayer) MapBase.getInstance().getLayerByPathName(LoggerApplication.TABLE_MARK);
-        if (markLayer != null) {
-            markLayer.delete(uri, LoggerApplication.FIELD_UNIQUE_ID + " = ?" , new String[]{uuid});
+    public List<ContentValues> getRows(String markId) {
+        return getRows(getSnapshot(), markId);
+    }
+
+    /**
+     * Convert items to rows of engine's table without writing them
+     *
+     * @param items     Items to convert
+     * @param markId    Mark unique id rows belong to
+     * @return  Rows ready to be inserted by {@link #getUri()}
+     */
+    public List<ContentValues> getRows(List<InfoItem> items, String markId) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Put all item's columns to row, reading typed values directly from slots
+     */
+    static void putValues(ContentValues cv, InfoItem item) {
+        ArrayList<InfoColumn> columns = item.getColumns();
+        for (int i = 0; i < columns.size(); i++)
+            item.putValue(cv, columns.get(i).getShortName(), i);
+    }
+
+    /**
+     * Read column value as it was shown when logged. Floats are stored in REAL
+     * columns widened to double, so they are printed back with float precision.
+     *
+     * @param isFloat   Column keeps float values
+     */
+    public static String getValueFromCursor(Cursor cursor, String column, boolean isFloat) {
+        int i = cursor.getColumnIndex(column);
+        switch (cursor.getType(i)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return LoggerConstants.NO_DATA;
+            case Cursor.FIELD_TYPE_FLOAT:
+                double value = cursor.getDouble(i);
+                return isFloat ? Float.toString((float) value) : Double.toString(value);
+            case Cursor.FIELD_TYPE_STRING: // not migrated yet
+                if (isFloat) {
+                    try {
+                        return Float.toString(Float.parseFloat(cursor.getString(i)));
+                    } catch (NumberFormatException ignored) { }
+                }
+
+                return cursor.getString(i);
+            default:
+                return cursor.getString(i);
+        }
+    }
+
+    /**
+     * Copy items to a new list and publish it as snapshot. Called on dispatcher thread
+     * once per frame and by engine when its set of items is changed.
+     */
+    void publish() {
+        synchronized (mLock) {
+            int size = mItems.size();
+            ArrayList<InfoItem> snapshot = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                snapshot.add(new InfoItem(mItems.get(i)));
+
+            mSnapshot = Collections.unmodifiableList(snapshot);
         }
     }
 
-    public abstract void saveData(String markId);
+    /**
+     * Consistent copy of items as of the last frame. Safe to read from any thread and
+     * to keep: neither the list nor its items are changed after publishing, so readers
+     * must not change them either.
+     */
+    public List<InfoItem> getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Copy of snapshot which can be changed by caller
+     */
+    public ArrayList<InfoItem> copySnapshot() {
+        List<InfoItem> snapshot = getSnapshot();
+        ArrayList<InfoItem> result = new ArrayList<>(snapshot.size());
+        for (int i = 0; i < snapshot.size(); i++)
+            result.add(new InfoItem(snapshot.get(i)));
 
-    public abstract void saveData(ArrayList<InfoItem> items, String markId);
+        return result;
+    }
+
+    public Uri getUri() {
+        return mUri;
+    }
 
     public ArrayList<InfoItem> getData() {
         return mItems;
@@ -0,0 +1,160 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.engines;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.nextgis.logger.LoggerApplication;
+import com.nextgis.logger.util.LoggerConstants;
+import com.nextgis.maplib.util.Constants;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.nextgis.logger.util.LoggerConstants.CSV_SEPARATOR;
+
+/**
+ * Rebuilds full cell rows of session marks from dictionary and delta encoded log,
+ * see {@link CellEncoder}. Marks must be requested in order of timestamp and row id.
+ * Marks logged before cell log have no rows here, their cells stay in cell table.
+ */
+public class CellDecoder {
+    private static final int MARK_ROW = 0, TIMESTAMP = 1, MARK_ID = 2, CELL = 3, ACTIVE = 4, POWER = 5, KEYFRAME = 6, IDENTITY = 7, IDENTITY_COLUMNS = 7;
+
+    private final Cursor mCursor;
+    private final Map<Long, String[]> mIdentities = new HashMap<>();
+    private final Map<Long, long[]> mState = new LinkedHashMap<>();
+    private final List<long[]> mDuplicates = new ArrayList<>();
+    private boolean mHasRow;
+
+    public CellDecoder(SQLiteDatabase db, String session) {
+        String sql = "SELECT m." + Constants.FIELD_ID + ", m." + LoggerApplication.FIELD_TIMESTAMP + ", m." + LoggerApplication.FIELD_MARK_ID +
+                ", o." + LoggerApplication.FIELD_CELL + ", o.\"" + LoggerConstants.HEADER_ACTIVE + "\", o.\"" + LoggerConstants.HEADER_POWER +
+                "\", o." + LoggerApplication.FIELD_KEYFRAME + ", d.\"" + LoggerConstants.HEADER_GEN + "\", d.\"" + LoggerConstants.HEADER_TYPE +
+                "\", d.\"" + LoggerConstants.HEADER_MCC + "\", d.\"" + LoggerConstants.HEADER_MNC + "\", d.\"" + LoggerConstants.HEADER_LAC +
+                "\", d.\"" + LoggerConstants.HEADER_CID + "\", d.\"" + LoggerConstants.HEADER_PSC + "\" FROM " + LoggerApplication.TABLE_MARK +
+                " m JOIN " + LoggerApplication.TABLE_CELL_OBS + " o ON o." + LoggerApplication.FIELD_MARK + " = m." +
+                LoggerApplication.FIELD_UNIQUE_ID + " JOIN " + LoggerApplication.TABLE_CELL_DICT + " d ON d." + Constants.FIELD_ID + " = o." +
+                LoggerApplication.FIELD_CELL + " WHERE m." + LoggerApplication.FIELD_SESSION + " = ? ORDER BY m." +
+                LoggerApplication.FIELD_TIMESTAMP + ", m." + Constants.FIELD_ID + ", o." + Constants.FIELD_ID;
+        mCursor = db.rawQuery(sql, new String[]{session});
+        mHasRow = mCursor != null && mCursor.moveToFirst();
+    }
+
+    /**
+     * Cells of mark in format of {@link CellEngine#getDataFromCursor(Cursor)}, active ones first.
+     * Skipped log marks are still applied to the state.
+     *
+     * @return  Rows or empty list if mark has no cells
+     */
+    public List<String> getRows(long markRow, double timestamp, int markId) {
+        while (mHasRow && isBefore(markRow, timestamp)) {
+            if (mCursor.getInt(MARK_ID) == -1)
+                applyMark(mState);
+            else
+                skipMark();
+        }
+
+        Map<Long, long[]> cells = mState;
+        if (markId != -1) // user marks keep all their cells
+            cells = new LinkedHashMap<>();
+
+        mDuplicates.clear();
+        if (mHasRow && mCursor.getLong(MARK_ROW) == markRow)
+            applyMark(cells);
+
+        List<String> result = new ArrayList<>();
+        for (int active = 1; active >= 0; active--) {
+            for (Map.Entry<Long, long[]> cell : cells.entrySet())
+                if ((cell.getValue()[0] == 1) == (active == 1))
+                    result.add(getRow(cell.getKey(), cell.getValue()));
+
+            for (long[] duplicate : mDuplicates)
+                if ((duplicate[1] == 1) == (active == 1))
+                    result.add(getRow(duplicate[0], new long[]{duplicate[1], duplicate[2]}));
+        }
+
+        return result;
+    }
+
+    public void close() {
+        if (mCursor != null)
+            mCursor.close();
+    }
+
+    private boolean isBefore(long markRow, double timestamp) {
+        double current = mCursor.getDouble(TIMESTAMP);
+        return current < timestamp || current == timestamp && mCursor.getLong(MARK_ROW) < markRow;
+    }
+
+    /**
+     * Apply all rows of current mark to cells and move to the next mark.
+     * Duplicates of this mark are collected separately, they do not change state.
+     */
+    private void applyMark(Map<Long, long[]> cells) {
+        long markRow = mCursor.getLong(MARK_ROW);
+        if (mCursor.getInt(KEYFRAME) == CellEncoder.ROW_KEYFRAME)
+            cells.clear();
+
+        do {
+            long cell = mCursor.getLong(CELL);
+            if (!mIdentities.containsKey(cell)) {
+                String[] identity = new String[IDENTITY_COLUMNS];
+                for (int i = 0; i < identity.length; i++)
+                    identity[i] = mCursor.getString(IDENTITY + i);
+
+                mIdentities.put(cell, identity);
+            }
+
+            if (mCursor.getInt(KEYFRAME) == CellEncoder.ROW_DUPLICATE)
+                mDuplicates.add(new long[]{cell, mCursor.getLong(ACTIVE), mCursor.getLong(POWER)});
+            else if (mCursor.isNull(ACTIVE))
+                cells.remove(cell);
+            else
+                cells.put(cell, new long[]{mCursor.getLong(ACTIVE), mCursor.getLong(POWER)});
+
+            mHasRow = mCursor.moveToNext();
+        } while (mHasRow && mCursor.getLong(MARK_ROW) == markRow);
+    }
+
+    private void skipMark() {
+        long markRow = mCursor.getLong(MARK_ROW);
+        do {
+            mHasRow = mCursor.moveToNext();
+        } while (mHasRow && mCursor.getLong(MARK_ROW) == markRow);
+    }
+
+    /**
+     * @return  Generation;type;active;MCC;MNC;LAC;CID;PSC;power
+     */
+    private String getRow(long cell, long[] state) {
+        String[] identity = mIdentities.get(cell);
+        return identity[0] + CSV_SEPARATOR + identity[1] + CSV_SEPARATOR + state[0] + CSV_SEPARATOR + identity[2] + CSV_SEPARATOR + identity[3] +
+                CSV_SEPARATOR + identity[4] + CSV_SEPARATOR + identity[5] + CSV_SEPARATOR + identity[6] + CSV_SEPARATOR + state[1];
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.engines;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.nextgis.logger.LoggerApplication;
+import com.nextgis.logger.util.LoggerConstants;
+import com.nextgis.maplib.map.MapBase;
+import com.nextgis.maplib.map.MapContentProviderHelper;
+import com.nextgis.maplib.util.Constants;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary and delta encoding of cells to {@link LoggerApplication#TABLE_CELL_OBS}.
+ * Cell identity (generation, type, MCC, MNC, LAC, CID, PSC) is interned to
+ * {@link LoggerApplication#TABLE_CELL_DICT} once. Log ticks keep only cells whose
+ * active flag or power changed since previous tick and cells which are lost (NULL
+ * active and power). Every {@link #KEYFRAME_INTERVAL} ticks and for user marks all
+ * cells are stored as keyframe, see {@link CellDecoder}.
+ * <p>
+ * Cells with the same identity in one tick (e.g. neighbours without CID) are
+ * tracked by the first one, the others are stored as {@link #ROW_DUPLICATE} rows
+ * of this tick only.
+ */
+class CellEncoder {
+    static final int KEYFRAME_INTERVAL = 60;
+    static final int ROW_DELTA = 0, ROW_KEYFRAME = 1, ROW_DUPLICATE = 2;
+
+    private static final String[] IDENTITY = {LoggerConstants.HEADER_GEN, LoggerConstants.HEADER_TYPE, LoggerConstants.HEADER_MCC,
+                                              LoggerConstants.HEADER_MNC, LoggerConstants.HEADER_LAC, LoggerConstants.HEADER_CID,
+                                              LoggerConstants.HEADER_PSC};
+
+    private final Map<Identity, Long> mIds = new HashMap<>();
+    private final Identity mProbe = new Identity();
+    private Map<Long, Long> mState = new HashMap<>(), mNext = new HashMap<>();
+    private int mTicks;
+    private SQLiteStatement mInsert, mSelect;
+
+    /**
+     * Start new log, next tick is keyframe
+     */
+    synchronized void reset() {
+        mState.clear();
+        mTicks = 0;
+    }
+
+    /**
+     * @param isLog True for log ticks, they are delta encoded. User marks are always keyframes.
+     */
+    synchronized List<ContentValues> encode(List<InfoItem> items, String markId, boolean isLog) {
+        boolean isKeyframe = !isLog || mTicks++ % KEYFRAME_INTERVAL == 0;
+        List<ContentValues> rows = new ArrayList<>();
+        Map<Long, Long> next = isLog ? mNext : new HashMap<Long, Long>();
+        next.clear();
+
+        int type = isKeyframe ? ROW_KEYFRAME : ROW_DELTA;
+        for (InfoItem item : items) {
+            long id = getId(item);
+            if (id == -1)
+                continue;
+
+            int active = (int) item.getLong(item.indexOf(LoggerConstants.HEADER_ACTIVE));
+            int power = (int) item.getLong(item.indexOf(LoggerConstants.HEADER_POWER));
+            if (next.containsKey(id)) {
+                rows.add(getRow(markId, id, active, power, ROW_DUPLICATE));
+                continue;
+            }
+
+            long state = ((long) active << 32) | (power & 0xffffffffL);
+            next.put(id, state);
+            Long previous = mState.get(id);
+            if (isKeyframe || previous == null || previous != state)
+                rows.add(getRow(markId, id, active, power, type));
+        }
+
+        if (!isKeyframe)
+            for (Long id : mState.keySet())
+                if (!next.containsKey(id))
+                    rows.add(getRow(markId, id, null, null, ROW_DELTA));
+
+        if (isLog) {
+            mNext = mState;
+            mState = next;
+        }
+
+        return rows;
+    }
+
+    private static ContentValues getRow(String markId, long id, Integer active, Integer power, int type) {
+        ContentValues cv = new ContentValues();
+        cv.put(LoggerApplication.FIELD_MARK, markId);
+        cv.put(LoggerApplication.FIELD_CELL, id);
+        cv.put(LoggerConstants.HEADER_ACTIVE, active);
+        cv.put(LoggerConstants.HEADER_POWER, power);
+        cv.put(LoggerApplication.FIELD_KEYFRAME, type);
+        return cv;
+    }
+
+    /**
+     * @return  Dictionary id of cell identity or -1 if it can not be stored
+     */
+    synchronized long getCellId(InfoItem item) {
+        return getId(item);
+    }
+
+    /**
+     * Cell identity compared by its slots. One instance is reused to look up
+     * known cells, so ticks allocate nothing for them.
+     */
+    static final class Identity {
+        private final long[] mNumbers = new long[IDENTITY.length];
+        private final String[] mStrings = new String[IDENTITY.length];
+        private int mHash;
+
+        Identity() {
+        }
+
+        Identity(Identity other) {
+            System.arraycopy(other.mNumbers, 0, mNumbers, 0, mNumbers.length);
+            System.arraycopy(other.mStrings, 0, mStrings, 0, mStrings.length);
+            mHash = other.mHash;
+        }
+
+        Identity set(InfoItem item) {
+            int hash = 0;
+            for (int i = 0; i < IDENTITY.length; i++) {
+                int slot = item.indexOf(IDENTITY[i]);
+                if (item.isNumeric(slot)) {
+                    long value = item.getLong(slot);
+                    mNumbers[i] = value;
+                    mStrings[i] = null;
+                    hash = 31 * hash + (int) (value ^ (value >>> 32));
+                } else {
+                    String value = item.getValueAsString(slot);
+                    mNumbers[i] = 0;
+                    mStrings[i] = value;
+                    hash = 31 * hash + value.hashCode();
+                }
+            }
+
+            mHash = hash;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+
+            if (!(o instanceof Identity))
+                return false;
+
+            Identity other = (Identity) o;
+            return mHash == other.mHash && Arrays.equals(mNumbers, other.mNumbers) && Arrays.equals(mStrings, other.mStrings);
+        }
+    }
+
+    private long getId(InfoItem item) {
+        Long id = mIds.get(mProbe.set(item));
+        if (id != null)
+            return id;
+
+        SQLiteDatabase db = ((MapContentProviderHelper) MapBase.getInstance()).getDatabase(false);
+        if (mInsert == null) {
+            String columns = "", values = "", where = "";
+            for (String column : IDENTITY) {
+                columns += (columns.isEmpty() ? "" : ", ") + "\"" + column + "\"";
+                values += (values.isEmpty() ? "" : ", ") + "?";
+                where += (where.isEmpty() ? "" : " AND ") + "\"" + column + "\" = ?";
+            }
+
+            mInsert = db.compileStatement("INSERT OR IGNORE INTO " + LoggerApplication.TABLE_CELL_DICT + " (" + columns + ") VALUES (" + values + ")");
+            mSelect = db.compileStatement("SELECT " + Constants.FIELD_ID + " FROM " + LoggerApplication.TABLE_CELL_DICT + " WHERE " + where);
+        }
+
+        bind(mInsert, item);
+        id = mInsert.executeInsert();
+        if (id == -1) { // already stored
+            bind(mSelect, item);
+            try {
+                id = mSelect.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                return -1;
+            }
+        }
+
+        mIds.put(new Identity(mProbe), id);
+        return id;
+    }
+
+    private static void bind(SQLiteStatement statement, InfoItem item) {
+        statement.clearBindings();
+        for (int i = 0; i < IDENTITY.length; i++) {
+            int slot = item.indexOf(IDENTITY[i]);
+            if (item.isNumeric(slot))
+                statement.bindLong(i + 1, item.getLong(slot));
+            else
+                statement.bindString(i + 1, String.valueOf(item.getValue(slot)));
+        }
+    }
+}
@@ -27,7 +27,11 @@ import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
 import android.telephony.CellIdentityGsm;
 import android.telephony.CellIdentityLte;
 import android.telephony.CellIdentityWcdma;
@@ -43,26 +47,39 @@ import android.telephony.SignalStrength;
 import android.telephony.TelephonyManager;
 import android.telephony.gsm.GsmCellLocation;
 import android.text.TextUtils;
+import android.util.Log;
 
 import com.nextgis.logger.LoggerApplication;
 import com.nextgis.logger.R;
+import com.nextgis.logger.util.BatchWriter;
 import com.nextgis.logger.util.LoggerConstants;
+import com.nextgis.logger.util.LoggerVectorLayer;
 import com.nextgis.logger.util.UiUtil;
 import com.nextgis.maplib.map.MapBase;
-import com.nextgis.maplib.map.NGWVectorLayer;
 import com.nextgis.maplib.util.Constants;
 
 import java.lang.reflect.Method;
+import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
 
 import static com.nextgis.logger.util.LoggerConstants.CSV_SEPARATOR;
 import static com.nextgis.logger.util.LoggerConstants.NO_DATA;
-
-public class CellEngine extends BaseEngine {
+import static com.nextgis.maplib.util.Constants.TAG;
+
+/**
+ * Telephony callbacks come in bursts, so they only schedule an update on engine's
+ * thread. Update reads cells into reused buffers and touches items only if cells differ
+ * from the previous update. Changes of serving cell, its generation and signal level are
+ * recorded as events with time of the callback which brought them.
+ */
+public class CellEngine extends BaseEngine implements Handler.Callback {
 	private final static String LTE_SIGNAL_STRENGTH = "getLteSignalStrength";
+	private final static int MSG_UPDATE = 1;
+	private final static long UPDATE_DELAY = 100; // callbacks during this period are merged into one update
 
     private final static int LOW_BOUND = 0;
     private final static int MAX_MCC_MNC = 999;
@@ -71,16 +88,42 @@ public class CellEngine extends BaseEngine {
     private final static int MAX_PSC = 511;
     private final static int MAX_PCI = 503;
 	private final static int SIGNAL_STRENGTH_NONE = 0;
+	private final static int[] SIGNAL_THRESHOLDS = {-110, -100, -90, -80, -70}; // in dBm, ascending
+	private final static int SIGNAL_HYSTERESIS = 2; // in dB, signal must fall lower to cross threshold down
+
+	public final static String EVENT_SERVING = "serving";
+	public final static String EVENT_TECHNOLOGY = "technology";
+	public final static String EVENT_SIGNAL = "signal";
 
 	private final TelephonyManager mTelephonyManager;
+	private final CellEncoder mEncoder = new CellEncoder();
 	private GSMPhoneStateListener mSignalListener;
-	private int mSignalStrength = SIGNAL_STRENGTH_NONE;
+	private volatile int mSignalStrength = SIGNAL_STRENGTH_NONE;
+	private Uri mObsUri;
+
+	private static Method mLteSignalStrength;
+	private static boolean mIsLteMethodResolved;
+
+	private HandlerThread mThread;
+	private volatile Handler mHandler;
+	private volatile long mCallbacksCount, mUpdatesCount, mChangesCount;
+	private ArrayList<Cell> mCells = new ArrayList<>(), mScanned = new ArrayList<>();
+	private int mCellsCount, mScannedCount;
+	private final ArrayList<InfoItemGSM> mPool = new ArrayList<>();
+
+	private final CellEventRecorder mEvents = new CellEventRecorder();
+	private final CoverageGrid mCoverage = new CoverageGrid(LoggerConstants.COVERAGE_ZOOM);
+	private final Cell mServing = new Cell();
+	private boolean mHasServing;
+	private int mSignalLevel = -1;
+	private volatile long mCallbackTime;
 
 	public CellEngine(Context context) {
 		super(context);
         mItems = new ArrayList<>();
 		mTelephonyManager = (TelephonyManager) mContext.getSystemService(Context.TELEPHONY_SERVICE);
 		mSignalListener = new GSMPhoneStateListener();
+        mObsUri = mUri.buildUpon().appendPath(LoggerApplication.TABLE_CELL_OBS).build();
         mUri = mUri.buildUpon().appendPath(LoggerApplication.TABLE_CELL).build();
 	}
 
@@ -90,6 +133,12 @@ public class CellEngine extends BaseEngine {
 			if (!UiUtil.isPermissionGranted(mContext, Manifest.permission.READ_PHONE_STATE))
 				return false;
 
+			if (mThread == null) {
+				mThread = new HandlerThread("LoggerCell");
+				mThread.start();
+				mHandler = new Handler(mThread.getLooper(), this);
+			}
+
             int listen = PhoneStateListener.LISTEN_SIGNAL_STRENGTHS | PhoneStateListener.LISTEN_CELL_LOCATION
                     | PhoneStateListener.LISTEN_DATA_CONNECTION_STATE | PhoneStateListener.LISTEN_SERVICE_STATE;
             mTelephonyManager.listen(mSignalListener, listen);
@@ -110,55 +159,261 @@ public class CellEngine extends BaseEngine {
 
     @Override
 	public boolean onPause() {
-        if (super.onPause())
+        if (super.onPause()) {
 		    mTelephonyManager.listen(mSignalListener, PhoneStateListener.LISTEN_NONE);
+			if (mThread != null) {
+				mHandler = null;
+				mThread.quit();
+				mThread = null;
+			}
+
+			Log.d(TAG, "Cell callbacks: " + mCallbacksCount + ", updates: " + mUpdatesCount + ", changes: " + mChangesCount);
+		}
 
         return false;
     }
 
 	@Override
-	public void saveData(String markId) {
-		saveData(new ArrayList<>(getData()), markId);
-	}
-
-	@Override
-	public void saveData(ArrayList<InfoItem> items, String markId) {
-		NGWVectorLayer cellLayer = (NGWVectorLayer) MapBase.getInstance().getLayerByPathName(LoggerApplication.TABLE_CELL);
-		if (cellLayer != null) {
+	public List<ContentValues> getRows(List<InfoItem> items, String markId) {
+		List<ContentValues> rows = new ArrayList<>(items.size());
+		for (InfoItem item : items) {
 			ContentValues cv = new ContentValues();
-			for (InfoItem item : items) {
-				cv.clear();
-				cv.put(LoggerApplication.FIELD_MARK, markId);
-				cv.put(LoggerConstants.HEADER_GEN, (String) item.getColumn(LoggerConstants.HEADER_GEN).getValue());
-				cv.put(LoggerConstants.HEADER_TYPE, (String) item.getColumn(LoggerConstants.HEADER_TYPE).getValue());
-				cv.put(LoggerConstants.HEADER_ACTIVE, (String) item.getColumn(LoggerConstants.HEADER_ACTIVE).getValue());
-				cv.put(LoggerConstants.HEADER_MCC, (String) item.getColumn(LoggerConstants.HEADER_MCC).getValue());
-				cv.put(LoggerConstants.HEADER_MNC, (String) item.getColumn(LoggerConstants.HEADER_MNC).getValue());
-				cv.put(LoggerConstants.HEADER_LAC, (String) item.getColumn(LoggerConstants.HEADER_LAC).getValue());
-				cv.put(LoggerConstants.HEADER_CID, (String) item.getColumn(LoggerConstants.HEADER_CID).getValue());
-				cv.put(LoggerConstants.HEADER_PSC, (String) item.getColumn(LoggerConstants.HEADER_PSC).getValue());
-				cv.put(LoggerConstants.HEADER_POWER, (String) item.getColumn(LoggerConstants.HEADER_POWER).getValue());
-                cv.put(Constants.FIELD_GEOM, LoggerApplication.getNullGeometry());
-
-				cellLayer.insert(mUri, cv);
-			}
+			cv.put(LoggerApplication.FIELD_MARK, markId);
+			putValues(cv, item);
+			cv.put(Constants.FIELD_GEOM, LoggerApplication.getNullGeometry());
+			rows.add(cv);
 		}
+
+		return rows;
+	}
+
+	/**
+	 * Add cells of user mark to batch. They are stored as keyframe of cell log.
+	 */
+	public void addRows(BatchWriter.Batch batch, List<InfoItem> items, String markId) {
+		addRows(batch, items, markId, false);
+	}
+
+	/**
+	 * Add cells of log tick to batch, only changes since previous tick are stored
+	 */
+	public void addLogRows(BatchWriter.Batch batch, String markId) {
+		addRows(batch, getSnapshot(), markId, true);
+	}
+
+	/**
+	 * Next log tick is stored as keyframe
+	 */
+	public void resetLog() {
+		mEncoder.reset();
+	}
+
+	private void addRows(BatchWriter.Batch batch, List<InfoItem> items, String markId, boolean isLog) {
+		batch.add(mObsUri, mEncoder.encode(items, markId, isLog));
+
+		LoggerVectorLayer layer = (LoggerVectorLayer) MapBase.getInstance().getLayerByPathName(LoggerApplication.TABLE_CELL);
+		if (layer != null && !TextUtils.isEmpty(layer.getAccountName())) // full rows are still synchronized
+			batch.add(mUri, getRows(items, markId));
 	}
 
 	private void setSignalStrength(int signalStrength) {
         mSignalStrength = signalStrength;
     }
 
+	/**
+	 * @return  Count of telephony callbacks received
+	 */
+	public long getCallbacksCount() {
+		return mCallbacksCount;
+	}
+
+	/**
+	 * @return  Count of cell lists read from telephony manager
+	 */
+	public long getUpdatesCount() {
+		return mUpdatesCount;
+	}
+
+	/**
+	 * @return  Count of updates which changed items and notified listeners
+	 */
+	public long getChangesCount() {
+		return mChangesCount;
+	}
+
+	/**
+	 * Start writing cell events of the session
+	 */
+	public void startEvents(String session) {
+		mEvents.start(session);
+	}
+
+	/**
+	 * Stop writing cell events and wait until queued ones are written
+	 */
+	public void stopEvents() {
+		mEvents.stop();
+	}
+
+	/**
+	 * Start collecting coverage of the session
+	 */
+	public void startCoverage(String session) {
+		mCoverage.start(session);
+	}
+
+	/**
+	 * Persist collected coverage in caller thread and stop collecting it.
+	 * Call it after log batches are written.
+	 */
+	public void stopCoverage() {
+		mCoverage.stop();
+	}
+
+	/**
+	 * Add signal of current cells to coverage tile of fix. Changed tiles are
+	 * periodically added to batch and merged by its writer.
+	 *
+	 * Samples are skipped if fix is older than maxAge or less accurate than tile,
+	 * so they are not put to a tile the device has already left.
+	 *
+	 * @param fix       Latest location of GPS engine
+	 * @param maxAge    Maximum age of fix at sample time, in ms
+	 */
+	public void addCoverage(BatchWriter.Batch batch, GPSEngine.Fix fix, long time, long maxAge) {
+		mCoverage.persist(time, batch);
+		if (fix.isEmpty() || time - fix.getTime() > maxAge || !mCoverage.isAccurate(fix.getY(), fix.getAccuracy()))
+			return;
+
+		for (InfoItem item : getSnapshot()) {
+			int power = (int) item.getLong(item.indexOf(LoggerConstants.HEADER_POWER));
+			if (power >= 0) // unknown signal
+				continue;
+
+			long cell = mEncoder.getCellId(item);
+			if (cell != -1)
+				mCoverage.add(fix.getX(), fix.getY(), cell, power, time);
+		}
+	}
+
+	/**
+	 * Merge callback with pending update or schedule new one
+	 */
+	private void scheduleUpdate() {
+		mCallbacksCount++; // callbacks come on the same looper
+		Handler handler = mHandler;
+		if (handler != null && !handler.hasMessages(MSG_UPDATE)) {
+			mCallbackTime = System.currentTimeMillis();
+			handler.sendEmptyMessageDelayed(MSG_UPDATE, UPDATE_DELAY);
+		}
+	}
+
+	@Override
+	public boolean handleMessage(Message msg) {
+		if (msg.what != MSG_UPDATE)
+			return false;
+
+		if (updateItems()) {
+			mChangesCount++;
+			addEvents(mCallbackTime);
+			notifyListeners();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Compare serving cell with the previous one and record its changes
+	 *
+	 * @param time  Time of callback which started the update, in ms
+	 */
+	private void addEvents(long time) {
+		Cell serving = null;
+		for (int i = 0; serving == null && i < mCellsCount; i++)
+			if (mCells.get(i).active)
+				serving = mCells.get(i);
+
+		if (serving == null) // only neighbours are seen, keep previous serving cell
+			return;
+
+		int level = getSignalLevel(serving.power, mSignalLevel);
+		if (mHasServing) {
+			String previousGen = getNetworkGen(mServing.networkType);
+			if (!previousGen.equals(getNetworkGen(serving.networkType)))
+				addEvent(time, EVENT_TECHNOLOGY, serving, null, previousGen);
+
+			if (!serving.isSameIdentity(mServing))
+				addEvent(time, EVENT_SERVING, serving, null, mServing.getIdentity());
+
+			if (level >= 0 && mSignalLevel >= 0 && level != mSignalLevel) {
+				int threshold = SIGNAL_THRESHOLDS[level > mSignalLevel ? level - 1 : level];
+				addEvent(time, EVENT_SIGNAL, serving, threshold, String.valueOf(mServing.power));
+			}
+		}
+
+		mServing.set(serving);
+		mHasServing = true;
+		mSignalLevel = level;
+	}
+
+	/**
+	 * @param previous  Previous level or -1
+	 * @return  Count of thresholds signal is above of, -1 if signal is unknown
+	 */
+	private static int getSignalLevel(int power, int previous) {
+		if (power >= 0) // dBm are negative, zero is for no signal
+			return -1;
+
+		int level = 0;
+		while (level < SIGNAL_THRESHOLDS.length && power >= SIGNAL_THRESHOLDS[level])
+			level++;
+
+		if (previous >= 0 && level < previous) { // falling signal keeps level within hysteresis
+			int lower = 0;
+			while (lower < SIGNAL_THRESHOLDS.length && power + SIGNAL_HYSTERESIS >= SIGNAL_THRESHOLDS[lower])
+				lower++;
+
+			level = Math.min(lower, previous);
+		}
+
+		return level;
+	}
+
+	private void addEvent(long time, String event, Cell cell, Integer threshold, String previous) {
+		if (!mEvents.isRecording())
+			return;
+
+		ContentValues cv = new ContentValues();
+		cv.put(LoggerApplication.FIELD_TIMESTAMP, time);
+		cv.put(LoggerApplication.FIELD_EVENT, event);
+		cv.put(LoggerConstants.HEADER_GEN, getNetworkGen(cell.networkType));
+		cv.put(LoggerConstants.HEADER_TYPE, getNetworkType(cell.networkType));
+		cv.put(LoggerConstants.HEADER_MCC, cell.mcc);
+		cv.put(LoggerConstants.HEADER_MNC, cell.mnc);
+		cv.put(LoggerConstants.HEADER_LAC, cell.lac);
+		cv.put(LoggerConstants.HEADER_CID, cell.cid);
+		cv.put(LoggerConstants.HEADER_PSC, cell.psc);
+		cv.put(LoggerConstants.HEADER_POWER, cell.power);
+		cv.put(LoggerApplication.FIELD_THRESHOLD, threshold);
+		cv.put(LoggerApplication.FIELD_PREVIOUS, previous);
+		mEvents.offer(cv);
+	}
+
 	// http://stackoverflow.com/a/31696744/2088273
-	private int getSignalStrengthLTE(SignalStrength signalStrength)
+	private static int getSignalStrengthLTE(SignalStrength signalStrength)
 	{
-		try {
-			Method[] methods = android.telephony.SignalStrength.class.getMethods();
+		if (!mIsLteMethodResolved) { // hidden method, look it up once
+			try {
+				mLteSignalStrength = SignalStrength.class.getMethod(LTE_SIGNAL_STRENGTH);
+			} catch (Exception ignored) { }
+
+			mIsLteMethodResolved = true;
+		}
 
-			for (Method mthd : methods)
-				if (mthd.getName().equals(LTE_SIGNAL_STRENGTH))
-					return (Integer) mthd.invoke(signalStrength);
-		} catch (Exception ignored) { }
+		if (mLteSignalStrength != null)
+			try {
+				return (Integer) mLteSignalStrength.invoke(signalStrength);
+			} catch (Exception ignored) { }
 
 		return 0;
 	}
@@ -197,11 +452,12 @@ public class CellEngine extends BaseEngine {
 	}
 
 	@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
-	private synchronized void updateItems() {
+	private synchronized boolean updateItems() {
 		if (mTelephonyManager.getSimState() == TelephonyManager.SIM_STATE_UNKNOWN)
-			return;
+			return false;
 
-        ArrayList<InfoItemGSM> temp = new ArrayList<>();
+		mUpdatesCount++;
+		mScannedCount = 0;
 
 		int osVersion = android.os.Build.VERSION.SDK_INT;
 		int api17 = android.os.Build.VERSION_CODES.JELLY_BEAN_MR1;
@@ -222,8 +478,8 @@ public class CellEngine extends BaseEngine {
 						CellIdentityGsm gsmIdentity = gsm.getCellIdentity();
 
 						isRegistered |= gsm.isRegistered();
-						temp.add(new InfoItemGSM(gsm.isRegistered(), nwType, gsmIdentity.getMcc(), gsmIdentity.getMnc(), gsmIdentity.getLac(),
-								gsmIdentity.getCid(), LoggerConstants.UNDEFINED, gsm.getCellSignalStrength().getDbm()));
+						addCell(gsm.isRegistered(), nwType, gsmIdentity.getMcc(), gsmIdentity.getMnc(), gsmIdentity.getLac(),
+								gsmIdentity.getCid(), LoggerConstants.UNDEFINED, gsm.getCellSignalStrength().getDbm());
 
 						// 3G - WCDMA cell towers, its API 18+
 					} else if (osVersion >= api18 && cell.getClass() == CellInfoWcdma.class) {
@@ -231,8 +487,8 @@ public class CellEngine extends BaseEngine {
 						CellIdentityWcdma wcdmaIdentity = wcdma.getCellIdentity();
 
 						isRegistered |= wcdma.isRegistered();
-						temp.add(new InfoItemGSM(wcdma.isRegistered(), nwType, wcdmaIdentity.getMcc(), wcdmaIdentity.getMnc(),
-								wcdmaIdentity.getLac(), wcdmaIdentity.getCid(), wcdmaIdentity.getPsc(), wcdma.getCellSignalStrength().getDbm()));
+						addCell(wcdma.isRegistered(), nwType, wcdmaIdentity.getMcc(), wcdmaIdentity.getMnc(),
+								wcdmaIdentity.getLac(), wcdmaIdentity.getCid(), wcdmaIdentity.getPsc(), wcdma.getCellSignalStrength().getDbm());
 
 						// 4G - LTE cell towers
 					} else if (cell.getClass() == CellInfoLte.class) {
@@ -240,13 +496,13 @@ public class CellEngine extends BaseEngine {
 						CellIdentityLte lteIdentity = lte.getCellIdentity();
 
 						isRegistered |= lte.isRegistered();
-						temp.add(new InfoItemGSM(lte.isRegistered(), nwType, lteIdentity.getMcc(), lteIdentity.getMnc(), lteIdentity.getTac(),
-								lteIdentity.getPci(), lteIdentity.getCi(), lte.getCellSignalStrength().getDbm()));
+						addCell(lte.isRegistered(), nwType, lteIdentity.getMcc(), lteIdentity.getMnc(), lteIdentity.getTac(),
+								lteIdentity.getPci(), lteIdentity.getCi(), lte.getCellSignalStrength().getDbm());
 					}
 				}
 		}
 
-		if (temp.size() == 0) { // in case API 17/18 didn't return anything
+		if (mScannedCount == 0) { // in case API 17/18 didn't return anything
 			// #1 using default way to obtain cell towers info
 			int mcc = LoggerConstants.UNDEFINED;
 			int mnc = LoggerConstants.UNDEFINED;
@@ -273,8 +529,8 @@ public class CellEngine extends BaseEngine {
 
 				if (gsmCellLocation != null) {
 					isRegistered = true;
-					temp.add(new InfoItemGSM(true, mTelephonyManager.getNetworkType(), mcc, mnc, gsmCellLocation.getLac(),
-							gsmCellLocation.getCid(), gsmCellLocation.getPsc(), mSignalStrength));
+					addCell(true, mTelephonyManager.getNetworkType(), mcc, mnc, gsmCellLocation.getLac(),
+							gsmCellLocation.getCid(), gsmCellLocation.getPsc(), mSignalStrength);
 				}
 			}
 
@@ -282,19 +538,52 @@ public class CellEngine extends BaseEngine {
 			for (NeighboringCellInfo neighbor : neighbors) {
 				int nbNetworkType = neighbor.getNetworkType();
 
-				temp.add(new InfoItemGSM(false, nbNetworkType, LoggerConstants.UNDEFINED, LoggerConstants.UNDEFINED, neighbor.getLac(), neighbor.getCid(),
-                        neighbor.getPsc(), signalStrengthAsuToDbm(neighbor.getRssi(), nbNetworkType)));
+				addCell(false, nbNetworkType, LoggerConstants.UNDEFINED, LoggerConstants.UNDEFINED, neighbor.getLac(), neighbor.getCid(),
+                        neighbor.getPsc(), signalStrengthAsuToDbm(neighbor.getRssi(), nbNetworkType));
 			}
 		}
 
-		if (temp.size() == 0 || !isRegistered) { // add default record if there is no items in array /-1
-			temp.add(new InfoItemGSM());
+		if (mScannedCount == 0 || !isRegistered) { // add default record if there is no items in array /-1
+			addCell(true, TelephonyManager.NETWORK_TYPE_UNKNOWN, LoggerConstants.UNDEFINED, LoggerConstants.UNDEFINED, LoggerConstants.UNDEFINED,
+					LoggerConstants.UNDEFINED, LoggerConstants.UNDEFINED, SIGNAL_STRENGTH_NONE);
 		}
 
-        mItems.clear();
-        mItems.addAll(temp);
+		if (mScannedCount == mCellsCount) {
+			boolean isSame = true;
+			for (int i = 0; isSame && i < mCellsCount; i++)
+				isSame = mScanned.get(i).isSame(mCells.get(i));
+
+			if (isSame)
+				return false;
+		}
+
+		ArrayList<Cell> cells = mCells; // scanned cells become current, previous buffer is reused by next update
+		mCells = mScanned;
+		mCellsCount = mScannedCount;
+		mScanned = cells;
+
+		synchronized (mLock) {
+			mItems.clear();
+			for (int i = 0; i < mCellsCount; i++) {
+				if (i == mPool.size())
+					mPool.add(new InfoItemGSM());
+
+				InfoItemGSM item = mPool.get(i);
+				item.set(mCells.get(i));
+				mItems.add(item);
+			}
+		}
+
+		return true;
     }
 
+	private void addCell(boolean active, int networkType, int mcc, int mnc, int lac, int cid, int psc, int power) {
+		if (mScannedCount == mScanned.size())
+			mScanned.add(new Cell());
+
+		mScanned.get(mScannedCount++).set(active, networkType, mcc, mnc, lac, cid, psc, power);
+	}
+
     public String getNetworkOperator() {
         return mTelephonyManager.getNetworkOperatorName();
     }
@@ -391,8 +680,8 @@ public class CellEngine extends BaseEngine {
         Collections.sort(array, new Comparator<InfoItem>() {
             @Override
             public int compare(InfoItem lhs, InfoItem rhs) {
-                boolean b1 = lhs.getColumn(LoggerConstants.HEADER_ACTIVE).getValue().equals("1");
-                boolean b2 = rhs.getColumn(LoggerConstants.HEADER_ACTIVE).getValue().equals("1");
+                boolean b1 = isActive(lhs);
+                boolean b2 = isActive(rhs);
 
                 if (b1 && !b2) {
                     return -1;
@@ -407,6 +696,11 @@ public class CellEngine extends BaseEngine {
         });
     }
 
+    public static boolean isActive(InfoItem item) {
+        int slot = item.indexOf(LoggerConstants.HEADER_ACTIVE);
+        return slot >= 0 && item.getLong(slot) == 1;
+    }
+
 	public static String getHeader() {
 		return LoggerConstants.HEADER_GEN + CSV_SEPARATOR + LoggerConstants.HEADER_TYPE + CSV_SEPARATOR + LoggerConstants.HEADER_ACTIVE + CSV_SEPARATOR +
 				LoggerConstants.HEADER_MCC + CSV_SEPARATOR + LoggerConstants.HEADER_MNC + CSV_SEPARATOR + LoggerConstants.HEADER_LAC + "/" +
@@ -414,6 +708,28 @@ public class CellEngine extends BaseEngine {
 				LoggerConstants.HEADER_PSC + "/" + LoggerConstants.HEADER_CI + CSV_SEPARATOR + LoggerConstants.HEADER_RSSI + "/" + LoggerConstants.HEADER_RSCP;
 	}
 
+	public static String getEventsHeader() {
+		return "TimeStamp" + CSV_SEPARATOR + "DateTime" + CSV_SEPARATOR + LoggerConstants.HEADER_EVENT + CSV_SEPARATOR + getHeader().replace(
+				LoggerConstants.HEADER_ACTIVE + CSV_SEPARATOR, "") + CSV_SEPARATOR + LoggerConstants.HEADER_THRESHOLD + CSV_SEPARATOR +
+				LoggerConstants.HEADER_PREVIOUS;
+	}
+
+	public static String getEventFromCursor(Cursor cursor) {
+		long timestamp = cursor.getLong(cursor.getColumnIndex(LoggerApplication.FIELD_TIMESTAMP));
+		return timestamp + CSV_SEPARATOR + DateFormat.getDateTimeInstance().format(new Date(timestamp)) + CSV_SEPARATOR +
+				cursor.getString(cursor.getColumnIndex(LoggerApplication.FIELD_EVENT)) + CSV_SEPARATOR +
+				cursor.getString(cursor.getColumnIndex(LoggerConstants.HEADER_GEN)) + CSV_SEPARATOR +
+				cursor.getString(cursor.getColumnIndex(LoggerConstants.HEADER_TYPE)) + CSV_SEPARATOR +
+				cursor.getString(cursor.getColumnIndex(LoggerConstants.HEADER_MCC)) + CSV_SEPARATOR +
+				cursor.getString(cursor.getColumnIndex(LoggerConstants.HEADER_MNC)) + CSV_SEPARATOR +
+				cursor.getString(cursor.getColumnIndex(LoggerConstants.HEADER_LAC)) + CSV_SEPARATOR +
+				cursor.getString(cursor.getColumnIndex(LoggerConstants.HEADER_CID)) + CSV_SEPARATOR +
+				cursor.getString(cursor.getColumnIndex(LoggerConstants.HEADER_PSC)) + CSV_SEPARATOR +
+				cursor.getString(cursor.getColumnIndex(LoggerConstants.HEADER_POWER)) + CSV_SEPARATOR +
+				getValueFromCursor(cursor, LoggerApplication.FIELD_THRESHOLD, false) + CSV_SEPARATOR +
+				getValueFromCursor(cursor, LoggerApplication.FIELD_PREVIOUS, false);
+	}
+
 	public static String getEmptyRow() {
         return NO_DATA + CSV_SEPARATOR + NO_DATA + CSV_SEPARATOR + NO_DATA + CSV_SEPARATOR + NO_DATA + CSV_SEPARATOR + NO_DATA + CSV_SEPARATOR + NO_DATA +
                 CSV_SEPARATOR + NO_DATA + CSV_SEPARATOR + NO_DATA + CSV_SEPARATOR + NO_DATA;
@@ -441,36 +757,31 @@ public class CellEngine extends BaseEngine {
 				signalStrength = getSignalStrengthLTE(signal);
 
             setSignalStrength(signalStrengthAsuToDbm(signalStrength, mTelephonyManager.getNetworkType()));
-            updateItems();
-            notifyListeners();
+            scheduleUpdate();
         }
 
         @Override
         public void onCellLocationChanged(CellLocation location) {
             super.onCellLocationChanged(location);
-            updateItems();
-            notifyListeners();
+            scheduleUpdate();
         }
 
         @Override
         public void onDataConnectionStateChanged(int state, int networkType) {
             super.onDataConnectionStateChanged(state, networkType);
-            updateItems();
-            notifyListeners();
+            scheduleUpdate();
         }
 
         @Override
         public void onServiceStateChanged(ServiceState serviceState) {
             super.onServiceStateChanged(serviceState);
-            updateItems();
-            notifyListeners();
+            scheduleUpdate();
         }
 
         @Override
         public void onCellInfoChanged(List<CellInfo> cellInfo) {
             super.onCellInfoChanged(cellInfo);
-            updateItems();
-            notifyListeners();
+            scheduleUpdate();
         }
     }
 
@@ -478,34 +789,18 @@ public class CellEngine extends BaseEngine {
 		notifyListeners("CELL");
 	}
 
-    private class InfoItemGSM extends InfoItem {
-		private InfoItemGSM() {
-			super("Cell Info");
-            addColumn(LoggerConstants.HEADER_GEN, null, null);
-            addColumn(LoggerConstants.HEADER_TYPE, null, null);
-            setValue(LoggerConstants.HEADER_GEN, getNetworkGen(TelephonyManager.NETWORK_TYPE_UNKNOWN));
-            setValue(LoggerConstants.HEADER_TYPE, getNetworkType(TelephonyManager.NETWORK_TYPE_UNKNOWN));
-
-            addColumn(LoggerConstants.HEADER_ACTIVE, null, null, 1);
-            addColumn(LoggerConstants.HEADER_MCC, null, null, LoggerConstants.UNDEFINED);
-            addColumn(LoggerConstants.HEADER_MNC, null, null, LoggerConstants.UNDEFINED);
-            addColumn(LoggerConstants.HEADER_LAC, null, null, LoggerConstants.UNDEFINED);
-            addColumn(LoggerConstants.HEADER_CID, null, null, LoggerConstants.UNDEFINED);
-            addColumn(LoggerConstants.HEADER_PSC, null, null, LoggerConstants.UNDEFINED);
-            addColumn(LoggerConstants.HEADER_POWER, null, mContext.getString(R.string.info_dbm), SIGNAL_STRENGTH_NONE);
-		}
-
-		InfoItemGSM(boolean active, int networkType, int mcc, int mnc, int lac, int cid, int psc, int power) {
-            this();
-            setValue(LoggerConstants.HEADER_ACTIVE, active ? 1 : 0);
-            setValue(LoggerConstants.HEADER_GEN, getNetworkGen(networkType));
-            setValue(LoggerConstants.HEADER_TYPE, getNetworkType(networkType));
-
-            boolean outOfBounds = mcc <= LOW_BOUND || mcc >= MAX_MCC_MNC;
-            setValue(LoggerConstants.HEADER_MCC, outOfBounds ? LoggerConstants.UNDEFINED : mcc);
+    /**
+     * Cell values validated by network type, reused between updates
+     */
+    private static final class Cell {
+        boolean active;
+        int networkType, mcc, mnc, lac, cid, psc, power;
 
-            outOfBounds = mnc <= LOW_BOUND || mnc >= MAX_MCC_MNC;
-            setValue(LoggerConstants.HEADER_MNC, outOfBounds ? LoggerConstants.UNDEFINED : mnc);
+        void set(boolean active, int networkType, int mcc, int mnc, int lac, int cid, int psc, int power) {
+            this.active = active;
+            this.networkType = networkType;
+            this.mcc = mcc <= LOW_BOUND || mcc >= MAX_MCC_MNC ? LoggerConstants.UNDEFINED : mcc;
+            this.mnc = mnc <= LOW_BOUND || mnc >= MAX_MCC_MNC ? LoggerConstants.UNDEFINED : mnc;
 
             switch (networkType) {
                 case TelephonyManager.NETWORK_TYPE_EDGE:
@@ -521,38 +816,92 @@ public class CellEngine extends BaseEngine {
                 case TelephonyManager.NETWORK_TYPE_HSDPA:
                 case TelephonyManager.NETWORK_TYPE_HSUPA:
                 case TelephonyManager.NETWORK_TYPE_HSPAP:
-				default:
-					if (lac < LOW_BOUND || lac > MAX_2G_LAC_CID_4G_TAC)
+                default:
+                    if (lac < LOW_BOUND || lac > MAX_2G_LAC_CID_4G_TAC)
                         lac = -1;
 
-					if (cid < LOW_BOUND || cid > MAX_3G_CID_4G_CI)
+                    if (cid < LOW_BOUND || cid > MAX_3G_CID_4G_CI)
                         cid = -1;
 
-					if (psc < LOW_BOUND || psc > MAX_PSC)
+                    if (psc < LOW_BOUND || psc > MAX_PSC)
                         psc = -1;
                     break;
-				case TelephonyManager.NETWORK_TYPE_LTE:
+                case TelephonyManager.NETWORK_TYPE_LTE:
                     if (lac < LOW_BOUND || lac > MAX_2G_LAC_CID_4G_TAC)
                         lac = -1;
 
-					if (cid < LOW_BOUND || cid > MAX_PCI)
-						cid = -1;
+                    if (cid < LOW_BOUND || cid > MAX_PCI)
+                        cid = -1;
 
-					if (psc < LOW_BOUND || psc > MAX_3G_CID_4G_CI)
-						psc = -1;
-					break;
+                    if (psc < LOW_BOUND || psc > MAX_3G_CID_4G_CI)
+                        psc = -1;
+                    break;
             }
 
-            setValue(LoggerConstants.HEADER_LAC, lac);
-            setValue(LoggerConstants.HEADER_CID, cid);
-            setValue(LoggerConstants.HEADER_PSC, psc);
-            setValue(LoggerConstants.HEADER_POWER, power);
-		}
+            this.lac = lac;
+            this.cid = cid;
+            this.psc = psc;
+            this.power = power;
+        }
 
-        private void setValue(String key, int value) {
-            setValue(key, value + "");
+        void set(Cell other) {
+            active = other.active;
+            networkType = other.networkType;
+            mcc = other.mcc;
+            mnc = other.mnc;
+            lac = other.lac;
+            cid = other.cid;
+            psc = other.psc;
+            power = other.power;
         }
 
+        boolean isSameIdentity(Cell other) {
+            return mcc == other.mcc && mnc == other.mnc && lac == other.lac && cid == other.cid && psc == other.psc;
+        }
+
+        String getIdentity() {
+            return mcc + "/" + mnc + "/" + lac + "/" + cid + "/" + psc;
+        }
+
+        boolean isSame(Cell other) {
+            return active == other.active && networkType == other.networkType && mcc == other.mcc && mnc == other.mnc && lac == other.lac &&
+                    cid == other.cid && psc == other.psc && power == other.power;
+        }
+    }
+
+    private class InfoItemGSM extends InfoItem {
+        // slots follow order of columns
+        private static final int SLOT_GEN = 0, SLOT_TYPE = 1, SLOT_ACTIVE = 2, SLOT_MCC = 3, SLOT_MNC = 4, SLOT_LAC = 5, SLOT_CID = 6,
+                SLOT_PSC = 7, SLOT_POWER = 8;
+
+		private InfoItemGSM() {
+			super("Cell Info");
+            addColumn(LoggerConstants.HEADER_GEN, null, null);
+            addColumn(LoggerConstants.HEADER_TYPE, null, null);
+            setValue(LoggerConstants.HEADER_GEN, getNetworkGen(TelephonyManager.NETWORK_TYPE_UNKNOWN));
+            setValue(LoggerConstants.HEADER_TYPE, getNetworkType(TelephonyManager.NETWORK_TYPE_UNKNOWN));
+
+            addColumn(LoggerConstants.HEADER_ACTIVE, null, null, 1);
+            addColumn(LoggerConstants.HEADER_MCC, null, null, LoggerConstants.UNDEFINED);
+            addColumn(LoggerConstants.HEADER_MNC, null, null, LoggerConstants.UNDEFINED);
+            addColumn(LoggerConstants.HEADER_LAC, null, null, LoggerConstants.UNDEFINED);
+            addColumn(LoggerConstants.HEADER_CID, null, null, LoggerConstants.UNDEFINED);
+            addColumn(LoggerConstants.HEADER_PSC, null, null, LoggerConstants.UNDEFINED);
+            addColumn(LoggerConstants.HEADER_POWER, null, mContext.getString(R.string.info_dbm), SIGNAL_STRENGTH_NONE);
+		}
+
+		void set(Cell cell) {
+            setValue(SLOT_GEN, getNetworkGen(cell.networkType));
+            setValue(SLOT_TYPE, getNetworkType(cell.networkType));
+            setValue(SLOT_ACTIVE, cell.active ? 1 : 0);
+            setValue(SLOT_MCC, cell.mcc);
+            setValue(SLOT_MNC, cell.mnc);
+            setValue(SLOT_LAC, cell.lac);
+            setValue(SLOT_CID, cell.cid);
+            setValue(SLOT_PSC, cell.psc);
+            setValue(SLOT_POWER, cell.power);
+		}
+
         private void addColumn(String shortName, String fullName, String unit, int data) {
             addColumn(shortName, fullName, unit);
             setValue(shortName, data);
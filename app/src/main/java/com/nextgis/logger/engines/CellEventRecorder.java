@@ -0,0 +1,162 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.engines;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.nextgis.logger.LoggerApplication;
+import com.nextgis.logger.util.LoggerConstants;
+import com.nextgis.maplib.map.MapBase;
+import com.nextgis.maplib.map.MapContentProviderHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static com.nextgis.maplib.util.Constants.TAG;
+
+/**
+ * Writes cell events to {@link LoggerApplication#TABLE_CELL_EVENT} on its own thread
+ * as soon as they come, so they do not wait for measurement ticks.
+ */
+class CellEventRecorder {
+    private final BlockingQueue<ContentValues> mQueue = new ArrayBlockingQueue<>(LoggerConstants.EVENTS_CAPACITY);
+    private final List<ContentValues> mPending = new ArrayList<>();
+
+    private volatile boolean mIsRecording;
+    private volatile long mDroppedCount, mWrittenCount;
+    private String mSession;
+    private Thread mThread;
+
+    boolean isRecording() {
+        return mIsRecording;
+    }
+
+    /**
+     * Queue event without blocking caller
+     *
+     * @return  True if event is taken by recorder
+     */
+    boolean offer(ContentValues event) {
+        if (!mIsRecording)
+            return false;
+
+        if (!mQueue.offer(event)) {
+            mDroppedCount++; // only engine thread offers
+            return false;
+        }
+
+        return true;
+    }
+
+    synchronized void start(String session) {
+        if (mIsRecording)
+            return;
+
+        mQueue.clear();
+        mSession = session;
+        mIsRecording = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (mIsRecording) {
+                    try {
+                        mPending.add(mQueue.take());
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+
+                    write();
+                }
+
+                write();
+            }
+        }, "LoggerCellEvents");
+        mThread.start();
+    }
+
+    /**
+     * Stop recording and wait until all queued events are written
+     */
+    synchronized void stop() {
+        if (!mIsRecording)
+            return;
+
+        mIsRecording = false;
+        mThread.interrupt();
+        boolean interrupted = false;
+        while (mThread.isAlive()) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        Log.d(TAG, "Cell events written: " + mWrittenCount + ", dropped: " + mDroppedCount);
+        mThread = null;
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    long getWrittenCount() {
+        return mWrittenCount;
+    }
+
+    /**
+     * Write taken event with all events queued meanwhile in one transaction
+     */
+    private void write() {
+        mQueue.drainTo(mPending);
+        if (mPending.isEmpty())
+            return;
+
+        SQLiteDatabase db = ((MapContentProviderHelper) MapBase.getInstance()).getDatabase(false);
+        db.beginTransaction();
+        try {
+            for (ContentValues event : mPending) {
+                event.put(LoggerApplication.FIELD_SESSION, mSession);
+                db.insertOrThrow(LoggerApplication.TABLE_CELL_EVENT, null, event);
+            }
+
+            db.setTransactionSuccessful();
+            mWrittenCount += mPending.size();
+        } catch (SQLException e) {
+            Log.d(TAG, "Cell events write failed: " + e.getLocalizedMessage());
+        } finally {
+            db.endTransaction();
+        }
+
+        mPending.clear();
+    }
+}
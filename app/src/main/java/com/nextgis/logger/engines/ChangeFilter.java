@@ -0,0 +1,228 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.engines;
+
+import android.content.SharedPreferences;
+
+import com.nextgis.logger.util.LoggerConstants;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides if log tick is worth storing. Tick is compared with the last stored one and
+ * is stored if location, signal of any cell or magnitude of any sensor changed more
+ * than by its delta, if cells set changed or if heartbeat period passed. Values of
+ * the stored tick are copied, so items may be changed or reused by engines later.
+ */
+public class ChangeFilter {
+    private static final double EARTH_RADIUS = 6378137; // in m
+    private static final String[] CELL_IDENTITY = {LoggerConstants.HEADER_GEN, LoggerConstants.HEADER_TYPE, LoggerConstants.HEADER_MCC,
+                                                   LoggerConstants.HEADER_MNC, LoggerConstants.HEADER_LAC, LoggerConstants.HEADER_CID,
+                                                   LoggerConstants.HEADER_PSC};
+
+    private final double mDistance;
+    private final int mSignal;
+    private final double mSensor;
+    private final long mHeartbeat;
+
+    private boolean mHasStored;
+    private long mStoredTime;
+    private double mStoredLat, mStoredLon;
+    private Map<String, Long> mStoredCells = new HashMap<>(), mCells = new HashMap<>();
+    private Magnitudes mStoredSensors = new Magnitudes(), mSensors = new Magnitudes();
+    private Magnitudes mStoredExternals = new Magnitudes(), mExternals = new Magnitudes();
+    private long mStoredCount, mSuppressedCount;
+
+    /**
+     * Titles and magnitudes of snapshot items, GPS items have NaN magnitude
+     */
+    private static final class Magnitudes {
+        int size;
+        String[] titles = new String[8];
+        double[] values = new double[8];
+
+        void set(List<InfoItem> items) {
+            if (items.size() > titles.length) {
+                titles = Arrays.copyOf(titles, items.size());
+                values = Arrays.copyOf(values, items.size());
+            }
+
+            size = items.size();
+            for (int i = 0; i < size; i++) {
+                InfoItem item = items.get(i);
+                titles[i] = item.getTitle();
+                values[i] = item.indexOf(LoggerConstants.HEADER_GPS_LAT) >= 0 ? Double.NaN : getMagnitude(item); // compared by distance
+            }
+        }
+
+        boolean isChanged(Magnitudes stored, double delta) {
+            if (size != stored.size)
+                return true;
+
+            for (int i = 0; i < size; i++) {
+                if (!titles[i].equals(stored.titles[i]))
+                    return true;
+
+                if (!Double.isNaN(values[i]) && Math.abs(values[i] - stored.values[i]) >= delta)
+                    return true;
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * @param distance  Location change to store tick, in m
+     * @param signal    Signal change of any cell to store tick, in dB
+     * @param sensor    Change of magnitude of any sensor to store tick
+     * @param heartbeat Store tick if none is stored for this period, in ms. 0 to disable.
+     */
+    public ChangeFilter(double distance, int signal, double sensor, long heartbeat) {
+        mDistance = distance;
+        mSignal = signal;
+        mSensor = sensor;
+        mHeartbeat = heartbeat;
+    }
+
+    public static ChangeFilter fromPreferences(SharedPreferences preferences) {
+        return new ChangeFilter(preferences.getInt(LoggerConstants.PREF_ADAPTIVE_DISTANCE, LoggerConstants.ADAPTIVE_DISTANCE),
+                                preferences.getInt(LoggerConstants.PREF_ADAPTIVE_SIGNAL, LoggerConstants.ADAPTIVE_SIGNAL),
+                                preferences.getInt(LoggerConstants.PREF_ADAPTIVE_SENSOR, LoggerConstants.ADAPTIVE_SENSOR),
+                                preferences.getInt(LoggerConstants.PREF_ADAPTIVE_HEARTBEAT, LoggerConstants.ADAPTIVE_HEARTBEAT) * 1000L);
+    }
+
+    /**
+     * Compare tick with the last stored one. If tick is accepted it becomes the last stored.
+     *
+     * @param time      Tick time, in ms
+     * @param cells     Snapshot of cell engine
+     * @param sensors   Snapshot of sensor engine, including GPS
+     * @param externals Snapshot of external engine
+     * @return  True if tick should be stored
+     */
+    public boolean accept(long time, List<InfoItem> cells, List<InfoItem> sensors, List<InfoItem> externals) {
+        double lat = Double.NaN, lon = Double.NaN;
+        for (InfoItem item : sensors) {
+            int slot = item.indexOf(LoggerConstants.HEADER_GPS_LAT);
+            if (slot >= 0) {
+                lat = item.getDouble(slot);
+                lon = item.getDouble(item.indexOf(LoggerConstants.HEADER_GPS_LON));
+                break;
+            }
+        }
+
+        mCells.clear();
+        for (InfoItem item : cells)
+            mCells.put(getCellKey(item), item.getLong(item.indexOf(LoggerConstants.HEADER_POWER)));
+
+        mSensors.set(sensors);
+        mExternals.set(externals);
+
+        boolean isChanged = !mHasStored || mHeartbeat > 0 && time - mStoredTime >= mHeartbeat || isMoved(lat, lon) || isCellsChanged() ||
+                mSensors.isChanged(mStoredSensors, mSensor) || mExternals.isChanged(mStoredExternals, mSensor);
+
+        if (!isChanged) {
+            mSuppressedCount++;
+            return false;
+        }
+
+        Map<String, Long> stored = mStoredCells;
+        mStoredCells = mCells;
+        mCells = stored;
+        Magnitudes magnitudes = mStoredSensors;
+        mStoredSensors = mSensors;
+        mSensors = magnitudes;
+        magnitudes = mStoredExternals;
+        mStoredExternals = mExternals;
+        mExternals = magnitudes;
+        mStoredLat = lat;
+        mStoredLon = lon;
+        mStoredTime = time;
+        mHasStored = true;
+        mStoredCount++;
+        return true;
+    }
+
+    public long getStoredCount() {
+        return mStoredCount;
+    }
+
+    public long getSuppressedCount() {
+        return mSuppressedCount;
+    }
+
+    /**
+     * @return  Part of ticks which are not stored, from 0 to 1
+     */
+    public float getSuppressionRatio() {
+        long total = mStoredCount + mSuppressedCount;
+        return total > 0 ? (float) mSuppressedCount / total : 0;
+    }
+
+    private boolean isMoved(double lat, double lon) {
+        if (Double.isNaN(lat) || Double.isNaN(mStoredLat))
+            return Double.isNaN(lat) != Double.isNaN(mStoredLat); // fix is got or lost
+
+        // equirectangular approximation is precise enough for short distances
+        double x = Math.toRadians(lon - mStoredLon) * Math.cos(Math.toRadians((lat + mStoredLat) / 2));
+        double y = Math.toRadians(lat - mStoredLat);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS >= mDistance;
+    }
+
+    private boolean isCellsChanged() {
+        if (mCells.size() != mStoredCells.size())
+            return true;
+
+        for (Map.Entry<String, Long> cell : mCells.entrySet()) {
+            Long stored = mStoredCells.get(cell.getKey());
+            if (stored == null || Math.abs(cell.getValue() - stored) >= mSignal)
+                return true;
+        }
+
+        return false;
+    }
+
+    private static double getMagnitude(InfoItem item) {
+        double sum = 0;
+        for (int i = 0; i < item.size(); i++)
+            if (item.isNumeric(i)) {
+                double value = item.getDouble(i);
+                sum += value * value;
+            }
+
+        return Math.sqrt(sum);
+    }
+
+    private static String getCellKey(InfoItem item) {
+        String key = "";
+        for (String column : CELL_IDENTITY)
+            key += item.getValue(item.indexOf(column)) + LoggerConstants.CSV_SEPARATOR;
+
+        return key;
+    }
+}
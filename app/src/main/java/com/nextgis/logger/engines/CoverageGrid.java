@@ -0,0 +1,358 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.engines;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.nextgis.logger.LoggerApplication;
+import com.nextgis.logger.util.BatchWriter;
+import com.nextgis.logger.util.LoggerConstants;
+import com.nextgis.maplib.util.Constants;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.nextgis.logger.util.LoggerConstants.CSV_SEPARATOR;
+import static com.nextgis.maplib.util.Constants.TAG;
+
+/**
+ * Signal statistics of cells per Web Mercator tile. Samples are aggregated in memory
+ * and their increments are merged to {@link LoggerApplication#TABLE_COVERAGE} from
+ * time to time, so table keeps one row per tile and cell of session. Periodic merges
+ * go with tick batches and run on {@link BatchWriter} thread.
+ */
+public class CoverageGrid {
+    private static final double ORIGIN = 20037508.342789244; // half of Web Mercator extent, in m
+    private static final double RADIUS = ORIGIN / Math.PI; // of Web Mercator sphere, in m
+    private static final int COLUMN_ZOOM = 0, COLUMN_X = 1, COLUMN_Y = 2, COLUMN_IDENTITY = 3, COLUMN_COUNT = 10, COLUMN_MIN = 11,
+            COLUMN_MAX = 12, COLUMN_SUM = 13, COLUMN_LAST = 14;
+    private static final String[] IDENTITY = {LoggerConstants.HEADER_GEN, LoggerConstants.HEADER_TYPE, LoggerConstants.HEADER_MCC,
+                                              LoggerConstants.HEADER_MNC, LoggerConstants.HEADER_LAC, LoggerConstants.HEADER_CID,
+                                              LoggerConstants.HEADER_PSC};
+
+    private final int mZoom, mTiles;
+    private final double mTileSize;
+    private Map<Long, Tile> mChanged = new HashMap<>();
+    private String mSession;
+    private long mLastPersist;
+
+    /**
+     * Statistics of cells seen in tile since the last persist
+     */
+    static final class Tile {
+        final int x, y;
+        int size;
+        long[] cells = new long[4], sums = new long[4], times = new long[4];
+        int[] counts = new int[4], mins = new int[4], maxs = new int[4], lasts = new int[4];
+
+        Tile(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        void add(long cell, int power, long time) {
+            int i = 0;
+            while (i < size && cells[i] != cell)
+                i++;
+
+            if (i == size) {
+                if (size == cells.length)
+                    grow();
+
+                size++;
+                cells[i] = cell;
+                mins[i] = Integer.MAX_VALUE;
+                maxs[i] = Integer.MIN_VALUE;
+            }
+
+            counts[i]++;
+            sums[i] += power;
+            mins[i] = Math.min(mins[i], power);
+            maxs[i] = Math.max(maxs[i], power);
+            lasts[i] = power;
+            times[i] = time;
+        }
+
+        private void grow() {
+            int length = cells.length * 2;
+            cells = Arrays.copyOf(cells, length);
+            sums = Arrays.copyOf(sums, length);
+            times = Arrays.copyOf(times, length);
+            counts = Arrays.copyOf(counts, length);
+            mins = Arrays.copyOf(mins, length);
+            maxs = Arrays.copyOf(maxs, length);
+            lasts = Arrays.copyOf(lasts, length);
+        }
+    }
+
+    CoverageGrid(int zoom) {
+        mZoom = zoom;
+        mTiles = 1 << zoom;
+        mTileSize = 2 * ORIGIN / mTiles;
+    }
+
+    /**
+     * Merge changes of previous session if any and start collecting new one
+     */
+    synchronized void start(String session) {
+        write();
+        mSession = session;
+        mLastPersist = System.currentTimeMillis();
+    }
+
+    /**
+     * Merge the rest of changes in caller thread. Call it after tick batches are written.
+     */
+    synchronized void stop() {
+        write();
+        mSession = null;
+    }
+
+    /**
+     * @param x     Web Mercator coordinates of sample
+     * @param cell  Dictionary id of cell
+     * @param power Signal in dBm
+     */
+    synchronized void add(double x, double y, long cell, int power, long time) {
+        if (mSession == null)
+            return;
+
+        int tileX = (int) Math.max(0, Math.min(mTiles - 1, Math.floor((x + ORIGIN) / mTileSize)));
+        int tileY = (int) Math.max(0, Math.min(mTiles - 1, Math.floor((ORIGIN - y) / mTileSize)));
+        long key = ((long) tileX << 32) | tileY;
+        Tile tile = mChanged.get(key);
+        if (tile == null) {
+            tile = new Tile(tileX, tileY);
+            mChanged.put(key, tile);
+        }
+
+        tile.add(cell, power, time);
+    }
+
+    /**
+     * @param y         Web Mercator northing of fix
+     * @param accuracy  Horizontal accuracy of fix in m, NaN if it is unknown
+     * @return          True if fix is accurate enough to pick a tile at its latitude
+     */
+    boolean isAccurate(double y, float accuracy) {
+        return !Float.isNaN(accuracy) && accuracy <= getTileSize(y);
+    }
+
+    /**
+     * @return  Ground size of tile at Web Mercator northing, in m
+     */
+    double getTileSize(double y) {
+        return mTileSize / Math.cosh(y / RADIUS);
+    }
+
+    /**
+     * Hand changes to batch if they are older than {@link LoggerConstants#COVERAGE_PERSIST_INTERVAL}
+     */
+    synchronized void persist(long now, BatchWriter.Batch batch) {
+        if (now - mLastPersist >= LoggerConstants.COVERAGE_PERSIST_INTERVAL) {
+            Merge merge = take();
+            if (merge != null)
+                batch.add(merge);
+        }
+    }
+
+    private void write() {
+        Merge merge = take();
+        if (merge != null)
+            BatchWriter.write(new BatchWriter.Batch().add(merge));
+    }
+
+    /**
+     * Move changed tiles to merge, new samples are collected to empty tiles
+     *
+     * @return  Merge of changed tiles or null if there are no changes
+     */
+    synchronized Merge take() {
+        mLastPersist = System.currentTimeMillis();
+        if (mChanged.isEmpty() || mSession == null)
+            return null;
+
+        Merge merge = new Merge(mSession, mZoom, mChanged.values());
+        mChanged = new HashMap<>();
+        return merge;
+    }
+
+    /**
+     * Merge of tiles to table, one statement per tile and cell
+     */
+    static final class Merge implements BatchWriter.Task {
+        private final String mSession;
+        private final int mZoom;
+        private final Collection<Tile> mTiles;
+
+        Merge(String session, int zoom, Collection<Tile> tiles) {
+            mSession = session;
+            mZoom = zoom;
+            mTiles = tiles;
+        }
+
+        Collection<Tile> getTiles() {
+            return mTiles;
+        }
+
+        @Override
+        public void execute(SQLiteDatabase db) throws SQLException {
+            String key = LoggerApplication.FIELD_SESSION + " = ? AND " + LoggerApplication.FIELD_ZOOM + " = ? AND " + LoggerApplication.FIELD_TILE_X +
+                    " = ? AND " + LoggerApplication.FIELD_TILE_Y + " = ? AND " + LoggerApplication.FIELD_CELL + " = ?";
+            SQLiteStatement update = db.compileStatement("UPDATE " + LoggerApplication.TABLE_COVERAGE + " SET " + LoggerApplication.FIELD_COUNT +
+                    " = " + LoggerApplication.FIELD_COUNT + " + ?, " + LoggerApplication.FIELD_MIN + " = MIN(" + LoggerApplication.FIELD_MIN + ", ?), " +
+                    LoggerApplication.FIELD_MAX + " = MAX(" + LoggerApplication.FIELD_MAX + ", ?), " + LoggerApplication.FIELD_SUM + " = " +
+                    LoggerApplication.FIELD_SUM + " + ?, " + LoggerApplication.FIELD_LAST + " = ?, " + LoggerApplication.FIELD_TS_LAST +
+                    " = ? WHERE " + key);
+            SQLiteStatement insert = db.compileStatement("INSERT INTO " + LoggerApplication.TABLE_COVERAGE + " (" + LoggerApplication.FIELD_COUNT +
+                    ", " + LoggerApplication.FIELD_MIN + ", " + LoggerApplication.FIELD_MAX + ", " + LoggerApplication.FIELD_SUM + ", " +
+                    LoggerApplication.FIELD_LAST + ", " + LoggerApplication.FIELD_TS_LAST + ", " + LoggerApplication.FIELD_SESSION + ", " +
+                    LoggerApplication.FIELD_ZOOM + ", " + LoggerApplication.FIELD_TILE_X + ", " + LoggerApplication.FIELD_TILE_Y + ", " +
+                    LoggerApplication.FIELD_CELL + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+
+            int rows = 0;
+            try {
+                for (Tile tile : mTiles)
+                    for (int i = 0; i < tile.size; i++) {
+                        bind(update, tile, i);
+                        if (update.executeUpdateDelete() == 0) {
+                            bind(insert, tile, i);
+                            insert.executeInsert();
+                        }
+
+                        rows++;
+                    }
+            } finally {
+                update.close();
+                insert.close();
+            }
+
+            Log.d(TAG, "Coverage persisted " + rows + " tile cells");
+        }
+
+        private void bind(SQLiteStatement statement, Tile tile, int i) {
+            statement.clearBindings();
+            statement.bindLong(1, tile.counts[i]);
+            statement.bindLong(2, tile.mins[i]);
+            statement.bindLong(3, tile.maxs[i]);
+            statement.bindLong(4, tile.sums[i]);
+            statement.bindLong(5, tile.lasts[i]);
+            statement.bindLong(6, tile.times[i]);
+            statement.bindString(7, mSession);
+            statement.bindLong(8, mZoom);
+            statement.bindLong(9, tile.x);
+            statement.bindLong(10, tile.y);
+            statement.bindLong(11, tile.cells[i]);
+        }
+    }
+
+    /**
+     * Tiles of session joined with cell identities, columns are read by {@link #getCsvRow(Cursor)}
+     */
+    public static Cursor query(SQLiteDatabase db, String session) {
+        String identity = "";
+        for (String column : IDENTITY)
+            identity += "d.\"" + column + "\", ";
+
+        return db.rawQuery("SELECT c." + LoggerApplication.FIELD_ZOOM + ", c." + LoggerApplication.FIELD_TILE_X + ", c." +
+                                   LoggerApplication.FIELD_TILE_Y + ", " + identity + "c." + LoggerApplication.FIELD_COUNT + ", c." +
+                                   LoggerApplication.FIELD_MIN + ", c." + LoggerApplication.FIELD_MAX + ", c." + LoggerApplication.FIELD_SUM +
+                                   ", c." + LoggerApplication.FIELD_LAST + " FROM " + LoggerApplication.TABLE_COVERAGE + " c JOIN " +
+                                   LoggerApplication.TABLE_CELL_DICT + " d ON d." + Constants.FIELD_ID + " = c." + LoggerApplication.FIELD_CELL +
+                                   " WHERE c." + LoggerApplication.FIELD_SESSION + " = ? ORDER BY c." + LoggerApplication.FIELD_ZOOM + ", c." +
+                                   LoggerApplication.FIELD_TILE_Y + ", c." + LoggerApplication.FIELD_TILE_X + ", c." + LoggerApplication.FIELD_CELL,
+                           new String[]{session});
+    }
+
+    public static String getHeader() {
+        String header = "Zoom" + CSV_SEPARATOR + "TileX" + CSV_SEPARATOR + "TileY" + CSV_SEPARATOR + "Lon" + CSV_SEPARATOR + "Lat";
+        for (String column : IDENTITY)
+            header += CSV_SEPARATOR + column;
+
+        return header + CSV_SEPARATOR + "Count" + CSV_SEPARATOR + "Min" + CSV_SEPARATOR + "Max" + CSV_SEPARATOR + "Mean" + CSV_SEPARATOR + "Last";
+    }
+
+    /**
+     * Tile with center coordinates in WGS84 and signal statistics of cell in dBm
+     */
+    public static String getCsvRow(Cursor cursor) {
+        int zoom = cursor.getInt(COLUMN_ZOOM), x = cursor.getInt(COLUMN_X), y = cursor.getInt(COLUMN_Y);
+        String row = zoom + CSV_SEPARATOR + x + CSV_SEPARATOR + y + CSV_SEPARATOR + getLon(x + 0.5, zoom) + CSV_SEPARATOR + getLat(y + 0.5, zoom);
+        for (int i = 0; i < IDENTITY.length; i++)
+            row += CSV_SEPARATOR + cursor.getString(COLUMN_IDENTITY + i);
+
+        return row + CSV_SEPARATOR + cursor.getLong(COLUMN_COUNT) + CSV_SEPARATOR + cursor.getInt(COLUMN_MIN) + CSV_SEPARATOR +
+                cursor.getInt(COLUMN_MAX) + CSV_SEPARATOR + getMean(cursor) + CSV_SEPARATOR + cursor.getInt(COLUMN_LAST);
+    }
+
+    /**
+     * Tile as GeoJSON polygon feature in WGS84 with cell and statistics as properties
+     */
+    public static String getFeature(Cursor cursor) {
+        int zoom = cursor.getInt(COLUMN_ZOOM), x = cursor.getInt(COLUMN_X), y = cursor.getInt(COLUMN_Y);
+        double west = getLon(x, zoom), east = getLon(x + 1, zoom), north = getLat(y, zoom), south = getLat(y + 1, zoom);
+
+        StringBuilder feature = new StringBuilder("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[[");
+        feature.append("[").append(west).append(",").append(south).append("],[").append(east).append(",").append(south).append("],[")
+               .append(east).append(",").append(north).append("],[").append(west).append(",").append(north).append("],[").append(west)
+               .append(",").append(south).append("]]]},\"properties\":{\"zoom\":").append(zoom).append(",\"x\":").append(x).append(",\"y\":")
+               .append(y);
+
+        for (int i = 0; i < IDENTITY.length; i++) {
+            feature.append(",\"").append(IDENTITY[i]).append("\":");
+            int column = COLUMN_IDENTITY + i;
+            if (cursor.getType(column) == Cursor.FIELD_TYPE_INTEGER)
+                feature.append(cursor.getLong(column));
+            else
+                feature.append("\"").append(cursor.getString(column)).append("\"");
+        }
+
+        feature.append(",\"count\":").append(cursor.getLong(COLUMN_COUNT)).append(",\"min\":").append(cursor.getInt(COLUMN_MIN))
+               .append(",\"max\":").append(cursor.getInt(COLUMN_MAX)).append(",\"mean\":").append(getMean(cursor)).append(",\"last\":")
+               .append(cursor.getInt(COLUMN_LAST)).append("}}");
+        return feature.toString();
+    }
+
+    private static String getMean(Cursor cursor) {
+        long count = cursor.getLong(COLUMN_COUNT);
+        return count > 0 ? String.format(Locale.US, "%.1f", (double) cursor.getLong(COLUMN_SUM) / count) : LoggerConstants.NO_DATA;
+    }
+
+    private static double getLon(double x, int zoom) {
+        return x / (1 << zoom) * 360 - 180;
+    }
+
+    private static double getLat(double y, int zoom) {
+        double n = Math.PI * (1 - 2 * y / (1 << zoom));
+        return Math.toDegrees(Math.atan(Math.sinh(n)));
+    }
+}
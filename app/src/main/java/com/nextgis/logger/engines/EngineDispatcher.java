@@ -0,0 +1,107 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.engines;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+
+/**
+ * Delivers engine changes to listeners on a single handler thread no more
+ * often than the frame rate. Changes made between frames are coalesced per
+ * source, so listeners get each changed source once per frame.
+ */
+public final class EngineDispatcher implements Handler.Callback {
+    public static final int DEFAULT_FRAME_RATE = 10;
+    private static final int MSG_FRAME = 1;
+
+    private static EngineDispatcher mInstance;
+
+    private final Handler mHandler;
+    private ArrayList<BaseEngine> mDirty = new ArrayList<>();
+    private ArrayList<BaseEngine> mFrame = new ArrayList<>();
+    private boolean mIsScheduled;
+    private volatile long mFrameInterval, mLastFrame;
+
+    private EngineDispatcher() {
+        HandlerThread thread = new HandlerThread("LoggerEngineDispatcher");
+        thread.start();
+        mHandler = new Handler(thread.getLooper(), this);
+        setFrameRate(DEFAULT_FRAME_RATE);
+    }
+
+    public static synchronized EngineDispatcher getInstance() {
+        if (mInstance == null)
+            mInstance = new EngineDispatcher();
+
+        return mInstance;
+    }
+
+    /**
+     * @param frameRate Maximum count of deliveries per second
+     */
+    public void setFrameRate(int frameRate) {
+        mFrameInterval = 1000 / Math.max(frameRate, 1);
+    }
+
+    /**
+     * Called by engine when it gets first change since its last delivery
+     */
+    void post(BaseEngine engine) {
+        synchronized (this) {
+            mDirty.add(engine);
+            if (mIsScheduled)
+                return;
+
+            mIsScheduled = true;
+        }
+
+        long delay = mLastFrame + mFrameInterval - SystemClock.elapsedRealtime();
+        mHandler.sendEmptyMessageDelayed(MSG_FRAME, Math.max(delay, 0));
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        if (msg.what != MSG_FRAME)
+            return false;
+
+        mLastFrame = SystemClock.elapsedRealtime();
+        ArrayList<BaseEngine> frame;
+        synchronized (this) { // engines changed during delivery go to the next frame
+            frame = mDirty;
+            mDirty = mFrame;
+            mFrame = frame;
+            mIsScheduled = false;
+        }
+
+        for (int i = 0; i < frame.size(); i++)
+            frame.get(i).deliverChanges();
+
+        frame.clear();
+        return true;
+    }
+}
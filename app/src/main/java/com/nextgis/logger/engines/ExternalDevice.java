@@ -0,0 +1,534 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.engines;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.nextgis.logger.util.ExternalSchema;
+import com.nextgis.logger.util.LoggerConstants;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static com.nextgis.maplib.util.Constants.TAG;
+
+/**
+ * One paired Bluetooth device of {@link ArduinoEngine}. Each device has its own
+ * link, worker thread and header, so slow or lost device does not stall others.
+ * <p>
+ * The worker is the only owner of the link. Failed connection attempts are
+ * repeated after exponential backoff with jitter, which may be cut short by
+ * {@link #wake(boolean)} when system reports the device is in range again.
+ */
+public class ExternalDevice {
+    private static final UUID SERIAL_PORT = UUID.fromString("00001101-0000-1000-8000-00805f9b34fb"); //Standard //SerialPortService ID
+    private static final long BACKOFF_MIN = 1000;
+    private static final long BACKOFF_MAX = 60000;
+
+    public enum State {STOPPED, CONNECTING, CONNECTED, BACKOFF}
+
+    private final ArduinoEngine mEngine;
+    private final String mName, mMAC;
+    private final List<InfoItem> mItems = new ArrayList<>();
+
+    private BluetoothDevice mDevice;
+    private volatile BluetoothSocket mSocket;
+    private OutputStream mOutputStream;
+    private InputStream mInputStream;
+    private volatile ArduinoProtocol mProtocol;
+    private volatile BlockingQueue<ArduinoProtocol.Frame> mFrames;
+    private volatile long mDroppedFrames;
+
+    private volatile boolean mIsWorking, mIsConnectionLost, mIsFirstConnect;
+    private String mHeader;
+    private volatile ExternalSchema mSchema;
+    private Thread mWorkerThread;
+
+    private final Object mSleep = new Object();
+    private final Random mRandom = new Random();
+    private volatile State mState = State.STOPPED;
+    private long mBackoff = BACKOFF_MIN;
+    private boolean mIsWakeRequested, mIsFailureReported;
+    private volatile int mReconnectAttempts;
+    private volatile long mLostTime, mReconnectTime = -1;
+
+    ExternalDevice(ArduinoEngine engine, String name, String mac) {
+        mEngine = engine;
+        mName = name;
+        mMAC = mac;
+    }
+
+    /**
+     * @param nameWithMAC   Device preference entry "Name (MAC)"
+     * @return  Device or null if entry has no MAC
+     */
+    static ExternalDevice fromPreference(ArduinoEngine engine, String nameWithMAC) {
+        int i = nameWithMAC.lastIndexOf("(");
+        if (i <= 0 || !nameWithMAC.endsWith(")"))
+            return null;
+
+        return new ExternalDevice(engine, nameWithMAC.substring(0, i).trim(), nameWithMAC.substring(i + 1, nameWithMAC.length() - 1));
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getMAC() {
+        return mMAC;
+    }
+
+    /**
+     * @return  Sensors of device header. Guarded by lock of engine.
+     */
+    List<InfoItem> getItems() {
+        return mItems;
+    }
+
+    public int getSensorsCount() {
+        return mItems.size();
+    }
+
+    String getHeader() {
+        return mHeader;
+    }
+
+    /**
+     * @return  Typed table of current header or null if header is not known
+     */
+    public ExternalSchema getSchema() {
+        return mSchema;
+    }
+
+    /**
+     * Replace sensors with ones described by JSON header
+     *
+     * @return  True if header is parsed
+     */
+    boolean loadHeader(String header) {
+        List<InfoItem> items = new ArrayList<>();
+        List<String> titles = new ArrayList<>(), shortNames = new ArrayList<>(), units = new ArrayList<>();
+        try {
+            JSONObject json = new JSONObject(header);
+            Iterator<String> sensors = json.keys();
+            while (sensors.hasNext()) {
+                String key = sensors.next();
+                JSONObject sensor = json.getJSONObject(key);
+                InfoItem item = new InfoItem(sensor.getString("full"));
+                item.addColumn(sensor.getString("short"), null, sensor.getString("unit"));
+                items.add(item);
+                titles.add(sensor.getString("full"));
+                shortNames.add(sensor.getString("short"));
+                units.add(sensor.getString("unit"));
+            }
+        } catch (JSONException e) {
+            return false;
+        }
+
+        synchronized (mEngine.mLock) {
+            mItems.clear();
+            mItems.addAll(items);
+        }
+
+        clearData();
+        BlockingQueue<ArduinoProtocol.Frame> frames = mFrames;
+        if (frames != null) // frames of previous header do not fit new table
+            frames.clear();
+
+        mSchema = new ExternalSchema(mMAC, titles.toArray(new String[titles.size()]), shortNames.toArray(new String[shortNames.size()]),
+                                     units.toArray(new String[units.size()]));
+        mHeader = header;
+        return true;
+    }
+
+    void clearData() {
+        synchronized (mEngine.mLock) {
+            for (InfoItem item : mItems)
+                item.getColumns().get(0).setValue(LoggerConstants.NO_DATA);
+        }
+    }
+
+    /**
+     * Start worker. If previous one is not finished yet it keeps working.
+     */
+    synchronized void start() {
+        mIsWorking = true;
+        mReconnectAttempts = 0;
+        mLostTime = SystemClock.elapsedRealtime();
+        if (mWorkerThread != null)
+            return;
+
+        mWorkerThread = new Thread(new Runnable() {
+            public void run() {
+                do {
+                    work();
+                    closeLink();
+                } while (!onWorkerFinished());
+            }
+        }, "LoggerExternal " + mMAC);
+
+        mWorkerThread.start();
+    }
+
+    private void work() {
+        while (mIsWorking) {
+            try {
+                if (!isDeviceAvailable() || !isConnected()) {
+                    if (!openConnection()) {
+                        backoff();
+                        continue;
+                    }
+                }
+
+                ArduinoProtocol protocol = mProtocol;
+                if (protocol == null)
+                    continue;
+
+                if (mIsFirstConnect)
+                    getExternalHeader(protocol);
+
+                ArduinoProtocol.Frame frame = protocol.readFrame();
+                if (frame != null && parseData(frame))
+                    mEngine.notifyListeners("EXTERNAL");
+
+                if (!protocol.isStreaming())
+                    SystemClock.sleep(LoggerConstants.UPDATE_FREQUENCY);
+            } catch (IOException e) {
+                if (!mIsWorking) // link is closed by stop()
+                    break;
+
+                Log.d(TAG, "Connection to " + mName + " is lost: " + e.getLocalizedMessage());
+                onDisconnected();
+                closeLink();
+            }
+        }
+    }
+
+    /**
+     * @return  False if device was started again while worker was closing link
+     */
+    private synchronized boolean onWorkerFinished() {
+        if (mIsWorking)
+            return false;
+
+        mWorkerThread = null;
+        mState = State.STOPPED;
+        return true;
+    }
+
+    synchronized void stop() {
+        mIsWorking = false;
+        wake(false);
+
+        BluetoothSocket socket = mSocket;
+        if (mWorkerThread == null)
+            closeLink();
+        else if (socket != null) // abort blocking connect or read, worker releases the link
+            try {
+                socket.close();
+            } catch (IOException ignored) { }
+    }
+
+    /**
+     * Wait before the next connection attempt. Delay is doubled after each
+     * failure up to {@link #BACKOFF_MAX}, a random half of it is used.
+     */
+    private void backoff() {
+        mState = State.BACKOFF;
+        synchronized (mSleep) {
+            long delay = mBackoff / 2 + (long) (mRandom.nextDouble() * mBackoff / 2);
+            mBackoff = Math.min(mBackoff * 2, BACKOFF_MAX);
+
+            if (!mIsWakeRequested && mIsWorking)
+                try {
+                    mSleep.wait(delay);
+                } catch (InterruptedException ignored) { }
+
+            mIsWakeRequested = false;
+        }
+    }
+
+    /**
+     * Interrupt backoff to try to connect now
+     *
+     * @param reset True to start backoff from the minimal delay
+     */
+    void wake(boolean reset) {
+        synchronized (mSleep) {
+            if (reset)
+                mBackoff = BACKOFF_MIN;
+
+            mIsWakeRequested = true;
+            mSleep.notifyAll();
+        }
+    }
+
+    /**
+     * Link is lost, clear values and let engine decide whether to keep trying
+     */
+    void onDisconnected() {
+        if (!mIsConnectionLost)
+            mLostTime = SystemClock.elapsedRealtime();
+
+        mIsConnectionLost = true;
+        clearData();
+
+        if (!mEngine.onDeviceLost(this))
+            stop();
+    }
+
+    private void getExternalHeader(ArduinoProtocol protocol) throws IOException {
+        String header = protocol.requestHeader();
+        if (header == null || !loadHeader(header))
+            return;
+
+        mSchema.createLayer(mName);
+
+        mIsFirstConnect = false;
+        protocol.startStreaming();
+        mEngine.onDeviceHeader(this);
+    }
+
+    private boolean parseData(ArduinoProtocol.Frame frame) {
+        String[] fields = frame.getValues();
+        boolean isCorrect;
+        synchronized (mEngine.mLock) {
+            isCorrect = fields.length == mItems.size() && !(fields.length == 1 && TextUtils.isEmpty(fields[0]));
+
+            if (isCorrect)
+                for (int i = 0; i < fields.length; i++)
+                    setValue(mItems.get(i), fields[i]);
+        }
+
+        BlockingQueue<ArduinoProtocol.Frame> frames = mFrames;
+        if (isCorrect && frames != null)
+            while (!frames.offer(frame)) {
+                frames.poll();
+                mDroppedFrames++;
+            }
+
+        return isCorrect;
+    }
+
+    /**
+     * Keep numbers as doubles, so rows are written without parsing strings again
+     */
+    private static void setValue(InfoItem item, String field) {
+        try {
+            item.setValue(0, Double.parseDouble(field));
+        } catch (NumberFormatException e) {
+            item.setValue(0, (Object) field);
+        }
+    }
+
+    /**
+     * @param capacity  Frames kept until drained, the oldest are dropped. 0 to keep only the latest values.
+     */
+    void setFramesBuffer(int capacity) {
+        mFrames = capacity > 0 ? new ArrayBlockingQueue<ArduinoProtocol.Frame>(capacity) : null;
+    }
+
+    boolean isFramesBuffered() {
+        return mFrames != null;
+    }
+
+    int drainFrames(Collection<? super ArduinoProtocol.Frame> to) {
+        BlockingQueue<ArduinoProtocol.Frame> frames = mFrames;
+        return frames == null ? 0 : frames.drainTo(to);
+    }
+
+    public long getDroppedFramesCount() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * @return  Frames per second received during the last second
+     */
+    public float getFramesRate() {
+        ArduinoProtocol protocol = mProtocol;
+        return protocol == null ? 0 : protocol.getReader().getFramesRate();
+    }
+
+    /**
+     * @return  Latency of the last frame in ms, see {@link ArduinoProtocol#getLastLatency()}
+     */
+    public long getLatency() {
+        ArduinoProtocol protocol = mProtocol;
+        return protocol == null ? 0 : protocol.getLastLatency();
+    }
+
+    /**
+     * @return  Lines with wrong checksum or without delimiter since connection
+     */
+    public long getMalformedFramesCount() {
+        ArduinoProtocol protocol = mProtocol;
+        return protocol == null ? 0 : protocol.getReader().getMalformedCount();
+    }
+
+    public long getDroppedBytesCount() {
+        ArduinoProtocol protocol = mProtocol;
+        return protocol == null ? 0 : protocol.getReader().getDroppedBytesCount();
+    }
+
+    /**
+     * @return  True if device pushes frames itself, false if it is polled
+     */
+    public boolean isStreaming() {
+        ArduinoProtocol protocol = mProtocol;
+        return protocol != null && protocol.isStreaming();
+    }
+
+    /**
+     * @return  True if link is opened
+     */
+    private boolean openConnection() {
+        if (mSocket != null) // link lost, release it before reconnect
+            closeLink();
+
+        mState = State.CONNECTING;
+        mReconnectAttempts++;
+        try {
+            findBT();
+            openBT();
+        } catch (IOException e) {
+            mIsConnectionLost = true;
+            closeLink();
+
+            if (!mIsFailureReported) // once per outage
+                mEngine.onDeviceFailure(this);
+
+            mIsFailureReported = true;
+            return false;
+        }
+
+        synchronized (mSleep) {
+            mBackoff = BACKOFF_MIN;
+        }
+
+        mReconnectTime = SystemClock.elapsedRealtime() - mLostTime;
+        Log.d(TAG, mName + " is connected in " + mReconnectTime + " ms, attempts: " + mReconnectAttempts);
+        mIsFailureReported = false;
+        mIsFirstConnect = true;
+        mIsConnectionLost = false;
+        mState = State.CONNECTED;
+        return true;
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    /**
+     * @return  Connection attempts since worker is started
+     */
+    public int getReconnectAttempts() {
+        return mReconnectAttempts;
+    }
+
+    /**
+     * @return  Time from start or link loss to the last successful connection in ms, -1 if not connected yet
+     */
+    public long getReconnectTime() {
+        return mReconnectTime;
+    }
+
+    private void findBT() throws IOException {
+        if (!mEngine.isBTEnabled())
+            throw new IOException("Bluetooth adapter is not available");
+
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        for (BluetoothDevice device : adapter.getBondedDevices()) {
+            if (device.getAddress().equals(mMAC)) {
+                mDevice = device;
+                return;
+            }
+        }
+
+        throw new IOException("Can not find " + mName + " bluetooth");
+    }
+
+    private void openBT() throws IOException {
+        mSocket = mDevice.createRfcommSocketToServiceRecord(SERIAL_PORT);
+        mSocket.connect();
+        mOutputStream = mSocket.getOutputStream();
+        mInputStream = mSocket.getInputStream();
+        mProtocol = new ArduinoProtocol(mInputStream, mOutputStream);
+    }
+
+    public boolean isDeviceAvailable() {
+        return mEngine.isBTEnabled() && mDevice != null;
+    }
+
+    public boolean isConnected() {
+        return mInputStream != null && mOutputStream != null && mSocket != null && !mIsConnectionLost;
+    }
+
+    private synchronized void closeLink() {
+        ArduinoProtocol protocol = mProtocol;
+        if (protocol != null) {
+            try {
+                if (mSocket != null && mSocket.isConnected())
+                    protocol.stopStreaming();
+            } catch (IOException ignored) { }
+
+            protocol.close();
+        }
+
+        try {
+            if (mSocket != null)
+                mSocket.close();
+
+            if (mInputStream != null)
+                mInputStream.close();
+
+            if (mOutputStream != null)
+                mOutputStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        mProtocol = null;
+        mOutputStream = null;
+        mInputStream = null;
+        mSocket = null;
+        mDevice = null;
+    }
+}
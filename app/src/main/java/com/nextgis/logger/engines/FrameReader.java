@@ -0,0 +1,266 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.engines;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads serial link on its own thread and splits received bytes to lines.
+ * Bytes are collected in a ring buffer which grows up to {@link #MAX_LINE_LENGTH},
+ * so no line is lost or cut when several lines come in one packet.
+ * <p>
+ * Line may end with "*XX" checksum: CRC-8 (polynomial 0x07, initial value 0)
+ * of all bytes before '*' as two hex digits. Unlike XOR it catches swapped and
+ * doubled bytes, and AVR sketches get it from avr-libc {@code _crc8_ccitt_update()}.
+ * Lines with wrong checksum, or without it when it is required, are counted
+ * as malformed and skipped.
+ */
+public class FrameReader implements Runnable {
+    public static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final int INITIAL_SIZE = 1024;
+    private static final int QUEUE_SIZE = 256;
+    private static final byte DELIMITER = '\n';
+    private static final byte CHECKSUM = '*';
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] CRC8 = new byte[256];
+
+    static {
+        for (int i = 0; i < CRC8.length; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++)
+                crc = (crc & 0x80) != 0 ? crc << 1 ^ 0x07 : crc << 1;
+
+            CRC8[i] = (byte) crc;
+        }
+    }
+
+    private final InputStream mInput;
+    private final BlockingQueue<String> mLines = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final byte[] mChunk = new byte[INITIAL_SIZE];
+    private byte[] mRing = new byte[INITIAL_SIZE];
+    private int mHead, mSize; // start of current line and count of its bytes
+    private Thread mThread;
+
+    private volatile boolean mIsChecksumRequired, mIsClosed;
+    private volatile long mFrames, mMalformed, mDroppedBytes;
+    private volatile float mFramesRate;
+    private long mRateStart, mRateFrames;
+
+    public FrameReader(InputStream input) {
+        mInput = input;
+    }
+
+    public synchronized void start() {
+        if (mThread != null)
+            return;
+
+        mRateStart = System.currentTimeMillis();
+        mThread = new Thread(this, "LoggerFrameReader");
+        mThread.start();
+    }
+
+    public synchronized void stop() {
+        if (mThread != null)
+            mThread.interrupt();
+
+        mThread = null;
+    }
+
+    /**
+     * Require checksum for every line, e.g. in stream mode
+     */
+    public void setChecksumRequired(boolean isRequired) {
+        mIsChecksumRequired = isRequired;
+    }
+
+    /**
+     * Wait for next line
+     *
+     * @return  Line or null if timeout elapsed
+     * @throws IOException  If link is closed and all lines are taken
+     */
+    public String poll(long timeout) throws IOException {
+        String line;
+        try {
+            line = mLines.poll(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        if (line == null && mIsClosed && mLines.isEmpty())
+            throw new IOException("Stream is closed");
+
+        return line;
+    }
+
+    /**
+     * @return  Next line, or null if there is no complete line yet
+     */
+    public String poll() throws IOException {
+        return poll(0);
+    }
+
+    public void clear() {
+        mLines.clear();
+    }
+
+    public boolean isClosed() {
+        return mIsClosed;
+    }
+
+    public long getFramesCount() {
+        return mFrames;
+    }
+
+    /**
+     * @return  Lines per second decoded during the last second
+     */
+    public float getFramesRate() {
+        return mFramesRate;
+    }
+
+    public long getMalformedCount() {
+        return mMalformed;
+    }
+
+    /**
+     * @return  Bytes of too long lines and of lines not taken in time
+     */
+    public long getDroppedBytesCount() {
+        return mDroppedBytes;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int length;
+            while (!Thread.currentThread().isInterrupted() && (length = mInput.read(mChunk)) >= 0)
+                for (int i = 0; i < length; i++)
+                    put(mChunk[i]);
+        } catch (IOException ignored) { // socket is closed
+        } finally {
+            mIsClosed = true;
+        }
+    }
+
+    private void put(byte b) {
+        if (b == DELIMITER) {
+            decode();
+            mHead = (mHead + mSize) % mRing.length;
+            mSize = 0;
+            return;
+        }
+
+        if (mSize == mRing.length) {
+            if (mRing.length >= MAX_LINE_LENGTH) { // no delimiter at all, drop the line
+                mDroppedBytes += mSize;
+                mMalformed++;
+                mSize = 0;
+            } else
+                grow();
+        }
+
+        mRing[(mHead + mSize) % mRing.length] = b;
+        mSize++;
+    }
+
+    private void grow() {
+        byte[] ring = new byte[Math.min(mRing.length * 2, MAX_LINE_LENGTH)];
+        copy(ring, mSize);
+        mRing = ring;
+        mHead = 0;
+    }
+
+    private void copy(byte[] to, int length) {
+        int first = Math.min(length, mRing.length - mHead);
+        System.arraycopy(mRing, mHead, to, 0, first);
+        System.arraycopy(mRing, 0, to, first, length - first);
+    }
+
+    private void decode() {
+        int length = mSize;
+        if (length > 0 && mRing[(mHead + length - 1) % mRing.length] == '\r')
+            length--;
+
+        byte[] line = new byte[length];
+        copy(line, length);
+
+        if (length >= 3 && line[length - 3] == CHECKSUM) {
+            if (!isChecksumValid(line, length - 3)) {
+                mMalformed++;
+                return;
+            }
+
+            length -= 3;
+        } else if (mIsChecksumRequired) {
+            mMalformed++;
+            return;
+        }
+
+        offer(new String(line, 0, length, UTF8));
+    }
+
+    private static boolean isChecksumValid(byte[] line, int star) {
+        int high = Character.digit(line[star + 1], 16);
+        int low = Character.digit(line[star + 2], 16);
+        if (high < 0 || low < 0)
+            return false;
+
+        return crc8(line, star) == (high << 4 | low);
+    }
+
+    /**
+     * @return  CRC-8 of the first length bytes, see class description
+     */
+    public static int crc8(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++)
+            crc = CRC8[(crc ^ data[i]) & 0xFF] & 0xFF;
+
+        return crc;
+    }
+
+    private void offer(String line) {
+        while (!mLines.offer(line)) { // consumer is too slow, keep the newest lines
+            String dropped = mLines.poll();
+            if (dropped != null)
+                mDroppedBytes += dropped.length();
+        }
+
+        mFrames++;
+        mRateFrames++;
+        long now = System.currentTimeMillis();
+        if (now - mRateStart >= 1000) {
+            mFramesRate = mRateFrames * 1000f / (now - mRateStart);
+            mRateStart = now;
+            mRateFrames = 0;
+        }
+    }
+}
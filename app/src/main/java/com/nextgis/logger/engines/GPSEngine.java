@@ -23,13 +23,20 @@
 package com.nextgis.logger.engines;
 
 import android.Manifest;
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
+import android.location.GnssStatus;
+import android.location.GpsStatus;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
+import android.location.OnNmeaMessageListener;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.app.ActivityCompat;
 
 import com.nextgis.logger.R;
@@ -37,17 +44,98 @@ import com.nextgis.logger.util.LoggerConstants;
 import com.nextgis.maplib.datasource.GeoPoint;
 import com.nextgis.maplib.util.GeoConstants;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
 
 import static com.nextgis.logger.util.LoggerConstants.*;
 
 public class GPSEngine extends BaseEngine implements LocationListener {
+    public static final Fix NO_FIX = new Fix(0, 0, Float.NaN, 0, null);
+
     private final LocationManager mLocationManager;
     private Location mLastFix = null;
     private InfoItem mGPSItem;
+    private volatile Fix mFix = NO_FIX;
+    private final GnssRecorder mGnssRecorder = new GnssRecorder();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private Object mNmeaListener, mStatusListener;
+
+    /**
+     * Location projected to Web Mercator and serialized once when it is received,
+     * so marks of every tick reuse it as is. Keeps GPS values of the same location
+     * for sensor row. Must not be changed.
+     */
+    public static final class Fix {
+        private final GeoPoint mPoint;
+        private final byte[] mBlob;
+        private final InfoItem mItem;
+        private final float mAccuracy;
+        private final long mTime;
+
+        private Fix(double lat, double lon, float accuracy, long time, InfoItem item) {
+            mItem = item;
+            mAccuracy = accuracy;
+            mTime = time;
+            mPoint = new GeoPoint(lon, lat);
+            mPoint.setCRS(GeoConstants.CRS_WGS84);
+            mPoint.project(GeoConstants.CRS_WEB_MERCATOR);
+
+            byte[] blob = null;
+            try {
+                blob = mPoint.toBlob();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            mBlob = blob;
+        }
+
+        /**
+         * @return  True if there was no location yet
+         */
+        public boolean isEmpty() {
+            return this == NO_FIX;
+        }
+
+        public double getX() {
+            return mPoint.getX();
+        }
+
+        public double getY() {
+            return mPoint.getY();
+        }
+
+        /**
+         * @return  Horizontal accuracy in m or NaN if it is unknown
+         */
+        public float getAccuracy() {
+            return mAccuracy;
+        }
+
+        /**
+         * @return  Wall clock time the location is received at, in ms
+         */
+        public long getTime() {
+            return mTime;
+        }
+
+        /**
+         * @return  Geometry blob of mark
+         */
+        public byte[] getBlob() {
+            return mBlob;
+        }
 
-    GPSEngine(Context context) {
-        super(context);
+        /**
+         * @return  GPS item as of this location or null if there was no location yet
+         */
+        public InfoItem getItem() {
+            return mItem;
+        }
+    }
+
+    GPSEngine(Context context, Object lock) {
+        super(context, lock);
         mLocationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
         loadEngine();
     }
@@ -82,16 +170,6 @@ public class GPSEngine extends BaseEngine implements LocationListener {
         return false;
     }
 
-    @Override
-    public void saveData(String markId) {
-
-    }
-
-    @Override
-    public void saveData(ArrayList<InfoItem> items, String markId) {
-
-    }
-
     private int getSatellites() {
         return mLastFix.getExtras().getInt("satellites", 0);
     }
@@ -103,30 +181,11 @@ public class GPSEngine extends BaseEngine implements LocationListener {
         return mLastFix.getTime();
     }
 
-    public static GeoPoint getFix(ArrayList<InfoItem> items) {
-        InfoItem gpsItem = null;
-        for (InfoItem item : items) {
-            if (item.getColumn(LoggerConstants.HEADER_GPS_LAT) != null) {
-                gpsItem = item;
-                break;
-            }
-        }
-
-        double x = 0, y = 0;
-        if (gpsItem != null) {
-            Object value = gpsItem.getColumn(LoggerConstants.HEADER_GPS_LAT).getValue();
-            if (value instanceof Double)
-                y = (double) value;
-
-            value = gpsItem.getColumn(LoggerConstants.HEADER_GPS_LON).getValue();
-            if (value instanceof Double)
-                x = (double) value;
-        }
-
-        GeoPoint point = new GeoPoint(x, y);
-        point.setCRS(GeoConstants.CRS_WGS84);
-        point.project(GeoConstants.CRS_WEB_MERCATOR);
-        return point;
+    /**
+     * @return  Latest received location or {@link #NO_FIX}
+     */
+    public Fix getFix() {
+        return mFix;
     }
 
     @Override
@@ -147,19 +206,143 @@ public class GPSEngine extends BaseEngine implements LocationListener {
                 .addColumn(LoggerConstants.HEADER_GPS_TIME, mContext.getString(R.string.info_time), null);
 
         mItems.add(mGPSItem);
+        publish();
+    }
+
+    /**
+     * @return  Gzip file with NMEA, satellites and fixes captured during session
+     */
+    public static File getCaptureFile(Context context, String session) {
+        return new File(new File(context.getExternalFilesDir(null), GNSS_PATH), session + GNSS_EXT);
+    }
+
+    public boolean isCaptureEnabled() {
+        return getPreferences().getBoolean(PREF_GNSS_CAPTURE, false);
+    }
+
+    /**
+     * Start appending NMEA sentences and satellites status to capture file of session
+     */
+    public void startCapture(String session) {
+        if (!isCaptureEnabled() || !isEngineEnabled() || mGnssRecorder.isRecording())
+            return;
+
+        if (ActivityCompat.checkSelfPermission(mContext, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED)
+            return;
+
+        mGnssRecorder.start(getCaptureFile(mContext, session));
+        mMainHandler.post(new Runnable() { // listeners are called on looper of registering thread
+            @Override
+            public void run() {
+                if (!mGnssRecorder.isRecording())
+                    return;
+
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+                    addGnssListeners();
+                else
+                    addGpsListeners();
+            }
+        });
+    }
+
+    /**
+     * Stop capture and write all queued data
+     */
+    public void stopCapture() {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+                    removeGnssListeners();
+                else
+                    removeGpsListeners();
+            }
+        });
+
+        mGnssRecorder.stop();
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    @SuppressWarnings("MissingPermission")
+    private void addGnssListeners() {
+        OnNmeaMessageListener nmeaListener = new OnNmeaMessageListener() {
+            @Override
+            public void onNmeaMessage(String message, long timestamp) {
+                mGnssRecorder.offer(timestamp, message);
+            }
+        };
+        GnssStatus.Callback statusListener = new GnssStatus.Callback() {
+            @Override
+            public void onSatelliteStatusChanged(GnssStatus status) {
+                mGnssRecorder.offer(System.currentTimeMillis(), status);
+            }
+        };
+
+        mLocationManager.addNmeaListener(nmeaListener, mMainHandler);
+        mLocationManager.registerGnssStatusCallback(statusListener, mMainHandler);
+        mNmeaListener = nmeaListener;
+        mStatusListener = statusListener;
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void removeGnssListeners() {
+        if (mNmeaListener != null)
+            mLocationManager.removeNmeaListener((OnNmeaMessageListener) mNmeaListener);
+        if (mStatusListener != null)
+            mLocationManager.unregisterGnssStatusCallback((GnssStatus.Callback) mStatusListener);
+
+        mNmeaListener = mStatusListener = null;
+    }
+
+    @SuppressWarnings({"deprecation", "MissingPermission"})
+    private void addGpsListeners() {
+        GpsStatus.NmeaListener nmeaListener = new GpsStatus.NmeaListener() {
+            @Override
+            public void onNmeaReceived(long timestamp, String nmea) {
+                mGnssRecorder.offer(timestamp, nmea);
+            }
+        };
+        GpsStatus.Listener statusListener = new GpsStatus.Listener() {
+            @Override
+            public void onGpsStatusChanged(int event) {
+                if (event == GpsStatus.GPS_EVENT_SATELLITE_STATUS && mGnssRecorder.isRecording())
+                    mGnssRecorder.offer(System.currentTimeMillis(), mLocationManager.getGpsStatus(null));
+            }
+        };
+
+        mLocationManager.addNmeaListener(nmeaListener);
+        mLocationManager.addGpsStatusListener(statusListener);
+        mNmeaListener = nmeaListener;
+        mStatusListener = statusListener;
+    }
+
+    @SuppressWarnings("deprecation")
+    private void removeGpsListeners() {
+        if (mNmeaListener != null)
+            mLocationManager.removeNmeaListener((GpsStatus.NmeaListener) mNmeaListener);
+        if (mStatusListener != null)
+            mLocationManager.removeGpsStatusListener((GpsStatus.Listener) mStatusListener);
+
+        mNmeaListener = mStatusListener = null;
     }
 
     @Override
     public void onLocationChanged(Location location) {
         mLastFix = location;
-        mGPSItem.setValue(LoggerConstants.HEADER_GPS_LAT, location.getLatitude());
-        mGPSItem.setValue(LoggerConstants.HEADER_GPS_LON, location.getLongitude());
-        mGPSItem.setValue(LoggerConstants.HEADER_GPS_ALT, location.getAltitude());
-        mGPSItem.setValue(LoggerConstants.HEADER_GPS_ACC, location.getAccuracy());
-        mGPSItem.setValue(LoggerConstants.HEADER_GPS_SP, location.getSpeed());
-        mGPSItem.setValue(LoggerConstants.HEADER_GPS_BE, location.getBearing());
-        mGPSItem.setValue(LoggerConstants.HEADER_GPS_SAT, getSatellites());
-        mGPSItem.setValue(LoggerConstants.HEADER_GPS_TIME, getTime());
+        mGnssRecorder.offer(location.getTime(), location);
+        synchronized (mLock) {
+            mGPSItem.setValue(LoggerConstants.HEADER_GPS_LAT, location.getLatitude());
+            mGPSItem.setValue(LoggerConstants.HEADER_GPS_LON, location.getLongitude());
+            mGPSItem.setValue(LoggerConstants.HEADER_GPS_ALT, location.getAltitude());
+            mGPSItem.setValue(LoggerConstants.HEADER_GPS_ACC, location.getAccuracy());
+            mGPSItem.setValue(LoggerConstants.HEADER_GPS_SP, location.getSpeed());
+            mGPSItem.setValue(LoggerConstants.HEADER_GPS_BE, location.getBearing());
+            mGPSItem.setValue(LoggerConstants.HEADER_GPS_SAT, getSatellites());
+            mGPSItem.setValue(LoggerConstants.HEADER_GPS_TIME, getTime());
+            float accuracy = location.hasAccuracy() ? location.getAccuracy() : Float.NaN;
+            mFix = new Fix(location.getLatitude(), location.getLongitude(), accuracy, System.currentTimeMillis(), new InfoItem(mGPSItem));
+        }
+
         notifyListeners(mGPSItem.getTitle());
     }
 
@@ -186,12 +369,12 @@ public class GPSEngine extends BaseEngine implements LocationListener {
     }
 
     static String getDataFromCursor(Cursor cursor) {
-        return cursor.getString(cursor.getColumnIndex(HEADER_GPS_LAT)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_GPS_LON)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_GPS_ALT)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_GPS_ACC)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_GPS_BE)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_GPS_SP)) + CSV_SEPARATOR +
+        return getValueFromCursor(cursor, HEADER_GPS_LAT, false) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_GPS_LON, false) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_GPS_ALT, false) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_GPS_ACC, true) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_GPS_BE, true) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_GPS_SP, true) + CSV_SEPARATOR +
                 cursor.getString(cursor.getColumnIndex(HEADER_GPS_SAT)) + CSV_SEPARATOR +
                 cursor.getString(cursor.getColumnIndex(HEADER_GPS_TIME));
     }
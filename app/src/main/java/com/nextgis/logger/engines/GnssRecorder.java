@@ -0,0 +1,204 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.engines;
+
+import android.annotation.TargetApi;
+import android.location.GnssStatus;
+import android.location.GpsSatellite;
+import android.location.GpsStatus;
+import android.location.Location;
+import android.os.Build;
+import android.util.Log;
+
+import com.nextgis.logger.util.LoggerConstants;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+import static com.nextgis.maplib.util.Constants.TAG;
+
+/**
+ * Writes NMEA sentences, satellites status and fixes to gzip file of session on its
+ * own thread. Callbacks only queue what they got, lines are formatted by writer.
+ * Each capture appends a new gzip member, so file is readable by usual tools.
+ * Queue is bounded, entries which do not fit are dropped and counted.
+ */
+class GnssRecorder {
+    private static final String SEPARATOR = ",";
+
+    private static final class Entry {
+        final long time;
+        final Object data;
+
+        Entry(long time, Object data) {
+            this.time = time;
+            this.data = data;
+        }
+    }
+
+    private final BlockingQueue<Entry> mQueue = new ArrayBlockingQueue<>(LoggerConstants.GNSS_CAPACITY);
+    private volatile boolean mIsRecording;
+    private volatile long mDroppedCount, mWrittenCount;
+    private Thread mThread;
+
+    boolean isRecording() {
+        return mIsRecording;
+    }
+
+    /**
+     * Queue NMEA sentence (String), GnssStatus, GpsStatus or Location without blocking
+     *
+     * @return  True if data is taken by recorder
+     */
+    boolean offer(long time, Object data) {
+        if (!mIsRecording)
+            return false;
+
+        if (!mQueue.offer(new Entry(time, data))) {
+            mDroppedCount++; // callbacks come on the same looper
+            return false;
+        }
+
+        return true;
+    }
+
+    synchronized void start(final File file) {
+        if (mIsRecording)
+            return;
+
+        mQueue.clear();
+        mIsRecording = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Writer writer = null;
+                try {
+                    File parent = file.getParentFile();
+                    if (parent != null && !parent.exists() && !parent.mkdirs())
+                        throw new IOException("Can not create " + parent);
+
+                    writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file, true)), "UTF-8"));
+                    writer.write("# Nmea,time,sentence\n# Status,time,constellation,svid,cn0,elevation,azimuth,used\n" +
+                                         "# Fix,time,lat,lon,alt,accuracy,speed,bearing\n");
+
+                    while (mIsRecording) {
+                        Entry entry;
+                        try {
+                            entry = mQueue.take();
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+
+                        write(writer, entry);
+                    }
+
+                    Entry entry;
+                    while ((entry = mQueue.poll()) != null)
+                        write(writer, entry);
+                } catch (IOException e) {
+                    Log.d(TAG, "GNSS capture failed: " + e.getLocalizedMessage());
+                    mIsRecording = false;
+                } finally {
+                    if (writer != null)
+                        try {
+                            writer.close();
+                        } catch (IOException ignored) { }
+                }
+            }
+        }, "LoggerGnss");
+        mThread.start();
+    }
+
+    /**
+     * Stop capture and wait until all queued data is written
+     */
+    synchronized void stop() {
+        if (mThread == null)
+            return;
+
+        mIsRecording = false;
+        mThread.interrupt();
+        boolean interrupted = false;
+        while (mThread.isAlive()) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        Log.d(TAG, "GNSS lines written: " + mWrittenCount + ", dropped entries: " + mDroppedCount);
+        mThread = null;
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void write(Writer writer, Entry entry) throws IOException {
+        if (entry.data instanceof String) {
+            writeLine(writer, "Nmea" + SEPARATOR + entry.time + SEPARATOR + ((String) entry.data).trim());
+        } else if (entry.data instanceof Location) {
+            Location location = (Location) entry.data;
+            writeLine(writer, "Fix" + SEPARATOR + entry.time + SEPARATOR + location.getLatitude() + SEPARATOR + location.getLongitude() +
+                    SEPARATOR + location.getAltitude() + SEPARATOR + location.getAccuracy() + SEPARATOR + location.getSpeed() + SEPARATOR +
+                    location.getBearing());
+        } else if (entry.data instanceof GpsStatus) {
+            for (GpsSatellite satellite : ((GpsStatus) entry.data).getSatellites())
+                writeStatus(writer, entry.time, 0, satellite.getPrn(), satellite.getSnr(), satellite.getElevation(), satellite.getAzimuth(),
+                            satellite.usedInFix());
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            writeGnssStatus(writer, entry);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void writeGnssStatus(Writer writer, Entry entry) throws IOException {
+        if (!(entry.data instanceof GnssStatus))
+            return;
+
+        GnssStatus status = (GnssStatus) entry.data;
+        for (int i = 0; i < status.getSatelliteCount(); i++)
+            writeStatus(writer, entry.time, status.getConstellationType(i), status.getSvid(i), status.getCn0DbHz(i), status.getElevationDegrees(i),
+                        status.getAzimuthDegrees(i), status.usedInFix(i));
+    }
+
+    private void writeStatus(Writer writer, long time, int constellation, int svid, float cn0, float elevation, float azimuth, boolean used)
+            throws IOException {
+        writeLine(writer, "Status" + SEPARATOR + time + SEPARATOR + constellation + SEPARATOR + svid + SEPARATOR + cn0 + SEPARATOR + elevation +
+                SEPARATOR + azimuth + SEPARATOR + (used ? 1 : 0));
+    }
+
+    private void writeLine(Writer writer, String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+        mWrittenCount++;
+    }
+}
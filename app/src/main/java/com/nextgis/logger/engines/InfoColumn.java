@@ -39,6 +39,8 @@ public class InfoColumn implements Parcelable {
 
     private String mFullName, mShortName, mUnit, mFormat;
     private Object mValue;
+    private InfoItem mItem;
+    private int mSlot;
 
     public InfoColumn(String shortName, String fullName, String unit) {
         mShortName = shortName;
@@ -60,6 +62,16 @@ public class InfoColumn implements Parcelable {
         mFormat = format;
     }
 
+    /**
+     * Column which keeps its value in the slot of owner item
+     */
+    InfoColumn(String shortName, String fullName, String unit, String format, InfoItem item, int slot) {
+        this(shortName, fullName, unit);
+        mFormat = format;
+        mItem = item;
+        mSlot = slot;
+    }
+
     private InfoColumn(Parcel in) {
         Bundle bundle = in.readBundle(getClass().getClassLoader());
         mFullName = bundle.getString(FNAME);
@@ -92,20 +104,21 @@ public class InfoColumn implements Parcelable {
         bundle.putString(FNAME, mFullName);
         bundle.putString(SNAME, mShortName);
         bundle.putString(UNIT, mUnit);
-        bundle.putString(FORMAT, mFullName);
-
-        if (mValue instanceof String)
-            bundle.putString(VALUE, (String) mValue);
-        else if (mValue instanceof Double)
-            bundle.putDouble(VALUE, (Double) mValue);
-        else if (mValue instanceof Float)
-            bundle.putFloat(VALUE, (Float) mValue);
-        else if (mValue instanceof Integer)
-            bundle.putInt(VALUE, (Integer) mValue);
-        else if (mValue instanceof Long)
-            bundle.putLong(VALUE, (Long) mValue);
-        else if (mValue instanceof Boolean)
-            bundle.putBoolean(VALUE, (Boolean) mValue);
+        bundle.putString(FORMAT, mFormat);
+
+        Object value = getValue();
+        if (value instanceof String)
+            bundle.putString(VALUE, (String) value);
+        else if (value instanceof Double)
+            bundle.putDouble(VALUE, (Double) value);
+        else if (value instanceof Float)
+            bundle.putFloat(VALUE, (Float) value);
+        else if (value instanceof Integer)
+            bundle.putInt(VALUE, (Integer) value);
+        else if (value instanceof Long)
+            bundle.putLong(VALUE, (Long) value);
+        else if (value instanceof Boolean)
+            bundle.putBoolean(VALUE, (Boolean) value);
 
         dest.writeBundle(bundle);
     }
@@ -119,7 +132,10 @@ public class InfoColumn implements Parcelable {
         if (!isValueTypeValid(value))
             throw new RuntimeException("Value must be following classes: [String, Double, Float, Integer, Long, Boolean]!");
 
-        mValue = value;
+        if (mItem != null)
+            mItem.setValue(mSlot, value);
+        else
+            mValue = value;
     }
 
     public String getShortName() {
@@ -134,8 +150,16 @@ public class InfoColumn implements Parcelable {
         return mUnit;
     }
 
+    public String getFormat() {
+        return mFormat;
+    }
+
     public Object getValue() {
-        return mValue;
+        return mItem != null ? mItem.getValue(mSlot) : mValue;
+    }
+
+    public String getValueAsString() {
+        return mItem != null ? mItem.getValueAsString(mSlot) : String.valueOf(mValue);
     }
 
     public String getValueWithUnit() {
@@ -145,9 +169,10 @@ public class InfoColumn implements Parcelable {
         if (TextUtils.isEmpty(format))
             format = "%s";
 
-        String result = getValue().toString();
+        Object value = getValue();
+        String result = value.toString();
         try {
-            result = String.format(format, getValue());
+            result = String.format(format, value);
         } catch (IllegalFormatException | NumberFormatException ignored) { }
 
         return result + unit;
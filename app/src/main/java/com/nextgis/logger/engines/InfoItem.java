@@ -23,6 +23,7 @@
 
 package com.nextgis.logger.engines;
 
+import android.content.ContentValues;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
@@ -30,15 +31,41 @@ import android.os.Parcelable;
 import com.nextgis.logger.util.LoggerConstants;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
+/**
+ * Item of columns with values. Values are kept in primitive arrays by column
+ * index (slot), so hot paths can resolve slot once and write without boxing.
+ */
 public class InfoItem implements Parcelable {
     private static final String TITLE = "title";
     private static final String DESC = "desc";
-    private static final String COLUMNS = "columns";
+    private static final String SNAMES = "short_names";
+    private static final String FNAMES = "full_names";
+    private static final String UNITS = "units";
+    private static final String FORMATS = "formats";
+    private static final String TYPES = "types";
+    private static final String LONGS = "longs";
+    private static final String DOUBLES = "doubles";
+    private static final String STRINGS = "strings";
+    private static final String PRESENT = "present";
+
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_DOUBLE = 5;
 
     private ArrayList<InfoColumn> mColumns;
     private String mTitle, mDescription;
 
+    private byte[] mTypes = new byte[0];
+    private long[] mLongs = new long[0];
+    private double[] mDoubles = new double[0];
+    private String[] mStrings = new String[0];
+    private long[] mPresent = new long[0];
+
     public InfoItem(String title) {
         mTitle = title;
         mColumns = new ArrayList<>();
@@ -49,11 +76,44 @@ public class InfoItem implements Parcelable {
         mDescription = description;
     }
 
+    /**
+     * Copy columns and values of other item
+     */
+    public InfoItem(InfoItem other) {
+        mTitle = other.mTitle;
+        mDescription = other.mDescription;
+        mColumns = new ArrayList<>(other.mColumns.size());
+        for (int i = 0; i < other.mColumns.size(); i++) {
+            InfoColumn column = other.mColumns.get(i);
+            mColumns.add(new InfoColumn(column.getShortName(), column.getFullName(), column.getUnit(), column.getFormat(), this, i));
+        }
+
+        mTypes = other.mTypes.clone();
+        mLongs = other.mLongs.clone();
+        mDoubles = other.mDoubles.clone();
+        mStrings = other.mStrings.clone();
+        mPresent = other.mPresent.clone();
+    }
+
     private InfoItem(Parcel in) {
         Bundle bundle = in.readBundle(getClass().getClassLoader());
         mTitle = bundle.getString(TITLE);
         mDescription = bundle.getString(DESC);
-        mColumns = bundle.getParcelableArrayList(COLUMNS);
+
+        String[] shortNames = bundle.getStringArray(SNAMES);
+        String[] fullNames = bundle.getStringArray(FNAMES);
+        String[] units = bundle.getStringArray(UNITS);
+        String[] formats = bundle.getStringArray(FORMATS);
+        mColumns = new ArrayList<>();
+        if (shortNames != null)
+            for (int i = 0; i < shortNames.length; i++)
+                mColumns.add(new InfoColumn(shortNames[i], fullNames[i], units[i], formats[i], this, i));
+
+        mTypes = bundle.getByteArray(TYPES);
+        mLongs = bundle.getLongArray(LONGS);
+        mDoubles = bundle.getDoubleArray(DOUBLES);
+        mStrings = bundle.getStringArray(STRINGS);
+        mPresent = bundle.getLongArray(PRESENT);
     }
 
     public static final Creator<InfoItem> CREATOR = new Creator<InfoItem>() {
@@ -75,10 +135,28 @@ public class InfoItem implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
+        int size = mColumns.size();
+        String[] shortNames = new String[size], fullNames = new String[size], units = new String[size], formats = new String[size];
+        for (int i = 0; i < size; i++) {
+            InfoColumn column = mColumns.get(i);
+            shortNames[i] = column.getShortName();
+            fullNames[i] = column.getFullName();
+            units[i] = column.getUnit();
+            formats[i] = column.getFormat();
+        }
+
         Bundle bundle = new Bundle();
         bundle.putString(TITLE, mTitle);
         bundle.putString(DESC, mDescription);
-        bundle.putParcelableArrayList(COLUMNS, mColumns);
+        bundle.putStringArray(SNAMES, shortNames);
+        bundle.putStringArray(FNAMES, fullNames);
+        bundle.putStringArray(UNITS, units);
+        bundle.putStringArray(FORMATS, formats);
+        bundle.putByteArray(TYPES, mTypes);
+        bundle.putLongArray(LONGS, mLongs);
+        bundle.putDoubleArray(DOUBLES, mDoubles);
+        bundle.putStringArray(STRINGS, mStrings);
+        bundle.putLongArray(PRESENT, mPresent);
         dest.writeBundle(bundle);
     }
 
@@ -102,8 +180,7 @@ public class InfoItem implements Parcelable {
      * @param unit           Column unit
      */
     public InfoItem addColumn(String shortName, String fullName, String unit) {
-        mColumns.add(new InfoColumn(shortName, fullName, unit, LoggerConstants.NO_DATA));
-        return this;
+        return addColumn(shortName, fullName, unit, null);
     }
 
     /**
@@ -115,7 +192,13 @@ public class InfoItem implements Parcelable {
      * @param format        Format for values
      */
     public InfoItem addColumn(String shortName, String fullName, String unit, String format) {
-        mColumns.add(new InfoColumn(shortName, fullName, unit, LoggerConstants.NO_DATA, format));
+        int slot = mColumns.size();
+        mTypes = Arrays.copyOf(mTypes, slot + 1);
+        mLongs = Arrays.copyOf(mLongs, slot + 1);
+        mDoubles = Arrays.copyOf(mDoubles, slot + 1);
+        mStrings = Arrays.copyOf(mStrings, slot + 1);
+        mPresent = Arrays.copyOf(mPresent, slot / 64 + 1);
+        mColumns.add(new InfoColumn(shortName, fullName, unit, format, this, slot));
         return this;
     }
 
@@ -128,11 +211,22 @@ public class InfoItem implements Parcelable {
      * @param key       Column short name
      */
     public InfoColumn getColumn(String key) {
-        for (InfoColumn column : mColumns)
-            if (column.getShortName().equals(key))
-                return column;
+        int slot = indexOf(key);
+        return slot < 0 ? null : mColumns.get(slot);
+    }
+
+    /**
+     * Resolve column to its slot. Slot does not change after column is added.
+     *
+     * @param key       Column short name
+     * @return  Slot of the column or -1 if there is no such column
+     */
+    public int indexOf(String key) {
+        for (int i = 0; i < mColumns.size(); i++)
+            if (mColumns.get(i).getShortName().equals(key))
+                return i;
 
-        return null;
+        return -1;
     }
 
     /**
@@ -142,11 +236,189 @@ public class InfoItem implements Parcelable {
      * @param value     Column value
      */
     public void setValue(String key, Object value) throws RuntimeException {
-        for (InfoColumn column : mColumns)
-            if (column.getShortName().equals(key)) {
-                column.setValue(value);
+        int slot = indexOf(key);
+        if (slot >= 0)
+            setValue(slot, value);
+    }
+
+    public void setValue(String key, int value) {
+        int slot = indexOf(key);
+        if (slot >= 0)
+            setValue(slot, value);
+    }
+
+    public void setValue(String key, long value) {
+        int slot = indexOf(key);
+        if (slot >= 0)
+            setValue(slot, value);
+    }
+
+    public void setValue(String key, float value) {
+        int slot = indexOf(key);
+        if (slot >= 0)
+            setValue(slot, value);
+    }
+
+    public void setValue(String key, double value) {
+        int slot = indexOf(key);
+        if (slot >= 0)
+            setValue(slot, value);
+    }
+
+    public void setValue(int slot, Object value) throws RuntimeException {
+        if (value instanceof String) {
+            mStrings[slot] = (String) value;
+            setType(slot, TYPE_STRING);
+        } else if (value instanceof Double)
+            setValue(slot, (double) (Double) value);
+        else if (value instanceof Float)
+            setValue(slot, (float) (Float) value);
+        else if (value instanceof Integer)
+            setValue(slot, (int) (Integer) value);
+        else if (value instanceof Long)
+            setValue(slot, (long) (Long) value);
+        else if (value instanceof Boolean) {
+            mLongs[slot] = (Boolean) value ? 1 : 0;
+            setType(slot, TYPE_BOOLEAN);
+        } else
+            throw new RuntimeException("Value must be following classes: [String, Double, Float, Integer, Long, Boolean]!");
+    }
+
+    public void setValue(int slot, int value) {
+        mLongs[slot] = value;
+        setType(slot, TYPE_INT);
+    }
+
+    public void setValue(int slot, long value) {
+        mLongs[slot] = value;
+        setType(slot, TYPE_LONG);
+    }
+
+    public void setValue(int slot, float value) {
+        mDoubles[slot] = value;
+        setType(slot, TYPE_FLOAT);
+    }
+
+    public void setValue(int slot, double value) {
+        mDoubles[slot] = value;
+        setType(slot, TYPE_DOUBLE);
+    }
+
+    private void setType(int slot, byte type) {
+        mTypes[slot] = type;
+        mPresent[slot >> 6] |= 1L << slot;
+    }
+
+    /**
+     * Mark column as having no data
+     */
+    public void clearValue(int slot) {
+        mPresent[slot >> 6] &= ~(1L << slot);
+    }
+
+    public boolean hasValue(int slot) {
+        return (mPresent[slot >> 6] & (1L << slot)) != 0;
+    }
+
+    public boolean isNumeric(int slot) {
+        return hasValue(slot) && mTypes[slot] >= TYPE_INT;
+    }
+
+    /**
+     * @return  Integral value of the slot or 0 if it does not have numeric value
+     */
+    public long getLong(int slot) {
+        if (!isNumeric(slot))
+            return 0;
+
+        return mTypes[slot] >= TYPE_FLOAT ? (long) mDoubles[slot] : mLongs[slot];
+    }
+
+    /**
+     * @return  Value of the slot or NaN if it does not have numeric value
+     */
+    public double getDouble(int slot) {
+        if (!isNumeric(slot))
+            return Double.NaN;
+
+        return mTypes[slot] >= TYPE_FLOAT ? mDoubles[slot] : mLongs[slot];
+    }
+
+    /**
+     * Get boxed value of the slot. Type is the same as it was set.
+     *
+     * @return  Value or {@link LoggerConstants#NO_DATA} if not set
+     */
+    public Object getValue(int slot) {
+        if (!hasValue(slot))
+            return LoggerConstants.NO_DATA;
+
+        switch (mTypes[slot]) {
+            case TYPE_BOOLEAN:
+                return mLongs[slot] != 0;
+            case TYPE_INT:
+                return (int) mLongs[slot];
+            case TYPE_LONG:
+                return mLongs[slot];
+            case TYPE_FLOAT:
+                return (float) mDoubles[slot];
+            case TYPE_DOUBLE:
+                return mDoubles[slot];
+            default:
+                return mStrings[slot];
+        }
+    }
+
+    /**
+     * Same as String.valueOf(getValue(slot)), but without boxing
+     */
+    public String getValueAsString(int slot) {
+        if (!hasValue(slot))
+            return LoggerConstants.NO_DATA;
+
+        switch (mTypes[slot]) {
+            case TYPE_BOOLEAN:
+                return Boolean.toString(mLongs[slot] != 0);
+            case TYPE_INT:
+                return Integer.toString((int) mLongs[slot]);
+            case TYPE_LONG:
+                return Long.toString(mLongs[slot]);
+            case TYPE_FLOAT:
+                return Float.toString((float) mDoubles[slot]);
+            case TYPE_DOUBLE:
+                return Double.toString(mDoubles[slot]);
+            default:
+                return String.valueOf(mStrings[slot]);
+        }
+    }
+
+    /**
+     * Put value of the slot to row keeping its numeric type. Missing values are put as null.
+     */
+    public void putValue(ContentValues cv, String key, int slot) {
+        if (!hasValue(slot)) {
+            cv.putNull(key);
+            return;
+        }
+
+        switch (mTypes[slot]) {
+            case TYPE_INT:
+            case TYPE_LONG:
+                cv.put(key, mLongs[slot]);
+                break;
+            case TYPE_FLOAT:
+            case TYPE_DOUBLE:
+                cv.put(key, mDoubles[slot]);
                 break;
-            }
+            case TYPE_BOOLEAN:
+                cv.put(key, Boolean.toString(mLongs[slot] != 0));
+                break;
+            default:
+                if (LoggerConstants.NO_DATA.equals(mStrings[slot]))
+                    cv.putNull(key);
+                else
+                    cv.put(key, mStrings[slot]);
+        }
     }
 
     public int size() {
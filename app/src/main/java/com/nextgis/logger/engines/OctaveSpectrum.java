@@ -0,0 +1,241 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.engines;
+
+import android.content.ContentValues;
+import android.os.Debug;
+
+import com.nextgis.logger.util.LoggerConstants;
+
+import java.util.Arrays;
+
+/**
+ * Noise spectrum in 1/1 or 1/3 octave bands of IEC 61260 base-ten series.
+ * Samples are collected to Hann windowed frames transformed by in-place radix-2
+ * FFT, power of bins is summed to bands and averaged over log interval. Tables
+ * and buffers are allocated once, so frames are processed without allocations.
+ */
+final class OctaveSpectrum {
+    private static final String[] BANDS = {"25", "31_5", "40", "50", "63", "80", "100", "125", "160", "200", "250", "315", "400", "500", "630",
+                                           "800", "1000", "1250", "1600", "2000", "2500", "3150", "4000", "5000", "6300", "8000", "10000",
+                                           "12500", "16000", "20000"};
+    private static final int FIRST_BAND = -16; // 25 Hz is 16 thirds below 1 kHz
+    private static final int FRAME_RESOLUTION = 4; // max bin width in Hz
+
+    private final int mSize, mThirds;
+    private final double[] mRe, mIm, mWindow, mCos, mSin;
+    private final int[] mReverse;
+    private final int[] mBandFirst, mBandLast; // bins of bands, last is exclusive
+    private final double mScale;
+    private int mFill;
+
+    private final double[] mSums = new double[BANDS.length];
+    private long mFrames;
+    private volatile long mCpuNanos, mSamples;
+    private final int mSampleRate;
+
+    /**
+     * @param thirds    Bands per octave, 1 or 3
+     */
+    OctaveSpectrum(int sampleRate, int thirds) {
+        mSampleRate = sampleRate;
+        mThirds = thirds == 3 ? 3 : 1;
+
+        int size = 1;
+        while (size < sampleRate / FRAME_RESOLUTION)
+            size <<= 1;
+
+        mSize = size;
+        mRe = new double[size];
+        mIm = new double[size];
+        mWindow = new double[size];
+        mCos = new double[size / 2];
+        mSin = new double[size / 2];
+        mReverse = new int[size];
+
+        double windowPower = 0;
+        for (int i = 0; i < size; i++) {
+            mWindow[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / size);
+            windowPower += mWindow[i] * mWindow[i];
+        }
+
+        mScale = 2 / (size * windowPower); // one-sided spectrum to mean square
+        for (int i = 0; i < size / 2; i++) {
+            mCos[i] = Math.cos(2 * Math.PI * i / size);
+            mSin[i] = -Math.sin(2 * Math.PI * i / size);
+        }
+
+        int bits = Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; i++)
+            mReverse[i] = Integer.reverse(i) >>> (32 - bits);
+
+        mBandFirst = new int[BANDS.length];
+        mBandLast = new int[BANDS.length];
+        double halfWidth = Math.pow(10, 0.15 / mThirds); // band edges are half of band width away from center
+        for (int i = 0; i < BANDS.length; i++) {
+            if (!isBand(i))
+                continue;
+
+            double center = 1000 * Math.pow(10, (FIRST_BAND + i) / 10.0);
+            double low = center / halfWidth, high = center * halfWidth;
+            if (high > sampleRate / 2.0) // band is not covered by sample rate
+                continue;
+
+            mBandFirst[i] = (int) Math.ceil(low * size / sampleRate);
+            mBandLast[i] = (int) Math.ceil(high * size / sampleRate);
+        }
+    }
+
+    /**
+     * @return  Column names of band levels and of bands per octave in sensor table
+     */
+    static String[] getColumns() {
+        String[] result = new String[BANDS.length + 1];
+        for (int i = 0; i < BANDS.length; i++)
+            result[i] = LoggerConstants.HEADER_BAND + BANDS[i];
+
+        result[BANDS.length] = LoggerConstants.HEADER_BANDS;
+        return result;
+    }
+
+    private boolean isBand(int i) {
+        return mThirds == 3 || (FIRST_BAND + i) % 3 == 0;
+    }
+
+    /**
+     * Add block of samples, full frames are transformed on the way
+     */
+    void add(short[] buffer, int count) {
+        long start = Debug.threadCpuTimeNanos();
+        for (int i = 0; i < count; i++) {
+            mRe[mFill] = buffer[i] * mWindow[mFill];
+            if (++mFill == mSize) {
+                transform();
+                mFill = 0;
+            }
+        }
+
+        mCpuNanos += Debug.threadCpuTimeNanos() - start;
+        mSamples += count;
+    }
+
+    private void transform() {
+        double[] re = mRe, im = mIm;
+        for (int i = 0; i < mSize; i++) {
+            im[i] = 0;
+            int j = mReverse[i];
+            if (j > i) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+            }
+        }
+
+        for (int half = 1, step = mSize / 2; half < mSize; half <<= 1, step >>= 1) {
+            for (int start = 0; start < mSize; start += half << 1) {
+                for (int k = 0, t = 0; k < half; k++, t += step) {
+                    int a = start + k, b = a + half;
+                    double bRe = re[b] * mCos[t] - im[b] * mSin[t];
+                    double bIm = re[b] * mSin[t] + im[b] * mCos[t];
+                    re[b] = re[a] - bRe;
+                    im[b] = im[a] - bIm;
+                    re[a] += bRe;
+                    im[a] += bIm;
+                }
+            }
+        }
+
+        synchronized (mSums) {
+            for (int i = 0; i < BANDS.length; i++) {
+                double power = 0;
+                for (int k = mBandFirst[i]; k < mBandLast[i]; k++)
+                    power += re[k] * re[k] + im[k] * im[k];
+
+                mSums[i] += power * mScale;
+            }
+
+            mFrames++;
+        }
+    }
+
+    /**
+     * @return  True if band is measured, i.e. it is in series and is below Nyquist frequency
+     */
+    boolean hasBand(int i) {
+        return mBandLast[i] > mBandFirst[i];
+    }
+
+    /**
+     * @return  Mean square of band averaged since the previous {@link #putLevels}
+     *          or NaN if band is not measured or no frame was completed
+     */
+    double getMeanSquare(int i) {
+        synchronized (mSums) {
+            return mFrames == 0 || !hasBand(i) ? Double.NaN : mSums[i] / mFrames;
+        }
+    }
+
+    /**
+     * Put band levels averaged since the previous call into sensor row and start new interval.
+     * Bands which are not measured are put empty. Row is left as is if no frame was completed.
+     *
+     * @param delta Calibration delta in dB
+     */
+    void putLevels(ContentValues cv, int delta) {
+        synchronized (mSums) {
+            if (mFrames == 0)
+                return;
+
+            for (int i = 0; i < BANDS.length; i++) {
+                if (hasBand(i)) // 0.1 dB is enough for octave bands
+                    cv.put(LoggerConstants.HEADER_BAND + BANDS[i], Math.round((AudioEngine.getLevel(mSums[i] / mFrames) + delta) * 10) / 10.0);
+                else
+                    cv.putNull(LoggerConstants.HEADER_BAND + BANDS[i]);
+
+                mSums[i] = 0;
+            }
+
+            cv.put(LoggerConstants.HEADER_BANDS, mThirds);
+            mFrames = 0;
+        }
+    }
+
+    /**
+     * Drop frames collected since the previous call
+     */
+    void reset() {
+        synchronized (mSums) {
+            Arrays.fill(mSums, 0);
+            mFrames = 0;
+        }
+    }
+
+    /**
+     * @return  Thread CPU time spent on spectrum per second of audio, in ms
+     */
+    double getCpuLoad() {
+        return mSamples == 0 ? 0 : mCpuNanos / 1e6 / ((double) mSamples / mSampleRate);
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright © 2017 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.engines;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.hardware.Sensor;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.nextgis.logger.LoggerApplication;
+import com.nextgis.logger.util.LoggerConstants;
+import com.nextgis.maplib.map.MapBase;
+import com.nextgis.maplib.map.MapContentProviderHelper;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.nextgis.logger.util.LoggerConstants.CSV_SEPARATOR;
+import static com.nextgis.maplib.util.Constants.TAG;
+
+/**
+ * Captures every sensor sample to ring buffers and drains them in background
+ * to {@link LoggerApplication#TABLE_SENSOR_RAW}. Each row keeps a chunk of
+ * samples of one sensor: microsecond offsets from ts_first as int32 and x, y, z
+ * as float32 columns, all little-endian. Sample timestamps are elapsed realtime
+ * nanoseconds, anchor_time and anchor_ts keep wall clock and elapsed realtime
+ * taken together at capture start to convert them.
+ */
+class RawSensorRecorder {
+    @SuppressWarnings("deprecation")
+    private static final int[] TYPES = {Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_LINEAR_ACCELERATION, Sensor.TYPE_GYROSCOPE,
+            Sensor.TYPE_MAGNETIC_FIELD, Sensor.TYPE_ORIENTATION};
+
+    interface DrainListener {
+        void onDrained(int sensorType, float x, float y, float z);
+    }
+
+    private final SensorRingBuffer[] mBuffers;
+    private final long[][] mTimestamps;
+    private final float[][] mX, mY, mZ;
+    private final int[] mCounts;
+    private final DrainListener mListener;
+
+    private volatile boolean mIsRecording;
+    private String mSession;
+    private long mAnchorTime, mAnchorTs;
+    private Thread mThread;
+    private SQLiteStatement mInsert;
+
+    RawSensorRecorder(DrainListener listener) {
+        int sensors = TYPES.length;
+        mListener = listener;
+        mBuffers = new SensorRingBuffer[sensors];
+        mTimestamps = new long[sensors][LoggerConstants.RAW_CHUNK_SIZE];
+        mX = new float[sensors][LoggerConstants.RAW_CHUNK_SIZE];
+        mY = new float[sensors][LoggerConstants.RAW_CHUNK_SIZE];
+        mZ = new float[sensors][LoggerConstants.RAW_CHUNK_SIZE];
+        mCounts = new int[sensors];
+
+        for (int i = 0; i < sensors; i++)
+            mBuffers[i] = new SensorRingBuffer(LoggerConstants.RAW_BUFFER_SIZE);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static int indexOf(int sensorType) {
+        switch (sensorType) {
+            case Sensor.TYPE_ACCELEROMETER:
+                return 0;
+            case Sensor.TYPE_LINEAR_ACCELERATION:
+                return 1;
+            case Sensor.TYPE_GYROSCOPE:
+                return 2;
+            case Sensor.TYPE_MAGNETIC_FIELD:
+                return 3;
+            case Sensor.TYPE_ORIENTATION:
+                return 4;
+            default:
+                return -1;
+        }
+    }
+
+    boolean isRecording() {
+        return mIsRecording;
+    }
+
+    /**
+     * Called from sensor thread. Does not allocate.
+     *
+     * @return  True if sample is taken by recorder
+     */
+    boolean offer(int sensorType, long timestamp, float[] values) {
+        if (!mIsRecording)
+            return false;
+
+        int i = indexOf(sensorType);
+        if (i < 0)
+            return false;
+
+        mBuffers[i].offer(timestamp, values);
+        return true;
+    }
+
+    synchronized void start(String session) {
+        if (mIsRecording)
+            return;
+
+        for (int i = 0; i < TYPES.length; i++) {
+            mBuffers[i].clear();
+            mCounts[i] = 0;
+        }
+
+        mSession = session;
+        mAnchorTime = System.currentTimeMillis();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+            mAnchorTs = SystemClock.elapsedRealtimeNanos();
+        else
+            mAnchorTs = SystemClock.elapsedRealtime() * 1000000;
+        mIsRecording = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (mIsRecording) {
+                    drain(false);
+                    SystemClock.sleep(LoggerConstants.RAW_DRAIN_INTERVAL);
+                }
+
+                drain(true);
+            }
+        }, "LoggerRawSensors");
+        mThread.start();
+    }
+
+    /**
+     * Stop capture and wait until all samples are written
+     */
+    synchronized void stop() {
+        if (!mIsRecording)
+            return;
+
+        mIsRecording = false;
+        boolean interrupted = false;
+        while (mThread.isAlive()) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        for (int i = 0; i < TYPES.length; i++)
+            if (mBuffers[i].getDroppedCount() > 0)
+                Log.d(TAG, "Raw sensor " + TYPES[i] + " dropped " + mBuffers[i].getDroppedCount() + " samples");
+
+        mThread = null;
+        if (mInsert != null) { // compiled by drain thread, it is finished now
+            mInsert.close();
+            mInsert = null;
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    long getDroppedCount() {
+        long result = 0;
+        for (SensorRingBuffer buffer : mBuffers)
+            result += buffer.getDroppedCount();
+
+        return result;
+    }
+
+    private void drain(boolean flush) {
+        SQLiteDatabase db = ((MapContentProviderHelper) MapBase.getInstance()).getDatabase(false);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < TYPES.length; i++) {
+                SensorRingBuffer buffer = mBuffers[i];
+                int drained = 0;
+
+                while (!buffer.isEmpty()) {
+                    int n = buffer.drain(mTimestamps[i], mX[i], mY[i], mZ[i], mCounts[i], LoggerConstants.RAW_CHUNK_SIZE - mCounts[i]);
+                    mCounts[i] += n;
+                    drained += n;
+
+                    if (mCounts[i] == LoggerConstants.RAW_CHUNK_SIZE)
+                        write(db, i);
+                }
+
+                if (drained > 0 && mCounts[i] > 0) {
+                    int last = mCounts[i] - 1;
+                    mListener.onDrained(TYPES[i], mX[i][last], mY[i][last], mZ[i][last]);
+                }
+
+                if (flush && mCounts[i] > 0)
+                    write(db, i);
+            }
+
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            Log.d(TAG, "Raw sensors write failed: " + e.getLocalizedMessage());
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void write(SQLiteDatabase db, int sensor) {
+        int count = mCounts[sensor];
+        long[] timestamps = mTimestamps[sensor];
+        long first = timestamps[0];
+
+        ByteBuffer ts = ByteBuffer.allocate(count * 4).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer x = ByteBuffer.allocate(count * 4).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer y = ByteBuffer.allocate(count * 4).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer z = ByteBuffer.allocate(count * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int k = 0; k < count; k++) {
+            ts.putInt((int) ((timestamps[k] - first) / 1000));
+            x.putFloat(mX[sensor][k]);
+            y.putFloat(mY[sensor][k]);
+            z.putFloat(mZ[sensor][k]);
+        }
+
+        if (mInsert == null)
+            mInsert = db.compileStatement("INSERT INTO " + LoggerApplication.TABLE_SENSOR_RAW + " (" +
+                    LoggerApplication.FIELD_SESSION + ", " + LoggerApplication.FIELD_SENSOR + ", " + LoggerApplication.FIELD_COUNT + ", " +
+                    LoggerApplication.FIELD_TS_FIRST + ", " + LoggerApplication.FIELD_TS_LAST + ", " + LoggerApplication.FIELD_TS + ", " +
+                    LoggerApplication.FIELD_X + ", " + LoggerApplication.FIELD_Y + ", " + LoggerApplication.FIELD_Z + ", " +
+                    LoggerApplication.FIELD_ANCHOR_TIME + ", " + LoggerApplication.FIELD_ANCHOR_TS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+
+        mInsert.clearBindings();
+        mInsert.bindString(1, mSession);
+        mInsert.bindLong(2, TYPES[sensor]);
+        mInsert.bindLong(3, count);
+        mInsert.bindLong(4, first);
+        mInsert.bindLong(5, timestamps[count - 1]);
+        mInsert.bindBlob(6, ts.array());
+        mInsert.bindBlob(7, x.array());
+        mInsert.bindBlob(8, y.array());
+        mInsert.bindBlob(9, z.array());
+        mInsert.bindLong(10, mAnchorTime);
+        mInsert.bindLong(11, mAnchorTs);
+        mInsert.executeInsert();
+        mCounts[sensor] = 0;
+    }
+
+    static String getHeader() {
+        return "TimeStamp" + CSV_SEPARATOR + "Elapsed" + CSV_SEPARATOR + "Sensor" + CSV_SEPARATOR + "X" + CSV_SEPARATOR + "Y" +
+                CSV_SEPARATOR + "Z";
+    }
+
+    /**
+     * Unpack chunk row to CSV lines, one per sample. Wall clock time is empty for rows written without anchor.
+     */
+    static List<String> getRows(Cursor cursor) {
+        int count = cursor.getInt(cursor.getColumnIndex(LoggerApplication.FIELD_COUNT));
+        int sensor = cursor.getInt(cursor.getColumnIndex(LoggerApplication.FIELD_SENSOR));
+        long first = cursor.getLong(cursor.getColumnIndex(LoggerApplication.FIELD_TS_FIRST));
+        int anchorTime = cursor.getColumnIndex(LoggerApplication.FIELD_ANCHOR_TIME);
+        int anchorTs = cursor.getColumnIndex(LoggerApplication.FIELD_ANCHOR_TS);
+        boolean hasAnchor = anchorTime >= 0 && !cursor.isNull(anchorTime) && !cursor.isNull(anchorTs);
+
+        ByteBuffer ts = wrap(cursor, LoggerApplication.FIELD_TS);
+        ByteBuffer x = wrap(cursor, LoggerApplication.FIELD_X);
+        ByteBuffer y = wrap(cursor, LoggerApplication.FIELD_Y);
+        ByteBuffer z = wrap(cursor, LoggerApplication.FIELD_Z);
+
+        List<String> rows = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) {
+            long elapsed = first + ts.getInt() * 1000L;
+            String time = hasAnchor ? Long.toString(cursor.getLong(anchorTime) + (elapsed - cursor.getLong(anchorTs)) / 1000000) :
+                    LoggerConstants.NO_DATA;
+            rows.add(time + CSV_SEPARATOR + elapsed + CSV_SEPARATOR + sensor + CSV_SEPARATOR + x.getFloat() + CSV_SEPARATOR + y.getFloat() +
+                             CSV_SEPARATOR + z.getFloat());
+        }
+
+        return rows;
+    }
+
+    private static ByteBuffer wrap(Cursor cursor, String column) {
+        return ByteBuffer.wrap(cursor.getBlob(cursor.getColumnIndex(column))).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -28,33 +28,22 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.widget.Toast;
 
 import com.nextgis.logger.LoggerApplication;
 import com.nextgis.logger.R;
-import com.nextgis.maplib.map.MapBase;
-import com.nextgis.maplib.map.NGWVectorLayer;
+import com.nextgis.logger.util.BatchWriter;
 import com.nextgis.maplib.util.Constants;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import static com.nextgis.logger.util.LoggerConstants.CSV_SEPARATOR;
 import static com.nextgis.logger.util.LoggerConstants.HEADER_ACC_X;
 import static com.nextgis.logger.util.LoggerConstants.HEADER_ACC_Y;
 import static com.nextgis.logger.util.LoggerConstants.HEADER_ACC_Z;
-import static com.nextgis.logger.util.LoggerConstants.HEADER_AUDIO;
 import static com.nextgis.logger.util.LoggerConstants.HEADER_AZIMUTH;
-import static com.nextgis.logger.util.LoggerConstants.HEADER_GPS_ACC;
-import static com.nextgis.logger.util.LoggerConstants.HEADER_GPS_ALT;
-import static com.nextgis.logger.util.LoggerConstants.HEADER_GPS_BE;
-import static com.nextgis.logger.util.LoggerConstants.HEADER_GPS_LAT;
-import static com.nextgis.logger.util.LoggerConstants.HEADER_GPS_LON;
-import static com.nextgis.logger.util.LoggerConstants.HEADER_GPS_SAT;
-import static com.nextgis.logger.util.LoggerConstants.HEADER_GPS_SP;
-import static com.nextgis.logger.util.LoggerConstants.HEADER_GPS_TIME;
 import static com.nextgis.logger.util.LoggerConstants.HEADER_GYRO_X;
 import static com.nextgis.logger.util.LoggerConstants.HEADER_GYRO_Y;
 import static com.nextgis.logger.util.LoggerConstants.HEADER_GYRO_Z;
@@ -70,11 +59,12 @@ import static com.nextgis.logger.util.LoggerConstants.PREF_SENSOR_GYRO;
 import static com.nextgis.logger.util.LoggerConstants.PREF_SENSOR_MAG;
 import static com.nextgis.logger.util.LoggerConstants.PREF_SENSOR_MODE;
 import static com.nextgis.logger.util.LoggerConstants.PREF_SENSOR_ORIENT;
+import static com.nextgis.logger.util.LoggerConstants.PREF_SENSOR_RAW;
 import static com.nextgis.logger.util.LoggerConstants.PREF_SENSOR_STATE;
 import static com.nextgis.logger.util.LoggerConstants.UPDATE_FREQUENCY;
 
 public class SensorEngine extends BaseEngine implements SensorEventListener {
-    private static final String BUNDLE_SOURCE = "source";
+    private static final long UPDATE_FREQUENCY_NS = UPDATE_FREQUENCY * 1000000L;
 
     private long mLastUpdateAccelerometer, mLastUpdateLinear, mLastUpdateGyro, mLastUpdateMag, mLastUpdateOrient;
 
@@ -82,34 +72,40 @@ public class SensorEngine extends BaseEngine implements SensorEventListener {
     private GPSEngine mGPSEngine;
     private AudioEngine mAudioEngine;
     private EngineListener mListener;
-    private Handler mHandler;
     private SharedPreferences mPreferences;
 
     private InfoItem mAccelerometer, mLinear, mGyroscope, mMagnetic, mOrientation;
+    private RawSensorRecorder mRawRecorder;
 
     public SensorEngine(Context context) {
 		super(context);
 		mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
-        mAudioEngine = new AudioEngine(mContext);
-        mGPSEngine = new GPSEngine(mContext);
+        // their items are shown and logged with sensors, so they share the lock
+        mAudioEngine = new AudioEngine(mContext, mLock);
+        mGPSEngine = new GPSEngine(mContext, mLock);
 		mPreferences = getPreferences();
         mUri = mUri.buildUpon().appendPath(LoggerApplication.TABLE_SENSOR).build();
-
-        mHandler = new Handler(new Handler.Callback() {
+        mRawRecorder = new RawSensorRecorder(new RawSensorRecorder.DrainListener() {
             @Override
-            public boolean handleMessage(Message msg) {
-                notifyListeners(msg.getData().getString(BUNDLE_SOURCE));
-                return true;
+            public void onDrained(int sensorType, float x, float y, float z) {
+                InfoItem item = getItem(sensorType);
+                if (item != null) {
+                    synchronized (mLock) {
+                        item.setValue(0, x);
+                        item.setValue(1, y);
+                        item.setValue(2, z);
+                    }
+
+                    notifyListeners(item.getTitle());
+                }
             }
         });
+
         mListener = new EngineListener() {
             @Override
-            public void onInfoChanged(String source) {
-                Bundle data = new Bundle();
-                data.putString(BUNDLE_SOURCE, source);
-                Message msg = new Message();
-                msg.setData(data);
-                mHandler.sendMessage(msg);
+            public void onInfoChanged(List<String> sources) {
+                for (int i = 0; i < sources.size(); i++)
+                    notifyListeners(sources.get(i));
             }
         };
 	}
@@ -130,66 +126,46 @@ public class SensorEngine extends BaseEngine implements SensorEventListener {
     }
 
     @Override
-    public void saveData(String markId) {
-        saveData(getData(), markId);
-    }
-
-    @Override
-    public void saveData(ArrayList<InfoItem> items, String markId) {
-        NGWVectorLayer sensorLayer = (NGWVectorLayer) MapBase.getInstance().getLayerByPathName(LoggerApplication.TABLE_SENSOR);
-        if (sensorLayer != null) {
-            ContentValues cv = new ContentValues();
-            cv.put(LoggerApplication.FIELD_MARK, markId);
-
-            for (InfoItem item : items) {
-                if (item.getColumn(HEADER_ACC_X) != null) {
-                    cv.put(HEADER_ACC_X, item.getColumn(HEADER_ACC_X).getValue() + "");
-                    cv.put(HEADER_ACC_Y, item.getColumn(HEADER_ACC_Y).getValue() + "");
-                    cv.put(HEADER_ACC_Z, item.getColumn(HEADER_ACC_Z).getValue() + "");
-                }
-
-                if (item.getColumn(HEADER_LINEAR_X) != null) {
-                    cv.put(HEADER_LINEAR_X, item.getColumn(HEADER_LINEAR_X).getValue() + "");
-                    cv.put(HEADER_LINEAR_Y, item.getColumn(HEADER_LINEAR_Y).getValue() + "");
-                    cv.put(HEADER_LINEAR_Z, item.getColumn(HEADER_LINEAR_Z).getValue() + "");
-                }
+    public List<ContentValues> getRows(List<InfoItem> items, String markId) {
+        ContentValues cv = new ContentValues();
+        cv.put(LoggerApplication.FIELD_MARK, markId);
 
-                if (item.getColumn(HEADER_AZIMUTH) != null) {
-                    cv.put(HEADER_AZIMUTH, item.getColumn(HEADER_AZIMUTH).getValue() + "");
-                    cv.put(HEADER_PITCH, item.getColumn(HEADER_PITCH).getValue() + "");
-                    cv.put(HEADER_ROLL, item.getColumn(HEADER_ROLL).getValue() + "");
-                }
+        for (InfoItem item : items)
+            putValues(cv, item);
 
-                if (item.getColumn(HEADER_MAGNETIC_X) != null) {
-                    cv.put(HEADER_MAGNETIC_X, item.getColumn(HEADER_MAGNETIC_X).getValue() + "");
-                    cv.put(HEADER_MAGNETIC_Y, item.getColumn(HEADER_MAGNETIC_Y).getValue() + "");
-                    cv.put(HEADER_MAGNETIC_Z, item.getColumn(HEADER_MAGNETIC_Z).getValue() + "");
-                }
+        cv.put(Constants.FIELD_GEOM, LoggerApplication.getNullGeometry());
+        return Collections.singletonList(cv);
+    }
 
-                if (item.getColumn(HEADER_GYRO_X) != null) {
-                    cv.put(HEADER_GYRO_X, item.getColumn(HEADER_GYRO_X).getValue() + "");
-                    cv.put(HEADER_GYRO_Y, item.getColumn(HEADER_GYRO_Y).getValue() + "");
-                    cv.put(HEADER_GYRO_Z, item.getColumn(HEADER_GYRO_Z).getValue() + "");
-                }
+    /**
+     * Replace GPS item of snapshot with the one of fix, so sensor row, change
+     * filter and mark geometry use the same location
+     *
+     * @return  New list, items are not copied
+     */
+    public static ArrayList<InfoItem> withFix(List<InfoItem> items, GPSEngine.Fix fix) {
+        ArrayList<InfoItem> result = new ArrayList<>(items);
+        if (fix.isEmpty())
+            return result;
+
+        for (int i = 0; i < result.size(); i++)
+            if (result.get(i).indexOf(LoggerConstants.HEADER_GPS_LAT) >= 0) {
+                result.set(i, fix.getItem());
+                break;
+            }
 
-                if (item.getColumn(HEADER_GPS_LAT) != null) {
-                    cv.put(HEADER_GPS_LAT, item.getColumn(HEADER_GPS_LAT).getValue() + "");
-                    cv.put(HEADER_GPS_LON, item.getColumn(HEADER_GPS_LON).getValue() + "");
-                    cv.put(HEADER_GPS_ALT, item.getColumn(HEADER_GPS_ALT).getValue() + "");
-                    cv.put(HEADER_GPS_ACC, item.getColumn(HEADER_GPS_ACC).getValue() + "");
-                    cv.put(HEADER_GPS_SP, item.getColumn(HEADER_GPS_SP).getValue() + "");
-                    cv.put(HEADER_GPS_BE, item.getColumn(HEADER_GPS_BE).getValue() + "");
-                    cv.put(HEADER_GPS_SAT, item.getColumn(HEADER_GPS_SAT).getValue() + "");
-                    cv.put(HEADER_GPS_TIME, item.getColumn(HEADER_GPS_TIME).getValue() + "");
-                }
+        return result;
+    }
 
-                if (item.getColumn(HEADER_AUDIO) != null)
-                    cv.put(HEADER_AUDIO, item.getColumn(HEADER_AUDIO).getValue() + "");
-            }
+    /**
+     * Add log row of sensors. Audio is stored as Leq and spectrum bands integrated since the previous log row.
+     */
+    public void addLogRows(BatchWriter.Batch batch, List<InfoItem> items, String markId) {
+        List<ContentValues> rows = getRows(items, markId);
+        if (mAudioEngine.isRecording())
+            mAudioEngine.putLevels(rows.get(0));
 
-            cv.put(Constants.FIELD_GEOM, LoggerApplication.getNullGeometry());
-            sensorLayer.insert(mUri, cv);
-        }
+        batch.add(mUri, rows);
     }
 
     @Override
@@ -198,16 +174,21 @@ public class SensorEngine extends BaseEngine implements SensorEventListener {
         mGPSEngine.onResume();
         mAudioEngine.onResume();
 
-        mItems.clear();
+        boolean result = super.onResume();
+        synchronized (mLock) {
+            mItems.clear();
+            if (result)
+                loadEngine();
 
-        if (super.onResume()) {
-            loadEngine();
+            publish();
+        }
+
+        if (result) {
             mGPSEngine.addListener(mListener);
             mAudioEngine.addListener(mListener);
-            return true;
         }
 
-        return false;
+        return result;
     }
 
 	@SuppressWarnings("deprecation")
@@ -217,6 +198,7 @@ public class SensorEngine extends BaseEngine implements SensorEventListener {
         boolean noSensor = false;
         ArrayList<String> noSensors = new ArrayList<>();
         Sensor sensor;
+        int delay = isRawEnabled() ? SensorManager.SENSOR_DELAY_FASTEST : SensorManager.SENSOR_DELAY_NORMAL;
 
         if (mGPSEngine.isEngineEnabled())
             mItems.add(mGPSEngine.getData().get(0));
@@ -230,7 +212,7 @@ public class SensorEngine extends BaseEngine implements SensorEventListener {
                 mAccelerometer.addColumn(HEADER_ACC_Y, mContext.getString(R.string.info_y), mContext.getString(R.string.info_ms2), "%.2f");
                 mAccelerometer.addColumn(HEADER_ACC_Z, mContext.getString(R.string.info_z), mContext.getString(R.string.info_ms2), "%.2f");
                 mItems.add(mAccelerometer);
-                mSensorManager.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
+                mSensorManager.registerListener(this, sensor, delay);
             } else {
                 noSensors.add(mContext.getString(R.string.sensor_accelerometer).toLowerCase());
                 noSensor = true;
@@ -246,7 +228,7 @@ public class SensorEngine extends BaseEngine implements SensorEventListener {
                 mLinear.addColumn(HEADER_LINEAR_Y, mContext.getString(R.string.info_y), mContext.getString(R.string.info_ms2), "%.2f");
                 mLinear.addColumn(HEADER_LINEAR_Z, mContext.getString(R.string.info_z), mContext.getString(R.string.info_ms2), "%.2f");
                 mItems.add(mLinear);
-                mSensorManager.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
+                mSensorManager.registerListener(this, sensor, delay);
             } else {
                 noSensors.add(mContext.getString(R.string.sensor_linear).toLowerCase());
                 noSensor = true;
@@ -263,7 +245,7 @@ public class SensorEngine extends BaseEngine implements SensorEventListener {
                 mGyroscope.addColumn(HEADER_GYRO_Y, mContext.getString(R.string.info_y), mContext.getString(R.string.info_rads), "%.2f");
                 mGyroscope.addColumn(HEADER_GYRO_Z, mContext.getString(R.string.info_z), mContext.getString(R.string.info_rads), "%.2f");
                 mItems.add(mGyroscope);
-                mSensorManager.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
+                mSensorManager.registerListener(this, sensor, delay);
             } else {
                 noSensors.add(mContext.getString(R.string.sensor_gyroscope).toLowerCase());
                 noSensor = true;
@@ -280,7 +262,7 @@ public class SensorEngine extends BaseEngine implements SensorEventListener {
                 mOrientation.addColumn(HEADER_PITCH, mContext.getString(R.string.info_pitch), mContext.getString(R.string.info_degree), "%.2f");
                 mOrientation.addColumn(HEADER_ROLL, mContext.getString(R.string.info_roll), mContext.getString(R.string.info_degree), "%.2f");
                 mItems.add(mOrientation);
-                mSensorManager.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
+                mSensorManager.registerListener(this, sensor, delay);
             } else {
                 noSensors.add(mContext.getString(R.string.sensor_orientation).toLowerCase());
                 noSensor = true;
@@ -297,7 +279,7 @@ public class SensorEngine extends BaseEngine implements SensorEventListener {
                 mMagnetic.addColumn(HEADER_MAGNETIC_Y, mContext.getString(R.string.info_y), mContext.getString(R.string.info_tesla), "%.2f");
                 mMagnetic.addColumn(HEADER_MAGNETIC_Z, mContext.getString(R.string.info_z), mContext.getString(R.string.info_tesla), "%.2f");
                 mItems.add(mMagnetic);
-                mSensorManager.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
+                mSensorManager.registerListener(this, sensor, delay);
             } else {
                 noSensors.add(mContext.getString(R.string.sensor_magnetic).toLowerCase());
                 noSensor = true;
@@ -331,59 +313,113 @@ public class SensorEngine extends BaseEngine implements SensorEventListener {
 	@SuppressWarnings("deprecation")
 	@Override
 	public void onSensorChanged(SensorEvent event) {
-		long curTime = System.currentTimeMillis();
+		if (mRawRecorder.offer(event.sensor.getType(), event.timestamp, event.values))
+			return;
+
+		long curTime = event.timestamp;
 
 		if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-			if ((curTime - mLastUpdateAccelerometer) > UPDATE_FREQUENCY) {
+			if ((curTime - mLastUpdateAccelerometer) > UPDATE_FREQUENCY_NS) {
 				mLastUpdateAccelerometer = curTime;
-                mAccelerometer.setValue(HEADER_ACC_X, event.values[0]);
-                mAccelerometer.setValue(HEADER_ACC_Y, event.values[1]);
-                mAccelerometer.setValue(HEADER_ACC_Z, event.values[2]);
+                setValues(mAccelerometer, event.values);
                 notifyListeners(mAccelerometer.getTitle());
 			}
 		}
 
 		if (event.sensor.getType() == Sensor.TYPE_LINEAR_ACCELERATION) {
-			if ((curTime - mLastUpdateLinear) > UPDATE_FREQUENCY) {
+			if ((curTime - mLastUpdateLinear) > UPDATE_FREQUENCY_NS) {
 				mLastUpdateLinear = curTime;
-                mLinear.setValue(HEADER_LINEAR_X, event.values[0]);
-                mLinear.setValue(HEADER_LINEAR_Y, event.values[1]);
-                mLinear.setValue(HEADER_LINEAR_Z, event.values[2]);
+                setValues(mLinear, event.values);
                 notifyListeners(mLinear.getTitle());
 			}
 		}
 
 		if (event.sensor.getType() == Sensor.TYPE_ORIENTATION) {
-			if ((curTime - mLastUpdateOrient) > UPDATE_FREQUENCY) {
+			if ((curTime - mLastUpdateOrient) > UPDATE_FREQUENCY_NS) {
 				mLastUpdateOrient = curTime;
-                mOrientation.setValue(HEADER_AZIMUTH, event.values[0]);
-                mOrientation.setValue(HEADER_PITCH, event.values[1]);
-                mOrientation.setValue(HEADER_ROLL, event.values[2]);
+                setValues(mOrientation, event.values);
                 notifyListeners(mOrientation.getTitle());
 			}
 		}
 
 		if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-			if ((curTime - mLastUpdateMag) > UPDATE_FREQUENCY) {
+			if ((curTime - mLastUpdateMag) > UPDATE_FREQUENCY_NS) {
 				mLastUpdateMag = curTime;
-                mMagnetic.setValue(HEADER_MAGNETIC_X, event.values[0]);
-                mMagnetic.setValue(HEADER_MAGNETIC_Y, event.values[1]);
-                mMagnetic.setValue(HEADER_MAGNETIC_Z, event.values[2]);
+                setValues(mMagnetic, event.values);
                 notifyListeners(mMagnetic.getTitle());
 			}
 		}
 
 		if (event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
-			if ((curTime - mLastUpdateGyro) > UPDATE_FREQUENCY) {
+			if ((curTime - mLastUpdateGyro) > UPDATE_FREQUENCY_NS) {
 				mLastUpdateGyro = curTime;
-                mGyroscope.setValue(HEADER_GYRO_X, event.values[0]);
-                mGyroscope.setValue(HEADER_GYRO_Y, event.values[1]);
-                mGyroscope.setValue(HEADER_GYRO_Z, event.values[2]);
+                setValues(mGyroscope, event.values);
                 notifyListeners(mGyroscope.getTitle());
 			}
 		}
 	}
 
+    @SuppressWarnings("deprecation")
+    private InfoItem getItem(int sensorType) {
+        switch (sensorType) {
+            case Sensor.TYPE_ACCELEROMETER:
+                return mAccelerometer;
+            case Sensor.TYPE_LINEAR_ACCELERATION:
+                return mLinear;
+            case Sensor.TYPE_GYROSCOPE:
+                return mGyroscope;
+            case Sensor.TYPE_MAGNETIC_FIELD:
+                return mMagnetic;
+            case Sensor.TYPE_ORIENTATION:
+                return mOrientation;
+            default:
+                return null;
+        }
+    }
+
+    public boolean isRawEnabled() {
+        return mPreferences.getBoolean(PREF_SENSOR_RAW, false);
+    }
+
+    /**
+     * Start capturing every sample of enabled sensors if raw mode is on
+     *
+     * @param session   Session unique id samples belong to
+     */
+    public void startRawCapture(String session) {
+        if (isRawEnabled())
+            mRawRecorder.start(session);
+    }
+
+    public static String getRawHeader() {
+        return RawSensorRecorder.getHeader();
+    }
+
+    /**
+     * @return  CSV lines of all samples kept in row of raw sensors table
+     */
+    public static List<String> getRawFromCursor(Cursor cursor) {
+        return RawSensorRecorder.getRows(cursor);
+    }
+
+    /**
+     * Stop raw capture and write all captured samples
+     */
+    public void stopRawCapture() {
+        mRawRecorder.stop();
+    }
+
+    /**
+     * Copy x, y, z (or azimuth, pitch, roll) to first three slots of sensor item
+     */
+    private void setValues(InfoItem item, float[] values) {
+        synchronized (mLock) {
+            item.setValue(0, values[0]);
+            item.setValue(1, values[1]);
+            item.setValue(2, values[2]);
+        }
+    }
+
 	@SuppressWarnings("deprecation")
     private boolean isSensorEnabled(int sensorType) {
         switch (sensorType) {
@@ -428,21 +464,21 @@ public class SensorEngine extends BaseEngine implements SensorEventListener {
     }
 
     public static String getDataFromCursor(Cursor cursor) {
-        return cursor.getString(cursor.getColumnIndex(HEADER_ACC_X)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_ACC_Y)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_ACC_Z)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_LINEAR_X)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_LINEAR_Y)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_LINEAR_Z)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_AZIMUTH)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_PITCH)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_ROLL)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_GYRO_X)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_GYRO_Y)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_GYRO_Z)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_MAGNETIC_X)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_MAGNETIC_Y)) + CSV_SEPARATOR +
-                cursor.getString(cursor.getColumnIndex(HEADER_MAGNETIC_Z)) + CSV_SEPARATOR +
+        return getValueFromCursor(cursor, HEADER_ACC_X, true) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_ACC_Y, true) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_ACC_Z, true) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_LINEAR_X, true) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_LINEAR_Y, true) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_LINEAR_Z, true) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_AZIMUTH, true) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_PITCH, true) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_ROLL, true) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_GYRO_X, true) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_GYRO_Y, true) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_GYRO_Z, true) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_MAGNETIC_X, true) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_MAGNETIC_Y, true) + CSV_SEPARATOR +
+                getValueFromCursor(cursor, HEADER_MAGNETIC_Z, true) + CSV_SEPARATOR +
                 AudioEngine.getDataFromCursor(cursor) + CSV_SEPARATOR + GPSEngine.getDataFromCursor(cursor);
     }
 }
@@ -0,0 +1,108 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright © 2017 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.engines;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free ring of timestamped three-axis samples for one producer (sensor
+ * thread) and one consumer (drainer). Storage is allocated once.
+ */
+class SensorRingBuffer {
+    private final int mMask;
+    private final long[] mTimestamps;
+    private final float[] mValues;
+    private final AtomicLong mHead = new AtomicLong(), mTail = new AtomicLong();
+    private volatile long mDropped;
+
+    /**
+     * @param capacity  Samples count, must be a power of two
+     */
+    SensorRingBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a power of two");
+
+        mMask = capacity - 1;
+        mTimestamps = new long[capacity];
+        mValues = new float[capacity * 3];
+    }
+
+    /**
+     * Called by producer only. Sample is dropped if ring is full.
+     */
+    boolean offer(long timestamp, float[] values) {
+        long head = mHead.get();
+        if (head - mTail.get() > mMask) {
+            mDropped++;
+            return false;
+        }
+
+        int i = (int) head & mMask;
+        int j = i * 3;
+        mTimestamps[i] = timestamp;
+        mValues[j] = values[0];
+        mValues[j + 1] = values[1];
+        mValues[j + 2] = values[2];
+        mHead.lazySet(head + 1);
+        return true;
+    }
+
+    /**
+     * Called by consumer only. Move up to max samples to given arrays.
+     *
+     * @return  Count of moved samples
+     */
+    int drain(long[] timestamps, float[] x, float[] y, float[] z, int offset, int max) {
+        long tail = mTail.get();
+        int count = (int) Math.min(mHead.get() - tail, max);
+
+        for (int k = 0; k < count; k++) {
+            int i = (int) (tail + k) & mMask;
+            int j = i * 3;
+            timestamps[offset + k] = mTimestamps[i];
+            x[offset + k] = mValues[j];
+            y[offset + k] = mValues[j + 1];
+            z[offset + k] = mValues[j + 2];
+        }
+
+        mTail.lazySet(tail + count);
+        return count;
+    }
+
+    boolean isEmpty() {
+        return mHead.get() == mTail.get();
+    }
+
+    long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * Must be called when producer is not active
+     */
+    void clear() {
+        mTail.set(mHead.get());
+        mDropped = 0;
+    }
+}
@@ -25,6 +25,7 @@ package com.nextgis.logger.livedata;
 
 import android.content.Context;
 import android.os.Bundle;
+import android.os.Handler;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -57,6 +58,7 @@ public class InfoCellFragment extends InfoFragment {
 
     private ListView mLvNeighbours;
     private TextView mTvNeighbours, mTvActive;
+    private Handler mHandler;
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -66,19 +68,26 @@ public class InfoCellFragment extends InfoFragment {
         mTvNeighbours = (TextView) rootView.findViewById(R.id.tv_network_neighbours);
         mTvActive = (TextView) rootView.findViewById(R.id.tv_network_active);
 
-        mListener = new BaseEngine.EngineListener() {
+        mHandler = new Handler();
+        final Runnable fill = new Runnable() {
             @Override
-            public void onInfoChanged(String source) {
+            public void run() {
                 if (isAdded())
                     fillTextViews();
             }
         };
+        mListener = new BaseEngine.EngineListener() {
+            @Override
+            public void onInfoChanged(List<String> sources) {
+                mHandler.post(fill);
+            }
+        };
 
         return rootView;
     }
 
     private void fillTextViews() {
-        ArrayList<InfoItem> infoItemGSMArray = getData();
+        List<InfoItem> infoItemGSMArray = new ArrayList<>(getData());
         ArrayList<Map<String, Object>> neighboursData = new ArrayList<>();
         Map<String, Object> itemData;
         final String na = getString(R.string.info_na);
@@ -88,9 +97,9 @@ public class InfoCellFragment extends InfoFragment {
         int id = 1;
         String gen, type, mnc, mcc, lac, cid, psc, power;
         for (InfoItem gsmItem : infoItemGSMArray) {
-            String data = (String) gsmItem.getColumn(LoggerConstants.HEADER_GEN).getValue();
+            String data = gsmItem.getColumn(LoggerConstants.HEADER_GEN).getValueAsString();
             gen = data.equals(LoggerConstants.UNKNOWN) ? na : data;
-            data = (String) gsmItem.getColumn(LoggerConstants.HEADER_TYPE).getValue();
+            data = gsmItem.getColumn(LoggerConstants.HEADER_TYPE).getValueAsString();
             type = data.equals(LoggerConstants.UNKNOWN) ? na : data;
             mcc = replaceNegativeValue(gsmItem, LoggerConstants.HEADER_MCC, na);
             mnc = replaceNegativeValue(gsmItem, LoggerConstants.HEADER_MNC, na);
@@ -101,7 +110,7 @@ public class InfoCellFragment extends InfoFragment {
 
             itemData = new HashMap<>();
 
-            boolean isActive = gsmItem.getColumn(LoggerConstants.HEADER_ACTIVE).getValue().equals("1");
+            boolean isActive = CellEngine.isActive(gsmItem);
             if (!isActive)
                 itemData.put(CELL_ID, String.format("%s)", id++));
 
@@ -128,7 +137,7 @@ public class InfoCellFragment extends InfoFragment {
     }
 
     private String replaceNegativeValue(InfoItem item, String column, String placeholder) {
-        String data = (String) item.getColumn(column).getValue();
+        String data = item.getColumn(column).getValueAsString();
         return data.equals("-1") ? placeholder : data;
     }
 
@@ -43,9 +43,11 @@ import com.nextgis.logger.ui.activity.ProgressBarActivity;
 import com.nextgis.logger.ui.fragment.SensorsPreferenceFragment;
 import com.nextgis.logger.engines.ArduinoEngine;
 import com.nextgis.logger.engines.BaseEngine;
+import com.nextgis.logger.engines.ExternalDevice;
 import com.nextgis.logger.engines.InfoItem;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class InfoExternalsFragment extends InfoFragment implements View.OnClickListener, ArduinoEngine.ConnectionListener {
     private enum EXTERNAL_STATUS {DISABLED, BT_DISABLED, NOT_FOUND, CONNECTING, CONNECTED}
@@ -71,7 +73,7 @@ public class InfoExternalsFragment extends InfoFragment implements View.OnClickL
         mHandler = new Handler();
         mListener = new BaseEngine.EngineListener() {
             @Override
-            public void onInfoChanged(String source) {
+            public void onInfoChanged(List<String> sources) {
                 mHandler.post(new Runnable() {
                     @Override
                     public void run() {
@@ -85,27 +87,60 @@ public class InfoExternalsFragment extends InfoFragment implements View.OnClickL
         return rootView;
     }
 
+    /**
+     * Row with device name and link stats followed by rows of its sensors for each device
+     */
     private void createTextViews() {
-        if (mLayoutData.getChildCount() != getSensorsCount()) {
+        List<ExternalDevice> devices = getDevices();
+        if (mLayoutData.getChildCount() != devices.size() + getSensorsCount()) {
             mLayoutData.removeAllViews();
 
-            ArrayList<InfoItem> infoArray = getData();
-            for (int i = 0; i < getSensorsCount(); i++) {
-                View item = View.inflate(getActivity(), R.layout.info_external_row, null);
-                ((TextView) item.findViewById(R.id.tv_title)).setText(infoArray.get(i).getTitle());
-                mLayoutData.addView(item);
+            List<InfoItem> infoArray = getData();
+            int i = 0;
+            for (ExternalDevice device : devices) {
+                View title = View.inflate(getActivity(), R.layout.info_external_row, null);
+                ((TextView) title.findViewById(R.id.tv_title)).setText(device.getName());
+                mLayoutData.addView(title);
+
+                for (int j = 0; j < device.getSensorsCount() && i < infoArray.size(); j++, i++) {
+                    View item = View.inflate(getActivity(), R.layout.info_external_row, null);
+                    ((TextView) item.findViewById(R.id.tv_title)).setText(infoArray.get(i).getTitle());
+                    mLayoutData.addView(item);
+                }
             }
         }
     }
 
     private void fillTextViews() {
+        List<ExternalDevice> devices = getDevices();
+        if (mLayoutData.getChildCount() != devices.size() + getSensorsCount())
+            createTextViews();
+
         if (mLayoutData.getChildCount() > 0) {
-            ArrayList<InfoItem> infoArray = getData();
-            for (int i = 0; i < getSensorsCount(); i++)
-                ((TextView) mLayoutData.getChildAt(i).findViewById(R.id.tv_data)).setText(infoArray.get(i).getColumns().get(0).getValueWithUnit());
+            List<InfoItem> infoArray = getData();
+            int row = 0, i = 0;
+            for (ExternalDevice device : devices) {
+                ((TextView) mLayoutData.getChildAt(row++).findViewById(R.id.tv_data)).setText(getStats(device));
+
+                for (int j = 0; j < device.getSensorsCount() && i < infoArray.size() && row < mLayoutData.getChildCount(); j++, i++)
+                    ((TextView) mLayoutData.getChildAt(row++).findViewById(R.id.tv_data)).setText(infoArray.get(i).getColumns().get(0).getValueWithUnit());
+            }
         }
     }
 
+    private String getStats(ExternalDevice device) {
+        if (!device.isConnected())
+            return device.getReconnectAttempts() > 0 ? String.format(getString(R.string.external_reconnecting), device.getReconnectAttempts())
+                                                     : getString(R.string.external_not_connected);
+
+        String mode = getString(device.isStreaming() ? R.string.external_mode_stream : R.string.external_mode_poll);
+        return String.format(getString(R.string.external_stats), mode, device.getFramesRate(), device.getLatency());
+    }
+
+    private List<ExternalDevice> getDevices() {
+        return isConnected() ? ((ArduinoEngine) mEngine).getDevices() : Collections.<ExternalDevice>emptyList();
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -221,6 +256,7 @@ public class InfoExternalsFragment extends InfoFragment implements View.OnClickL
                 } else if (!((ArduinoEngine) mEngine).isBTEnabled())
                     preferencesActivity.setAction(android.provider.Settings.ACTION_BLUETOOTH_SETTINGS);
                 else {
+                    ((ArduinoEngine) mEngine).reconnect();
                     connect();
                     break;
                 }
@@ -28,7 +28,8 @@ import android.support.v4.app.Fragment;
 import com.nextgis.logger.engines.BaseEngine;
 import com.nextgis.logger.engines.InfoItem;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class InfoFragment extends Fragment {
     protected BaseEngine mEngine;
@@ -51,7 +52,7 @@ public class InfoFragment extends Fragment {
         return mEngine != null;
     }
 
-    public ArrayList<InfoItem> getData() {
-        return isConnected() ? mEngine.getData() : new ArrayList<InfoItem>();
+    public List<InfoItem> getData() {
+        return isConnected() ? mEngine.getSnapshot() : Collections.<InfoItem>emptyList();
     }
 }
@@ -25,6 +25,7 @@ package com.nextgis.logger.livedata;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v7.widget.GridLayout;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
@@ -41,24 +42,43 @@ import com.nextgis.logger.engines.InfoColumn;
 import com.nextgis.logger.engines.InfoItem;
 
 import java.text.DateFormat;
-import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 public class InfoSensorsFragment extends InfoFragment implements View.OnClickListener {
     private ScrollView mSvData;
     private LinearLayout mLayoutError, mLayoutData;
+    private Handler mHandler;
+    private final Set<String> mChanged = new HashSet<>();
 
     @SuppressWarnings("deprecation")
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         View rootView = inflater.inflate(R.layout.fragment_info_sensors, container, false);
 
+        mHandler = new Handler();
+        final Runnable fill = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mChanged) {
+                    if (isAdded())
+                        fillSensorsTextViews(mChanged);
+
+                    mChanged.clear();
+                }
+            }
+        };
         mListener = new BaseEngine.EngineListener() {
             @Override
-            public void onInfoChanged(String source) {
-                if (isAdded())
-                    fillSensorsTextViews(source);
+            public void onInfoChanged(List<String> sources) {
+                synchronized (mChanged) {
+                    mChanged.addAll(sources);
+                }
+
+                mHandler.post(fill);
             }
         };
 
@@ -83,7 +103,7 @@ public class InfoSensorsFragment extends InfoFragment implements View.OnClickLis
     private void createTextViews() {
         mLayoutData.removeAllViews();
 
-        ArrayList<InfoItem> infoItemArray = getData();
+        List<InfoItem> infoItemArray = getData();
         for (InfoItem item : infoItemArray) {
             LinearLayout itemLayout = (LinearLayout) View.inflate(getActivity(), R.layout.info_item, null);
 
@@ -120,12 +140,12 @@ public class InfoSensorsFragment extends InfoFragment implements View.OnClickLis
         }
     }
 
-    private void fillSensorsTextViews(String source) {
-        ArrayList<InfoItem> infoItemArray = getData();
+    private void fillSensorsTextViews(Set<String> sources) {
+        List<InfoItem> infoItemArray = getData();
         for (int i = 0; i < mLayoutData.getChildCount(); i++) {
             InfoItem item = infoItemArray.get(i);
 
-            if (!item.getTitle().equals(source))
+            if (!sources.contains(item.getTitle()))
                 continue;
 
             LinearLayout layout = (LinearLayout) mLayoutData.getChildAt(i);
@@ -0,0 +1,390 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright © 2017 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.util;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.nextgis.maplib.map.MapBase;
+import com.nextgis.maplib.map.MapContentProviderHelper;
+import com.nextgis.maplib.map.NGWVectorLayer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.nextgis.maplib.util.Constants.TAG;
+
+/**
+ * Write-behind stage for measurement ticks. Collects rows of several ticks
+ * and commits them to the layers in a single transaction.
+ */
+public class BatchWriter {
+    private final BlockingQueue<Batch> mQueue;
+    private final Object mEnqueueLock = new Object();
+    private final int mMaxTicks;
+    private final long mMaxDelay;
+    private Thread mThread;
+    private volatile boolean mIsClosed = true;
+
+    private volatile long mCommits, mRows, mDropped, mTotalLatency, mMaxLatency, mLastLatency;
+    private volatile int mLastRows;
+
+    /**
+     * Change which is not a plain insert, e.g. merge of aggregates. Runs in the
+     * same transaction after rows of its batch.
+     */
+    public interface Task {
+        void execute(SQLiteDatabase db) throws SQLException;
+    }
+
+    /**
+     * Rows of one measurement tick, possibly going to different layers
+     */
+    public static class Batch {
+        private final List<Uri> mUris = new ArrayList<>();
+        private final List<ContentValues> mRows = new ArrayList<>();
+        private final List<Task> mTasks = new ArrayList<>();
+        private final CountDownLatch mLatch;
+        private final boolean mIsLast;
+
+        public Batch() {
+            this(null, false);
+        }
+
+        private Batch(CountDownLatch latch, boolean isLast) {
+            mLatch = latch;
+            mIsLast = isLast;
+        }
+
+        public Batch add(Uri uri, ContentValues row) {
+            mUris.add(uri);
+            mRows.add(row);
+            return this;
+        }
+
+        public Batch add(Uri uri, List<ContentValues> rows) {
+            for (ContentValues row : rows)
+                add(uri, row);
+
+            return this;
+        }
+
+        public Batch add(Task task) {
+            mTasks.add(task);
+            return this;
+        }
+
+        public int size() {
+            return mRows.size();
+        }
+
+        public boolean isEmpty() {
+            return mRows.isEmpty() && mTasks.isEmpty();
+        }
+
+        private boolean isMarker() {
+            return mLatch != null;
+        }
+    }
+
+    /**
+     * @param maxTicks  Commit after this count of ticks is collected
+     * @param maxDelay  Commit if the oldest collected tick waits longer, in ms
+     * @param capacity  Maximum count of ticks waiting in queue
+     */
+    public BatchWriter(int maxTicks, long maxDelay, int capacity) {
+        mMaxTicks = maxTicks;
+        mMaxDelay = maxDelay;
+        mQueue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public synchronized void start() {
+        if (mThread != null && mThread.isAlive())
+            return;
+
+        mIsClosed = false;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "LoggerBatchWriter");
+        mThread.start();
+    }
+
+    /**
+     * Put tick rows to queue. Blocks if queue is full.
+     *
+     * @return  False if writer is not started or already closed, batch is dropped then
+     */
+    public boolean enqueue(Batch batch) throws InterruptedException {
+        synchronized (mEnqueueLock) { // no batch can follow the last marker
+            if (mIsClosed)
+                return false;
+
+            mQueue.put(batch);
+            return true;
+        }
+    }
+
+    /**
+     * Commit all queued rows and wait until they are written
+     */
+    public void flush() {
+        sendMarker(false);
+    }
+
+    /**
+     * Commit all queued rows and stop writer thread. Blocks until rows are written,
+     * so it must not be called from the main thread.
+     */
+    public synchronized void close() {
+        if (mThread == null)
+            return;
+
+        synchronized (mEnqueueLock) {
+            mIsClosed = true;
+        }
+
+        sendMarker(true);
+        mThread = null;
+    }
+
+    private void sendMarker(boolean isLast) {
+        if (mThread == null || !mThread.isAlive())
+            return;
+
+        CountDownLatch latch = new CountDownLatch(1);
+        boolean interrupted = false;
+        Batch marker = new Batch(latch, isLast);
+
+        while (true) {
+            try {
+                mQueue.put(marker);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void loop() {
+        List<Batch> pending = new ArrayList<>();
+        long first = 0;
+
+        while (true) {
+            Batch batch;
+            try {
+                if (pending.isEmpty()) {
+                    batch = mQueue.take();
+                    first = SystemClock.elapsedRealtime();
+                } else {
+                    long wait = mMaxDelay - (SystemClock.elapsedRealtime() - first);
+                    batch = wait > 0 ? mQueue.poll(wait, TimeUnit.MILLISECONDS) : null;
+                }
+            } catch (InterruptedException e) {
+                commit(pending);
+                return;
+            }
+
+            if (batch == null) {
+                commit(pending);
+            } else if (batch.isMarker()) {
+                commit(pending);
+                batch.mLatch.countDown();
+                if (batch.mIsLast)
+                    return;
+            } else {
+                pending.add(batch);
+                if (pending.size() >= mMaxTicks)
+                    commit(pending);
+            }
+        }
+    }
+
+    private void commit(List<Batch> pending) {
+        if (pending.isEmpty())
+            return;
+
+        long start = SystemClock.elapsedRealtime();
+        int rows = insert(pending);
+        if (rows < 0) // one bad row rolls back the whole transaction, retry them one by one
+            rows = insertEach(pending);
+
+        pending.clear();
+        long latency = SystemClock.elapsedRealtime() - start;
+        mCommits++;
+        mRows += rows;
+        mLastRows = rows;
+        mLastLatency = latency;
+        mTotalLatency += latency;
+        if (latency > mMaxLatency)
+            mMaxLatency = latency;
+    }
+
+    /**
+     * Write rows in caller thread bypassing queue, e.g. for user marks
+     *
+     * @return  True if rows are committed
+     */
+    public static boolean write(Batch batch) {
+        List<Batch> batches = new ArrayList<>();
+        batches.add(batch);
+        return insert(batches) >= 0;
+    }
+
+    /**
+     * Write every row and task of batches in its own transaction, so only failing ones are lost
+     *
+     * @return  Count of inserted rows
+     */
+    private int insertEach(List<Batch> batches) {
+        int rows = 0, dropped = 0;
+        for (Batch batch : batches) {
+            for (int i = 0; i < batch.size(); i++) {
+                if (write(new Batch().add(batch.mUris.get(i), batch.mRows.get(i))))
+                    rows++;
+                else
+                    dropped++;
+            }
+
+            for (Task task : batch.mTasks)
+                if (!write(new Batch().add(task)))
+                    Log.d(TAG, "Batch task dropped");
+        }
+
+        if (dropped > 0)
+            Log.d(TAG, "Batch commit dropped " + dropped + " rows");
+
+        mDropped += dropped;
+
+        return rows;
+    }
+
+    /**
+     * Insert rows, run tasks and update session aggregates in a single transaction
+     *
+     * @return  Count of inserted rows or -1 if transaction is rolled back
+     */
+    private static int insert(List<Batch> batches) {
+        MapBase map = MapBase.getInstance();
+        SQLiteDatabase db = ((MapContentProviderHelper) map).getDatabase(false);
+        Map<String, NGWVectorLayer> layers = new HashMap<>();
+        SessionStats stats = new SessionStats();
+        int rows = 0;
+
+        db.beginTransaction();
+        try {
+            for (Batch batch : batches) {
+                for (int i = 0; i < batch.size(); i++) {
+                    Uri uri = batch.mUris.get(i);
+                    String table = uri.getLastPathSegment();
+                    NGWVectorLayer layer = layers.get(table);
+                    if (layer == null && !layers.containsKey(table)) {
+                        layer = (NGWVectorLayer) map.getLayerByPathName(table);
+                        layers.put(table, layer);
+                    }
+
+                    boolean isInserted;
+                    if (layer != null)
+                        isInserted = layer.insert(uri, batch.mRows.get(i)) != null;
+                    else // plain table without layer
+                        isInserted = db.insertOrThrow(table, null, batch.mRows.get(i)) != -1;
+
+                    if (isInserted) {
+                        stats.add(table, batch.mRows.get(i));
+                        rows++;
+                    }
+                }
+
+                for (Task task : batch.mTasks)
+                    task.execute(db);
+            }
+
+            stats.apply(db);
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            Log.d(TAG, "Batch commit failed: " + e.getLocalizedMessage());
+            rows = -1;
+        } finally {
+            db.endTransaction();
+        }
+
+        return rows;
+    }
+
+    public long getCommitsCount() {
+        return mCommits;
+    }
+
+    public long getRowsCount() {
+        return mRows;
+    }
+
+    /**
+     * @return  Count of rows which failed to insert and are lost
+     */
+    public long getDroppedRowsCount() {
+        return mDropped;
+    }
+
+    public int getLastRowsPerCommit() {
+        return mLastRows;
+    }
+
+    public long getLastCommitLatency() {
+        return mLastLatency;
+    }
+
+    public long getAverageCommitLatency() {
+        long commits = mCommits;
+        return commits > 0 ? mTotalLatency / commits : 0;
+    }
+
+    public long getMaxCommitLatency() {
+        return mMaxLatency;
+    }
+}
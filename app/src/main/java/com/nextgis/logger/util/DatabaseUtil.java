@@ -0,0 +1,146 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright © 2017 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.util;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.nextgis.logger.LoggerApplication;
+import com.nextgis.maplib.util.Constants;
+
+import static com.nextgis.maplib.util.Constants.TAG;
+
+public final class DatabaseUtil {
+    private static final String[] HOT_QUERIES = {
+            // LoggerService records count
+            "SELECT " + LoggerApplication.FIELD_RECORDS_COUNT + " FROM " + LoggerApplication.TABLE_SESSION + " WHERE " +
+                    LoggerApplication.FIELD_UNIQUE_ID + " = ?",
+            // export and delete: session marks
+            "SELECT " + LoggerApplication.FIELD_UNIQUE_ID + " FROM " + LoggerApplication.TABLE_MARK + " WHERE " + LoggerApplication.FIELD_SESSION +
+                    " = ? ORDER BY " + LoggerApplication.FIELD_TIMESTAMP,
+            // export: marks joined with data
+            "SELECT m." + Constants.FIELD_ID + ", c." + Constants.FIELD_ID + ", s." + Constants.FIELD_ID + ", e." + Constants.FIELD_ID + " FROM " +
+                    LoggerApplication.TABLE_MARK + " m LEFT JOIN " + LoggerApplication.TABLE_CELL + " c ON c." + LoggerApplication.FIELD_MARK +
+                    " = m." + LoggerApplication.FIELD_UNIQUE_ID + " LEFT JOIN " + LoggerApplication.TABLE_SENSOR + " s ON s." +
+                    LoggerApplication.FIELD_MARK + " = m." + LoggerApplication.FIELD_UNIQUE_ID + " LEFT JOIN " + LoggerApplication.TABLE_EXTERNAL +
+                    " e ON e." + LoggerApplication.FIELD_MARK + " = m." + LoggerApplication.FIELD_UNIQUE_ID + " WHERE m." +
+                    LoggerApplication.FIELD_SESSION + " = ? ORDER BY m." + LoggerApplication.FIELD_TIMESTAMP + ", m." + Constants.FIELD_ID + ", c.\"" +
+                    LoggerConstants.HEADER_ACTIVE + "\"",
+            // delete: data of marks
+            "SELECT " + Constants.FIELD_ID + " FROM " + LoggerApplication.TABLE_CELL + " WHERE " + LoggerApplication.FIELD_MARK + " IN (?)",
+            "SELECT " + Constants.FIELD_ID + " FROM " + LoggerApplication.TABLE_SENSOR + " WHERE " + LoggerApplication.FIELD_MARK + " IN (?)",
+            "SELECT " + Constants.FIELD_ID + " FROM " + LoggerApplication.TABLE_EXTERNAL + " WHERE " + LoggerApplication.FIELD_MARK + " IN (?)",
+            "SELECT " + Constants.FIELD_ID + " FROM " + LoggerApplication.TABLE_SENSOR_RAW + " WHERE " + LoggerApplication.FIELD_SESSION + " IN (?)",
+            "SELECT " + Constants.FIELD_ID + " FROM " + LoggerApplication.TABLE_CELL_OBS + " WHERE " + LoggerApplication.FIELD_MARK + " IN (?)",
+            "SELECT " + Constants.FIELD_ID + " FROM " + LoggerApplication.TABLE_CELL_EVENT + " WHERE " + LoggerApplication.FIELD_SESSION + " IN (?)",
+            "SELECT " + Constants.FIELD_ID + " FROM " + LoggerApplication.TABLE_COVERAGE + " WHERE " + LoggerApplication.FIELD_SESSION + " IN (?)",
+            // export: cell events
+            "SELECT * FROM " + LoggerApplication.TABLE_CELL_EVENT + " WHERE " + LoggerApplication.FIELD_SESSION + " = ? ORDER BY " +
+                    LoggerApplication.FIELD_TIMESTAMP + ", " + Constants.FIELD_ID,
+            // export: cell log decoding
+            "SELECT o." + Constants.FIELD_ID + " FROM " + LoggerApplication.TABLE_MARK + " m JOIN " + LoggerApplication.TABLE_CELL_OBS + " o ON o." +
+                    LoggerApplication.FIELD_MARK + " = m." + LoggerApplication.FIELD_UNIQUE_ID + " JOIN " + LoggerApplication.TABLE_CELL_DICT +
+                    " d ON d." + Constants.FIELD_ID + " = o." + LoggerApplication.FIELD_CELL + " WHERE m." + LoggerApplication.FIELD_SESSION +
+                    " = ? ORDER BY m." + LoggerApplication.FIELD_TIMESTAMP + ", m." + Constants.FIELD_ID + ", o." + Constants.FIELD_ID
+    };
+
+    /**
+     * Create indexes used by session and mark lookups if they are missing.
+     * Called on start and after tables are rebuilt.
+     */
+    public static void checkIndexes(SQLiteDatabase db) {
+        createIndex(db, LoggerApplication.TABLE_MARK, LoggerApplication.FIELD_SESSION, LoggerApplication.FIELD_TIMESTAMP,
+                    LoggerApplication.FIELD_MARK_ID);
+        createIndex(db, LoggerApplication.TABLE_CELL, LoggerApplication.FIELD_MARK, LoggerConstants.HEADER_ACTIVE);
+        createIndex(db, LoggerApplication.TABLE_SENSOR, LoggerApplication.FIELD_MARK);
+        createIndex(db, LoggerApplication.TABLE_EXTERNAL, LoggerApplication.FIELD_MARK);
+        createIndex(db, LoggerApplication.TABLE_SENSOR_RAW, LoggerApplication.FIELD_SESSION);
+        createIndex(db, LoggerApplication.TABLE_CELL_OBS, LoggerApplication.FIELD_MARK);
+        createIndex(db, LoggerApplication.TABLE_CELL_EVENT, LoggerApplication.FIELD_SESSION, LoggerApplication.FIELD_TIMESTAMP);
+        for (LoggerVectorLayer layer : ExternalSchema.getLayers())
+            createIndex(db, layer.getPath().getName(), LoggerApplication.FIELD_MARK);
+    }
+
+    /**
+     * Add column to existing table if it is missing
+     */
+    public static void addColumn(SQLiteDatabase db, String table, String column, String definition) {
+        Cursor info = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        if (info == null)
+            return;
+
+        boolean exists = false;
+        int name = info.getColumnIndex("name");
+        while (!exists && info.moveToNext())
+            exists = column.equalsIgnoreCase(info.getString(name));
+
+        info.close();
+        if (!exists)
+            try {
+                db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+            } catch (SQLException e) {
+                Log.d(TAG, "Column " + column + " is not added: " + e.getLocalizedMessage());
+            }
+    }
+
+    static void createIndex(SQLiteDatabase db, String table, String... columns) {
+        String name = table;
+        String list = "";
+        for (String column : columns) {
+            name += "_" + column.toLowerCase();
+            list += (list.isEmpty() ? "" : ", ") + "\"" + column + "\"";
+        }
+
+        try {
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + name + " ON " + table + " (" + list + ")");
+        } catch (SQLException e) { // table is not created yet
+            Log.d(TAG, "Index " + name + " is not created: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Print EXPLAIN QUERY PLAN of export, delete and records count queries to log
+     */
+    public static void logQueryPlans(SQLiteDatabase db) {
+        for (String query : HOT_QUERIES) {
+            Log.d(TAG, "Query plan: " + query);
+
+            try {
+                Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + query, new String[]{""});
+                if (plan == null)
+                    continue;
+
+                int detail = plan.getColumnIndex("detail");
+                while (plan.moveToNext())
+                    Log.d(TAG, "    " + plan.getString(detail));
+
+                plan.close();
+            } catch (SQLException e) {
+                Log.d(TAG, "    " + e.getLocalizedMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.util;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.nextgis.logger.LoggerApplication;
+import com.nextgis.maplib.api.ILayer;
+import com.nextgis.maplib.datasource.Field;
+import com.nextgis.maplib.map.MapBase;
+import com.nextgis.maplib.map.MapContentProviderHelper;
+import com.nextgis.maplib.util.GeoConstants;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import static com.nextgis.maplib.util.Constants.TAG;
+
+/**
+ * Typed table of external device sensors described by its JSON header. Each
+ * sensor is a REAL column. Table name is derived from device MAC and header,
+ * so changed header gets a new table and rows of different firmware never mix.
+ * Tables are local only and are not synchronized.
+ * <p>
+ * Rows of frames logging keep times of their frame, rows of latest values leave them empty.
+ */
+public class ExternalSchema {
+    public static final String TABLE_PREFIX = LoggerApplication.TABLE_EXTERNAL + "_";
+    public static final String FIELD_TIME = "frame_time";
+    public static final String FIELD_DEVICE_TIME = "device_time";
+    private static final String LAYOUT = "frames"; // tables without frame times keep their own names
+
+    private final String mTable;
+    private final String[] mColumns, mTitles;
+
+    /**
+     * @param titles        Full names of sensors in header order
+     * @param shortNames    Short names of sensors, used for column names
+     */
+    public ExternalSchema(String mac, String[] titles, String[] shortNames, String[] units) {
+        mTitles = titles;
+        mColumns = new String[shortNames.length];
+
+        Set<String> used = new HashSet<>();
+        used.add(LoggerApplication.FIELD_MARK);
+        used.add(FIELD_TIME);
+        used.add(FIELD_DEVICE_TIME);
+        String description = LAYOUT + "\n" + mac;
+        for (int i = 0; i < shortNames.length; i++) {
+            String column = shortNames[i].toLowerCase(Locale.US).replaceAll("[^a-z0-9_]", "_");
+            if (column.isEmpty() || !Character.isLetter(column.charAt(0)))
+                column = "s_" + column;
+
+            while (!used.add(column))
+                column += "_" + i;
+
+            mColumns[i] = column;
+            description += "\n" + titles[i] + "|" + shortNames[i] + "|" + units[i];
+        }
+
+        mTable = TABLE_PREFIX + Integer.toHexString(description.hashCode());
+    }
+
+    public String getTable() {
+        return mTable;
+    }
+
+    public String[] getColumns() {
+        return mColumns;
+    }
+
+    public String[] getTitles() {
+        return mTitles;
+    }
+
+    public int size() {
+        return mColumns.length;
+    }
+
+    /**
+     * Create table of schema if it does not exist yet. Map is changed on the
+     * main thread as everywhere else, caller waits so rows are not written
+     * before the layer exists.
+     *
+     * @param name  Layer name shown to user, usually device name
+     */
+    public void createLayer(final String name) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            addLayer(name);
+            return;
+        }
+
+        FutureTask<Void> task = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                addLayer(name);
+            }
+        }, null);
+
+        new Handler(Looper.getMainLooper()).post(task);
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void addLayer(String name) {
+        synchronized (ExternalSchema.class) {
+            MapBase map = MapBase.getInstance();
+            if (map.getLayerByPathName(mTable) != null)
+                return;
+
+            ArrayList<Field> fields = new ArrayList<>();
+            fields.add(new Field(GeoConstants.FTString, LoggerApplication.FIELD_MARK, LoggerApplication.FIELD_MARK));
+            fields.add(new Field(GeoConstants.FTReal, FIELD_TIME, LoggerConstants.HEADER_FRAME_TIME));
+            fields.add(new Field(GeoConstants.FTReal, FIELD_DEVICE_TIME, LoggerConstants.HEADER_DEVICE_TIME));
+            for (int i = 0; i < mColumns.length; i++)
+                fields.add(new Field(GeoConstants.FTReal, mColumns[i], mTitles[i]));
+
+            LoggerVectorLayer layer = LoggerApplication.getApplication().createEmptyVectorLayer(mTable, name, fields);
+            layer.setAccountName("");
+            map.addLayer(layer);
+            map.save();
+
+            SQLiteDatabase db = ((MapContentProviderHelper) map).getDatabase(false);
+            DatabaseUtil.createIndex(db, mTable, LoggerApplication.FIELD_MARK);
+            Log.d(TAG, "External table " + mTable + " is created for " + name);
+        }
+    }
+
+    public static boolean isSchemaLayer(ILayer layer) {
+        return layer.getPath().getName().startsWith(TABLE_PREFIX);
+    }
+
+    /**
+     * @return  Layers of all external schemas ever created
+     */
+    public static List<LoggerVectorLayer> getLayers() {
+        List<LoggerVectorLayer> result = new ArrayList<>();
+        MapBase map = MapBase.getInstance();
+        synchronized (ExternalSchema.class) {
+            for (int i = 0; i < map.getLayerCount(); i++) {
+                ILayer layer = map.getLayer(i);
+                if (layer instanceof LoggerVectorLayer && isSchemaLayer(layer))
+                    result.add((LoggerVectorLayer) layer);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return  Exported columns of schema layer: frame times if the layer has them and sensors, without mark column
+     */
+    public static List<Field> getSensorFields(LoggerVectorLayer layer) {
+        List<Field> result = new ArrayList<>();
+        for (Field field : layer.getFields())
+            if (!LoggerApplication.FIELD_MARK.equals(field.getName()))
+                result.add(field);
+
+        return result;
+    }
+}
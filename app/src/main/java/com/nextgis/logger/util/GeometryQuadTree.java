@@ -0,0 +1,379 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.util;
+
+import android.util.Log;
+
+import com.nextgis.maplib.api.IGeometryCache;
+import com.nextgis.maplib.api.IGeometryCacheItem;
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.util.GeoConstants;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.nextgis.maplib.util.Constants.TAG;
+
+/**
+ * Quadtree over Web Mercator extent. Items are kept in the deepest node which
+ * contains their envelope, so points always go to leaves. Leaves are split when
+ * they have more than {@link #CAPACITY} items. Envelopes are saved in tree order
+ * and the tree is built from them at once on load, without reading features.
+ */
+public class GeometryQuadTree implements IGeometryCache {
+    private static final int MAGIC = 0x4c515431; // LQT1
+    private static final int CAPACITY = 64;
+    private static final int MAX_DEPTH = 24;
+    private static final double WORLD = GeoConstants.MERCATOR_MAX;
+
+    private final Map<Long, Item> mItems = new HashMap<>();
+    private Node mRoot = new Node(-WORLD, -WORLD, WORLD, WORLD, 0);
+    private boolean mIsStale;
+
+    private static class Item implements IGeometryCacheItem {
+        final GeoEnvelope envelope;
+        final double minX, minY, maxX, maxY;
+        long id;
+        Node node;
+
+        Item(long id, GeoEnvelope envelope) {
+            this.id = id;
+            this.envelope = envelope;
+            minX = envelope.getMinX();
+            minY = envelope.getMinY();
+            maxX = envelope.getMaxX();
+            maxY = envelope.getMaxY();
+        }
+
+        @Override
+        public GeoEnvelope getEnvelope() {
+            return envelope;
+        }
+
+        @Override
+        public long getFeatureId() {
+            return id;
+        }
+
+        @Override
+        public void setFeatureId(long featureId) {
+            id = featureId;
+        }
+    }
+
+    private static class Node {
+        final double minX, minY, maxX, maxY;
+        final int depth;
+        Item[] items = new Item[4];
+        int count;
+        Node[] children;
+
+        Node(double minX, double minY, double maxX, double maxY, int depth) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.depth = depth;
+        }
+
+        boolean contains(Item item) {
+            return item.minX >= minX && item.maxX <= maxX && item.minY >= minY && item.maxY <= maxY;
+        }
+
+        void add(Item item) {
+            if (count == items.length) {
+                Item[] grown = new Item[count * 2];
+                System.arraycopy(items, 0, grown, 0, count);
+                items = grown;
+            }
+
+            items[count++] = item;
+            item.node = this;
+        }
+
+        void remove(Item item) {
+            for (int i = 0; i < count; i++)
+                if (items[i] == item) {
+                    items[i] = items[--count];
+                    items[count] = null;
+                    break;
+                }
+
+            item.node = null;
+        }
+
+        boolean canSplit() {
+            return children == null && count > CAPACITY && depth < MAX_DEPTH;
+        }
+
+        void split() {
+            double midX = (minX + maxX) / 2, midY = (minY + maxY) / 2;
+            children = new Node[]{new Node(minX, minY, midX, midY, depth + 1), new Node(midX, minY, maxX, midY, depth + 1),
+                                  new Node(minX, midY, midX, maxY, depth + 1), new Node(midX, midY, maxX, maxY, depth + 1)};
+        }
+
+        /**
+         * @return  Index of child which contains item or -1 if it crosses children bounds
+         */
+        int getChildIndex(Item item) {
+            for (int i = 0; i < children.length; i++)
+                if (children[i].contains(item))
+                    return i;
+
+            return -1;
+        }
+    }
+
+    @Override
+    public synchronized boolean isItemExist(long featureId) {
+        return mItems.containsKey(featureId);
+    }
+
+    @Override
+    public synchronized IGeometryCacheItem addItem(long id, GeoEnvelope envelope) {
+        Item old = mItems.get(id);
+        if (old != null)
+            old.node.remove(old);
+
+        Item item = new Item(id, envelope);
+        mItems.put(id, item);
+        insert(mRoot, item);
+        return item;
+    }
+
+    @Override
+    public synchronized IGeometryCacheItem getItem(long featureId) {
+        return mItems.get(featureId);
+    }
+
+    @Override
+    public synchronized IGeometryCacheItem removeItem(long featureId) {
+        Item item = mItems.remove(featureId);
+        if (item != null)
+            item.node.remove(item);
+
+        return item;
+    }
+
+    @Override
+    public synchronized int size() {
+        return mItems.size();
+    }
+
+    @Override
+    public synchronized void clear() {
+        mItems.clear();
+        mRoot = new Node(-WORLD, -WORLD, WORLD, WORLD, 0);
+        mIsStale = false;
+    }
+
+    @Override
+    public synchronized void changeId(long oldFeatureId, long newFeatureId) {
+        Item item = mItems.remove(oldFeatureId);
+        if (item == null)
+            return;
+
+        item.setFeatureId(newFeatureId);
+        mItems.put(newFeatureId, item);
+    }
+
+    @Override
+    public synchronized List<IGeometryCacheItem> search(GeoEnvelope extent) {
+        List<IGeometryCacheItem> result = new ArrayList<>();
+        search(mRoot, extent.getMinX(), extent.getMinY(), extent.getMaxX(), extent.getMaxY(), result);
+        return result;
+    }
+
+    @Override
+    public synchronized List<IGeometryCacheItem> getAll() {
+        return new ArrayList<IGeometryCacheItem>(mItems.values());
+    }
+
+    @Override
+    public synchronized void save(File path) {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+            out.writeInt(MAGIC);
+            out.writeInt(mItems.size());
+            write(mRoot, out);
+        } catch (IOException e) {
+            Log.d(TAG, "Spatial index is not saved: " + e.getLocalizedMessage());
+        } finally {
+            if (out != null)
+                try {
+                    out.close();
+                } catch (IOException ignored) { }
+        }
+    }
+
+    @Override
+    public synchronized void load(File path) {
+        clear();
+        if (!path.exists())
+            return;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+            if (in.readInt() != MAGIC) { // saved by other cache implementation
+                mIsStale = true;
+                return;
+            }
+
+            int size = in.readInt();
+            List<Item> items = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                long id = in.readLong();
+                double minX = in.readDouble(), minY = in.readDouble(), maxX = in.readDouble(), maxY = in.readDouble();
+                Item item = new Item(id, new GeoEnvelope(minX, maxX, minY, maxY));
+                items.add(item);
+                mItems.put(id, item);
+            }
+
+            build(mRoot, items);
+        } catch (IOException e) {
+            Log.d(TAG, "Spatial index is not loaded: " + e.getLocalizedMessage());
+            clear();
+            mIsStale = true;
+        } finally {
+            if (in != null)
+                try {
+                    in.close();
+                } catch (IOException ignored) { }
+        }
+    }
+
+    /**
+     * @return  True if saved index could not be read and cache must be rebuilt from features
+     */
+    public synchronized boolean isStale() {
+        return mIsStale;
+    }
+
+    private static void insert(Node node, Item item) {
+        while (node.children != null) {
+            int child = node.getChildIndex(item);
+            if (child < 0)
+                break;
+
+            node = node.children[child];
+        }
+
+        node.add(item);
+        if (node.canSplit()) {
+            Item[] items = node.items;
+            int count = node.count;
+            node.items = new Item[4];
+            node.count = 0;
+            node.split();
+            for (int i = 0; i < count; i++)
+                insert(node, items[i]);
+        }
+    }
+
+    /**
+     * Distribute items of empty node to its subtree at once
+     */
+    private static void build(Node node, List<Item> items) {
+        if (items.size() <= CAPACITY || node.depth >= MAX_DEPTH) {
+            for (Item item : items)
+                node.add(item);
+            return;
+        }
+
+        node.split();
+        List<List<Item>> parts = new ArrayList<>(4);
+        for (int i = 0; i < 4; i++)
+            parts.add(new ArrayList<Item>());
+
+        for (Item item : items) {
+            int child = node.getChildIndex(item);
+            if (child < 0)
+                node.add(item);
+            else
+                parts.get(child).add(item);
+        }
+
+        items.clear();
+        for (int i = 0; i < 4; i++)
+            build(node.children[i], parts.get(i));
+    }
+
+    private static void search(Node node, double minX, double minY, double maxX, double maxY, List<IGeometryCacheItem> result) {
+        if (node.minX > maxX || node.maxX < minX || node.minY > maxY || node.maxY < minY)
+            if (node.depth > 0) // root keeps items outside of world extent
+                return;
+
+        if (node.depth > 0 && minX <= node.minX && maxX >= node.maxX && minY <= node.minY && maxY >= node.maxY) {
+            collect(node, result);
+            return;
+        }
+
+        for (int i = 0; i < node.count; i++) {
+            Item item = node.items[i];
+            if (item.minX <= maxX && item.maxX >= minX && item.minY <= maxY && item.maxY >= minY)
+                result.add(item);
+        }
+
+        if (node.children != null)
+            for (Node child : node.children)
+                search(child, minX, minY, maxX, maxY, result);
+    }
+
+    private static void collect(Node node, List<IGeometryCacheItem> result) {
+        for (int i = 0; i < node.count; i++)
+            result.add(node.items[i]);
+
+        if (node.children != null)
+            for (Node child : node.children)
+                collect(child, result);
+    }
+
+    private static void write(Node node, DataOutputStream out) throws IOException {
+        for (int i = 0; i < node.count; i++) {
+            Item item = node.items[i];
+            out.writeLong(item.id);
+            out.writeDouble(item.minX);
+            out.writeDouble(item.minY);
+            out.writeDouble(item.maxX);
+            out.writeDouble(item.maxY);
+        }
+
+        if (node.children != null)
+            for (Node child : node.children)
+                write(child, out);
+    }
+}
@@ -29,6 +29,11 @@ public interface LoggerConstants {
 
     String CSV_SEPARATOR = ";";
     String CELL = "cell";
+    String CELL_EVENTS = "cell_events";
+    String COVERAGE = "coverage";
+    String GNSS = "gnss";
+    String SPECTRUM = "spectrum";
+    String SENSOR_RAW = "sensor_raw";
     String SENSOR = "sensor";
     String EXTERNAL = "external";
     String DATA = "data";
@@ -38,7 +43,10 @@ public interface LoggerConstants {
     String CATEGORIES = "categories.csv";
     String DEVICE_INFO = "device_info.txt";
     String TEMP_PATH = ".temp";
+    String GNSS_PATH = "gnss";
     String CSV_EXT = ".csv";
+    String GEOJSON_EXT = ".geojson";
+    String GNSS_EXT = ".txt.gz";
     String ZIP_EXT = ".zip";
 
     String CSV_HEADER_PREAMBLE = "ID" + CSV_SEPARATOR + "Name" + CSV_SEPARATOR + "User" + CSV_SEPARATOR + "TimeStamp" + CSV_SEPARATOR + "DateTime";
@@ -57,6 +65,9 @@ public interface LoggerConstants {
     String HEADER_POWER = "Power";
     String HEADER_RSSI = "RSSI";
     String HEADER_RSCP = "RSCP";
+    String HEADER_EVENT = "Event";
+    String HEADER_THRESHOLD = "Threshold";
+    String HEADER_PREVIOUS = "Previous";
 
     String HEADER_ACC_X = "Accel_X";
     String HEADER_ACC_Y = "Accel_Y";
@@ -83,17 +94,35 @@ public interface LoggerConstants {
     String HEADER_GPS_SAT = "GPS_Satellites";
     String HEADER_GPS_TIME = "GPS_FixTime";
     String HEADER_AUDIO = "Audio";
+    String HEADER_BAND = "Band_";
+    String HEADER_BANDS = "Bands";
+    String HEADER_FRAME_TIME = "Frame_Time";
+    String HEADER_DEVICE_TIME = "Device_Time";
 
     String PREF_APP_VERSION = "app_version";
     String PREF_PERIOD_SEC = "period_sec";
+    String PREF_PERIOD_MS = "period_ms";
+    String PREF_PERIOD_CATCH_UP = "period_catch_up";
+    String PREF_ADAPTIVE = "period_adaptive";
+    String PREF_ADAPTIVE_DISTANCE = "adaptive_distance";
+    String PREF_ADAPTIVE_SIGNAL = "adaptive_signal";
+    String PREF_ADAPTIVE_SENSOR = "adaptive_sensor";
+    String PREF_ADAPTIVE_HEARTBEAT = "adaptive_heartbeat";
     String PREF_SENSOR_STATE = "sensor_state";
     String PREF_SENSOR_MODE = "sensor_mode";
     String PREF_SENSOR_GYRO = "sensor_gyroscope_state";
     String PREF_SENSOR_MAG = "sensor_magnetic_state";
     String PREF_SENSOR_ORIENT = "sensor_orientation_state";
+    String PREF_SENSOR_RAW = "sensor_raw";
+    String PREF_GNSS_CAPTURE = "gnss_capture";
+    String PREF_SCHEMA_TYPED = "schema_typed";
+    String PREF_STATS_DIRTY = "stats_dirty";
     String PREF_GPS = "gps";
     String PREF_MIC = "sensor_mic";
     String PREF_MIC_DELTA = "sensor_mic_delta";
+    String PREF_MIC_WEIGHTING = "sensor_mic_weighting";
+    String PREF_MIC_SPECTRUM = "sensor_mic_spectrum";
+    String PREF_MIC_THIRDS = "sensor_mic_thirds";
     String PREF_USE_API17 = "use_api17";
     String PREF_CAT_PATH = "cat_path";
     String PREF_USE_VOL = "use_volume_buttons";
@@ -106,6 +135,7 @@ public interface LoggerConstants {
     String PREF_EXTERNAL = "external_data";
     String PREF_EXTERNAL_DEVICE = "external_device";
     String PREF_EXTERNAL_HEADER = "external_header";
+    String PREF_EXTERNAL_FRAMES = "external_frames";
     String PREF_TIME_START = "time_start";
     String PREF_TIME_FINISH = "time_finish";
     String PREF_MEASURING = "service_measuring";
@@ -117,6 +147,19 @@ public interface LoggerConstants {
     String PREF_LAST_EXPORT = "last_export";
     String PREF_INTRO = "app_intro";
 
+    String BATCH_ROWS_PER_COMMIT = "batch_rows_per_commit";
+    String BATCH_COMMIT_LATENCY = "batch_commit_latency";
+    String BATCH_COMMIT_LATENCY_MAX = "batch_commit_latency_max";
+    String BATCH_ROWS_DROPPED = "batch_rows_dropped";
+    String EXTERNAL_FRAMES_DROPPED = "external_frames_dropped";
+    String TICK_JITTER = "tick_jitter";
+    String TICK_JITTER_MAX = "tick_jitter_max";
+    String TICK_OVERRUNS = "tick_overruns";
+    String TICK_SKIPPED = "tick_skipped";
+    String TICK_SUPPRESSED = "tick_suppressed";
+    String TICK_SUPPRESSION_RATIO = "tick_suppression_ratio";
+    String SPECTRUM_CPU_LOAD = "spectrum_cpu_load";
+
     String DEFAULT_USERNAME = "User1";
     String LOG_UID = "ServiceLog";
 
@@ -125,6 +168,10 @@ public interface LoggerConstants {
     String ACTION_START = "com.nextgis.logger.SERVICE_START";
     String ACTION_STOP = "com.nextgis.logger.SERVICE_STOP";
     String ACTION_DESTROY = "com.nextgis.logger.SERVICE_DESTROY";
+    String ACTION_MIGRATION = "com.nextgis.logger.SCHEMA_MIGRATION";
+    String MIGRATION_TABLE = "migration_table";
+    String MIGRATION_DONE = "migration_done";
+    String MIGRATION_TOTAL = "migration_total";
 
     String GEN_2G = "2G";
     String GEN_3G = "3G";
@@ -139,6 +186,22 @@ public interface LoggerConstants {
 
     int UNDEFINED = -1;
     int UPDATE_FREQUENCY = 250; // in ms
+    int BATCH_TICKS = 10;
+    int BATCH_DELAY = 10000; // in ms
+    int BATCH_CAPACITY = 64;
+    int ADAPTIVE_DISTANCE = 10; // in m
+    int ADAPTIVE_SIGNAL = 3; // in dB
+    int ADAPTIVE_SENSOR = 1; // in sensor units
+    int ADAPTIVE_HEARTBEAT = 60; // in s
+    int RAW_BUFFER_SIZE = 4096; // samples per sensor, power of two
+    int RAW_CHUNK_SIZE = 1024; // samples per row
+    int RAW_DRAIN_INTERVAL = 250; // in ms
+    int EVENTS_CAPACITY = 1024; // cell events waiting to be written
+    int GNSS_CAPACITY = 4096; // NMEA sentences and statuses waiting to be written
+    int EXTERNAL_FRAMES_CAPACITY = 1024; // frames per device waiting for the next logged tick
+    int COVERAGE_ZOOM = 17; // tiles are about 300 m at equator
+    int COVERAGE_PERSIST_INTERVAL = 30000; // in ms
+    int COVERAGE_FIX_AGE = 2000; // minimum age of fix still used for coverage, in ms
     long  MIN_GPS_TIME = 0;
     float MIN_GPS_DISTANCE = 0f;
 }
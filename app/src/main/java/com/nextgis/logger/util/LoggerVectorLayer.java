@@ -29,12 +29,13 @@ import android.os.SystemClock;
 
 import com.nextgis.logger.ui.activity.ProgressBarActivity;
 import com.nextgis.maplib.api.IGeometryCache;
+import com.nextgis.maplib.datasource.Field;
 import com.nextgis.maplib.datasource.GeoPoint;
-import com.nextgis.maplib.datasource.GeometryPlainList;
 import com.nextgis.maplib.map.NGWVectorLayer;
 import com.nextgis.maplib.util.FeatureChanges;
 
 import java.io.File;
+import java.util.Map;
 
 public class LoggerVectorLayer extends NGWVectorLayer {
     public LoggerVectorLayer(Context context, File path) {
@@ -43,7 +44,15 @@ public class LoggerVectorLayer extends NGWVectorLayer {
 
     @Override
     protected IGeometryCache createNewCache() {
-        return new GeometryPlainList();
+        return new GeometryQuadTree();
+    }
+
+    /**
+     * Rebuild spatial index from features if saved one could not be read
+     */
+    public void checkCache() {
+        if (mCache instanceof GeometryQuadTree && ((GeometryQuadTree) mCache).isStale())
+            rebuildCache(null);
     }
 
     @Override
@@ -56,6 +65,21 @@ public class LoggerVectorLayer extends NGWVectorLayer {
         return true;
     }
 
+    /**
+     * Change types of existing fields and save layer config. Table columns must be converted before.
+     *
+     * @param types Field names and new GeoConstants field types
+     */
+    public void setFieldTypes(Map<String, Integer> types) {
+        for (Map.Entry<String, Integer> type : types.entrySet()) {
+            Field field = mFields.get(type.getKey());
+            if (field != null)
+                mFields.put(field.getName(), new Field(type.getValue(), field.getName(), field.getAlias()));
+        }
+
+        save();
+    }
+
     public void sync(final ProgressBarActivity.Sync sync) {
         final long max = FeatureChanges.getChangeCount(getChangeTableName());
         new Thread(new Runnable() {
@@ -0,0 +1,219 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright © 2017 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.util;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.nextgis.logger.LoggerApplication;
+import com.nextgis.maplib.map.MapBase;
+import com.nextgis.maplib.map.MapContentProviderHelper;
+import com.nextgis.maplib.util.Constants;
+import com.nextgis.maplib.util.GeoConstants;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.nextgis.maplib.util.Constants.TAG;
+
+/**
+ * Converts text columns of measurement tables created by previous versions
+ * to INTEGER and REAL ones. Rows are copied in batches to a shadow table which
+ * survives restarts, so the migration continues from the last copied row.
+ * Tables are swapped in a single transaction when all rows are copied.
+ * Tables of layers synced to NGW are left as they are, since their fields
+ * have to match remote ones. Progress is sent as {@link LoggerConstants#ACTION_MIGRATION}.
+ */
+public class SchemaMigration implements Runnable {
+    private static final String SHADOW_SUFFIX = "_typed";
+    private static final int BATCH_SIZE = 5000;
+
+    private static final String[] CELL_INTEGER = {LoggerConstants.HEADER_ACTIVE, LoggerConstants.HEADER_MCC, LoggerConstants.HEADER_MNC,
+                                                  LoggerConstants.HEADER_LAC, LoggerConstants.HEADER_CID, LoggerConstants.HEADER_PSC,
+                                                  LoggerConstants.HEADER_POWER};
+    private static final String[] SENSOR_INTEGER = {LoggerConstants.HEADER_GPS_SAT, LoggerConstants.HEADER_GPS_TIME, LoggerConstants.HEADER_AUDIO};
+    private static final String[] SENSOR_REAL = {LoggerConstants.HEADER_ACC_X, LoggerConstants.HEADER_ACC_Y, LoggerConstants.HEADER_ACC_Z,
+                                                 LoggerConstants.HEADER_LINEAR_X, LoggerConstants.HEADER_LINEAR_Y, LoggerConstants.HEADER_LINEAR_Z,
+                                                 LoggerConstants.HEADER_AZIMUTH, LoggerConstants.HEADER_PITCH, LoggerConstants.HEADER_ROLL,
+                                                 LoggerConstants.HEADER_MAGNETIC_X, LoggerConstants.HEADER_MAGNETIC_Y,
+                                                 LoggerConstants.HEADER_MAGNETIC_Z, LoggerConstants.HEADER_GYRO_X, LoggerConstants.HEADER_GYRO_Y,
+                                                 LoggerConstants.HEADER_GYRO_Z, LoggerConstants.HEADER_GPS_LAT, LoggerConstants.HEADER_GPS_LON,
+                                                 LoggerConstants.HEADER_GPS_ALT, LoggerConstants.HEADER_GPS_ACC, LoggerConstants.HEADER_GPS_SP,
+                                                 LoggerConstants.HEADER_GPS_BE};
+
+    private final Context mContext;
+    private final SharedPreferences mPreferences;
+
+    public SchemaMigration(Context context, SharedPreferences preferences) {
+        mContext = context;
+        mPreferences = preferences;
+    }
+
+    public static boolean isDone(SharedPreferences preferences) {
+        return preferences.getBoolean(LoggerConstants.PREF_SCHEMA_TYPED, false);
+    }
+
+    @Override
+    public void run() {
+        Map<String, Integer> cell = new HashMap<>();
+        put(cell, CELL_INTEGER, GeoConstants.FTInteger);
+
+        Map<String, Integer> sensor = new HashMap<>();
+        put(sensor, SENSOR_INTEGER, GeoConstants.FTInteger);
+        put(sensor, SENSOR_REAL, GeoConstants.FTReal);
+
+        try {
+            if (migrate(LoggerApplication.TABLE_CELL, cell) && migrate(LoggerApplication.TABLE_SENSOR, sensor))
+                mPreferences.edit().putBoolean(LoggerConstants.PREF_SCHEMA_TYPED, true).apply();
+        } catch (SQLException e) {
+            Log.d(TAG, "Schema migration failed: " + e.getLocalizedMessage());
+        } finally {
+            sendStatus(LoggerConstants.STATUS_FINISHED, null, 0, 0);
+        }
+    }
+
+    private void sendStatus(int status, String table, long done, long total) {
+        Intent intent = new Intent(LoggerConstants.ACTION_MIGRATION);
+        intent.putExtra(LoggerConstants.SERVICE_STATUS, status).putExtra(LoggerConstants.MIGRATION_TABLE, table)
+              .putExtra(LoggerConstants.MIGRATION_DONE, done).putExtra(LoggerConstants.MIGRATION_TOTAL, total);
+        mContext.sendBroadcast(intent);
+    }
+
+    private static void put(Map<String, Integer> types, String[] columns, int type) {
+        for (String column : columns)
+            types.put(column, type);
+    }
+
+    private static String getSqlType(int fieldType) {
+        return fieldType == GeoConstants.FTReal ? "REAL" : "INTEGER";
+    }
+
+    /**
+     * @return  True if table has typed columns now
+     */
+    private boolean migrate(String table, Map<String, Integer> types) {
+        LoggerVectorLayer layer = (LoggerVectorLayer) MapBase.getInstance().getLayerByPathName(table);
+        if (layer != null && !TextUtils.isEmpty(layer.getAccountName())) {
+            Log.d(TAG, "Schema migration of " + table + " skipped, layer is synced");
+            return true;
+        }
+
+        SQLiteDatabase db = ((MapContentProviderHelper) MapBase.getInstance()).getDatabase(false);
+        String shadow = table + SHADOW_SUFFIX;
+        List<String> columns = new ArrayList<>();
+        List<String> definitions = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        boolean isTyped = true;
+
+        Cursor info = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        if (info == null)
+            return false;
+
+        try {
+            int nameColumn = info.getColumnIndex("name");
+            int typeColumn = info.getColumnIndex("type");
+            int pkColumn = info.getColumnIndex("pk");
+            while (info.moveToNext()) {
+                String name = info.getString(nameColumn);
+                String type = info.getString(typeColumn);
+                String quoted = "\"" + name + "\"";
+                Integer target = types.get(name);
+                columns.add(quoted);
+
+                if (target != null) {
+                    String sqlType = getSqlType(target);
+                    isTyped &= sqlType.equalsIgnoreCase(type);
+                    definitions.add(quoted + " " + sqlType);
+                    values.add("NULLIF(" + quoted + ", " + DatabaseUtils.sqlEscapeString(LoggerConstants.NO_DATA) + ")");
+                } else {
+                    definitions.add(quoted + " " + type + (info.getInt(pkColumn) > 0 ? " PRIMARY KEY" + getAutoIncrement(db, table) : ""));
+                    values.add(quoted);
+                }
+            }
+        } finally {
+            info.close();
+        }
+
+        if (columns.isEmpty())
+            return false;
+
+        if (isTyped) {
+            db.execSQL("DROP TABLE IF EXISTS " + shadow);
+            return true;
+        }
+
+        String names = TextUtils.join(", ", columns);
+        String insert = "INSERT INTO " + shadow + " (" + names + ") SELECT " + TextUtils.join(", ", values) + " FROM " + table +
+                " WHERE " + Constants.FIELD_ID + " > (SELECT IFNULL(MAX(" + Constants.FIELD_ID + "), -1) FROM " + shadow + ") ORDER BY " +
+                Constants.FIELD_ID;
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + shadow + " (" + TextUtils.join(", ", definitions) + ")");
+
+        long total = DatabaseUtils.queryNumEntries(db, table);
+        long done = DatabaseUtils.queryNumEntries(db, shadow);
+        SQLiteStatement batch = db.compileStatement(insert + " LIMIT " + BATCH_SIZE);
+        try {
+            int copied;
+            do {
+                copied = batch.executeUpdateDelete();
+                done += copied;
+                sendStatus(LoggerConstants.STATUS_RUNNING, table, done, total);
+            } while (copied == BATCH_SIZE);
+        } finally {
+            batch.close();
+        }
+
+        db.beginTransaction();
+        try {
+            db.execSQL(insert); // rows logged during copying
+            db.execSQL("DELETE FROM " + shadow + " WHERE " + Constants.FIELD_ID + " NOT IN (SELECT " + Constants.FIELD_ID + " FROM " + table + ")");
+            db.execSQL("DROP TABLE " + table);
+            db.execSQL("ALTER TABLE " + shadow + " RENAME TO " + table);
+            DatabaseUtil.checkIndexes(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (layer != null)
+            layer.setFieldTypes(types);
+
+        Log.d(TAG, "Schema migration of " + table + " finished");
+        return true;
+    }
+
+    private static String getAutoIncrement(SQLiteDatabase db, String table) {
+        String sql = DatabaseUtils.stringForQuery(db, "SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?", new String[]{table});
+        return sql != null && sql.toUpperCase().contains("AUTOINCREMENT") ? " AUTOINCREMENT" : "";
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright © 2017 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.util;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.nextgis.logger.LoggerApplication;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.nextgis.maplib.util.Constants.TAG;
+
+/**
+ * Aggregates of session rows kept in session table: records and marks count,
+ * first and last mark timestamp and estimated size of rows in bytes. They are
+ * increased in the same transaction as rows are inserted and decreased when
+ * a mark is deleted.
+ */
+public class SessionStats {
+    private static final String[] COLUMNS = {LoggerApplication.FIELD_RECORDS_COUNT, LoggerApplication.FIELD_MARKS_COUNT,
+                                             LoggerApplication.FIELD_TS_FIRST, LoggerApplication.FIELD_TS_LAST, LoggerApplication.FIELD_BYTES};
+    private static final int RECORDS = 0, MARKS = 1, FIRST = 2, LAST = 3, BYTES = 4;
+
+    private final Map<String, long[]> mSessions = new HashMap<>();
+    private long[] mCurrent;
+    private long[] mValues;
+
+    /**
+     * Add inserted row. Data rows are counted for the session of the last added mark.
+     */
+    public void add(String table, ContentValues row) {
+        if (LoggerApplication.TABLE_MARK.equals(table)) {
+            String session = row.getAsString(LoggerApplication.FIELD_SESSION);
+            mCurrent = mSessions.get(session);
+            if (mCurrent == null) {
+                mCurrent = new long[]{0, 0, Long.MAX_VALUE, Long.MIN_VALUE, 0};
+                mSessions.put(session, mCurrent);
+            }
+
+            Integer id = row.getAsInteger(LoggerApplication.FIELD_MARK_ID);
+            mCurrent[id != null && id == -1 ? RECORDS : MARKS]++;
+
+            Double timestamp = row.getAsDouble(LoggerApplication.FIELD_TIMESTAMP);
+            if (timestamp != null) {
+                mCurrent[FIRST] = Math.min(mCurrent[FIRST], timestamp.longValue());
+                mCurrent[LAST] = Math.max(mCurrent[LAST], timestamp.longValue());
+            }
+        }
+
+        if (mCurrent != null)
+            mCurrent[BYTES] += getSize(row);
+    }
+
+    /**
+     * Write collected increments. Must be called inside transaction with inserts.
+     */
+    public void apply(SQLiteDatabase db) {
+        for (Map.Entry<String, long[]> entry : mSessions.entrySet()) {
+            long[] stats = entry.getValue();
+            boolean hasMarks = stats[FIRST] <= stats[LAST];
+            db.execSQL("UPDATE " + LoggerApplication.TABLE_SESSION + " SET " +
+                               LoggerApplication.FIELD_RECORDS_COUNT + " = " + LoggerApplication.FIELD_RECORDS_COUNT + " + ?, " +
+                               LoggerApplication.FIELD_MARKS_COUNT + " = " + LoggerApplication.FIELD_MARKS_COUNT + " + ?, " +
+                               LoggerApplication.FIELD_TS_FIRST + " = MIN(IFNULL(" + LoggerApplication.FIELD_TS_FIRST + ", ?), ?), " +
+                               LoggerApplication.FIELD_TS_LAST + " = MAX(IFNULL(" + LoggerApplication.FIELD_TS_LAST + ", ?), ?), " +
+                               LoggerApplication.FIELD_BYTES + " = " + LoggerApplication.FIELD_BYTES + " + ? WHERE " +
+                               LoggerApplication.FIELD_UNIQUE_ID + " = ?",
+                       new Object[]{stats[RECORDS], stats[MARKS], hasMarks ? stats[FIRST] : null, hasMarks ? stats[FIRST] : null,
+                                    hasMarks ? stats[LAST] : null, hasMarks ? stats[LAST] : null, stats[BYTES], entry.getKey()});
+        }
+
+        mSessions.clear();
+        mCurrent = null;
+    }
+
+    /**
+     * Subtract mark and its data rows which are going to be deleted
+     *
+     * @param tables    Data tables keeping rows of the mark
+     */
+    public static void remove(SQLiteDatabase db, String mark, List<String> tables) {
+        String session;
+        boolean isRecord;
+        long bytes;
+        String[] args = new String[]{mark};
+
+        Cursor cursor = db.query(LoggerApplication.TABLE_MARK, null, LoggerApplication.FIELD_UNIQUE_ID + " = ?", args, null, null, null);
+        if (cursor == null)
+            return;
+
+        try {
+            if (!cursor.moveToFirst())
+                return;
+
+            session = cursor.getString(cursor.getColumnIndex(LoggerApplication.FIELD_SESSION));
+            isRecord = cursor.getInt(cursor.getColumnIndex(LoggerApplication.FIELD_MARK_ID)) == -1;
+            bytes = getSize(cursor);
+        } finally {
+            cursor.close();
+        }
+
+        for (String table : tables) {
+            cursor = db.query(table, null, LoggerApplication.FIELD_MARK + " = ?", args, null, null, null);
+            if (cursor == null)
+                continue;
+
+            while (cursor.moveToNext())
+                bytes += getSize(cursor);
+
+            cursor.close();
+        }
+
+        String others = " FROM " + LoggerApplication.TABLE_MARK + " WHERE " + LoggerApplication.FIELD_SESSION + " = ? AND " +
+                LoggerApplication.FIELD_UNIQUE_ID + " <> ?)";
+        db.execSQL("UPDATE " + LoggerApplication.TABLE_SESSION + " SET " +
+                           LoggerApplication.FIELD_RECORDS_COUNT + " = MAX(" + LoggerApplication.FIELD_RECORDS_COUNT + " - ?, 0), " +
+                           LoggerApplication.FIELD_MARKS_COUNT + " = MAX(" + LoggerApplication.FIELD_MARKS_COUNT + " - ?, 0), " +
+                           LoggerApplication.FIELD_BYTES + " = MAX(" + LoggerApplication.FIELD_BYTES + " - ?, 0), " +
+                           LoggerApplication.FIELD_TS_FIRST + " = (SELECT MIN(" + LoggerApplication.FIELD_TIMESTAMP + ")" + others + ", " +
+                           LoggerApplication.FIELD_TS_LAST + " = (SELECT MAX(" + LoggerApplication.FIELD_TIMESTAMP + ")" + others + " WHERE " +
+                           LoggerApplication.FIELD_UNIQUE_ID + " = ?",
+                   new Object[]{isRecord ? 1 : 0, isRecord ? 0 : 1, bytes, session, mark, session, mark, session});
+    }
+
+    /**
+     * Read aggregates of the session
+     *
+     * @return  Stats or null if session is not found
+     */
+    public static SessionStats get(SQLiteDatabase db, String session) {
+        Cursor cursor = db.query(LoggerApplication.TABLE_SESSION, COLUMNS, LoggerApplication.FIELD_UNIQUE_ID + " = ?",
+                                 new String[]{session}, null, null, null);
+        if (cursor == null)
+            return null;
+
+        SessionStats result = null;
+        if (cursor.moveToFirst())
+            result = fromCursor(cursor, 0);
+
+        cursor.close();
+        return result;
+    }
+
+    /**
+     * @param first Index of records count column, others must follow in order of {@link #getColumns()}
+     */
+    public static SessionStats fromCursor(Cursor cursor, int first) {
+        SessionStats result = new SessionStats();
+        result.mValues = new long[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++)
+            result.mValues[i] = cursor.getLong(first + i);
+
+        return result;
+    }
+
+    public static String[] getColumns() {
+        return COLUMNS.clone();
+    }
+
+    public long getRecordsCount() {
+        return mValues[RECORDS];
+    }
+
+    public long getMarksCount() {
+        return mValues[MARKS];
+    }
+
+    public long getFirstTimestamp() {
+        return mValues[FIRST];
+    }
+
+    public long getLastTimestamp() {
+        return mValues[LAST];
+    }
+
+    public long getBytes() {
+        return mValues[BYTES];
+    }
+
+    /**
+     * Recompute counts and timestamps of sessions which differ from their marks.
+     * Size estimate can not be restored and is kept as is. Marks are aggregated
+     * in a single pass, so it is meant to be run only after unclean shutdown.
+     */
+    public static void repair(SQLiteDatabase db) {
+        String aggregates = "SELECT " + LoggerApplication.FIELD_SESSION + ", SUM(" + LoggerApplication.FIELD_MARK_ID + " = -1) r, SUM(" +
+                LoggerApplication.FIELD_MARK_ID + " <> -1) m, MIN(" + LoggerApplication.FIELD_TIMESTAMP + ") f, MAX(" +
+                LoggerApplication.FIELD_TIMESTAMP + ") l FROM " + LoggerApplication.TABLE_MARK + " GROUP BY " + LoggerApplication.FIELD_SESSION;
+        Cursor cursor = db.rawQuery("SELECT s." + LoggerApplication.FIELD_UNIQUE_ID + ", IFNULL(a.r, 0), IFNULL(a.m, 0), a.f, a.l FROM " +
+                                            LoggerApplication.TABLE_SESSION + " s LEFT JOIN (" + aggregates + ") a ON a." +
+                                            LoggerApplication.FIELD_SESSION + " = s." + LoggerApplication.FIELD_UNIQUE_ID + " WHERE s." +
+                                            LoggerApplication.FIELD_RECORDS_COUNT + " <> IFNULL(a.r, 0) OR s." +
+                                            LoggerApplication.FIELD_MARKS_COUNT + " <> IFNULL(a.m, 0)", null);
+        if (cursor == null)
+            return;
+
+        db.beginTransaction();
+        try {
+            while (cursor.moveToNext())
+                db.execSQL("UPDATE " + LoggerApplication.TABLE_SESSION + " SET " + LoggerApplication.FIELD_RECORDS_COUNT + " = ?, " +
+                                   LoggerApplication.FIELD_MARKS_COUNT + " = ?, " + LoggerApplication.FIELD_TS_FIRST + " = ?, " +
+                                   LoggerApplication.FIELD_TS_LAST + " = ? WHERE " + LoggerApplication.FIELD_UNIQUE_ID + " = ?",
+                           new Object[]{cursor.getLong(1), cursor.getLong(2), cursor.isNull(3) ? null : cursor.getLong(3),
+                                        cursor.isNull(4) ? null : cursor.getLong(4), cursor.getString(0)});
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            cursor.close();
+        }
+
+        Log.d(TAG, "Session stats repaired");
+    }
+
+    /**
+     * Same estimate as {@link #getSize(ContentValues)} for the current row of cursor
+     */
+    private static long getSize(Cursor cursor) {
+        long size = 0;
+        for (int i = 0; i < cursor.getColumnCount(); i++)
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    size += cursor.getString(i).length();
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    size += cursor.getBlob(i).length;
+                    break;
+                default:
+                    size += 8;
+                    break;
+            }
+
+        return size;
+    }
+
+    /**
+     * Rough size of values: text and blobs by length, numbers as 8 bytes
+     */
+    private static long getSize(ContentValues row) {
+        long size = 0;
+        for (String key : row.keySet()) {
+            Object value = row.get(key);
+            if (value instanceof String)
+                size += ((String) value).length();
+            else if (value instanceof byte[])
+                size += ((byte[]) value).length;
+            else if (value != null)
+                size += 8;
+        }
+
+        return size;
+    }
+}
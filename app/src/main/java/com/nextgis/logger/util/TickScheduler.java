@@ -0,0 +1,169 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright © 2017 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.util;
+
+/**
+ * Fixed-rate scheduler. Ticks are planned at absolute times start + n * period,
+ * so time spent between ticks does not shift the following ones.
+ */
+public class TickScheduler {
+    /**
+     * Time source in milliseconds. Does not use Android classes, so can be
+     * replaced by a fake one in JVM tests.
+     */
+    public interface Clock {
+        long now();
+        void sleep(long millis) throws InterruptedException;
+    }
+
+    /**
+     * What to do with deadlines missed because of a long tick
+     */
+    public enum Policy {
+        /** Fire one tick at once for all missed deadlines */
+        CATCH_UP,
+        /** Drop missed deadlines and wait for the next one in future */
+        SKIP
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long now() {
+            return System.nanoTime() / 1000000;
+        }
+
+        @Override
+        public void sleep(long millis) throws InterruptedException {
+            Thread.sleep(millis);
+        }
+    };
+
+    private final Clock mClock;
+    private final long mPeriod;
+    private final Policy mPolicy;
+    private long mNext = LoggerConstants.UNDEFINED;
+    private volatile long mLastDeadline = LoggerConstants.UNDEFINED;
+
+    private volatile long mTicks, mOverruns, mSkipped;
+    private volatile long mLastJitter, mMaxJitter, mTotalJitter;
+
+    /**
+     * @param clock     Time source
+     * @param period    Ticks period in ms
+     * @param policy    Overrun policy
+     */
+    public TickScheduler(Clock clock, long period, Policy policy) {
+        if (period <= 0)
+            throw new IllegalArgumentException("Period must be positive");
+
+        mClock = clock;
+        mPeriod = period;
+        mPolicy = policy;
+    }
+
+    /**
+     * Wait until next tick deadline. First tick fires immediately. A tick is never
+     * fired twice for the same moment, missed deadlines are handled by the policy.
+     *
+     * @return  Actual time of the tick
+     */
+    public long awaitTick() throws InterruptedException {
+        long now = mClock.now();
+        if (mNext == LoggerConstants.UNDEFINED)
+            mNext = now;
+
+        long missed = (now - mNext) / mPeriod; // deadlines passed before the latest one
+        if (missed > 0) {
+            mOverruns++;
+            mSkipped += missed;
+            mNext += missed * mPeriod;
+            if (mPolicy == Policy.SKIP) { // the latest one is late too
+                mSkipped++;
+                mNext += mPeriod;
+            }
+        }
+
+        long delay = mNext - now;
+        if (delay > 0) {
+            mClock.sleep(delay);
+            now = mClock.now();
+        }
+
+        long jitter = now - mNext;
+        mLastDeadline = mNext;
+        mTicks++;
+        mLastJitter = jitter;
+        mTotalJitter += jitter;
+        if (jitter > mMaxJitter)
+            mMaxJitter = jitter;
+
+        mNext += mPeriod;
+        return now;
+    }
+
+    /**
+     * @return  Deadline the last tick was fired for
+     */
+    public long getLastDeadline() {
+        return mLastDeadline;
+    }
+
+    public long getPeriod() {
+        return mPeriod;
+    }
+
+    public long getTicksCount() {
+        return mTicks;
+    }
+
+    /**
+     * @return  Count of ticks which came when the following deadline was already passed
+     */
+    public long getOverrunsCount() {
+        return mOverruns;
+    }
+
+    /**
+     * @return  Count of deadlines which got no tick of their own
+     */
+    public long getSkippedCount() {
+        return mSkipped;
+    }
+
+    /**
+     * @return  Delay between scheduled and actual time of the last tick, in ms
+     */
+    public long getLastJitter() {
+        return mLastJitter;
+    }
+
+    public long getMaxJitter() {
+        return mMaxJitter;
+    }
+
+    public long getAverageJitter() {
+        long ticks = mTicks;
+        return ticks > 0 ? mTotalJitter / ticks : 0;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright © 2017 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes text lines directly into entries of a zip archive, one buffered
+ * writer per entry. Entries are written one after another.
+ */
+public class ZipStreamWriter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ZipOutputStream mZip;
+    private final CountingOutputStream mOut;
+    private BufferedWriter mWriter;
+    private long mLines;
+
+    public ZipStreamWriter(File file) throws FileNotFoundException {
+        mZip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        mOut = new CountingOutputStream(mZip);
+    }
+
+    /**
+     * Close current entry if any and start a new one
+     */
+    public void putNextEntry(String name) throws IOException {
+        closeEntry();
+        mZip.putNextEntry(new ZipEntry(name));
+        mWriter = new BufferedWriter(new OutputStreamWriter(mOut), BUFFER_SIZE);
+    }
+
+    /**
+     * Copy file bytes as is into a new entry
+     */
+    public void putFile(String name, File file) throws IOException {
+        putNextEntry(name);
+        mWriter.flush();
+
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                mOut.write(buffer, 0, read);
+        } finally {
+            in.close();
+        }
+
+        closeEntry();
+    }
+
+    public void println(String line) throws IOException {
+        mWriter.write(line);
+        mWriter.newLine();
+        mLines++;
+    }
+
+    public void closeEntry() throws IOException {
+        if (mWriter == null)
+            return;
+
+        mWriter.flush();
+        mZip.closeEntry();
+        mWriter = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeEntry();
+        mZip.close();
+    }
+
+    public long getLinesCount() {
+        return mLines;
+    }
+
+    /**
+     * @return  Uncompressed bytes passed to archive
+     */
+    public long getBytesCount() {
+        return mOut.mCount;
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long mCount;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mCount += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush(); // entries are closed by ZipStreamWriter
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.engines;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AWeightingTest {
+    private static final int SAMPLE_RATE = 48000;
+
+    /**
+     * @return  Gain of filter for tone in dB, measured after transient is settled
+     */
+    private static double getGain(AWeighting weighting, double frequency) {
+        weighting.reset();
+        double input = 0, output = 0;
+        for (int i = 0; i < SAMPLE_RATE; i++) {
+            double x = Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE);
+            double y = weighting.filter(x);
+            if (i >= SAMPLE_RATE / 2) {
+                input += x * x;
+                output += y * y;
+            }
+        }
+
+        return 10 * Math.log10(output / input);
+    }
+
+    @Test
+    public void gainIsUnityAtKilohertz() {
+        assertEquals(0, getGain(new AWeighting(SAMPLE_RATE), 1000), 0.05);
+    }
+
+    @Test
+    public void gainFollowsStandardCurve() { // IEC 61672-1 nominal values
+        AWeighting weighting = new AWeighting(SAMPLE_RATE);
+        assertEquals(-39.4, getGain(weighting, 31.5), 0.2);
+        assertEquals(-19.1, getGain(weighting, 100), 0.2);
+        assertEquals(-8.6, getGain(weighting, 250), 0.2);
+        assertEquals(1.2, getGain(weighting, 2500), 0.2);
+        assertEquals(1.0, getGain(weighting, 4000), 0.2);
+    }
+
+    @Test
+    public void highFrequenciesAreInClassOneTolerance() { // bilinear transform bends curve near Nyquist
+        AWeighting weighting = new AWeighting(SAMPLE_RATE);
+        double gain = getGain(weighting, 8000);
+        assertTrue(gain > -1.1 - 2.5 && gain < -1.1 + 1.5);
+        gain = getGain(weighting, 10000);
+        assertTrue(gain > -2.5 - 3.0 && gain < -2.5 + 2.0);
+    }
+
+    @Test
+    public void resetClearsState() {
+        AWeighting weighting = new AWeighting(SAMPLE_RATE);
+        for (int i = 0; i < 100; i++)
+            weighting.filter(10000);
+
+        weighting.reset();
+        assertEquals(0, weighting.filter(0), 0);
+    }
+}
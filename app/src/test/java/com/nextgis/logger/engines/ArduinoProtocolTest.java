@@ -0,0 +1,196 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.engines;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ArduinoProtocolTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * RFCOMM link replaced by pipe: every command written by protocol is
+     * answered with scripted lines as a sketch would do.
+     */
+    private static class FakeDevice extends OutputStream {
+        final PipedOutputStream mLink = new PipedOutputStream();
+        final PipedInputStream mInput;
+        final Map<Character, String> mAnswers = new HashMap<>();
+        final StringBuilder mCommands = new StringBuilder();
+
+        FakeDevice() throws IOException {
+            mInput = new PipedInputStream(mLink, 64 * 1024);
+        }
+
+        void answer(char command, String lines) {
+            mAnswers.put(command, lines);
+        }
+
+        void send(String lines) throws IOException {
+            mLink.write(lines.getBytes(UTF8));
+            mLink.flush();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mCommands.append((char) b);
+            String lines = mAnswers.get((char) b);
+            if (lines != null)
+                send(lines);
+        }
+    }
+
+    private FakeDevice mDevice;
+    private ArduinoProtocol mProtocol;
+
+    /**
+     * Bitwise CRC-8 as in avr-libc _crc8_ccitt_update()
+     */
+    private static String checksum(String line) {
+        int crc = 0;
+        for (byte b : line.getBytes(UTF8)) {
+            crc ^= b & 0xFF;
+            for (int bit = 0; bit < 8; bit++)
+                crc = (crc & 0x80) != 0 ? (crc << 1 ^ 0x07) & 0xFF : crc << 1 & 0xFF;
+        }
+
+        return String.format("%s*%02X\n", line, crc);
+    }
+
+    @Before
+    public void connect() throws IOException {
+        mDevice = new FakeDevice();
+        mProtocol = new ArduinoProtocol(mDevice.mInput, mDevice);
+    }
+
+    @After
+    public void disconnect() throws IOException {
+        mProtocol.close();
+        mDevice.mLink.close();
+    }
+
+    @Test
+    public void requestsHeader() throws IOException {
+        mDevice.answer(ArduinoProtocol.GET_HEADER, "{\"sensors\":[]}\r\n");
+        assertEquals("{\"sensors\":[]}", mProtocol.requestHeader());
+        assertEquals("h", mDevice.mCommands.toString());
+    }
+
+    @Test
+    public void pollsValuesWithoutAck() throws IOException {
+        mDevice.answer(ArduinoProtocol.GET_DATA, "1.5;2;abc\n");
+        assertFalse(mProtocol.startStreaming());
+        assertFalse(mProtocol.isStreaming());
+
+        ArduinoProtocol.Frame frame = mProtocol.readFrame();
+        assertNotNull(frame);
+        assertEquals(-1, frame.getDeviceTime());
+        assertArrayEquals(new String[]{"1.5", "2", "abc"}, frame.getValues());
+        assertEquals("sd", mDevice.mCommands.toString());
+    }
+
+    @Test
+    public void streamsChecksummedFrames() throws IOException {
+        mDevice.answer(ArduinoProtocol.START_STREAM, ArduinoProtocol.STREAM_ACK + "\n");
+        assertTrue(mProtocol.startStreaming());
+
+        mDevice.send(checksum("100;1;2") + checksum("150;3;4"));
+        ArduinoProtocol.Frame frame = mProtocol.readFrame();
+        assertEquals(100, frame.getDeviceTime());
+        assertArrayEquals(new String[]{"1", "2"}, frame.getValues());
+
+        frame = mProtocol.readFrame();
+        assertEquals(150, frame.getDeviceTime());
+        assertArrayEquals(new String[]{"3", "4"}, frame.getValues());
+
+        mProtocol.stopStreaming();
+        assertEquals("sx", mDevice.mCommands.toString());
+    }
+
+    @Test
+    public void skipsCorruptedFramesInStream() throws IOException {
+        mDevice.answer(ArduinoProtocol.START_STREAM, ArduinoProtocol.STREAM_ACK + "\n");
+        assertTrue(mProtocol.startStreaming());
+
+        String good = checksum("200;5");
+        String corrupted = good.replace("200;5", "200;6");
+        mDevice.send(corrupted + "300;7\n" + good);
+
+        ArduinoProtocol.Frame frame = mProtocol.readFrame();
+        assertEquals(200, frame.getDeviceTime());
+        assertArrayEquals(new String[]{"5"}, frame.getValues());
+        assertEquals(2, mProtocol.getReader().getMalformedCount());
+        assertEquals(2, mProtocol.getReader().getFramesCount()); // ack and good frame
+    }
+
+    @Test
+    public void computesStandardCrc8() {
+        byte[] check = "123456789".getBytes(UTF8);
+        assertEquals(0xF4, FrameReader.crc8(check, check.length));
+    }
+
+    @Test
+    public void rejectsSwappedBytesPassingXor() throws IOException {
+        mDevice.answer(ArduinoProtocol.START_STREAM, ArduinoProtocol.STREAM_ACK + "\n");
+        assertTrue(mProtocol.startStreaming());
+
+        String good = checksum("500;12;21");
+        mDevice.send(good.replace("12;21", "21;12") + good);
+        assertArrayEquals(new String[]{"12", "21"}, mProtocol.readFrame().getValues());
+        assertEquals(1, mProtocol.getReader().getMalformedCount());
+    }
+
+    @Test
+    public void keepsLinesSplitAcrossPackets() throws IOException {
+        mDevice.answer(ArduinoProtocol.START_STREAM, ArduinoProtocol.STREAM_ACK + "\n");
+        assertTrue(mProtocol.startStreaming());
+
+        String line = checksum("400;8;9");
+        mDevice.send(line.substring(0, 3));
+        mDevice.send(line.substring(3));
+        assertArrayEquals(new String[]{"8", "9"}, mProtocol.readFrame().getValues());
+    }
+
+    @Test
+    public void returnsNullWhenDeviceIsSilent() throws IOException {
+        assertNull(mProtocol.readFrame());
+    }
+}
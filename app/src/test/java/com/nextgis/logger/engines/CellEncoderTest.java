@@ -0,0 +1,85 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.engines;
+
+import com.nextgis.logger.util.LoggerConstants;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CellEncoderTest {
+    private static InfoItem getCell(String type, int lac, int cid, int psc) {
+        InfoItem item = new InfoItem("cell");
+        String[] columns = {LoggerConstants.HEADER_GEN, LoggerConstants.HEADER_TYPE, LoggerConstants.HEADER_MCC, LoggerConstants.HEADER_MNC,
+                            LoggerConstants.HEADER_LAC, LoggerConstants.HEADER_CID, LoggerConstants.HEADER_PSC};
+        for (String column : columns)
+            item.addColumn(column, null, null);
+
+        item.setValue(LoggerConstants.HEADER_GEN, "4G");
+        item.setValue(LoggerConstants.HEADER_TYPE, type);
+        item.setValue(LoggerConstants.HEADER_MCC, 250);
+        item.setValue(LoggerConstants.HEADER_MNC, 1);
+        item.setValue(LoggerConstants.HEADER_LAC, lac);
+        item.setValue(LoggerConstants.HEADER_CID, cid);
+        item.setValue(LoggerConstants.HEADER_PSC, psc);
+        return item;
+    }
+
+    @Test
+    public void sameSlotsAreEqual() {
+        CellEncoder.Identity first = new CellEncoder.Identity().set(getCell("LTE", 7700, 123456789, 301));
+        CellEncoder.Identity second = new CellEncoder.Identity().set(getCell("LTE", 7700, 123456789, 301));
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+    }
+
+    @Test
+    public void anySlotMakesDifference() {
+        CellEncoder.Identity cell = new CellEncoder.Identity().set(getCell("LTE", 7700, 123456789, 301));
+        assertFalse(cell.equals(new CellEncoder.Identity().set(getCell("HSPA", 7700, 123456789, 301))));
+        assertFalse(cell.equals(new CellEncoder.Identity().set(getCell("LTE", 7701, 123456789, 301))));
+        assertFalse(cell.equals(new CellEncoder.Identity().set(getCell("LTE", 7700, 123456788, 301))));
+        assertFalse(cell.equals(new CellEncoder.Identity().set(getCell("LTE", 7700, 123456789, 300))));
+    }
+
+    @Test
+    public void copyKeepsIdentityWhenProbeIsReused() {
+        CellEncoder.Identity probe = new CellEncoder.Identity().set(getCell("LTE", 7700, 1, 301));
+        CellEncoder.Identity stored = new CellEncoder.Identity(probe);
+        probe.set(getCell("LTE", 7700, 2, 301));
+        assertFalse(stored.equals(probe));
+        assertTrue(stored.equals(new CellEncoder.Identity().set(getCell("LTE", 7700, 1, 301))));
+    }
+
+    @Test
+    public void missingValueDiffersFromNumber() {
+        InfoItem missing = getCell("LTE", 7700, 1, 301);
+        missing.clearValue(missing.indexOf(LoggerConstants.HEADER_PSC));
+        assertFalse(new CellEncoder.Identity().set(missing).equals(new CellEncoder.Identity().set(getCell("LTE", 7700, 1, 301))));
+    }
+}
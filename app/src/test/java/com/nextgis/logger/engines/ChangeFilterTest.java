@@ -0,0 +1,170 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.engines;
+
+import com.nextgis.logger.util.LoggerConstants;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeFilterTest {
+    private static final List<InfoItem> NONE = Collections.emptyList();
+
+    private ChangeFilter mFilter;
+    private InfoItem mGps, mAccelerometer, mCell;
+
+    private static InfoItem getCell(int cid, int power) {
+        InfoItem item = new InfoItem("cell");
+        String[] columns = {LoggerConstants.HEADER_GEN, LoggerConstants.HEADER_TYPE, LoggerConstants.HEADER_MCC, LoggerConstants.HEADER_MNC,
+                            LoggerConstants.HEADER_LAC, LoggerConstants.HEADER_CID, LoggerConstants.HEADER_PSC, LoggerConstants.HEADER_POWER};
+        for (String column : columns)
+            item.addColumn(column, null, null);
+
+        item.setValue(LoggerConstants.HEADER_GEN, "4G");
+        item.setValue(LoggerConstants.HEADER_TYPE, "LTE");
+        item.setValue(LoggerConstants.HEADER_MCC, 250);
+        item.setValue(LoggerConstants.HEADER_MNC, 1);
+        item.setValue(LoggerConstants.HEADER_LAC, 7700);
+        item.setValue(LoggerConstants.HEADER_CID, cid);
+        item.setValue(LoggerConstants.HEADER_PSC, 301);
+        item.setValue(LoggerConstants.HEADER_POWER, power);
+        return item;
+    }
+
+    private static void setLocation(InfoItem gps, double lat, double lon) {
+        gps.setValue(LoggerConstants.HEADER_GPS_LAT, lat);
+        gps.setValue(LoggerConstants.HEADER_GPS_LON, lon);
+    }
+
+    @Before
+    public void setUp() {
+        mFilter = new ChangeFilter(10, 3, 1, 60000);
+        mGps = new InfoItem("GPS").addColumn(LoggerConstants.HEADER_GPS_LAT, null, null)
+                                  .addColumn(LoggerConstants.HEADER_GPS_LON, null, null)
+                                  .addColumn(LoggerConstants.HEADER_GPS_SP, null, null);
+        setLocation(mGps, 55.75, 37.62);
+        mGps.setValue(LoggerConstants.HEADER_GPS_SP, 0f);
+        mAccelerometer = new InfoItem("Accelerometer").addColumn(LoggerConstants.HEADER_ACC_X, null, null)
+                                                      .addColumn(LoggerConstants.HEADER_ACC_Y, null, null)
+                                                      .addColumn(LoggerConstants.HEADER_ACC_Z, null, null);
+        mAccelerometer.setValue(0, 0f);
+        mAccelerometer.setValue(1, 0f);
+        mAccelerometer.setValue(2, 9.8f);
+        mCell = getCell(1, -80);
+    }
+
+    private boolean accept(long time) {
+        return mFilter.accept(time, Collections.singletonList(mCell), Arrays.asList(mGps, mAccelerometer), NONE);
+    }
+
+    @Test
+    public void firstTickIsStoredAndSameIsSuppressed() {
+        assertTrue(accept(0));
+        assertFalse(accept(1000));
+        assertEquals(1, mFilter.getStoredCount());
+        assertEquals(1, mFilter.getSuppressedCount());
+        assertEquals(0.5f, mFilter.getSuppressionRatio(), 0);
+    }
+
+    @Test
+    public void itemChangedInPlaceIsCompared() {
+        List<InfoItem> sensors = new ArrayList<>(Arrays.asList(mGps, mAccelerometer));
+        List<InfoItem> cells = Collections.singletonList(mCell);
+        assertTrue(mFilter.accept(0, cells, sensors, NONE));
+
+        mAccelerometer.setValue(2, 9.9f);
+        assertFalse(mFilter.accept(1000, cells, sensors, NONE));
+
+        mAccelerometer.setValue(2, 11f);
+        assertTrue(mFilter.accept(2000, cells, sensors, NONE));
+        assertFalse(mFilter.accept(3000, cells, sensors, NONE));
+    }
+
+    @Test
+    public void sensorChangeIsComparedWithLastStored() {
+        assertTrue(accept(0));
+        mAccelerometer.setValue(2, 10.3f);
+        assertFalse(accept(1000));
+        mAccelerometer.setValue(2, 10.9f); // small steps add up
+        assertTrue(accept(2000));
+    }
+
+    @Test
+    public void gpsItemIsComparedByDistance() {
+        assertTrue(accept(0));
+        mGps.setValue(LoggerConstants.HEADER_GPS_SP, 5f);
+        setLocation(mGps, 55.75005, 37.62);
+        assertFalse(accept(1000));
+        setLocation(mGps, 55.7502, 37.62);
+        assertTrue(accept(2000));
+    }
+
+    @Test
+    public void lostFixIsStored() {
+        assertTrue(accept(0));
+        setLocation(mGps, Double.NaN, Double.NaN);
+        assertTrue(accept(1000));
+        assertFalse(accept(2000));
+    }
+
+    @Test
+    public void cellSignalAndSetChangesAreStored() {
+        assertTrue(accept(0));
+        mCell = getCell(1, -82);
+        assertFalse(accept(1000));
+        mCell = getCell(1, -83);
+        assertTrue(accept(2000));
+        mCell = getCell(2, -83);
+        assertTrue(accept(3000));
+    }
+
+    @Test
+    public void itemsSetChangeIsStored() {
+        assertTrue(accept(0));
+        assertTrue(mFilter.accept(1000, Collections.singletonList(mCell), Collections.singletonList(mGps), NONE));
+        assertTrue(mFilter.accept(2000, Collections.singletonList(mCell), Collections.singletonList(mGps),
+                                  Collections.singletonList(mAccelerometer)));
+        mAccelerometer.setTitle("Arduino");
+        assertTrue(mFilter.accept(3000, Collections.singletonList(mCell), Collections.singletonList(mGps),
+                                  Collections.singletonList(mAccelerometer)));
+    }
+
+    @Test
+    public void heartbeatStoresUnchangedTick() {
+        assertTrue(accept(0));
+        assertFalse(accept(59999));
+        assertTrue(accept(60000));
+        assertFalse(accept(60001));
+    }
+}
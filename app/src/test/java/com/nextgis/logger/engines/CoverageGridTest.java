@@ -0,0 +1,193 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.engines;
+
+import android.database.Cursor;
+
+import com.nextgis.logger.util.BatchWriter;
+import com.nextgis.logger.util.LoggerConstants;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CoverageGridTest {
+    private static final double EPSILON = 1e-9;
+
+    /**
+     * Cursor positioned on a single row of {@link CoverageGrid#query} columns
+     */
+    private static Cursor getCursor(final Object... row) {
+        return (Cursor) Proxy.newProxyInstance(Cursor.class.getClassLoader(), new Class[]{Cursor.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                Object value = row[(Integer) args[0]];
+                switch (method.getName()) {
+                    case "getInt":
+                        return ((Number) value).intValue();
+                    case "getLong":
+                        return ((Number) value).longValue();
+                    case "getString":
+                        return String.valueOf(value);
+                    case "getType":
+                        return value instanceof Number ? Cursor.FIELD_TYPE_INTEGER : Cursor.FIELD_TYPE_STRING;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    private static CoverageGrid.Tile getTile(CoverageGrid.Merge merge, int x, int y) {
+        for (CoverageGrid.Tile tile : merge.getTiles())
+            if (tile.x == x && tile.y == y)
+                return tile;
+
+        return null;
+    }
+
+    @Test
+    public void samplesOfTileAndCellAreMerged() {
+        CoverageGrid grid = new CoverageGrid(1);
+        grid.start("session");
+        grid.add(1000, 1000, 7, -80, 10);
+        grid.add(2000, 3000, 7, -70, 20);
+        grid.add(2000, 3000, 8, -90, 30);
+        grid.add(-1000, 1000, 7, -60, 40);
+
+        CoverageGrid.Merge merge = grid.take();
+        assertNotNull(merge);
+        assertEquals(2, merge.getTiles().size());
+
+        CoverageGrid.Tile tile = getTile(merge, 1, 0);
+        assertNotNull(tile);
+        assertEquals(2, tile.size);
+        assertEquals(7, tile.cells[0]);
+        assertEquals(2, tile.counts[0]);
+        assertEquals(-80, tile.mins[0]);
+        assertEquals(-70, tile.maxs[0]);
+        assertEquals(-150, tile.sums[0]);
+        assertEquals(-70, tile.lasts[0]);
+        assertEquals(20, tile.times[0]);
+        assertEquals(8, tile.cells[1]);
+        assertEquals(1, tile.counts[1]);
+
+        tile = getTile(merge, 0, 0);
+        assertNotNull(tile);
+        assertEquals(1, tile.size);
+        assertEquals(-60, tile.lasts[0]);
+    }
+
+    @Test
+    public void takeStartsEmptyTiles() {
+        CoverageGrid grid = new CoverageGrid(1);
+        grid.start("session");
+        grid.add(1000, 1000, 7, -80, 10);
+        CoverageGrid.Merge first = grid.take();
+        grid.add(1000, 1000, 7, -60, 20);
+        CoverageGrid.Merge second = grid.take();
+
+        assertEquals(-80, getTile(first, 1, 0).lasts[0]);
+        assertEquals(1, getTile(first, 1, 0).counts[0]);
+        assertEquals(-60, getTile(second, 1, 0).lasts[0]);
+        assertEquals(1, getTile(second, 1, 0).counts[0]);
+        assertNull(grid.take());
+    }
+
+    @Test
+    public void samplesWithoutSessionAreIgnored() {
+        CoverageGrid grid = new CoverageGrid(1);
+        grid.add(1000, 1000, 7, -80, 10);
+        assertNull(grid.take());
+    }
+
+    @Test
+    public void persistWaitsForInterval() {
+        CoverageGrid grid = new CoverageGrid(1);
+        grid.start("session");
+        grid.add(1000, 1000, 7, -80, 10);
+        long now = System.currentTimeMillis();
+
+        BatchWriter.Batch batch = new BatchWriter.Batch();
+        grid.persist(now, batch);
+        assertTrue(batch.isEmpty());
+
+        grid.persist(now + LoggerConstants.COVERAGE_PERSIST_INTERVAL, batch);
+        assertFalse(batch.isEmpty());
+        assertNull(grid.take());
+    }
+
+    @Test
+    public void accuracyIsComparedWithGroundTileSize() {
+        CoverageGrid grid = new CoverageGrid(17);
+        double equator = 2 * 20037508.342789244 / (1 << 17);
+        double y60 = 20037508.342789244 / Math.PI * Math.log(Math.tan(Math.PI / 4 + Math.toRadians(60) / 2));
+
+        assertEquals(equator, grid.getTileSize(0), EPSILON);
+        assertEquals(equator / 2, grid.getTileSize(y60), 1e-6);
+        assertTrue(grid.isAccurate(0, 100));
+        assertTrue(grid.isAccurate(0, 200));
+        assertFalse(grid.isAccurate(y60, 200));
+        assertFalse(grid.isAccurate(0, 400));
+        assertFalse(grid.isAccurate(0, Float.NaN));
+    }
+
+    @Test
+    public void csvRowHasTileCenterAndMean() {
+        Cursor cursor = getCursor(1, 1, 0, "4G", "LTE", 250, 1, 7700, 123456789, 301, 4, -90, -60, -300, -70);
+        String[] row = CoverageGrid.getCsvRow(cursor).split(LoggerConstants.CSV_SEPARATOR);
+        String[] header = CoverageGrid.getHeader().split(LoggerConstants.CSV_SEPARATOR);
+
+        assertEquals(header.length, row.length);
+        assertEquals("1", row[0]);
+        assertEquals(90, Double.parseDouble(row[3]), EPSILON);
+        assertEquals(Math.toDegrees(Math.atan(Math.sinh(Math.PI / 2))), Double.parseDouble(row[4]), EPSILON);
+        assertEquals("LTE", row[6]);
+        assertEquals("123456789", row[10]);
+        assertEquals("4", row[12]);
+        assertEquals("-75.0", row[15]);
+        assertEquals("-70", row[16]);
+    }
+
+    @Test
+    public void featureHasTileBoundsAndCell() {
+        Cursor cursor = getCursor(1, 1, 0, "4G", "LTE", 250, 1, 7700, 123456789, 301, 4, -90, -60, -300, -70);
+        String feature = CoverageGrid.getFeature(cursor);
+
+        assertTrue(feature.contains("[0.0,0.0],[180.0,0.0]"));
+        assertTrue(feature.contains("\"x\":1,\"y\":0"));
+        assertTrue(feature.contains("\"" + LoggerConstants.HEADER_TYPE + "\":\"LTE\""));
+        assertTrue(feature.contains("\"" + LoggerConstants.HEADER_CID + "\":123456789"));
+        assertTrue(feature.contains("\"count\":4,\"min\":-90,\"max\":-60,\"mean\":-75.0,\"last\":-70}"));
+    }
+}
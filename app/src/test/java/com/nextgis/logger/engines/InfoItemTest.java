@@ -0,0 +1,67 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.engines;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class InfoItemTest {
+    private static InfoItem getItem(String title, String unit) {
+        return new InfoItem(title).addColumn("X", null, unit).addColumn("N", null, null).addColumn("S", null, null);
+    }
+
+    @Test
+    public void copyKeepsTitleAndValues() {
+        InfoItem live = getItem("live", "m");
+        live.setValue(0, 1.5f);
+        live.setValue(1, 42);
+
+        InfoItem copy = new InfoItem(live);
+        assertEquals("live", copy.getTitle());
+        assertEquals(1.5, copy.getDouble(0), 0);
+        assertEquals(42, copy.getLong(1));
+        assertFalse(copy.hasValue(2));
+        assertEquals("m", copy.getColumns().get(0).getUnit());
+    }
+
+    @Test
+    public void copyIsNotChangedWithLiveItem() {
+        InfoItem live = getItem("live", "m");
+        live.setValue(0, 1.5f);
+        InfoItem copy = new InfoItem(live);
+
+        live.setValue(0, 2.5f);
+        live.setValue(2, "new");
+        live.setTitle("renamed");
+        live.addColumn("Y", null, null);
+
+        assertEquals("live", copy.getTitle());
+        assertEquals(1.5, copy.getDouble(0), 0);
+        assertFalse(copy.hasValue(2));
+        assertEquals(3, copy.size());
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.engines;
+
+import com.nextgis.logger.util.LoggerConstants;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OctaveSpectrumTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int FRAMES = 4;
+
+    private static int getBand(String band) {
+        return Arrays.asList(OctaveSpectrum.getColumns()).indexOf(LoggerConstants.HEADER_BAND + band);
+    }
+
+    /**
+     * @param tones Pairs of frequency in Hz and amplitude
+     */
+    private static short[] getSignal(int sampleRate, int count, double... tones) {
+        short[] signal = new short[count];
+        for (int i = 0; i < count; i++) {
+            double value = 0;
+            for (int t = 0; t < tones.length; t += 2)
+                value += tones[t + 1] * Math.sin(2 * Math.PI * tones[t] * i / sampleRate);
+
+            signal[i] = (short) Math.round(value);
+        }
+
+        return signal;
+    }
+
+    private static OctaveSpectrum getSpectrum(int thirds, double... tones) {
+        OctaveSpectrum spectrum = new OctaveSpectrum(SAMPLE_RATE, thirds);
+        short[] signal = getSignal(SAMPLE_RATE, 16384 * FRAMES, tones); // frame is 16384 samples at 48 kHz
+        for (int i = 0; i < signal.length; i += 1000) // blocks do not match frames
+            spectrum.add(Arrays.copyOfRange(signal, i, Math.min(signal.length, i + 1000)), Math.min(1000, signal.length - i));
+
+        return spectrum;
+    }
+
+    private static double getTotal(OctaveSpectrum spectrum) {
+        double total = 0;
+        for (int i = 0; i < OctaveSpectrum.getColumns().length - 1; i++)
+            if (spectrum.hasBand(i))
+                total += spectrum.getMeanSquare(i);
+
+        return total;
+    }
+
+    @Test
+    public void toneIsInItsBand() {
+        OctaveSpectrum spectrum = getSpectrum(3, 1000, 10000);
+        int band = getBand("1000");
+        double power = spectrum.getMeanSquare(band);
+
+        assertEquals(10000.0 * 10000 / 2, power, power * 0.01);
+        assertTrue(spectrum.getMeanSquare(getBand("800")) < power * 1e-3);
+        assertTrue(spectrum.getMeanSquare(getBand("1250")) < power * 1e-3);
+        assertTrue(spectrum.getMeanSquare(getBand("250")) < power * 1e-6);
+    }
+
+    @Test
+    public void octaveBandsSkipThirds() {
+        OctaveSpectrum spectrum = getSpectrum(1, 900, 10000);
+        assertTrue(spectrum.hasBand(getBand("1000")));
+        assertFalse(spectrum.hasBand(getBand("800")));
+        assertFalse(spectrum.hasBand(getBand("1250")));
+        assertEquals(10000.0 * 10000 / 2, spectrum.getMeanSquare(getBand("1000")), 10000.0 * 10000 / 2 * 0.01);
+    }
+
+    @Test
+    public void bandsKeepMeanSquareOfSignal() {
+        OctaveSpectrum spectrum = getSpectrum(3, 125, 1000, 2000, 3000, 8000, 2000);
+        double meanSquare = (1000.0 * 1000 + 3000.0 * 3000 + 2000.0 * 2000) / 2;
+        assertEquals(meanSquare, getTotal(spectrum), meanSquare * 0.01);
+    }
+
+    @Test
+    public void bandsAboveNyquistAreNotMeasured() {
+        OctaveSpectrum spectrum = new OctaveSpectrum(8000, 3);
+        short[] signal = getSignal(8000, 8000, 1000, 10000);
+        spectrum.add(signal, signal.length);
+
+        assertTrue(spectrum.hasBand(getBand("3150")));
+        assertFalse(spectrum.hasBand(getBand("4000")));
+        assertFalse(spectrum.hasBand(getBand("20000")));
+        assertTrue(Double.isNaN(spectrum.getMeanSquare(getBand("4000"))));
+        assertFalse(Double.isNaN(spectrum.getMeanSquare(getBand("3150"))));
+        assertTrue(new OctaveSpectrum(SAMPLE_RATE, 3).hasBand(getBand("20000")));
+    }
+
+    @Test
+    public void resetDropsFrames() {
+        OctaveSpectrum spectrum = getSpectrum(3, 1000, 10000);
+        spectrum.reset();
+        assertTrue(Double.isNaN(spectrum.getMeanSquare(getBand("1000"))));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+package com.nextgis.logger.util;
+
+import com.nextgis.logger.LoggerApplication;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExternalSchemaTest {
+    private static final String MAC = "00:11:22:33:44:55";
+
+    private static ExternalSchema getSchema(String... shortNames) {
+        String[] titles = new String[shortNames.length], units = new String[shortNames.length];
+        for (int i = 0; i < shortNames.length; i++) {
+            titles[i] = "Sensor " + shortNames[i];
+            units[i] = "u";
+        }
+
+        return new ExternalSchema(MAC, titles, shortNames, units);
+    }
+
+    @Test
+    public void columnsAreSanitized() {
+        ExternalSchema schema = getSchema("Temp", "CO2 ppm", "1st");
+
+        assertArrayEquals(new String[]{"temp", "co2_ppm", "s_1st"}, schema.getColumns());
+        assertTrue(schema.getTable().startsWith(ExternalSchema.TABLE_PREFIX));
+    }
+
+    @Test
+    public void reservedColumnsAreNotReused() {
+        ExternalSchema schema = getSchema(LoggerApplication.FIELD_MARK, ExternalSchema.FIELD_TIME, ExternalSchema.FIELD_DEVICE_TIME, "t");
+        String[] columns = schema.getColumns();
+
+        assertEquals(4, columns.length);
+        assertFalse(Arrays.asList(columns).contains(LoggerApplication.FIELD_MARK));
+        assertFalse(Arrays.asList(columns).contains(ExternalSchema.FIELD_TIME));
+        assertFalse(Arrays.asList(columns).contains(ExternalSchema.FIELD_DEVICE_TIME));
+    }
+
+    @Test
+    public void headerChangeGetsOtherTable() {
+        assertEquals(getSchema("t", "h").getTable(), getSchema("t", "h").getTable());
+        assertNotEquals(getSchema("t", "h").getTable(), getSchema("t", "p").getTable());
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.util;
+
+import com.nextgis.maplib.api.IGeometryCacheItem;
+import com.nextgis.maplib.datasource.GeoEnvelope;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GeometryQuadTreeTest {
+    private static final double CITY_X = 4187000, CITY_Y = 7508000; // Moscow in Web Mercator
+    private static final int QUERIES = 200;
+
+    /**
+     * Marks along tracks within 50 km of city, a few of them anywhere in the world
+     */
+    private static List<GeoEnvelope> getEnvelopes(int count, double size, long seed) {
+        Random random = new Random(seed);
+        List<GeoEnvelope> result = new ArrayList<>(count);
+        double x = CITY_X, y = CITY_Y;
+        for (int i = 0; i < count; i++) {
+            if (i % 1000 == 0) { // next track
+                x = CITY_X + (random.nextDouble() - 0.5) * 100000;
+                y = CITY_Y + (random.nextDouble() - 0.5) * 100000;
+            }
+
+            x += (random.nextDouble() - 0.5) * 20;
+            y += (random.nextDouble() - 0.5) * 20;
+            double pointX = x, pointY = y;
+            if (i % 997 == 0) {
+                pointX = (random.nextDouble() * 2 - 1) * 20037508;
+                pointY = (random.nextDouble() * 2 - 1) * 20037508;
+            }
+
+            double width = random.nextDouble() * size, height = random.nextDouble() * size;
+            result.add(new GeoEnvelope(pointX, pointX + width, pointY, pointY + height));
+        }
+
+        return result;
+    }
+
+    private static GeometryQuadTree getTree(List<GeoEnvelope> envelopes) {
+        GeometryQuadTree tree = new GeometryQuadTree();
+        for (int i = 0; i < envelopes.size(); i++)
+            tree.addItem(i, envelopes.get(i));
+
+        return tree;
+    }
+
+    private static Set<Long> scan(List<GeoEnvelope> envelopes, GeoEnvelope extent) {
+        Set<Long> result = new HashSet<>();
+        for (int i = 0; i < envelopes.size(); i++) {
+            GeoEnvelope envelope = envelopes.get(i);
+            if (envelope.getMinX() <= extent.getMaxX() && envelope.getMaxX() >= extent.getMinX() && envelope.getMinY() <= extent.getMaxY() &&
+                    envelope.getMaxY() >= extent.getMinY())
+                result.add((long) i);
+        }
+
+        return result;
+    }
+
+    private static Set<Long> search(GeometryQuadTree tree, GeoEnvelope extent) {
+        List<IGeometryCacheItem> items = tree.search(extent);
+        Set<Long> result = new HashSet<>();
+        for (IGeometryCacheItem item : items)
+            assertTrue("Item is found twice", result.add(item.getFeatureId()));
+
+        return result;
+    }
+
+    /**
+     * Screen sized extents from street to whole world
+     */
+    private static void assertSameAsScan(GeometryQuadTree tree, List<GeoEnvelope> envelopes, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < QUERIES; i++) {
+            double size = Math.pow(10, 2 + random.nextDouble() * 6);
+            double x = CITY_X + (random.nextDouble() - 0.5) * 120000, y = CITY_Y + (random.nextDouble() - 0.5) * 120000;
+            GeoEnvelope extent = new GeoEnvelope(x - size, x + size, y - size, y + size);
+            assertEquals("Extent " + size + " m", scan(envelopes, extent), search(tree, extent));
+        }
+    }
+
+    @Test
+    public void pointsMatchScanAt10k() {
+        List<GeoEnvelope> points = getEnvelopes(10000, 0, 1);
+        assertSameAsScan(getTree(points), points, 2);
+    }
+
+    @Test
+    public void pointsMatchScanAt100k() {
+        List<GeoEnvelope> points = getEnvelopes(100000, 0, 3);
+        assertSameAsScan(getTree(points), points, 4);
+    }
+
+    @Test
+    public void envelopesCrossingNodesMatchScan() {
+        List<GeoEnvelope> envelopes = getEnvelopes(20000, 5000, 5);
+        assertSameAsScan(getTree(envelopes), envelopes, 6);
+    }
+
+    @Test
+    public void loadedTreeMatchesScan() throws IOException {
+        List<GeoEnvelope> envelopes = getEnvelopes(50000, 100, 7);
+        File file = File.createTempFile("quadtree", ".bin");
+        try {
+            getTree(envelopes).save(file);
+            GeometryQuadTree tree = new GeometryQuadTree();
+            tree.load(file);
+            assertFalse(tree.isStale());
+            assertEquals(envelopes.size(), tree.size());
+            assertSameAsScan(tree, envelopes, 8);
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void removedAndMovedItemsMatchScan() {
+        List<GeoEnvelope> envelopes = getEnvelopes(20000, 0, 9);
+        GeometryQuadTree tree = getTree(envelopes);
+        Random random = new Random(10);
+        for (int i = 0; i < envelopes.size(); i += 3) {
+            tree.removeItem(i);
+            envelopes.set(i, new GeoEnvelope(1e9, 1e9, 1e9, 1e9)); // scan never finds it
+        }
+
+        for (int i = 1; i < envelopes.size(); i += 3) {
+            double x = CITY_X + (random.nextDouble() - 0.5) * 100000, y = CITY_Y + (random.nextDouble() - 0.5) * 100000;
+            GeoEnvelope moved = new GeoEnvelope(x, x, y, y);
+            envelopes.set(i, moved);
+            tree.addItem(i, moved);
+        }
+
+        assertSameAsScan(tree, envelopes, 11);
+    }
+}
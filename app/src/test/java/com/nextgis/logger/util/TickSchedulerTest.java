@@ -0,0 +1,151 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TickSchedulerTest {
+    /**
+     * Clock which moves only when scheduler sleeps or test adds work time
+     */
+    private static class FakeClock implements TickScheduler.Clock {
+        long mNow;
+
+        FakeClock(long now) {
+            mNow = now;
+        }
+
+        @Override
+        public long now() {
+            return mNow;
+        }
+
+        @Override
+        public void sleep(long millis) {
+            mNow += millis;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroPeriod() {
+        new TickScheduler(new FakeClock(0), 0, TickScheduler.Policy.SKIP);
+    }
+
+    @Test
+    public void firstTickFiresImmediately() throws InterruptedException {
+        FakeClock clock = new FakeClock(5000);
+        TickScheduler scheduler = new TickScheduler(clock, 1000, TickScheduler.Policy.SKIP);
+
+        assertEquals(5000, scheduler.awaitTick());
+        assertEquals(5000, clock.now());
+        assertEquals(0, scheduler.getLastJitter());
+    }
+
+    @Test
+    public void ticksDoNotDriftWithWorkTime() throws InterruptedException {
+        FakeClock clock = new FakeClock(0);
+        TickScheduler scheduler = new TickScheduler(clock, 1000, TickScheduler.Policy.SKIP);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i * 1000, scheduler.awaitTick());
+            clock.mNow += 300; // tick work
+        }
+
+        assertEquals(10, scheduler.getTicksCount());
+        assertEquals(0, scheduler.getOverrunsCount());
+        assertEquals(0, scheduler.getMaxJitter());
+    }
+
+    @Test
+    public void lateTickFiresAtOnce() throws InterruptedException {
+        FakeClock clock = new FakeClock(0);
+        TickScheduler scheduler = new TickScheduler(clock, 1000, TickScheduler.Policy.SKIP);
+
+        scheduler.awaitTick();
+        clock.mNow += 1200;
+
+        assertEquals(1200, scheduler.awaitTick());
+        assertEquals(1000, scheduler.getLastDeadline());
+        assertEquals(200, scheduler.getLastJitter());
+        assertEquals(0, scheduler.getOverrunsCount());
+        assertEquals(2000, scheduler.awaitTick());
+    }
+
+    @Test
+    public void catchUpFiresOneTickForMissedDeadlines() throws InterruptedException {
+        FakeClock clock = new FakeClock(0);
+        TickScheduler scheduler = new TickScheduler(clock, 1000, TickScheduler.Policy.CATCH_UP);
+
+        assertEquals(0, scheduler.awaitTick());
+        clock.mNow += 3500; // long tick
+
+        assertEquals(3500, scheduler.awaitTick()); // no sleeping, actual time
+        assertEquals(3000, scheduler.getLastDeadline());
+        assertEquals(500, scheduler.getLastJitter());
+        assertEquals(1, scheduler.getOverrunsCount());
+        assertEquals(2, scheduler.getSkippedCount());
+        assertEquals(4000, scheduler.awaitTick());
+        assertEquals(4000, scheduler.getLastDeadline());
+        assertEquals(3, scheduler.getTicksCount());
+    }
+
+    @Test
+    public void skipWaitsForNextDeadline() throws InterruptedException {
+        FakeClock clock = new FakeClock(0);
+        TickScheduler scheduler = new TickScheduler(clock, 1000, TickScheduler.Policy.SKIP);
+
+        assertEquals(0, scheduler.awaitTick());
+        clock.mNow += 3500;
+
+        assertEquals(4000, scheduler.awaitTick());
+        assertEquals(4000, scheduler.getLastDeadline());
+        assertEquals(0, scheduler.getLastJitter());
+        assertEquals(1, scheduler.getOverrunsCount());
+        assertEquals(3, scheduler.getSkippedCount());
+        assertEquals(5000, scheduler.awaitTick());
+        assertEquals(5000, clock.now());
+    }
+
+    @Test
+    public void jitterIsDelayAfterDeadline() throws InterruptedException {
+        FakeClock clock = new FakeClock(0) {
+            @Override
+            public void sleep(long millis) {
+                mNow += millis + 7; // late wake up
+            }
+        };
+        TickScheduler scheduler = new TickScheduler(clock, 100, TickScheduler.Policy.SKIP);
+
+        scheduler.awaitTick();
+        assertEquals(107, scheduler.awaitTick()); // actual time of the tick
+        assertEquals(100, scheduler.getLastDeadline());
+        assertEquals(7, scheduler.getLastJitter());
+        assertEquals(207, scheduler.awaitTick());
+        assertEquals(7, scheduler.getMaxJitter());
+        assertEquals(4, scheduler.getAverageJitter()); // (0 + 7 + 7) / 3
+    }
+}
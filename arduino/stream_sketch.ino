@@ -0,0 +1,90 @@
+// Arduino Uno, streaming frames to NextGIS Logger
+// Logger polls sketches which do not answer 's' (see sample_sketch.ino)
+
+#include <SoftwareSerial.h>
+#include <util/crc16.h>
+#include <DHT.h>
+
+// DHT22 at pin 12
+#define DHTPIN 12
+DHT dht(DHTPIN, DHT22);
+
+// Bluetooth at TX = 10, RX = 11
+SoftwareSerial bt(10, 11);
+
+// order, short and full name, unit of all sensors in json
+String pnp = "{\"0\":{\"short\":\"Temp\",\"full\":\"Temperature\",\"unit\":\"°C\"},\"1\":{\"short\":\"Hum\",\"full\":\"Humidity\",\"unit\":\"%\"}}";
+
+// DHT22 can not be read more often than once per 2 s, use your sensor's rate
+#define FRAME_INTERVAL 2000
+
+bool streaming = false;
+unsigned long last = 0;
+
+void sendFrame(bool withTime) {
+  float h = dht.readHumidity();
+  float t = dht.readTemperature();
+  String frame = "";
+
+  // device time in ms goes first in stream mode
+  if (withTime) {
+    frame += String(millis()) + ";";
+  }
+
+  frame += String(t, 0) + ";" + String(h, 0);
+
+  if (!withTime) {
+    bt.println(frame);
+    return;
+  }
+
+  // stream mode frames end with *XX, CRC-8 of all frame chars as hex
+  byte sum = 0;
+  for (unsigned int i = 0; i < frame.length(); i++) {
+    sum = _crc8_ccitt_update(sum, frame[i]);
+  }
+
+  bt.print(frame); bt.print('*');
+  if (sum < 16) {
+    bt.print('0');
+  }
+  bt.println(sum, HEX);
+}
+
+void setup() {
+  bt.begin(9600);
+  dht.begin();
+}
+
+void loop() {
+  if (bt.available()) {
+    int val = bt.read();
+
+    // get json
+    if (val == 'h' || val == 'H') {
+      streaming = false;
+      bt.println(pnp);
+    }
+
+    // get data, poll mode
+    if (val == 'd' || val == 'D') {
+      sendFrame(false);
+    }
+
+    // start streaming
+    if (val == 's' || val == 'S') {
+      bt.println("STREAM");
+      streaming = true;
+    }
+
+    // stop streaming
+    if (val == 'x' || val == 'X') {
+      streaming = false;
+    }
+  }
+
+  if (streaming && millis() - last >= FRAME_INTERVAL) {
+    last = millis();
+    sendFrame(true);
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.engines;
+
+import com.nextgis.logger.util.LoggerConstants;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.util.GeoConstants;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mark geometry of a tick: lookup of GPS item in snapshot, projection and serialization
+ * of a new maplib point (as before fix caching) vs blob of fix prepared once per location.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GpsFixBenchmark {
+    private List<InfoItem> mSensors;
+    private InfoItem mGPSItem;
+    private volatile byte[] mFixBlob; // GPSEngine.Fix is published through volatile field
+
+    @Setup
+    public void setup() throws IOException {
+        // same items as SensorEngine snapshot, GPS goes after motion sensors
+        mSensors = new ArrayList<>();
+        String[] titles = {"Accelerometer", "Linear acceleration", "Orientation", "Gyroscope", "Magnetometer"};
+        for (String title : titles) {
+            InfoItem item = new InfoItem(title);
+            item.addColumn("TS", "Timestamp", null).addColumn("ACC", "Accuracy", null);
+            for (String key : new String[]{"X", "Y", "Z"})
+                item.addColumn(key, key, null, "%.2f").setValue(key, 1.5f);
+
+            mSensors.add(item);
+        }
+
+        InfoItem gps = new InfoItem("GPS");
+        gps.addColumn(LoggerConstants.HEADER_GPS_LAT, "Latitude", "°", "%.6f")
+           .addColumn(LoggerConstants.HEADER_GPS_LON, "Longitude", "°", "%.6f")
+           .addColumn(LoggerConstants.HEADER_GPS_ALT, "Elevation", "m", "%.2f")
+           .addColumn(LoggerConstants.HEADER_GPS_ACC, "Accuracy", "m", "%.2f")
+           .addColumn(LoggerConstants.HEADER_GPS_SP, "Speed", "km/h")
+           .addColumn(LoggerConstants.HEADER_GPS_BE, "Bearing", "°")
+           .addColumn(LoggerConstants.HEADER_GPS_SAT, "Satellites", null)
+           .addColumn(LoggerConstants.HEADER_GPS_TIME, "Time", null);
+        gps.setValue(LoggerConstants.HEADER_GPS_LAT, 55.751244);
+        gps.setValue(LoggerConstants.HEADER_GPS_LON, 37.618423);
+        mSensors.add(gps);
+        mGPSItem = gps;
+
+        mFixBlob = projectedBlob();
+    }
+
+    private static byte[] toBlob(double lat, double lon) throws IOException {
+        GeoPoint point = new GeoPoint(lon, lat);
+        point.setCRS(GeoConstants.CRS_WGS84);
+        point.project(GeoConstants.CRS_WEB_MERCATOR);
+        return point.toBlob();
+    }
+
+    /**
+     * Path of every tick before fix caching, see GPSEngine.getFix(List) in history
+     */
+    @Benchmark
+    public byte[] projectedBlob() throws IOException {
+        double x = 0, y = 0;
+        for (InfoItem item : mSensors) {
+            int lat = item.indexOf(LoggerConstants.HEADER_GPS_LAT);
+            if (lat >= 0) {
+                int lon = item.indexOf(LoggerConstants.HEADER_GPS_LON);
+                if (item.isNumeric(lat))
+                    y = item.getDouble(lat);
+                if (item.isNumeric(lon))
+                    x = item.getDouble(lon);
+                break;
+            }
+        }
+
+        return toBlob(y, x);
+    }
+
+    /**
+     * Work done once per location by GPSEngine.Fix constructor
+     */
+    @Benchmark
+    public Object buildFix() throws IOException {
+        return new Object[]{toBlob(55.751244, 37.618423), new InfoItem(mGPSItem)};
+    }
+
+    /**
+     * Path of every tick with fix caching
+     */
+    @Benchmark
+    public byte[] cachedBlob() {
+        return mFixBlob;
+    }
+}
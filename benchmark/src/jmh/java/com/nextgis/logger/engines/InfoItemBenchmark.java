@@ -0,0 +1,154 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.engines;
+
+import com.nextgis.logger.util.LoggerConstants;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sensor event path: slot storage vs lookup by column name with boxed values.
+ * The latter is measured on {@link LegacyItem}, a copy of storage used before slots.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InfoItemBenchmark {
+    private static final String[] KEYS = {"X", "Y", "Z"};
+
+    private InfoItem mItem;
+    private LegacyItem mLegacy;
+    private float[] mValues;
+
+    /**
+     * InfoItem before slots: columns are found by name in a list, values are boxed
+     */
+    private static final class LegacyItem {
+        private final ArrayList<LegacyColumn> mColumns = new ArrayList<>();
+
+        LegacyItem addColumn(String shortName) {
+            mColumns.add(new LegacyColumn(shortName));
+            return this;
+        }
+
+        LegacyColumn getColumn(String key) {
+            for (LegacyColumn column : mColumns)
+                if (column.mShortName.equals(key))
+                    return column;
+
+            return null;
+        }
+
+        void setValue(String key, Object value) {
+            for (LegacyColumn column : mColumns)
+                if (column.mShortName.equals(key)) {
+                    column.setValue(value);
+                    break;
+                }
+        }
+    }
+
+    private static final class LegacyColumn {
+        private final String mShortName;
+        private Object mValue = LoggerConstants.NO_DATA;
+
+        LegacyColumn(String shortName) {
+            mShortName = shortName;
+        }
+
+        void setValue(Object value) {
+            if (!(value instanceof String || value instanceof Double || value instanceof Float
+                    || value instanceof Integer || value instanceof Long || value instanceof Boolean))
+                throw new RuntimeException("Value must be following classes: [String, Double, Float, Integer, Long, Boolean]!");
+
+            mValue = value;
+        }
+
+        Object getValue() {
+            return mValue;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        // same columns as accelerometer item of SensorEngine
+        mItem = new InfoItem("Accelerometer");
+        mItem.addColumn("TS", "Timestamp", null).addColumn("ACC", "Accuracy", null);
+        for (String key : KEYS)
+            mItem.addColumn(key, key, "m/s²", "%.2f");
+
+        mValues = new float[]{0.12f, 9.81f, -0.34f};
+
+        mLegacy = new LegacyItem().addColumn("TS").addColumn("ACC");
+        for (String key : KEYS)
+            mLegacy.addColumn(key);
+    }
+
+    @Benchmark
+    public InfoItem setSlots() {
+        mItem.setValue(2, mValues[0]);
+        mItem.setValue(3, mValues[1]);
+        mItem.setValue(4, mValues[2]);
+        return mItem;
+    }
+
+    @Benchmark
+    public Object setKeysBoxed() {
+        for (int i = 0; i < KEYS.length; i++)
+            mLegacy.setValue(KEYS[i], mValues[i]);
+
+        return mLegacy;
+    }
+
+    @Benchmark
+    public void readSlots(Blackhole bh) {
+        setSlots();
+        for (int slot = 2; slot < 5; slot++)
+            bh.consume(mItem.getDouble(slot));
+    }
+
+    @Benchmark
+    public void readBoxedStrings(Blackhole bh) {
+        setKeysBoxed();
+        for (String key : KEYS) // as saveData did
+            bh.consume(mLegacy.getColumn(key).getValue() + "");
+    }
+
+    @Benchmark
+    public InfoItem copy() {
+        setSlots();
+        return new InfoItem(mItem);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.util;
+
+import com.nextgis.maplib.api.IGeometryCacheItem;
+import com.nextgis.maplib.datasource.GeoEnvelope;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bbox search of marks: quadtree vs brute-force scan over plain arrays of envelopes.
+ * Extents are a street (1 km) and a city (20 km) around random track points.
+ * Setup checks that both return the same count for every extent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeometryQuadTreeBenchmark {
+    private static final double CITY_X = 4187000, CITY_Y = 7508000; // Moscow in Web Mercator
+    private static final int EXTENTS = 256;
+
+    @Param({"10000", "100000", "1000000"})
+    public int points;
+
+    @Param({"1000", "20000"})
+    public double extent;
+
+    private GeometryQuadTree mTree;
+    private double[] mMinX, mMinY, mMaxX, mMaxY;
+    private GeoEnvelope[] mExtents;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        mTree = new GeometryQuadTree();
+        mMinX = new double[points];
+        mMinY = new double[points];
+        mMaxX = new double[points];
+        mMaxY = new double[points];
+
+        // marks along tracks of 1000 ticks within 50 km of city
+        double x = CITY_X, y = CITY_Y;
+        for (int i = 0; i < points; i++) {
+            if (i % 1000 == 0) {
+                x = CITY_X + (random.nextDouble() - 0.5) * 100000;
+                y = CITY_Y + (random.nextDouble() - 0.5) * 100000;
+            }
+
+            x += (random.nextDouble() - 0.5) * 20;
+            y += (random.nextDouble() - 0.5) * 20;
+            mMinX[i] = mMaxX[i] = x;
+            mMinY[i] = mMaxY[i] = y;
+            mTree.addItem(i, new GeoEnvelope(x, x, y, y));
+        }
+
+        mExtents = new GeoEnvelope[EXTENTS];
+        for (int i = 0; i < EXTENTS; i++) {
+            int center = random.nextInt(points);
+            mExtents[i] = new GeoEnvelope(mMinX[center] - extent / 2, mMinX[center] + extent / 2, mMinY[center] - extent / 2,
+                                          mMinY[center] + extent / 2);
+            if (mTree.search(mExtents[i]).size() != scan(mExtents[i]))
+                throw new IllegalStateException("Quadtree and scan differ for extent " + i);
+        }
+    }
+
+    private GeoEnvelope nextExtent() {
+        mNext = (mNext + 1) % EXTENTS;
+        return mExtents[mNext];
+    }
+
+    private int scan(GeoEnvelope extent) {
+        double minX = extent.getMinX(), minY = extent.getMinY(), maxX = extent.getMaxX(), maxY = extent.getMaxY();
+        int count = 0;
+        for (int i = 0; i < mMinX.length; i++)
+            if (mMinX[i] <= maxX && mMaxX[i] >= minX && mMinY[i] <= maxY && mMaxY[i] >= minY)
+                count++;
+
+        return count;
+    }
+
+    @Benchmark
+    public List<IGeometryCacheItem> quadTree() {
+        return mTree.search(nextExtent());
+    }
+
+    @Benchmark
+    public int bruteForce() {
+        return scan(nextExtent());
+    }
+}
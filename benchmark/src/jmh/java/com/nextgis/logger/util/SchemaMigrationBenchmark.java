@@ -0,0 +1,227 @@
+/*
+ * *****************************************************************************
+ * Project: NextGIS Logger
+ * Purpose: Productive data logger for Android
+ * Author:  Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2015-2016 NextGIS
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * *****************************************************************************
+ */
+
+
+package com.nextgis.logger.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size and latency of data_sensor with text columns (previous versions) and typed
+ * ones on synthetic session. Copy uses the same INSERT ... SELECT NULLIF as
+ * {@link SchemaMigration}, SQLite is used through JDBC driver here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SchemaMigrationBenchmark {
+    private static final String[] REAL = {LoggerConstants.HEADER_ACC_X, LoggerConstants.HEADER_ACC_Y, LoggerConstants.HEADER_ACC_Z,
+                                          LoggerConstants.HEADER_LINEAR_X, LoggerConstants.HEADER_LINEAR_Y, LoggerConstants.HEADER_LINEAR_Z,
+                                          LoggerConstants.HEADER_AZIMUTH, LoggerConstants.HEADER_PITCH, LoggerConstants.HEADER_ROLL,
+                                          LoggerConstants.HEADER_MAGNETIC_X, LoggerConstants.HEADER_MAGNETIC_Y, LoggerConstants.HEADER_MAGNETIC_Z,
+                                          LoggerConstants.HEADER_GYRO_X, LoggerConstants.HEADER_GYRO_Y, LoggerConstants.HEADER_GYRO_Z,
+                                          LoggerConstants.HEADER_GPS_LAT, LoggerConstants.HEADER_GPS_LON, LoggerConstants.HEADER_GPS_ALT,
+                                          LoggerConstants.HEADER_GPS_ACC, LoggerConstants.HEADER_GPS_SP, LoggerConstants.HEADER_GPS_BE};
+    private static final String[] INTEGER = {LoggerConstants.HEADER_GPS_SAT, LoggerConstants.HEADER_GPS_TIME, LoggerConstants.HEADER_AUDIO};
+    private static final String TEXT = "data_sensor";
+    private static final String TYPED = "typed.data_sensor";
+    private static final String COPY = "copy.data_sensor";
+
+    @Param({"1000000"})
+    public int rows;
+
+    private File mText, mTyped, mCopy;
+    private Connection mConnection;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, SQLException {
+        // tables are in separate files to compare their sizes
+        mText = File.createTempFile("logger", ".sqlite");
+        mTyped = File.createTempFile("logger_typed", ".sqlite");
+        mCopy = File.createTempFile("logger_copy", ".sqlite");
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + mText.getPath());
+        try (Statement statement = mConnection.createStatement()) {
+            statement.execute("ATTACH DATABASE '" + mTyped.getPath() + "' AS typed");
+            statement.execute("ATTACH DATABASE '" + mCopy.getPath() + "' AS copy");
+        }
+
+        mConnection.setAutoCommit(false);
+
+        StringBuilder text = new StringBuilder("CREATE TABLE " + TEXT + " (_id INTEGER PRIMARY KEY AUTOINCREMENT, mark TEXT");
+        StringBuilder typed = new StringBuilder(" (_id INTEGER PRIMARY KEY AUTOINCREMENT, mark TEXT");
+        StringBuilder insert = new StringBuilder("INSERT INTO " + TEXT + " VALUES (NULL, ?");
+        for (String column : REAL) {
+            text.append(", \"").append(column).append("\" TEXT");
+            typed.append(", \"").append(column).append("\" REAL");
+            insert.append(", ?");
+        }
+
+        for (String column : INTEGER) {
+            text.append(", \"").append(column).append("\" TEXT");
+            typed.append(", \"").append(column).append("\" INTEGER");
+            insert.append(", ?");
+        }
+
+        try (Statement statement = mConnection.createStatement()) {
+            statement.execute(text.append(")").toString());
+            statement.execute("CREATE TABLE " + TYPED + typed + ")");
+            statement.execute("CREATE TABLE " + COPY + typed + ")");
+        }
+
+        // values are written as SensorEngine of previous versions did, value + ""
+        Random random = new Random(42);
+        try (PreparedStatement statement = mConnection.prepareStatement(insert.append(")").toString())) {
+            for (int i = 0; i < rows; i++) {
+                int k = 1;
+                statement.setString(k++, "mark" + i / 10);
+                for (String ignored : REAL)
+                    statement.setString(k++, random.nextInt(20) == 0 ? LoggerConstants.NO_DATA : (float) (random.nextGaussian() * 10) + "");
+                for (String ignored : INTEGER)
+                    statement.setString(k++, random.nextInt(100000) + "");
+
+                statement.addBatch();
+                if (i % 10000 == 9999)
+                    statement.executeBatch();
+            }
+
+            statement.executeBatch();
+        }
+
+        mConnection.commit();
+        copy(TYPED);
+    }
+
+    /**
+     * Copy target, emptied before each migration run only
+     */
+    @State(Scope.Benchmark)
+    public static class Copy {
+        @Setup(Level.Invocation)
+        public void clear(SchemaMigrationBenchmark benchmark) throws SQLException {
+            benchmark.execute("DELETE FROM " + COPY);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        mConnection.close();
+        System.out.println("\ntext bytes: " + mText.length() + ", typed bytes: " + mTyped.length());
+
+        //noinspection ResultOfMethodCallIgnored
+        mText.delete();
+        //noinspection ResultOfMethodCallIgnored
+        mTyped.delete();
+        //noinspection ResultOfMethodCallIgnored
+        mCopy.delete();
+    }
+
+    @Benchmark
+    public void migrate(Copy state) throws SQLException {
+        copy(COPY);
+    }
+
+    private void copy(String target) throws SQLException {
+        StringBuilder values = new StringBuilder("_id, mark");
+        for (String column : REAL)
+            values.append(", NULLIF(\"").append(column).append("\", '").append(LoggerConstants.NO_DATA).append("')");
+        for (String column : INTEGER)
+            values.append(", NULLIF(\"").append(column).append("\", '").append(LoggerConstants.NO_DATA).append("')");
+
+        execute("INSERT INTO " + target + " SELECT " + values + " FROM " + TEXT + " ORDER BY _id");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public long rangeText() throws SQLException {
+        return count("SELECT COUNT(*) FROM " + TEXT + " WHERE CAST(\"" + LoggerConstants.HEADER_ACC_X + "\" AS REAL) BETWEEN 1 AND 2");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public long rangeTyped() throws SQLException {
+        return count("SELECT COUNT(*) FROM " + TYPED + " WHERE \"" + LoggerConstants.HEADER_ACC_X + "\" BETWEEN 1 AND 2");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public double readText() throws SQLException {
+        double sum = 0;
+        try (Statement statement = mConnection.createStatement();
+             ResultSet data = statement.executeQuery("SELECT \"" + LoggerConstants.HEADER_ACC_X + "\" FROM " + TEXT)) {
+            while (data.next()) {
+                String value = data.getString(1);
+                if (!LoggerConstants.NO_DATA.equals(value))
+                    sum += Double.parseDouble(value);
+            }
+        }
+
+        return sum;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public double readTyped() throws SQLException {
+        double sum = 0;
+        try (Statement statement = mConnection.createStatement();
+             ResultSet data = statement.executeQuery("SELECT \"" + LoggerConstants.HEADER_ACC_X + "\" FROM " + TYPED)) {
+            while (data.next())
+                sum += data.getDouble(1);
+        }
+
+        return sum;
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = mConnection.createStatement()) {
+            statement.execute(sql);
+        }
+
+        mConnection.commit();
+    }
+
+    private long count(String sql) throws SQLException {
+        try (Statement statement = mConnection.createStatement(); ResultSet data = statement.executeQuery(sql)) {
+            return data.next() ? data.getLong(1) : 0;
+        }
+    }
+}